@@ -1,5 +1,6 @@
 package org.shapelogic.color;
 
+import org.shapelogic.imageutil.MergeablePixelHandler;
 import org.shapelogic.imageutil.PixelArea;
 import org.shapelogic.mathematics.StorelessDiscriptiveStatistic;
 
@@ -12,7 +13,7 @@ import org.shapelogic.mathematics.StorelessDiscriptiveStatistic;
  * @author Sami Badawi
  *
  */
-public class ColorAndVariance implements IColorAndVariance {
+public class ColorAndVariance implements IColorAndVariance, MergeablePixelHandler {
 	PixelArea _pixelArea;
 	protected StorelessDiscriptiveStatistic[] _colorStatistics;
 
@@ -40,6 +41,37 @@ public class ColorAndVariance implements IColorAndVariance {
     	}
 	}
 
+	/** Empty ColorAndVariance with an empty PixelArea if this has one. */
+	@Override
+	public MergeablePixelHandler makeTileHandler() {
+		ColorAndVariance result = new ColorAndVariance();
+		if (_pixelArea != null)
+			result.setPixelArea((PixelArea)_pixelArea.makeTileHandler());
+		return result;
+	}
+
+	/** Merge the color statistics and the pixel area. */
+	@Override
+	public void mergeTileHandler(MergeablePixelHandler tileHandler) {
+		ColorAndVariance tile = (ColorAndVariance) tileHandler;
+		merge(tile);
+		if (_pixelArea != null && tile._pixelArea != null)
+			_pixelArea.merge(tile._pixelArea);
+	}
+
+	/** Same as putPixel() for each pixel in the row. */
+	@Override
+	public void handleRow(int y, int xStart, int[] colors, int length) {
+		if (_pixelArea != null)
+			_pixelArea.handleRow(y, xStart, colors, length);
+		for (int i = 0; i < length; i++) {
+			ColorUtil.splitColor(colors[i], _splitColors);
+			_colorStatistics[0].increment(_splitColors[0]);
+			_colorStatistics[1].increment(_splitColors[1]);
+			_colorStatistics[2].increment(_splitColors[2]);
+		}
+	}
+
 	@Override
 	public int getArea() {
 		return _colorStatistics[0].getCount();
@@ -59,6 +91,13 @@ public class ColorAndVariance implements IColorAndVariance {
     	}
 	}
 
+	@Override
+	public void mergeStatistics(StorelessDiscriptiveStatistic[] channelStatistics) {
+    	for (int i = 0; i < 3; i++) {
+			_colorStatistics[i].merge(channelStatistics[i]);
+    	}
+	}
+
 	/** Color vector to be used for color distance.<br />
 	 *  
 	 * Should I use the center color or the mean color?<br />
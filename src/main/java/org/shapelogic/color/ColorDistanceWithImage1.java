@@ -17,6 +17,8 @@ implements IColorDistanceWithImage {
 	@Override
 	public double distanceToReferenceColor(int x, int y) {
 		int index = x + y * _lineStride; 
+		if (_pixels == null)
+			return distanceToReferenceColor(_image.get(index) & Constants.BYTE_MASK);
 		return distanceToReferenceColor(_pixels[index] & Constants.BYTE_MASK);
 	}
 
@@ -16,6 +16,8 @@ implements IColorDistanceWithImage {
 	@Override
 	public double distanceToReferenceColor(int x, int y) {
 		int index = x + y * _lineStride; 
+		if (_pixels == null)
+			return distanceToReferenceColor(_image.get(index));
 		return distanceToReferenceColor(_pixels[index]);
 	}
 
@@ -19,13 +19,13 @@ public class ColorFactory {
 	}
 	
 	public static IColorRange makeColorRangeI(SLImage image) {
-		if (image.isGray()) return new GrayRange();
+		if (image.isGray() || image.isGray16()) return new GrayRange();
 		if (image.isRgb()) return new ColorRange();
 		return null;
 	}
 	
 	public static IColorAndVariance makeColorAndVarianceI(SLImage image) {
-		if (image.isGray()) return new GrayAndVariance();
+		if (image.isGray() || image.isGray16()) return new GrayAndVariance();
 		if (image.isRgb()) return new ColorAndVariance();
 		return null;
 	} 
@@ -41,11 +41,53 @@ public class ColorFactory {
 	}
 	
 	public static IColorDistance makeColorDistance(SLImage image) {
-		if (image.isGray()) return new ColorDistance1();
+		if (image.isGray() || image.isGray16()) return new ColorDistance1();
 		if (image.isRgb())  return  new ColorDistance1RGB();
 		return null;
 	}
 
+	/** Color distance in colorSpace, gray images always use the gray distance. */
+	public static IColorDistance makeColorDistance(SLImage image, ColorSpace colorSpace) {
+		return makeColorDistance(image, colorSpace, false);
+	}
+	
+	/** Color distance in colorSpace, with the shared 24 bit conversion cache if 
+	 * cached is set. Gray images always use the gray distance. */
+	public static IColorDistance makeColorDistance(SLImage image, ColorSpace colorSpace, 
+			boolean cached) {
+		if (image.isRgb()) {
+			ColorSpaceDistance result = makeColorSpaceDistance(colorSpace, cached);
+			if (result != null)
+				return result;
+		}
+		return makeColorDistance(image);
+	}
+	
+	/** Distance for LAB and HSV, null for RGB. */
+	public static ColorSpaceDistance makeColorSpaceDistance(ColorSpace colorSpace, 
+			boolean cached) {
+		switch (colorSpace) {
+		case LAB:
+			return new LabColorDistance(cached);
+		case HSV:
+			return new HSVColorDistance(cached);
+		default:
+			return null;
+		}
+	}
+
+	public static IColorDistanceWithImage makeColorDistanceWithImage(SLImage image, 
+			ColorSpace colorSpace, boolean cached) {
+		if (image.isRgb()) {
+			ColorSpaceDistance result = makeColorSpaceDistance(colorSpace, cached);
+			if (result != null) {
+				result.setImage(image);
+				return result;
+			}
+		}
+		return makeColorDistanceWithImage(image);
+	}
+
 	public static IColorDistanceWithImage makeColorDistanceWithImage(SLImage image) {
 		IColorDistanceWithImage result;
 		if (image.isGray()) {
@@ -0,0 +1,248 @@
+package org.shapelogic.color;
+
+import org.shapelogic.imageutil.MergeablePixelHandler;
+import org.shapelogic.imageutil.PixelArea;
+import org.shapelogic.mathematics.StorelessDiscriptiveStatistic;
+
+/** Color histogram with statistics for each bin.<br />
+ *
+ * For gray there is a bin for each of the 256 values, or each of the 65536
+ * values for 16 bit gray. For RGB the colors are
+ * quantized to bitsPerChannel bits per channel, so with 5 bits there are
+ * 32768 bins.<br />
+ *
+ * Each bin keeps the number of pixels, the sum and sum of squares of each
+ * channel, the sum of the coordinates, the bounding box and the first pixel in
+ * scan order, so a bin can be turned into an IColorAndVariance with a
+ * PixelArea without going over the pixels again.<br />
+ *
+ * The histogram is a MergeablePixelHandler, so it can be filled in parallel
+ * with PixelAreaHandler.handleAllPixelsParallel().<br />
+ *
+ * @author Sami Badawi
+ *
+ */
+public class ColorHistogram implements MergeablePixelHandler {
+	public static final int DEFAULT_BITS_PER_CHANNEL = 5;
+	public static final int GRAY16_BITS = 16;
+
+	protected boolean _gray;
+	protected int _bitsPerChannel;
+	protected int _grayMask;
+	protected int _shift;
+	protected int _numberOfChannels;
+	protected int _numberOfBins;
+	protected int _pixelCount;
+
+	protected int[] _count;
+	protected double[][] _sum;
+	protected double[][] _sumSquare;
+	protected double[] _sumX;
+	protected double[] _sumY;
+	protected int[] _minX, _maxX, _minY, _maxY;
+	protected int[] _firstX, _firstY;
+	protected int[] _splitColors = new int[3];
+
+	/** @param gray16 16 bit gray, bitsPerChannel is only used for RGB */
+	public ColorHistogram(boolean gray, boolean gray16, int bitsPerChannel) {
+		_gray = gray || gray16;
+		_bitsPerChannel = gray16 ? GRAY16_BITS : gray ? 8 : bitsPerChannel;
+		_shift = _gray ? 0 : 8 - _bitsPerChannel;
+		_grayMask = _gray ? (1 << _bitsPerChannel) - 1 : 0;
+		_numberOfChannels = _gray ? 1 : 3;
+		_numberOfBins = 1 << (_bitsPerChannel * _numberOfChannels);
+		_count = new int[_numberOfBins];
+		_sum = new double[_numberOfChannels][_numberOfBins];
+		_sumSquare = new double[_numberOfChannels][_numberOfBins];
+		_sumX = new double[_numberOfBins];
+		_sumY = new double[_numberOfBins];
+		_minX = new int[_numberOfBins];
+		_maxX = new int[_numberOfBins];
+		_minY = new int[_numberOfBins];
+		_maxY = new int[_numberOfBins];
+		_firstX = new int[_numberOfBins];
+		_firstY = new int[_numberOfBins];
+	}
+
+	public ColorHistogram(boolean gray, int bitsPerChannel) {
+		this(gray, false, bitsPerChannel);
+	}
+
+	public ColorHistogram(boolean gray) {
+		this(gray, DEFAULT_BITS_PER_CHANNEL);
+	}
+
+	/** Bin of a gray value or a packed RGB color. */
+	public int binIndex(int color) {
+		if (_gray)
+			return color & _grayMask;
+		ColorUtil.splitColor(color, _splitColors);
+		return ((_splitColors[0] >> _shift) << (2 * _bitsPerChannel)) |
+			((_splitColors[1] >> _shift) << _bitsPerChannel) |
+			(_splitColors[2] >> _shift);
+	}
+
+	@Override
+	public void putPixel(int x, int y, int color) {
+		int bin = binIndex(color);
+		int count = _count[bin]++;
+		if (count == 0) {
+			_minX[bin] = x;
+			_maxX[bin] = x;
+			_minY[bin] = y;
+			_maxY[bin] = y;
+			_firstX[bin] = x;
+			_firstY[bin] = y;
+		}
+		else {
+			if (x < _minX[bin]) _minX[bin] = x;
+			if (_maxX[bin] < x) _maxX[bin] = x;
+			if (y < _minY[bin]) _minY[bin] = y;
+			if (_maxY[bin] < y) _maxY[bin] = y;
+		}
+		_sumX[bin] += x;
+		_sumY[bin] += y;
+		if (_gray) {
+			int value = color & _grayMask;
+			_sum[0][bin] += value;
+			_sumSquare[0][bin] += (double)value * value;
+		}
+		else {
+			for (int c = 0; c < 3; c++) {
+				int value = _splitColors[c];
+				_sum[c][bin] += value;
+				_sumSquare[c][bin] += value * value;
+			}
+		}
+		_pixelCount++;
+	}
+
+	@Override
+	public void handleRow(int y, int xStart, int[] colors, int length) {
+		for (int i = 0; i < length; i++)
+			putPixel(xStart + i, y, colors[i]);
+	}
+
+	@Override
+	public MergeablePixelHandler makeTileHandler() {
+		return new ColorHistogram(_gray, isGray16(), _bitsPerChannel);
+	}
+
+	/** Add the bins, the first pixel is the one first in scan order. */
+	@Override
+	public void mergeTileHandler(MergeablePixelHandler tileHandler) {
+		ColorHistogram tile = (ColorHistogram) tileHandler;
+		for (int bin = 0; bin < _numberOfBins; bin++) {
+			if (tile._count[bin] == 0)
+				continue;
+			if (_count[bin] == 0) {
+				_minX[bin] = tile._minX[bin];
+				_maxX[bin] = tile._maxX[bin];
+				_minY[bin] = tile._minY[bin];
+				_maxY[bin] = tile._maxY[bin];
+				_firstX[bin] = tile._firstX[bin];
+				_firstY[bin] = tile._firstY[bin];
+			}
+			else {
+				_minX[bin] = Math.min(_minX[bin], tile._minX[bin]);
+				_maxX[bin] = Math.max(_maxX[bin], tile._maxX[bin]);
+				_minY[bin] = Math.min(_minY[bin], tile._minY[bin]);
+				_maxY[bin] = Math.max(_maxY[bin], tile._maxY[bin]);
+				if (tile._firstY[bin] < _firstY[bin] || (tile._firstY[bin] == _firstY[bin] &&
+						tile._firstX[bin] < _firstX[bin])) {
+					_firstX[bin] = tile._firstX[bin];
+					_firstY[bin] = tile._firstY[bin];
+				}
+			}
+			_count[bin] += tile._count[bin];
+			_sumX[bin] += tile._sumX[bin];
+			_sumY[bin] += tile._sumY[bin];
+			for (int c = 0; c < _numberOfChannels; c++) {
+				_sum[c][bin] += tile._sum[c][bin];
+				_sumSquare[c][bin] += tile._sumSquare[c][bin];
+			}
+		}
+		_pixelCount += tile._pixelCount;
+	}
+
+	/** Mean color of a bin, gray value or packed RGB. */
+	public int getMeanColor(int bin) {
+		int count = _count[bin];
+		if (count == 0)
+			return 0;
+		if (_gray)
+			return (int)Math.round(_sum[0][bin] / count);
+		return ColorUtil.packColors(
+				(int)Math.round(_sum[0][bin] / count),
+				(int)Math.round(_sum[1][bin] / count),
+				(int)Math.round(_sum[2][bin] / count));
+	}
+
+	/** Add the pixels in bin to colorAndVariance and its PixelArea.<br />
+	 *
+	 * For RGB the min and max of each channel are the limits of the bin.
+	 */
+	public void addBinTo(int bin, IColorAndVariance colorAndVariance) {
+		int count = _count[bin];
+		if (count == 0)
+			return;
+		StorelessDiscriptiveStatistic[] statistics =
+			new StorelessDiscriptiveStatistic[_numberOfChannels];
+		for (int c = 0; c < _numberOfChannels; c++) {
+			int min, max;
+			if (_gray) {
+				min = bin;
+				max = bin;
+			}
+			else {
+				int binValue = (bin >> ((2 - c) * _bitsPerChannel)) & ((1 << _bitsPerChannel) - 1);
+				min = binValue << _shift;
+				max = min + (1 << _shift) - 1;
+			}
+			statistics[c] = new StorelessDiscriptiveStatistic(count, _sum[c][bin],
+					_sumSquare[c][bin], min, max);
+		}
+		colorAndVariance.mergeStatistics(statistics);
+		PixelArea pixelArea = colorAndVariance.getPixelArea();
+		if (pixelArea != null)
+			pixelArea.addPoints(count, _sumX[bin], _sumY[bin],
+					_minX[bin], _minY[bin], _maxX[bin], _maxY[bin]);
+	}
+
+	public int getCount(int bin) {
+		return _count[bin];
+	}
+
+	public int getFirstX(int bin) {
+		return _firstX[bin];
+	}
+
+	public int getFirstY(int bin) {
+		return _firstY[bin];
+	}
+
+	public int getNumberOfChannels() {
+		return _numberOfChannels;
+	}
+
+	public int getNumberOfBins() {
+		return _numberOfBins;
+	}
+
+	/** Number of pixels added. */
+	public int getPixelCount() {
+		return _pixelCount;
+	}
+
+	public boolean isGray() {
+		return _gray;
+	}
+
+	public boolean isGray16() {
+		return _gray && _bitsPerChannel == GRAY16_BITS;
+	}
+
+	public int getBitsPerChannel() {
+		return _bitsPerChannel;
+	}
+}
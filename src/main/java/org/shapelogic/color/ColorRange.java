@@ -1,5 +1,8 @@
 package org.shapelogic.color;
 
+import org.shapelogic.imageutil.MergeablePixelHandler;
+import org.shapelogic.imageutil.PixelArea;
+
 /** GrayRange describes a range of colors in the Gray 8 bit.
  * <br />
  * Used for color clustering, and particle counter.<br />
@@ -70,6 +73,25 @@ public class ColorRange extends ColorAndVariance implements IColorRange {
 		
 	}
 
+	/** Empty ColorRange with the same range. */
+	@Override
+	public MergeablePixelHandler makeTileHandler() {
+		ColorRange result = new ColorRange();
+		initTile(result);
+		return result;
+	}
+
+	/** Copy the range and an empty PixelArea to a tile. */
+	protected void initTile(ColorRange tile) {
+		tile._colorCenter = _colorCenter;
+		System.arraycopy(_colorCenterInChannels, 0, tile._colorCenterInChannels, 0, 
+				_colorCenterInChannels.length);
+		tile._maxDistance = _maxDistance;
+		tile._distance = _distance;
+		tile._frozen = _frozen;
+		tile._pixelArea = _pixelArea == null ? null : (PixelArea)_pixelArea.makeTileHandler();
+	}
+
 	@Override
 	public IColorDistance getDistance() {
 		return _distance;
@@ -0,0 +1,240 @@
+package org.shapelogic.color;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Lookup table from a color to the index of a color range in a
+ * ColorHypothesis.<br />
+ *
+ * For RGB the color is cut to bitsPerChannel bits per channel, 5 gives a
+ * 15 bit table with 32768 entries and 6 an 18 bit table with 262144 entries.
+ * For gray there is an entry for each of the 256 values, or each of the 65536
+ * values for 16 bit gray.<br />
+ *
+ * Each entry covers a small cube of colors. When the table is made the 
+ * nearest and farthest color in the cube are tested against each color range,
+ * so an entry is only set if the whole cube gets the same answer. After that
+ * classifying a pixel is a shift and mask and an array load, instead of 
+ * splitting the color and calling colorInRange() or a IColorDistance for 
+ * each color in the hypothesis.<br />
+ *
+ * Cubes on the edge of a range are marked AMBIGUOUS, for these the pixel 
+ * is tested against the colors as before, so the result is the same as 
+ * without the table. This works for distances that grow with the difference
+ * in each channel, like ColorDistance1.<br />
+ *
+ * @author Sami Badawi
+ *
+ */
+public class ColorRangeLookupTable {
+	public static final int NO_RANGE = -1;
+	public static final int DEFAULT_BITS_PER_CHANNEL = 5;
+	public static final int GRAY16_BITS = 16;
+	protected static final short AMBIGUOUS = -2;
+
+	protected boolean _gray;
+	protected int _bitsPerChannel;
+	protected int _grayMask;
+	protected int _redShift, _greenShift, _blueShift;
+	protected int _redMask, _greenMask, _blueMask;
+	protected short[] _table;
+	protected List<IColorAndVariance> _colors;
+	protected IColorDistance[] _distances;
+	protected double[] _maxDistances;
+	protected int[][] _centerChannels;
+	protected int _numberOfAmbiguous;
+
+	/** Entry is the first color in range with IColorRange.colorInRange(). */
+	public ColorRangeLookupTable(ColorHypothesis colorHypothesis, boolean gray,
+			int bitsPerChannel) {
+		this(colorHypothesis, gray, bitsPerChannel, null, 0.);
+	}
+
+	/** Entry is the first color with distance to the color channels of the
+	 * color at most maxDistance.<br />
+	 *
+	 * If distance is null IColorRange.colorInRange() is used instead.
+	 */
+	public ColorRangeLookupTable(ColorHypothesis colorHypothesis, boolean gray,
+			int bitsPerChannel, IColorDistance distance, double maxDistance) {
+		this(colorHypothesis, gray, false, bitsPerChannel, distance, maxDistance);
+	}
+
+	/** @param gray16 16 bit gray, bitsPerChannel is only used for RGB */
+	public ColorRangeLookupTable(ColorHypothesis colorHypothesis, boolean gray,
+			boolean gray16, int bitsPerChannel, IColorDistance distance, double maxDistance) {
+		_gray = gray || gray16;
+		_bitsPerChannel = gray16 ? GRAY16_BITS : gray ? 8 : bitsPerChannel;
+		_grayMask = _gray ? (1 << _bitsPerChannel) - 1 : 0;
+		int bits = _bitsPerChannel;
+		int mask = (1 << bits) - 1;
+		_redShift = 24 - 3 * bits;
+		_greenShift = 16 - 2 * bits;
+		_blueShift = 8 - bits;
+		_redMask = mask << (2 * bits);
+		_greenMask = mask << bits;
+		_blueMask = mask;
+		_colors = new ArrayList<IColorAndVariance>(colorHypothesis.getColors());
+		if (Short.MAX_VALUE < _colors.size())
+			throw new IllegalArgumentException("Too many colors: " + _colors.size());
+		initDistances(distance, maxDistance);
+		_table = new short[_gray ? 1 << bits : 1 << (3 * bits)];
+		fillTable();
+	}
+
+	public ColorRangeLookupTable(ColorHypothesis colorHypothesis, boolean gray) {
+		this(colorHypothesis, gray, DEFAULT_BITS_PER_CHANNEL);
+	}
+
+	/** Center, distance and max distance used for each color. */
+	protected void initDistances(IColorDistance distance, double maxDistance) {
+		int numberOfColors = _colors.size();
+		_distances = new IColorDistance[numberOfColors];
+		_maxDistances = new double[numberOfColors];
+		_centerChannels = new int[numberOfColors][];
+		for (int i = 0; i < numberOfColors; i++) {
+			IColorAndVariance colorI = _colors.get(i);
+			if (distance != null) {
+				_distances[i] = distance;
+				_maxDistances[i] = maxDistance;
+				_centerChannels[i] = colorI.getColorChannels();
+			}
+			else if (colorI instanceof IColorRange) {
+				IColorRange colorRange = (IColorRange) colorI;
+				_distances[i] = colorRange.getDistance();
+				if (_distances[i] == null)
+					_distances[i] = ColorDistance1.INSTANCE;
+				_maxDistances[i] = colorRange.getMaxDistance();
+				_centerChannels[i] = splitColor(colorRange.getColorCenter(), 
+						new int[_gray ? 1 : 3]);
+			}
+			else //never in range
+				_maxDistances[i] = -1.;
+		}
+	}
+
+	protected void fillTable() {
+		int channels = _gray ? 1 : 3;
+		int[] low = new int[channels];
+		int[] high = new int[channels];
+		int[] nearest = new int[channels];
+		int[] farthest = new int[channels];
+		int cubeSize = _gray ? 0 : (1 << (8 - _bitsPerChannel)) - 1;
+		for (int entry = 0; entry < _table.length; entry++) {
+			splitColor(lowColor(entry), low);
+			for (int c = 0; c < channels; c++)
+				high[c] = low[c] + cubeSize;
+			short result = NO_RANGE;
+			for (int i = 0; i < _colors.size(); i++) {
+				if (_distances[i] == null)
+					continue;
+				int[] center = _centerChannels[i];
+				for (int c = 0; c < channels; c++) {
+					nearest[c] = Math.max(low[c], Math.min(high[c], center[c]));
+					farthest[c] = center[c] - low[c] < high[c] - center[c] ? high[c] : low[c];
+				}
+				if (_maxDistances[i] < _distances[i].distance(center, nearest))
+					continue; //the whole cube is outside
+				if (_distances[i].distance(center, farthest) <= _maxDistances[i])
+					result = (short) i; //the whole cube is inside
+				else {
+					result = AMBIGUOUS;
+					_numberOfAmbiguous++;
+				}
+				break;
+			}
+			_table[entry] = result;
+		}
+	}
+
+	/** Index of the first color with color in range, tested one by one.<br />
+	 *
+	 * The channels are split into a local array, so the table is not changed
+	 * after it is made and can be shared by segmentation threads.
+	 */
+	protected int findRangeIndex(int color) {
+		int[] channels = splitColor(color, new int[3]);
+		for (int i = 0; i < _colors.size(); i++) {
+			if (_distances[i] != null && 
+					_distances[i].distance(_centerChannels[i], channels) <= _maxDistances[i])
+				return i;
+		}
+		return NO_RANGE;
+	}
+
+	protected int[] splitColor(int color, int[] channels) {
+		if (_gray)
+			channels[0] = color & _grayMask;
+		else
+			ColorUtil.splitColor(color, channels);
+		return channels;
+	}
+
+	/** Lowest color in the cube of colors that share the entry. */
+	protected int lowColor(int entry) {
+		if (_gray)
+			return entry;
+		int bits = _bitsPerChannel;
+		int mask = (1 << bits) - 1;
+		int shift = 8 - bits;
+		int red = ((entry >> (2 * bits)) & mask) << shift;
+		int green = ((entry >> bits) & mask) << shift;
+		int blue = (entry & mask) << shift;
+		return ColorUtil.packColors(red, green, blue);
+	}
+
+	/** Entry in the table for a gray value or a packed RGB color. */
+	public int entry(int color) {
+		if (_gray)
+			return color & _grayMask;
+		return ((color >> _redShift) & _redMask) |
+			((color >> _greenShift) & _greenMask) |
+			((color >> _blueShift) & _blueMask);
+	}
+
+	/** Index of the color range in the hypothesis, or NO_RANGE. */
+	public int rangeIndex(int color) {
+		int index = _table[entry(color)];
+		if (index == AMBIGUOUS)
+			return findRangeIndex(color);
+		return index;
+	}
+
+	/** The color range for color, or null. */
+	public IColorAndVariance getColor(int color) {
+		int index = rangeIndex(color);
+		if (index == NO_RANGE)
+			return null;
+		return _colors.get(index);
+	}
+
+	/** Index of a color in the hypothesis, NO_RANGE if it is not there. */
+	public int indexOf(IColorAndVariance color) {
+		return _colors.indexOf(color);
+	}
+
+	public List<IColorAndVariance> getColors() {
+		return _colors;
+	}
+
+	public int getBitsPerChannel() {
+		return _bitsPerChannel;
+	}
+
+	public boolean isGray() {
+		return _gray;
+	}
+
+	public boolean isGray16() {
+		return _gray && _bitsPerChannel == GRAY16_BITS;
+	}
+
+	/** Number of entries on the edge of a range, where the colors are tested. */
+	public int getNumberOfAmbiguous() {
+		return _numberOfAmbiguous;
+	}
+
+	public int size() {
+		return _table.length;
+	}
+}
@@ -0,0 +1,19 @@
+package org.shapelogic.color;
+
+/** Color spaces that ColorFactory can make color distances for.<br />
+ * 
+ * The pixels stay packed RGB, LAB and HSV distances convert the colors 
+ * when they are compared.<br />
+ * 
+ * @author Sami Badawi
+ *
+ */
+public enum ColorSpace {
+	RGB,
+	
+	/** CIELAB with D65 white, the distance is Delta E 1976. */
+	LAB,
+	
+	HSV,
+	;
+}
@@ -0,0 +1,125 @@
+package org.shapelogic.color;
+
+import org.shapelogic.imageutil.SLImage;
+
+/** Base for color distances that convert packed RGB to another color space 
+ * before comparing.<br />
+ * 
+ * The converted color is packed with 8 bits per channel. If a cache is used 
+ * each of the 2^24 RGB colors is converted the first time it is seen and
+ * then looked up, so after a while a distance costs about the same as in RGB.
+ * The cache takes 64MB, so it is shared by all distances of the same type.
+ * <br />
+ * 
+ * The channels given to distance(int[], int[]) are RGB or gray channels like 
+ * for the other color distances, so this can be used where a ColorDistance1RGB
+ * is used today.<br />
+ * 
+ * @author Sami Badawi
+ *
+ */
+public abstract class ColorSpaceDistance implements IColorDistanceWithImage {
+	public static final int CACHE_SIZE = 1 << 24;
+	/** Set in a cache entry that has been converted. */
+	protected static final int CONVERTED = 1 << 24;
+	protected static final int CHANNEL_MASK = 0xffffff;
+
+	protected int[] _cache;
+	protected int _referenceColor;
+	protected int _referenceConverted;
+	protected SLImage _image;
+	protected int[] _pixels;
+	protected int _lineStride;
+
+	/** @param cache array of CACHE_SIZE or null for no cache */
+	protected ColorSpaceDistance(int[] cache) {
+		_cache = cache;
+	}
+
+	/** Convert packed RGB to packed channels in this color space. */
+	protected abstract int convert(int rgb);
+
+	/** Distance between 2 colors returned by convert(). */
+	protected abstract double convertedDistance(int converted1, int converted2);
+
+	/** Packed channels in this color space for a packed RGB color. */
+	public int toColorSpace(int rgb) {
+		rgb &= CHANNEL_MASK;
+		if (_cache == null)
+			return convert(rgb);
+		int value = _cache[rgb];
+		if (value == 0) {
+			value = convert(rgb) | CONVERTED;
+			_cache[rgb] = value;
+		}
+		return value & CHANNEL_MASK;
+	}
+
+	@Override
+	public double distance(int color1, int color2) {
+		return convertedDistance(toColorSpace(color1), toColorSpace(color2));
+	}
+
+	@Override
+	public double distance(int[] color1, int[] color2) {
+		return distance(packChannels(color1), packChannels(color2));
+	}
+
+	@Override
+	public double distance(ColorChannels colorV1, ColorChannels colorV2) {
+		return distance(colorV1.getColorChannels(), colorV2.getColorChannels());
+	}
+
+	@Override
+	public void setReferenceColor(int color) {
+		_referenceColor = color;
+		_referenceConverted = toColorSpace(color);
+	}
+
+	@Override
+	public double distanceToReferenceColor(int color) {
+		return convertedDistance(_referenceConverted, toColorSpace(color));
+	}
+
+	@Override
+	public double distanceToReferenceColor(int x, int y) {
+		if (_pixels != null)
+			return distanceToReferenceColor(_pixels[x + y * _lineStride]);
+		return distanceToReferenceColor(_image.get(x, y));
+	}
+
+	@Override
+	public SLImage getImage() {
+		return _image;
+	}
+
+	@Override
+	public void setImage(SLImage image) {
+		_image = image;
+		if (!image.isRgb())
+			throw new RuntimeException("Input image is not of type RGB.");
+		Object pixels = image.getPixels();
+		_pixels = pixels instanceof int[] ? (int[])pixels : null;
+		_lineStride = _image.getLineStride();
+	}
+
+	public boolean isCached() {
+		return _cache != null;
+	}
+
+	/** Gray channels are turned into a gray RGB color. */
+	protected static int packChannels(int[] channels) {
+		if (channels.length == 1)
+			return ColorUtil.grayToRGB(channels[0]);
+		return ColorUtil.packColors(channels);
+	}
+
+	protected static int clampToByte(double value) {
+		int result = (int)Math.round(value);
+		if (result < 0)
+			return 0;
+		if (255 < result)
+			return 255;
+		return result;
+	}
+}
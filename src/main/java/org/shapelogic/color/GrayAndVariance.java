@@ -1,5 +1,6 @@
 package org.shapelogic.color;
 
+import org.shapelogic.imageutil.MergeablePixelHandler;
 import org.shapelogic.imageutil.PixelArea;
 import org.shapelogic.mathematics.StorelessDiscriptiveStatistic;
 
@@ -10,7 +11,7 @@ import org.shapelogic.mathematics.StorelessDiscriptiveStatistic;
  * @author Sami Badawi
  *
  */
-public class GrayAndVariance implements IColorAndVariance {
+public class GrayAndVariance implements IColorAndVariance, MergeablePixelHandler {
 
     PixelArea _pixelArea;
 	
@@ -38,6 +39,39 @@ public class GrayAndVariance implements IColorAndVariance {
 			_minColor = color;
 	}
 
+	/** Empty GrayAndVariance with an empty PixelArea if this has one. */
+	@Override
+	public MergeablePixelHandler makeTileHandler() {
+		GrayAndVariance result = new GrayAndVariance();
+		if (_pixelArea != null)
+			result.setPixelArea((PixelArea)_pixelArea.makeTileHandler());
+		return result;
+	}
+
+	/** Merge the color statistics and the pixel area. */
+	@Override
+	public void mergeTileHandler(MergeablePixelHandler tileHandler) {
+		GrayAndVariance tile = (GrayAndVariance) tileHandler;
+		merge(tile);
+		if (_pixelArea != null && tile._pixelArea != null)
+			_pixelArea.merge(tile._pixelArea);
+	}
+
+	/** Same as putPixel() for each pixel in the row. */
+	@Override
+	public void handleRow(int y, int xStart, int[] colors, int length) {
+		if (_pixelArea != null)
+			_pixelArea.handleRow(y, xStart, colors, length);
+		for (int i = 0; i < length; i++) {
+			int color = colors[i];
+			_grayStatistic.increment(color);
+			if (_maxColor < color)
+				_maxColor = color;
+			if (color < _minColor)
+				_minColor = color;
+		}
+	}
+
 	@Override
 	public int getArea() {
 		return _grayStatistic.getCount();
@@ -59,6 +93,18 @@ public class GrayAndVariance implements IColorAndVariance {
 			return;
 		GrayAndVariance grayRange = (GrayAndVariance) colorAndVariance;
 		_grayStatistic.merge(grayRange._grayStatistic);
+		_minColor = Math.min(_minColor, grayRange._minColor);
+		_maxColor = Math.max(_maxColor, grayRange._maxColor);
+	}
+
+	@Override
+	public void mergeStatistics(StorelessDiscriptiveStatistic[] channelStatistics) {
+		StorelessDiscriptiveStatistic statistic = channelStatistics[0];
+		_grayStatistic.merge(statistic);
+		if (0 < statistic.getCount()) {
+			_minColor = Math.min(_minColor, (int)statistic.getMin());
+			_maxColor = Math.max(_maxColor, (int)statistic.getMax());
+		}
 	}
 
 	/** Color vector to be used for color distance.<br />
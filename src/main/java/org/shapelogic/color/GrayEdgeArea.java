@@ -1,5 +1,6 @@
 package org.shapelogic.color;
 
+import org.shapelogic.imageutil.MergeablePixelHandler;
 import org.shapelogic.imageutil.PixelArea;
 import org.shapelogic.mathematics.ArrayOperations;
 
@@ -46,6 +47,15 @@ public class GrayEdgeArea extends GrayRange implements IColorEdgeArea {
 		_lastY = y;
 	}
 
+	@Override
+	public void handleRow(int y, int xStart, int[] colors, int length) {
+		super.handleRow(y, xStart, colors, length);
+		if (0 < length) {
+			_lastX = xStart + length - 1;
+			_lastY = y;
+		}
+	}
+
 	@Override
 	public void merge(IColorAndVariance colorAndVariance) {
 		super.merge(colorAndVariance);
@@ -56,6 +66,27 @@ public class GrayEdgeArea extends GrayRange implements IColorEdgeArea {
 		return _pixelArea;
 	}
     
+	/** Empty GrayEdgeArea with the same range. */
+	@Override
+	public MergeablePixelHandler makeTileHandler() {
+		GrayEdgeArea result = new GrayEdgeArea(0, 0, _colorCenter);
+		initTile(result);
+		return result;
+	}
+
+	/** Also add the borders and keep the last pixel in scan order. */
+	@Override
+	public void mergeTileHandler(MergeablePixelHandler tileHandler) {
+		super.mergeTileHandler(tileHandler);
+		GrayEdgeArea tile = (GrayEdgeArea) tileHandler;
+		for (int i = 0; i < _borderCount.length; i++)
+			_borderCount[i] += tile._borderCount[i];
+		if (_lastY < tile._lastY || (_lastY == tile._lastY && _lastX < tile._lastX)) {
+			_lastX = tile._lastX;
+			_lastY = tile._lastY;
+		}
+	}
+
 	@Override
 	public int getAllContrastBorders() {
 		return (int) ArrayOperations.sum(_borderCount);
@@ -1,5 +1,8 @@
 package org.shapelogic.color;
 
+import org.shapelogic.imageutil.MergeablePixelHandler;
+import org.shapelogic.imageutil.PixelArea;
+
 /** GrayRange describes a range of colors in the Gray 8 bit.
  * <br />
  * Used for color clustering, and particle counter.<br />
@@ -73,6 +76,23 @@ public class GrayRange extends GrayAndVariance implements IColorRange {
 		
 	}
 	
+	/** Empty GrayRange with the same range. */
+	@Override
+	public MergeablePixelHandler makeTileHandler() {
+		GrayRange result = new GrayRange();
+		initTile(result);
+		return result;
+	}
+
+	/** Copy the range and an empty PixelArea to a tile. */
+	protected void initTile(GrayRange tile) {
+		tile._colorCenter = _colorCenter;
+		tile._maxDistance = _maxDistance;
+		tile._distance = _distance;
+		tile._frozen = _frozen;
+		tile._pixelArea = _pixelArea == null ? null : (PixelArea)_pixelArea.makeTileHandler();
+	}
+
 	@Override
 	public IColorDistance getDistance() {
 		return _distance;
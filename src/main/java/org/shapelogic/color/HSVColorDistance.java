@@ -0,0 +1,70 @@
+package org.shapelogic.color;
+
+/** Color distance in HSV.<br />
+ * 
+ * The converted color is packed as hue, saturation and value, each 0 - 255,
+ * a hue of 256 is a full turn.<br />
+ * 
+ * Like ColorDistance1 the distance is the 1 norm divided by 3. The hue 
+ * difference goes the short way around and is doubled, so opposite hues count
+ * like a full channel. It is weighted by the smaller chroma, max - min of the
+ * RGB channels, so the hue of grays and dark colors, that is mostly noise, 
+ * counts little.<br />
+ * 
+ * @author Sami Badawi
+ *
+ */
+public class HSVColorDistance extends ColorSpaceDistance {
+	private static int[] _sharedCache;
+
+	public HSVColorDistance(boolean useCache) {
+		super(useCache ? sharedCache() : null);
+	}
+
+	public HSVColorDistance() {
+		this(false);
+	}
+
+	protected static synchronized int[] sharedCache() {
+		if (_sharedCache == null)
+			_sharedCache = new int[CACHE_SIZE];
+		return _sharedCache;
+	}
+
+	@Override
+	protected int convert(int rgb) {
+		int red = (rgb >> ColorUtil.RED_OFFSET) & 0xff;
+		int green = (rgb >> ColorUtil.GREEN_OFFSET) & 0xff;
+		int blue = rgb & 0xff;
+		int max = Math.max(red, Math.max(green, blue));
+		int min = Math.min(red, Math.min(green, blue));
+		int chroma = max - min;
+		int saturation = max == 0 ? 0 : (255 * chroma + max / 2) / max;
+		int hue = 0;
+		if (chroma != 0) {
+			double sector;
+			if (max == red)
+				sector = (green - blue) / (double)chroma;
+			else if (max == green)
+				sector = 2. + (blue - red) / (double)chroma;
+			else
+				sector = 4. + (red - green) / (double)chroma;
+			hue = (int)Math.round(sector * 256. / 6.) & 0xff;
+		}
+		return (hue << 16) | (saturation << 8) | max;
+	}
+
+	@Override
+	protected double convertedDistance(int converted1, int converted2) {
+		int value1 = converted1 & 0xff;
+		int value2 = converted2 & 0xff;
+		int saturation1 = (converted1 >> 8) & 0xff;
+		int saturation2 = (converted2 >> 8) & 0xff;
+		int hueDiff = Math.abs(((converted1 >> 16) & 0xff) - ((converted2 >> 16) & 0xff));
+		if (128 < hueDiff)
+			hueDiff = 256 - hueDiff;
+		double chroma = Math.min(saturation1 * value1, saturation2 * value2) / 255.;
+		return (2 * hueDiff * chroma / 255. + Math.abs(saturation1 - saturation2) + 
+				Math.abs(value1 - value2)) / 3.;
+	}
+}
@@ -2,7 +2,8 @@ package org.shapelogic.color;
 
 import org.shapelogic.imageutil.HasArea;
 import org.shapelogic.imageutil.HasPixelArea;
-import org.shapelogic.imageutil.PixelHandler;
+import org.shapelogic.imageutil.RowPixelHandler;
+import org.shapelogic.mathematics.StorelessDiscriptiveStatistic;
 
 /** ColorAndVarianceI is a color aggregate with a mean color and a standard deviation.<br />
  *  
@@ -11,13 +12,17 @@ import org.shapelogic.imageutil.PixelHandler;
  * @author Sami Badawi
  *
  */
-public interface IColorAndVariance extends PixelHandler, ColorChannels, HasArea,
+public interface IColorAndVariance extends RowPixelHandler, ColorChannels, HasArea,
         HasPixelArea
 {
 	
 	/** */
 	void merge(IColorAndVariance colorAndVariance);
 	
+	/** Add colors that have already been summed up, one statistic per 
+	 * color channel. The pixel area is not changed. */
+	void mergeStatistics(StorelessDiscriptiveStatistic[] channelStatistics);
+	
 	double getStandardDeviation();
 	
 	int getMeanColor();
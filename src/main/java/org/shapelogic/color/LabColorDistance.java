@@ -0,0 +1,98 @@
+package org.shapelogic.color;
+
+/** Color distance in CIELAB, Delta E 1976.<br />
+ * 
+ * RGB is taken to be sRGB with D65 white. The gamma is removed with a table 
+ * with an entry for each of the 256 channel values.<br />
+ * 
+ * The converted color is packed as L scaled to 0 - 255, and a and b plus 128,
+ * so L is kept to 0.4 and a and b to 1.<br />
+ * 
+ * @author Sami Badawi
+ *
+ */
+public class LabColorDistance extends ColorSpaceDistance {
+	/** Linear light for each sRGB channel value. */
+	protected static final double[] LINEAR = new double[256];
+	protected static final double L_SCALE = 2.55;
+	protected static final double EPSILON = 216. / 24389.;
+	protected static final double KAPPA = 24389. / 27.;
+	protected static final double WHITE_X = 0.95047;
+	protected static final double WHITE_Z = 1.08883;
+
+	static {
+		for (int i = 0; i < 256; i++) {
+			double c = i / 255.;
+			LINEAR[i] = c <= 0.04045 ? c / 12.92 : Math.pow((c + 0.055) / 1.055, 2.4);
+		}
+	}
+
+	private static int[] _sharedCache;
+
+	public LabColorDistance(boolean useCache) {
+		super(useCache ? sharedCache() : null);
+	}
+
+	public LabColorDistance() {
+		this(false);
+	}
+
+	protected static synchronized int[] sharedCache() {
+		if (_sharedCache == null)
+			_sharedCache = new int[CACHE_SIZE];
+		return _sharedCache;
+	}
+
+	/** Put L, a and b for a packed RGB color in lab. */
+	public static void toLab(int rgb, double[] lab) {
+		double red = LINEAR[(rgb >> ColorUtil.RED_OFFSET) & 0xff];
+		double green = LINEAR[(rgb >> ColorUtil.GREEN_OFFSET) & 0xff];
+		double blue = LINEAR[rgb & 0xff];
+		double fx = fx(red, green, blue);
+		double fy = fy(red, green, blue);
+		double fz = fz(red, green, blue);
+		lab[0] = 116. * fy - 16.;
+		lab[1] = 500. * (fx - fy);
+		lab[2] = 200. * (fy - fz);
+	}
+
+	protected static double fx(double red, double green, double blue) {
+		return f((0.4124564 * red + 0.3575761 * green + 0.1804375 * blue) / WHITE_X);
+	}
+
+	protected static double fy(double red, double green, double blue) {
+		return f(0.2126729 * red + 0.7151522 * green + 0.0721750 * blue);
+	}
+
+	protected static double fz(double red, double green, double blue) {
+		return f((0.0193339 * red + 0.1191920 * green + 0.9503041 * blue) / WHITE_Z);
+	}
+
+	protected static double f(double t) {
+		if (EPSILON < t)
+			return Math.cbrt(t);
+		return (KAPPA * t + 16.) / 116.;
+	}
+
+	/** Same as toLab() without an array, it is called for each pixel when
+	 * there is no cache. */
+	@Override
+	protected int convert(int rgb) {
+		double red = LINEAR[(rgb >> ColorUtil.RED_OFFSET) & 0xff];
+		double green = LINEAR[(rgb >> ColorUtil.GREEN_OFFSET) & 0xff];
+		double blue = LINEAR[rgb & 0xff];
+		double fx = fx(red, green, blue);
+		double fy = fy(red, green, blue);
+		double fz = fz(red, green, blue);
+		return (clampToByte((116. * fy - 16.) * L_SCALE) << 16) | 
+			(clampToByte(500. * (fx - fy) + 128.) << 8) | clampToByte(200. * (fy - fz) + 128.);
+	}
+
+	@Override
+	protected double convertedDistance(int converted1, int converted2) {
+		double dL = (((converted1 >> 16) & 0xff) - ((converted2 >> 16) & 0xff)) / L_SCALE;
+		int da = ((converted1 >> 8) & 0xff) - ((converted2 >> 8) & 0xff);
+		int db = (converted1 & 0xff) - (converted2 & 0xff);
+		return Math.sqrt(dL * dL + da * da + db * db);
+	}
+}
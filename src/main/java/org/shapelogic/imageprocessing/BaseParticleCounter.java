@@ -7,6 +7,7 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
@@ -14,6 +15,7 @@ import java.util.NoSuchElementException;
 import org.shapelogic.calculation.RecursiveContext;
 import org.shapelogic.color.ColorFactory;
 import org.shapelogic.color.ColorHypothesis;
+import org.shapelogic.color.ColorSpace;
 import org.shapelogic.color.ColorUtil;
 import org.shapelogic.color.IColorAndVariance;
 import org.shapelogic.color.IColorHypothesisFinder;
@@ -74,6 +76,23 @@ public class BaseParticleCounter extends BaseImageOperation
 	protected boolean _countOnly = false;
 	protected boolean _toMask = false;
     protected boolean _displayInternalInfo = false;
+    /** Segment using the primitive span stack instead of SBPendingVertical objects. */
+    protected boolean _spanStackMode = false;
+    /** Segment in horizontal strips in parallel, gives the same areas. */
+    protected boolean _parallel = false;
+    /** Segment with the two pass labeler, that also makes a label image. */
+    protected boolean _labelMode = false;
+    protected SBLabelSegmentation _labelSegmentation;
+    /** Collect ParticleFeatures for the particles while segmenting, 
+     * implies label mode. */
+    protected boolean _featureMode = false;
+    protected Map<IColorAndVariance, ParticleFeatures> _particleFeatures =
+        new IdentityHashMap<IColorAndVariance, ParticleFeatures>();
+    /** Only make area objects for particles inside the area limits, 
+     * not used with label mode, parallel or to mask. */
+    protected boolean _boundedAreaMode = false;
+    /** Color space for the distance to the reference color in RGB images. */
+    protected ColorSpace _colorSpace = ColorSpace.RGB;
     
     protected List<IColorAndVariance> _particlesOrig = new ArrayList<IColorAndVariance>();
     protected List<IColorAndVariance> _particlesFiltered = new ArrayList<IColorAndVariance>();
@@ -159,12 +178,12 @@ public class BaseParticleCounter extends BaseImageOperation
         	_segmentation.setMaxDistance((int)_maxDistance);
         	if (!_useReferenceAsBackground) {
 	            _segmentation.setFarFromReferencColor(true);
-	            _segmentation.segmentAll(_referenceColor);
+	            segmentAll(_referenceColor);
 	            _segmentation.setFarFromReferencColor(false);
         	}
         	else {
 	            _segmentation.setFarFromReferencColor(false);
-	            _segmentation.segmentAll(_referenceColor);
+	            segmentAll(_referenceColor);
         	}
             //count how many components and how much area the background takes up
             findBackground();
@@ -187,21 +206,75 @@ public class BaseParticleCounter extends BaseImageOperation
             if (_particleImage != null && _particleImage) {
                 _segmentation.setMaxDistance(1000000000);//Everything get lumped together
                 int effectiveColor = _paintBackground; //Background
+                if (isLabelMode()) {
+                    //everything is similar, so segmentAll gives the same areas as next()
+                    segmentAll(_referenceColor);
+                    if (_featureMode)
+                        storeParticleFeatures();
+                    if (_toMask)
+                        paintLabels();
+                    return;
+                }
+                if (_parallel && !_toMask) {
+                    segmentAll(_referenceColor);
+                    return;
+                }
+                if (_boundedAreaMode && !_toMask) {
+                    _segmentation.setAreaBounds(_minPixelsInArea, _maxPixelsInArea);
+                    _segmentation.setCountOnly(_countOnly);
+                }
                 while (_segmentation.hasNext()) {
-                    ArrayList<SBPendingVertical> lines = _segmentation.next();
+                    _segmentation.next();
                 if (_minPixelsInArea <= _segmentation.getCurrentArea() &&
                         _segmentation.getCurrentArea() < _maxPixelsInArea)
                     effectiveColor = _paintForground;
                 else
                     effectiveColor = _paintBackground;
                     if (_toMask) {
-                        _segmentation.paintSegment(lines, effectiveColor);
+                        _segmentation.paintCurrentSegment(effectiveColor);
                     }
                 }
             }
         }
 	}
     
+    /** Segment all areas similar to color, in parallel strips if _parallel is set. */
+    protected void segmentAll(int color) {
+        if (isLabelMode())
+            _labelSegmentation.segmentAll(color);
+        else if (_parallel)
+            _segmentation.segmentAllParallel(color, 0);
+        else
+            _segmentation.segmentAll(color);
+    }
+    
+    /** Connect the areas from the last label segmentation to their features. */
+    protected void storeParticleFeatures() {
+        _particleFeatures.clear();
+        if (_segmentation.getSegmentAreaFactory() == null)
+            return;
+        List<IColorAndVariance> store = _segmentation.getSegmentAreaFactory().getStore();
+        for (int label = _labelSegmentation.getFirstLabel(); 
+                label < _labelSegmentation.getNextLabel(); label++)
+            _particleFeatures.put(store.get(label - 1), _labelSegmentation.getFeatures(label));
+    }
+    
+    /** Paint the areas from the last label segmentation as foreground or 
+     * background depending on their size. */
+    protected void paintLabels() {
+        int[] labels = _labelSegmentation.getLabels();
+        int firstLabel = _labelSegmentation.getFirstLabel();
+        for (int i = 0; i < labels.length; i++) {
+            if (labels[i] < firstLabel)
+                continue;
+            int area = _labelSegmentation.getPixelCount(labels[i]);
+            if (_minPixelsInArea <= area && area < _maxPixelsInArea)
+                getImage().set(i, _paintForground);
+            else
+                getImage().set(i, _paintBackground);
+        }
+    }
+    
     /** Filter particles on size and other global criteria. */
     protected void globalFilter() {
     	_particlesOrig.clear();
@@ -216,6 +289,8 @@ public class BaseParticleCounter extends BaseImageOperation
     		if ((_minPixelsInArea <= particleArea) && (particleArea <= _maxPixelsInArea) )
     			_particlesFiltered.add( particle );
     	}
+    	if (_segmentation.isCountOnly())
+    		_particleCount = _segmentation.getAreasInBounds();
     	
     }
 
@@ -286,12 +361,19 @@ public class BaseParticleCounter extends BaseImageOperation
     	_context = new HashMap();
 		SBSimpleCompare compare = ProcessingFactory.compareFactory(getImage());
 		compare.setModifying(_modifying);
+		if (compare instanceof SBColorCompare)
+			((SBColorCompare) compare).setColorSpace(_colorSpace);
 		_segmentation = new SBSegmentation();
 		_segmentation.setSLImage(getImage());
 		_segmentation.setPixelCompare(compare);
+		_segmentation.setSpanStackMode(_spanStackMode);
 		if (_saveArea)
 			_segmentation.setSegmentAreaFactory(ColorFactory.segmentAreaFactory(getImage()));
 		_segmentation.init();
+		if (isLabelMode()) {
+			_labelSegmentation = new SBLabelSegmentation(_segmentation);
+			_labelSegmentation.setCollectFeatures(_featureMode);
+		}
         _colorHypothesisFinder = new DistanceBasedColorHypothesisFinder(_arg, _image, _maxDistance);
         _colorHypothesisFinder.setIterations(_iterations);
     }
@@ -453,6 +535,79 @@ public class BaseParticleCounter extends BaseImageOperation
     public void setToMask(boolean toMask) {
         _toMask = toMask;
     }
+
+    public boolean isSpanStackMode() {
+        return _spanStackMode;
+    }
+
+    public void setSpanStackMode(boolean spanStackMode) {
+        _spanStackMode = spanStackMode;
+    }
+
+    public boolean isParallel() {
+        return _parallel;
+    }
+
+    public void setParallel(boolean parallel) {
+        _parallel = parallel;
+    }
+
+    /** True if label mode is set or implied by feature mode. */
+    public boolean isLabelMode() {
+        return _labelMode || _featureMode;
+    }
+
+    public void setLabelMode(boolean labelMode) {
+        _labelMode = labelMode;
+    }
+
+    public boolean isBoundedAreaMode() {
+        return _boundedAreaMode;
+    }
+
+    /** Skip the statistics for particles that are too small or too big,
+     * with count only no particle areas are made at all. */
+    public void setBoundedAreaMode(boolean boundedAreaMode) {
+        _boundedAreaMode = boundedAreaMode;
+    }
+
+    public ColorSpace getColorSpace() {
+        return _colorSpace;
+    }
+
+    /** Segment RGB images with the distance in LAB or HSV, max distance is 
+     * then in that color space. Gray images are not changed by this. */
+    public void setColorSpace(ColorSpace colorSpace) {
+        _colorSpace = colorSpace;
+    }
+
+    public boolean isCountOnly() {
+        return _countOnly;
+    }
+
+    public void setCountOnly(boolean countOnly) {
+        _countOnly = countOnly;
+    }
+
+    public boolean isFeatureMode() {
+        return _featureMode;
+    }
+
+    /** Collect ParticleFeatures in the segmentation pass, this turns on 
+     * label mode. Needs _saveArea. */
+    public void setFeatureMode(boolean featureMode) {
+        _featureMode = featureMode;
+    }
+
+    /** Features of a particle, only in feature mode, else null. */
+    public ParticleFeatures getParticleFeatures(IColorAndVariance particle) {
+        return _particleFeatures.get(particle);
+    }
+
+    /** Label image segmentation, only set in label mode. */
+    public SBLabelSegmentation getLabelSegmentation() {
+        return _labelSegmentation;
+    }
     
     public String getErrorMessage() {
     	return _errorMessage;
@@ -0,0 +1,94 @@
+package org.shapelogic.imageprocessing;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.shapelogic.polygon.PolygonCodec;
+
+/** Compact binary format for chain codes.<br />
+ *
+ * A chain code only uses the 8 directions, so it is packed 3 bits per
+ * step, that is less than half of a byte array. The start point and the
+ * length are written as variable length numbers in front.<br />
+ *
+ * @author Sami Badawi
+ *
+ */
+public class ChainCodeCodec {
+	public static final int BITS_PER_STEP = 3;
+	static final int STEP_MASK = (1 << BITS_PER_STEP) - 1;
+
+	/** Bytes needed for length packed steps. */
+	public static int packedLength(int length) {
+		return (int)(((long)length * BITS_PER_STEP + 7) >> 3);
+	}
+
+	/** Pack the first length steps of the chain code. */
+	public static byte[] pack(byte[] chainCode, int length) {
+		byte[] result = new byte[packedLength(length)];
+		int bitPosition = 0;
+		for (int i = 0; i < length; i++) {
+			int value = (chainCode[i] & STEP_MASK) << (bitPosition & 7);
+			int index = bitPosition >> 3;
+			result[index] |= value;
+			if (8 < (bitPosition & 7) + BITS_PER_STEP)
+				result[index + 1] |= value >> 8;
+			bitPosition += BITS_PER_STEP;
+		}
+		return result;
+	}
+
+	public static byte[] unpack(byte[] packed, int length) {
+		byte[] result = new byte[length];
+		int bitPosition = 0;
+		for (int i = 0; i < length; i++) {
+			int index = bitPosition >> 3;
+			int value = packed[index] & 0xFF;
+			if (8 < (bitPosition & 7) + BITS_PER_STEP)
+				value |= (packed[index + 1] & 0xFF) << 8;
+			result[i] = (byte)((value >> (bitPosition & 7)) & STEP_MASK);
+			bitPosition += BITS_PER_STEP;
+		}
+		return result;
+	}
+
+	public static void writeChainCode(DataOutput out, int startX, int startY,
+			byte[] chainCode, int length) throws IOException
+	{
+		PolygonCodec.writeVarInt(out, startX);
+		PolygonCodec.writeVarInt(out, startY);
+		PolygonCodec.writeVarInt(out, length);
+		out.write(pack(chainCode, length));
+	}
+
+	/** Read a chain code written by writeChainCode().
+	 *
+	 * @param startPoint gets the x and y of the start point
+	 */
+	public static byte[] readChainCode(DataInput in, int[] startPoint) throws IOException {
+		startPoint[0] = PolygonCodec.readVarInt(in);
+		startPoint[1] = PolygonCodec.readVarInt(in);
+		int length = PolygonCodec.readVarInt(in);
+		if (length < 0)
+			throw new IOException("Negative chain code length: " + length);
+		byte[] packed = new byte[packedLength(length)];
+		in.readFully(packed);
+		return unpack(packed, length);
+	}
+
+	public static void writeContour(DataOutput out, RasterContour contour) throws IOException {
+		PolygonCodec.writeVarInt(out, contour.getLabel());
+		out.writeBoolean(contour.isHole());
+		writeChainCode(out, contour.getStartX(), contour.getStartY(),
+				contour.getChainCode(), contour.getLength());
+	}
+
+	public static RasterContour readContour(DataInput in) throws IOException {
+		int label = PolygonCodec.readVarInt(in);
+		boolean hole = in.readBoolean();
+		int[] startPoint = new int[2];
+		byte[] chainCode = readChainCode(in, startPoint);
+		return new RasterContour(label, hole, startPoint[0], startPoint[1], chainCode);
+	}
+}
@@ -27,16 +27,26 @@ import static org.shapelogic.polygon.Calculator2D.oppositeDirection;
  * 
  * Assume that there is no intersection.
  * 
+ * The chain code buffer grows when it is full, up to getMaxLength(). 
+ * A handler can be reused for the next shape with reset(), that keeps the
+ * buffer and the collections.
+ * 
+ * The chain is split into lines with handleIntervalIterative(), unless 
+ * recursive split is set, then the old recursive handleInterval() is used.
+ * 
  * @author Sami Badawi
  */
 public class ChainCodeHandler extends BaseAnnotatedShape implements CalcInvoke<MultiLine>
 {
 	private static final double SQRT_2 = Math.sqrt(2);
-	protected static final int CHAIN_CODE_FOR_MULTI_LINE_MAX_LENGTH = 10000;
+	protected static final int INITIAL_CHAIN_CODE_LENGTH = 1024;
+	/** Largest array size that works on all VMs. */
+	public static final int MAX_CHAIN_CODE_LENGTH = Integer.MAX_VALUE - 8;
 	protected static final int SHORT_LINE_LENGTH = 3;
 	protected static final double LIMIT_FOR_HARD_CORNER = 60 * Math.PI /180; //30 degrees
 
-	protected byte[] _chainCodeForMultiLine = new byte[CHAIN_CODE_FOR_MULTI_LINE_MAX_LENGTH];
+	protected byte[] _chainCodeForMultiLine = new byte[INITIAL_CHAIN_CODE_LENGTH];
+	protected int _maxLength = MAX_CHAIN_CODE_LENGTH;
 	protected int _lastChain;
 	protected CPointInt _firstPoint = new CPointInt();
 	protected CPointInt _lastPoint; 
@@ -73,6 +83,12 @@ public class ChainCodeHandler extends BaseAnnotatedShape implements CalcInvoke<M
 	protected List<LineProperties> _linePropertiesList = new ArrayList<LineProperties>();
 	protected double _perimeter;
 	
+	/** Use the recursive handleInterval() instead of the explicit stack. */
+	protected boolean _recursiveSplit = false;
+	private static final int INTERVAL_SIZE = 6;
+	/** Start index, end index, start x, start y, end x, end y for each interval. */
+	private int[] _intervalStack = new int[16 * INTERVAL_SIZE];
+	private int _intervalStackSize;
 
 	public ChainCodeHandler(AnnotatedShapeImplementation annotatedShape) {
 		super(annotatedShape);
@@ -86,7 +102,10 @@ public class ChainCodeHandler extends BaseAnnotatedShape implements CalcInvoke<M
 	 */
 	public void setup() {
 		_lastChain = Constants.BEFORE_START_INDEX;
-		_lastPoint = new CPointInt(); 
+		if (_lastPoint == null)
+			_lastPoint = new CPointInt();
+		else
+			_lastPoint.setLocation(0, 0);
 		_multiLine = new MultiLine(null); //XXX should be synchronized with polygon
 		_pointMap.clear();
 		_dirty = true;
@@ -98,12 +117,43 @@ public class ChainCodeHandler extends BaseAnnotatedShape implements CalcInvoke<M
 		_linePropertiesList.clear();
 	}
 
+	/** Get ready for a new shape that is annotated in annotatedShape.<br />
+	 * 
+	 * The chain code buffer and the collections are reused, the points and
+	 * properties handed out for the last shape are not touched.
+	 */
+	public void reset(AnnotatedShapeImplementation annotatedShape) {
+		if (annotatedShape != null)
+			_annotatedShape = annotatedShape;
+		setup();
+	}
+
+	/** Handler for tracing an edge in an image of width x height, so a
+	 * tracer can keep one handler and only make the chain code buffer once.
+	 * 
+	 * @param handler the handler from the last edge, null for the first
+	 * @return handler after reset(), a new one if handler was null
+	 */
+	public static ChainCodeHandler reuse(ChainCodeHandler handler, 
+			AnnotatedShapeImplementation annotatedShape, int width, int height) {
+		if (handler == null) {
+			handler = new ChainCodeHandler(annotatedShape);
+			//a trace can at most visit each pixel from 4 directions
+			handler.setMaxLength((int)Math.min(Integer.MAX_VALUE, 4L * width * height + 4));
+		}
+		handler.reset(annotatedShape);
+		return handler;
+	}
+
 	@Override
 	public MultiLine invoke() {
 		_pointMap.put(Constants.BEFORE_START_INDEX, _firstPoint);
 		addPropertiesForNewPoint(Constants.BEFORE_START_INDEX, _firstPoint, null); 
 		_pointMap.put(_lastChain, (CPointInt)_lastPoint.copy());
-		handleInterval(Constants.BEFORE_START_INDEX, _lastChain);
+		if (_recursiveSplit)
+			handleInterval(Constants.BEFORE_START_INDEX, _lastChain);
+		else
+			handleIntervalIterative(Constants.BEFORE_START_INDEX, _lastChain);
 		findAccumulatedDirectionChange();
 		addPointsToMultiLine();
 		handleClosedMultiLines();
@@ -272,10 +322,12 @@ public class ChainCodeHandler extends BaseAnnotatedShape implements CalcInvoke<M
 			CPointInt outVector = findIntervalVector(0, 0 + SHORT_LINE_LENGTH);
 			double angle = Calculator2D.angleBetweenLines(inVector.angle(), outVector.angle());
 			hardCorner = LIMIT_FOR_HARD_CORNER <= Math.abs(angle);
+			//the copy in the multi line, _firstPoint is reused by the next shape
+			CPointInt firstPoint = _pointMap.get(Constants.BEFORE_START_INDEX);
 			if (hardCorner)
-				getAnnotatedShape().putAnnotation(_firstPoint, PointType.HARD_CORNER );
+				getAnnotatedShape().putAnnotation(firstPoint, PointType.HARD_CORNER );
 			else 
-				getAnnotatedShape().putAnnotation(_firstPoint, PointType.SOFT_POINT );
+				getAnnotatedShape().putAnnotation(firstPoint, PointType.SOFT_POINT );
 		}
 	}
 		
@@ -464,6 +516,153 @@ public class ChainCodeHandler extends BaseAnnotatedShape implements CalcInvoke<M
 		return splitPointIndex;
 	}
 	
+	/** Same splitting as handleInterval(), but the intervals waiting to be 
+	 * handled are kept on an explicit stack of ints.<br />
+	 * 
+	 * The left part of a split is handled first like in the recursion, so 
+	 * the lines end in increasing index order and the points and properties
+	 * are added in the same order. The statistics are kept in local 
+	 * variables, LineProperties are only made for the lines that are not
+	 * split, and the points are only put in _pointMap when a line is done.
+	 */
+	private void handleIntervalIterative(int firstIndex, int lastIndex) {
+		CPointInt lastEndPoint = _pointMap.get(firstIndex);
+		CPointInt endPointIn = _pointMap.get(lastIndex);
+		_intervalStackSize = 0;
+		pushInterval(firstIndex, lastIndex, lastEndPoint.x, lastEndPoint.y, 
+				endPointIn.x, endPointIn.y);
+		while (0 < _intervalStackSize) {
+			_intervalStackSize -= INTERVAL_SIZE;
+			int top = _intervalStackSize;
+			int startIndex = _intervalStack[top];
+			int endIndex = _intervalStack[top + 1];
+			int startX = _intervalStack[top + 2];
+			int startY = _intervalStack[top + 3];
+			int endX = _intervalStack[top + 4];
+			int endY = _intervalStack[top + 5];
+			// Do not split anything that is less than 5, unless it is the first
+			boolean doNotSplit = endIndex - startIndex < 5 && 
+				startIndex != Constants.BEFORE_START_INDEX && endIndex != _lastChain;
+			int xCoordinate = endX - startX;
+			int yCoordinate = endY - startY;
+			int pixelsWithAlmostZeroDistance = 0;
+			int pixelsWithNegativeDistance = 0;
+			int pixelsWithPositiveDistance = 0;
+			int areaNegativeDistance = 0;
+			int areaPositiveDistance = 0;
+			int maxNegativeDist = 0, maxNegativeIndex = 0, maxNegativeX = 0, maxNegativeY = 0;
+			int maxPositiveDist = 0, maxPositiveIndex = 0, maxPositiveX = 0, maxPositiveY = 0;
+			double lengthOfDistanceUnitForLine = 0;
+			boolean split = false;
+			int splitIndex = 0, splitX = 0, splitY = 0;
+			if (!doNotSplit) {
+				int currentX = startX;
+				int currentY = startY;
+				int currentDist = 0;
+				boolean zeroVector = xCoordinate == 0 && yCoordinate == 0;
+				double lengthOfDistanceUnit = zeroVector ? 1 : 
+					Math.sqrt((double)xCoordinate * xCoordinate + (double)yCoordinate * yCoordinate);
+				lengthOfDistanceUnitForLine = lengthOfDistanceUnit;
+				int unnormalizedDistanceInt = (int) Math.ceil(lengthOfDistanceUnit); 
+				lengthOfDistanceUnit *= getDistLimit(endIndex + 1 - startIndex);  
+				for (int i = startIndex + 1; i <= endIndex; i++) {
+					byte direction = _chainCodeForMultiLine[i];
+					currentX += Constants.CYCLE_POINTS_X[direction];
+					currentY += Constants.CYCLE_POINTS_Y[direction];
+					if (!zeroVector)
+						currentDist += Constants.CYCLE_POINTS_X[direction] * yCoordinate - 
+							Constants.CYCLE_POINTS_Y[direction] * xCoordinate;
+					else {
+						double dx = startX - currentX;
+						double dy = startY - currentY;
+						currentDist = (int)(Math.sqrt(dx * dx + dy * dy) * unnormalizedDistanceInt);
+					}
+					if (Math.abs(currentDist) < unnormalizedDistanceInt) {
+						pixelsWithAlmostZeroDistance++;
+					}
+					else if (currentDist < 0) { 
+						pixelsWithNegativeDistance++;
+						areaNegativeDistance -= currentDist; 
+						if (currentDist < maxNegativeDist) {
+							maxNegativeDist = currentDist; 
+							maxNegativeX = currentX;
+							maxNegativeY = currentY;
+							maxNegativeIndex = i;
+						}
+					}
+					else {
+						pixelsWithPositiveDistance++;
+						areaPositiveDistance += currentDist; 
+						if (maxPositiveDist < currentDist) {
+							maxPositiveDist = currentDist;
+							maxPositiveX = currentX;
+							maxPositiveY = currentY;
+							maxPositiveIndex = i;
+						}
+					}
+				}
+				if (-maxNegativeDist < maxPositiveDist) {
+					if (lengthOfDistanceUnit < maxPositiveDist) {
+						split = true;
+						splitIndex = maxPositiveIndex;
+						splitX = maxPositiveX;
+						splitY = maxPositiveY;
+					}
+				}
+				else if (lengthOfDistanceUnit < -maxNegativeDist) {
+					split = true;
+					splitIndex = maxNegativeIndex;
+					splitX = maxNegativeX;
+					splitY = maxNegativeY;
+				}
+			}
+			if (split) {
+				//pushed last so it is handled first
+				pushInterval(splitIndex, endIndex, splitX, splitY, endX, endY);
+				pushInterval(startIndex, splitIndex, startX, startY, splitX, splitY);
+				continue;
+			}
+			CPointInt relativeVector = new CPointInt(xCoordinate, yCoordinate);
+			LineProperties lineProperties = new LineProperties();
+			lineProperties.angle = relativeVector.angle();
+			lineProperties.relativeVector = relativeVector;
+			lineProperties.startPoint = lastEndPoint;
+			if (!doNotSplit) {
+				lineProperties.lengthOfDistanceUnit = lengthOfDistanceUnitForLine;
+				lineProperties.pixelsWithAlmostZeroDistance = pixelsWithAlmostZeroDistance;
+				lineProperties.pixelsWithNegativeDistance = pixelsWithNegativeDistance;
+				lineProperties.pixelsWithPositiveDistance = pixelsWithPositiveDistance;
+				lineProperties.areaNegativeDistance = areaNegativeDistance;
+				lineProperties.areaPositiveDistance = areaPositiveDistance;
+				lineProperties.maxNegativeDist = maxNegativeDist;
+				lineProperties.maxNegativeIndex = maxNegativeIndex;
+				lineProperties.maxPositiveDist = maxPositiveDist;
+				lineProperties.maxPositiveIndex = maxPositiveIndex;
+				lineProperties.maxPositivePoint.setLocation(maxPositiveX, maxPositiveY);
+			}
+			CPointInt endPoint = new CPointInt(endX, endY);
+			_pointMap.put(endIndex, endPoint);
+			_linePropertiesList.add(lineProperties);
+			_pointPropertiesList.add(new PointProperties());
+			lastEndPoint = endPoint;
+		}
+	}
+
+	private void pushInterval(int startIndex, int endIndex, int startX, int startY, 
+			int endX, int endY) {
+		if (_intervalStack.length < _intervalStackSize + INTERVAL_SIZE) {
+			int[] intervalStack = new int[_intervalStack.length * 2];
+			System.arraycopy(_intervalStack, 0, intervalStack, 0, _intervalStackSize);
+			_intervalStack = intervalStack;
+		}
+		_intervalStack[_intervalStackSize++] = startIndex;
+		_intervalStack[_intervalStackSize++] = endIndex;
+		_intervalStack[_intervalStackSize++] = startX;
+		_intervalStack[_intervalStackSize++] = startY;
+		_intervalStack[_intervalStackSize++] = endX;
+		_intervalStack[_intervalStackSize++] = endY;
+	}
+	
 	private void addPropertiesForNewPoint(Integer endPointIndex, 
 			CPointInt endPoint, LineProperties lineProperties) {
 		_pointMap.put(endPointIndex, (CPointInt)endPoint.copy());
@@ -484,11 +683,12 @@ public class ChainCodeHandler extends BaseAnnotatedShape implements CalcInvoke<M
 		
 	public boolean addChainCode(byte chainCode) {
 		_lastChain++;
-		if (_lastChain == _chainCodeForMultiLine.length) //XXX should probably expand the array
+		if (_lastChain == _chainCodeForMultiLine.length)
 		{
-			if (false) {
+			if (_lastChain < _maxLength) {
 				int maxPoints = _chainCodeForMultiLine.length;
-				byte[] xtemp = new byte[maxPoints*2];
+				int newLength = (int) Math.min((long)_maxLength, maxPoints * 2L);
+				byte[] xtemp = new byte[newLength];
 				System.arraycopy(_chainCodeForMultiLine, 0, xtemp, 0, maxPoints);
 				_chainCodeForMultiLine = xtemp;
 			}
@@ -536,6 +736,13 @@ public class ChainCodeHandler extends BaseAnnotatedShape implements CalcInvoke<M
 		_bBox.addPoint(_firstPoint);
 	}
 
+	public void setFirstPoint(int x, int y)
+	{
+		_firstPoint.setLocation(x, y);
+		_lastPoint.setLocation(_firstPoint); 
+		_bBox.addPoint(x, y);
+	}
+
 	public CPointInt getFirstPoint()
 	{
 		return _firstPoint;
@@ -569,4 +776,23 @@ public class ChainCodeHandler extends BaseAnnotatedShape implements CalcInvoke<M
 	public void setPerimeter(double perimeter) {
 		_perimeter = perimeter;
 	}
+
+	public boolean isRecursiveSplit() {
+		return _recursiveSplit;
+	}
+
+	/** Split the chain with the old recursive handleInterval(), gives the 
+	 * same result as the default explicit stack. */
+	public void setRecursiveSplit(boolean recursiveSplit) {
+		_recursiveSplit = recursiveSplit;
+	}
+
+	/** Longest chain code, addChainCode() returns false after that. */
+	public int getMaxLength() {
+		return _maxLength;
+	}
+
+	public void setMaxLength(int maxLength) {
+		_maxLength = Math.min(maxLength, MAX_CHAIN_CODE_LENGTH);
+	}
 }
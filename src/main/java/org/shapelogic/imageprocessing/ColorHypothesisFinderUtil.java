@@ -0,0 +1,38 @@
+package org.shapelogic.imageprocessing;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.shapelogic.color.ColorHypothesis;
+import org.shapelogic.color.IColorAndVariance;
+import org.shapelogic.color.IColorRange;
+
+/** Methods shared by the IColorHypothesisFinder implementations. <br />
+ *
+ * @author Sami Badawi
+ *
+ */
+public class ColorHypothesisFinderUtil {
+
+	/** Sort the colors by area and make the biggest the background if it
+	 * covers more than half of the pixels.
+	 *
+	 * @param pixelCount number of pixels the hypothesis was found from
+	 * @return the background, null if there is none
+	 */
+	public static IColorRange findBestBackground(ColorHypothesis colorHypothesis,
+			int pixelCount) {
+		Collection<IColorAndVariance> colorObj = colorHypothesis.getColors();
+		if (colorObj instanceof List && !colorObj.isEmpty()) {
+			List<IColorAndVariance> colorList = (List<IColorAndVariance>) colorObj;
+			Collections.sort(colorList,AreaComparator.INSTANCE);
+			IColorAndVariance biggestColor = colorList.get(colorList.size()-1);
+			if (pixelCount < biggestColor.getArea()*2){
+				colorHypothesis.setBackground(biggestColor);
+				return (IColorRange) biggestColor;
+			}
+		}
+		return null;
+	}
+}
@@ -1,5 +1,6 @@
 package org.shapelogic.imageprocessing;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -13,6 +14,7 @@ import org.shapelogic.machinelearning.ExampleNeuralNetwork;
 import org.shapelogic.machinelearning.FFNeuralNetworkStream;
 import org.shapelogic.machinelearning.FFNeuralNetworkWeights;
 import org.shapelogic.machinelearning.FFNeuralNetworkWeightsParser;
+import org.shapelogic.polygon.BBox;
 import org.shapelogic.polygon.Polygon;
 import org.shapelogic.reporting.BaseTableBuilder;
 import org.shapelogic.reporting.TableDefinition;
@@ -36,6 +38,18 @@ import org.shapelogic.util.Headings;
  * 
  * Some of the methods can be moved to ColorParticleAnalyzer to remove dependency of ImageJ.<br /> 
  * 
+ * In feature mode the area, perimeter, circularity and bounding box columns 
+ * come from the ParticleFeatures found in the segmentation, so they do not
+ * need the outline. The perimeter is then the crack edge perimeter.<br />
+ * 
+ * In label mode the polygons are made from the outer contours of the label
+ * image, followed with RasterContourExtractor, instead of tracing each 
+ * particle with the EdgeTracer.<br />
+ * 
+ * With a PolygonCache the polygons are stored after the first run, and read
+ * back when the same image is run with the same parameters and the polygons
+ * still fit the particles.<br />
+ * 
  * @author Sami Badawi
  *
  */
@@ -63,6 +77,12 @@ public class ColorParticleAnalyzer extends BaseParticleCounter {
     protected BaseTableBuilder _tableBuilder;
 
     protected boolean _useNeuralNetwork;
+    /** Compare colors once for the whole image and trace the particles with
+     * an InsideMask. */
+    protected boolean _insideMaskMode = false;
+    protected PolygonCache _polygonCache;
+    protected String _polygonCacheKey;
+    protected boolean _polygonsFromCache = false;
     protected String _neuralNetworkFile;
     protected List<String> _printListOverwrite;
 
@@ -84,21 +104,31 @@ public class ColorParticleAnalyzer extends BaseParticleCounter {
             traceColor = _referenceColor;
             traceCloseToColor = false;
         }
-    	_edgeTracer = new EdgeTracer(_image, traceColor,
-    			_maxDistance, traceCloseToColor);
-		Calc1<IColorAndVariance, Polygon> chainCodeCalc1 = 
-			new Calc1<IColorAndVariance, Polygon>() {
-				@Override
-				public Polygon invoke(IColorAndVariance input) {
-					if (input == null)
-						return null;
-					PixelArea pixelArea = input.getPixelArea();
-					return _edgeTracer.autoOutline(pixelArea.getStartX(), pixelArea.getStartY());
-				}
-		};
-		_polygonStream = 
-			new ListCalcStream1<IColorAndVariance, Polygon>(chainCodeCalc1,_particleStream); 
-		_polygonStream.setup();
+    	EdgeTracer edgeTracer = new EdgeTracer(_image, traceColor,
+    			_maxDistance, traceCloseToColor, _colorSpace);
+    	if (_insideMaskMode)
+    		edgeTracer.makeInsideMask();
+    	_edgeTracer = edgeTracer;
+		List<Polygon> cachedPolygons = getCachedPolygons();
+		if (cachedPolygons != null)
+			_polygonStream = new WrappedListStream<Polygon>(cachedPolygons);
+		else if (isLabelMode() && _labelSegmentation != null)
+			_polygonStream = makeLabelPolygonStream();
+		else {
+			Calc1<IColorAndVariance, Polygon> chainCodeCalc1 = 
+				new Calc1<IColorAndVariance, Polygon>() {
+					@Override
+					public Polygon invoke(IColorAndVariance input) {
+						if (input == null)
+							return null;
+						PixelArea pixelArea = input.getPixelArea();
+						return _edgeTracer.autoOutline(pixelArea.getStartX(), pixelArea.getStartY());
+					}
+			};
+			_polygonStream = 
+				new ListCalcStream1<IColorAndVariance, Polygon>(chainCodeCalc1,_particleStream); 
+			_polygonStream.setup();
+		}
 		_context.put(StreamNames.POLYGONS, _polygonStream);
 		loadPolygonStreams.loadStreamsRequiredForLetterMatch();
 		loadParticleStreams.loadStreamsRequiredForParticleMatch(_particleStream,_image);
@@ -109,6 +139,108 @@ public class ColorParticleAnalyzer extends BaseParticleCounter {
         makeBBoxStreams();
     }
 
+    /** One polygon for each filtered particle, from the outer contour of its 
+     * label in the label image. The contour is only followed when the polygon
+     * is asked for, so filtered out particles are never vectorized.<br />
+     * 
+     * A particle that is not in the last label segmentation is traced.
+     */
+    protected ListCalcStream1<IColorAndVariance, Polygon> makeLabelPolygonStream() {
+    	final RasterContourExtractor extractor = new RasterContourExtractor(_labelSegmentation);
+    	final ChainCodeHandler chainCodeHandler = new ChainCodeHandler(null);
+		Calc1<IColorAndVariance, Polygon> contourCalc1 = 
+			new Calc1<IColorAndVariance, Polygon>() {
+				@Override
+				public Polygon invoke(IColorAndVariance input) {
+					if (input == null)
+						return null;
+					PixelArea pixelArea = input.getPixelArea();
+					RasterContour contour = 
+						extractor.extractOuter(pixelArea.getStartX(), pixelArea.getStartY());
+					if (contour == null)
+						return _edgeTracer.autoOutline(pixelArea.getStartX(), pixelArea.getStartY());
+					return contour.makePolygon(chainCodeHandler);
+				}
+		};
+		ListCalcStream1<IColorAndVariance, Polygon> result = 
+			new ListCalcStream1<IColorAndVariance, Polygon>(contourCalc1,_particleStream); 
+		result.setup();
+		return result;
+    }
+
+    /** The polygons for this image and parameters if they are in the cache,
+     * and there is one for each particle that goes around its start pixel.
+     * An entry that does not fit the particles is removed. */
+    protected List<Polygon> getCachedPolygons() {
+    	_polygonsFromCache = false;
+    	_polygonCacheKey = null;
+    	if (_polygonCache == null)
+    		return null;
+    	_polygonCacheKey = PolygonCache.makeKey(_image, getPolygonCacheParameters());
+    	List<Polygon> result = _polygonCache.get(_polygonCacheKey);
+    	if (result == null)
+    		return null;
+    	boolean matches = result.size() == _particlesFiltered.size();
+    	for (int i = 0; matches && i < result.size(); i++)
+    		matches = polygonMatchesParticle(result.get(i), _particlesFiltered.get(i));
+    	if (!matches) {
+    		_polygonCache.remove(_polygonCacheKey);
+    		return null;
+    	}
+    	_polygonsFromCache = true;
+    	return result;
+    }
+
+    /** The outline of a particle goes through its start pixel, so that has 
+     * to be in the bounding box of the polygon. A particle can have a null 
+     * polygon, but a missing particle cannot have a polygon. */
+    protected boolean polygonMatchesParticle(Polygon polygon, IColorAndVariance particle) {
+    	if (polygon == null)
+    		return true;
+    	if (particle == null || particle.getPixelArea() == null)
+    		return false;
+    	BBox bBox = polygon.getBBox();
+    	if (bBox == null || bBox.isEmpty())
+    		return false;
+    	PixelArea pixelArea = particle.getPixelArea();
+    	int x = pixelArea.getStartX();
+    	int y = pixelArea.getStartY();
+    	return bBox.minVal.getX() <= x && x <= bBox.maxVal.getX() &&
+    		bBox.minVal.getY() <= y && y <= bBox.maxVal.getY();
+    }
+
+    /** All the parameters that change which particles are segmented or how 
+     * they are traced. */
+    protected String getPolygonCacheParameters() {
+    	return getClass().getName() + 
+    		" maxDistance=" + _maxDistance +
+    		" minPixelsInArea=" + _minPixelsInArea +
+    		" maxPixelsInArea=" + _maxPixelsInArea +
+    		" iterations=" + _iterations +
+    		" toMask=" + _toMask +
+    		" referenceColor=" + _referenceColor +
+    		" inputColor=" + _inputColor +
+    		" useReferenceAsBackground=" + _useReferenceAsBackground +
+    		" paintForground=" + _paintForground +
+    		" colorSpace=" + _colorSpace +
+    		" labelMode=" + isLabelMode() +
+    		" featureMode=" + _featureMode +
+    		" boundedAreaMode=" + _boundedAreaMode +
+    		" insideMaskMode=" + _insideMaskMode +
+    		" colorHypothesisFinder=" + (_colorHypothesisFinder == null ? 
+    				null : _colorHypothesisFinder.getClass().getName());
+    }
+
+    /** Store the polygons if they were traced in this run. */
+    protected void storePolygonsInCache() {
+    	if (_polygonCache == null || _polygonCacheKey == null || _polygonsFromCache)
+    		return;
+    	List<Polygon> polygons = new ArrayList<Polygon>(_particlesFiltered.size());
+    	for (int i = 0; i < _particlesFiltered.size(); i++)
+    		polygons.add(_polygonStream.get(i));
+    	_polygonCache.put(_polygonCacheKey, polygons);
+    }
+
     protected void makeBBoxStreams() {
         Calc1<IColorAndVariance, Double> xMinCalc1 =
 			new Calc1<IColorAndVariance, Double>() {
@@ -116,6 +248,9 @@ public class ColorParticleAnalyzer extends BaseParticleCounter {
 				public Double invoke(IColorAndVariance input) {
 					if (input == null)
 						return null;
+					ParticleFeatures features = getParticleFeatures(input);
+					if (features != null)
+						return (double)features.getMinX();
 					PixelArea pixelArea = input.getPixelArea();
 					return pixelArea.getBoundingBox().minVal.getX();
 				}
@@ -129,6 +264,9 @@ public class ColorParticleAnalyzer extends BaseParticleCounter {
 				public Double invoke(IColorAndVariance input) {
 					if (input == null)
 						return null;
+					ParticleFeatures features = getParticleFeatures(input);
+					if (features != null)
+						return (double)features.getMinY();
 					PixelArea pixelArea = input.getPixelArea();
 					return pixelArea.getBoundingBox().minVal.getY();
 				}
@@ -142,6 +280,9 @@ public class ColorParticleAnalyzer extends BaseParticleCounter {
 				public Double invoke(IColorAndVariance input) {
 					if (input == null)
 						return null;
+					ParticleFeatures features = getParticleFeatures(input);
+					if (features != null)
+						return (double)features.getMaxX();
 					PixelArea pixelArea = input.getPixelArea();
 					return pixelArea.getBoundingBox().maxVal.getX();
 				}
@@ -155,6 +296,9 @@ public class ColorParticleAnalyzer extends BaseParticleCounter {
 				public Double invoke(IColorAndVariance input) {
 					if (input == null)
 						return null;
+					ParticleFeatures features = getParticleFeatures(input);
+					if (features != null)
+						return (double)features.getMaxY();
 					PixelArea pixelArea = input.getPixelArea();
 					return pixelArea.getBoundingBox().maxVal.getY();
 				}
@@ -269,6 +413,9 @@ public class ColorParticleAnalyzer extends BaseParticleCounter {
 
         Calc1<IColorAndVariance, Integer> areaClosure = new Calc1<IColorAndVariance, Integer>() {
             public Integer invoke(IColorAndVariance input) {
+                ParticleFeatures features = getParticleFeatures(input);
+                if (features != null)
+                    return features.getArea();
                 return input.getArea();
             }
         };
@@ -337,14 +484,29 @@ public class ColorParticleAnalyzer extends BaseParticleCounter {
 
         _tableDefinition.addDefinition(_aspectRatioStream, Headings.ASPECT_RATIO);
 
-        Calc1<Polygon, Double> perimeterCalc = new Calc1<Polygon, Double>() {
-            public Double invoke(Polygon input) {
-                if (input == null) return null;
-                return input.getPerimeter();
-            }
-        };
-        _perimeterStream =
+        if (_featureMode) {
+            //crack edge perimeter from the segmentation, no outline is traced
+            Calc1<IColorAndVariance, Double> perimeterCalc = new Calc1<IColorAndVariance, Double>() {
+                public Double invoke(IColorAndVariance input) {
+                    ParticleFeatures features = getParticleFeatures(input);
+                    if (features == null) return null;
+                    return (double)features.getPerimeter();
+                }
+            };
+            _perimeterStream = 
+                new CalcNumberedStream1<IColorAndVariance, Double>(perimeterCalc, _particleStream);
+            _tableDefinition.addDefinition(_perimeterStream, Headings.PERIMETER);
+        }
+        else {
+            Calc1<Polygon, Double> perimeterCalc = new Calc1<Polygon, Double>() {
+                public Double invoke(Polygon input) {
+                    if (input == null) return null;
+                    return input.getPerimeter();
+                }
+            };
+            _perimeterStream =
                 _tableDefinition.addClosureDefinition(_polygonStream, perimeterCalc, Headings.PERIMETER);
+        }
 
 // This is how you can make a stream that is using 2 other streams as input.
 // Note that the input streams have to be defined at this point.
@@ -382,6 +544,7 @@ public class ColorParticleAnalyzer extends BaseParticleCounter {
     		if (populateResultsTableRow(i))
     			populateResultsTableRowCustom(i);
     	}
+    	storePolygonsInCache();
 	}
 
 	@Override
@@ -410,6 +573,28 @@ public class ColorParticleAnalyzer extends BaseParticleCounter {
         _useNeuralNetwork = useNeuralNetwork;
     }
 
+    public boolean isInsideMaskMode() {
+        return _insideMaskMode;
+    }
+
+    public void setInsideMaskMode(boolean insideMaskMode) {
+        _insideMaskMode = insideMaskMode;
+    }
+
+    public PolygonCache getPolygonCache() {
+        return _polygonCache;
+    }
+
+    /** Cache for the polygons, null to always trace them. */
+    public void setPolygonCache(PolygonCache polygonCache) {
+        _polygonCache = polygonCache;
+    }
+
+    /** True if the polygons in the last run were read from the cache. */
+    public boolean isPolygonsFromCache() {
+        return _polygonsFromCache;
+    }
+
     /** This is only for testing the result table. <br />
      * This is empty when running from ColorParticleAnalyzerIJ.
      */
@@ -9,6 +9,7 @@ import ij.plugin.filter.PlugInFilterRunner;
 import ij.process.ImageProcessor;
 
 import java.io.File;
+import org.shapelogic.color.ColorSpace;
 import org.shapelogic.imageutil.IJGui;
 import org.shapelogic.imageutil.IJImage;
 import org.shapelogic.imageutil.SLImage;
@@ -32,6 +33,7 @@ public class ColorParticleAnalyzerIJ extends ColorParticleAnalyzer implements Ex
     protected static double _maxDistanceStatic = MAX_DISTANCE_DEFAULTS;
     protected static int _minPixelsInAreaStatic = MIN_PIXELS_IN_AREA_DEFAULTS;
     protected static int _maxPixelsInAreaStatic = MAX_PIXELS_IN_AREA_DEFAULTS;
+    protected static ColorSpace _colorSpaceStatic = ColorSpace.RGB;
     protected static boolean _countOnlyStatic = false;
     protected static boolean _toMaskStatic = false;
     protected static boolean _displayInternalInfoStatic = false;
@@ -67,6 +69,11 @@ public class ColorParticleAnalyzerIJ extends ColorParticleAnalyzer implements Ex
         _gd.addNumericField("Min_pixels", _minPixelsInAreaStatic, 0);
         _gd.addNumericField("Max_pixels", _maxPixelsInAreaStatic, 0);
         _gd.addNumericField("Iterations", _iterationsStatic, 0);
+        ColorSpace[] colorSpaces = ColorSpace.values();
+        String[] colorSpaceNames = new String[colorSpaces.length];
+        for (int i = 0; i < colorSpaces.length; i++)
+            colorSpaceNames[i] = colorSpaces[i].name();
+        _gd.addChoice("Color_space", colorSpaceNames, _colorSpaceStatic.name());
         _gd.addCheckbox("CountOnly", _countOnlyStatic);
         _gd.addCheckbox("ToMask", _toMaskStatic);
         _gd.addCheckbox("DisplayInternalInfo: ", _displayInternalInfoStatic);
@@ -81,6 +88,7 @@ public class ColorParticleAnalyzerIJ extends ColorParticleAnalyzer implements Ex
         _minPixelsInArea = _minPixelsInAreaStatic = (int)_gd.getNextNumber();
         _maxPixelsInArea = _maxPixelsInAreaStatic = (int)_gd.getNextNumber();
         _iterations = _iterationsStatic = (int)_gd.getNextNumber();
+        _colorSpace = _colorSpaceStatic = ColorSpace.values()[_gd.getNextChoiceIndex()];
         _countOnly = _countOnlyStatic = _gd.getNextBoolean();
         _toMask = _toMaskStatic = _gd.getNextBoolean();
         _displayInternalInfo = _displayInternalInfoStatic = _gd.getNextBoolean();
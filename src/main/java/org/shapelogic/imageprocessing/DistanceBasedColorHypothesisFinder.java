@@ -1,12 +1,10 @@
 package org.shapelogic.imageprocessing;
 
-import java.util.Collection;
-import java.util.Collections;
-import java.util.List;
 import org.shapelogic.color.ColorChannelSplitter;
 import org.shapelogic.color.ColorDistance1;
 import org.shapelogic.color.ColorFactory;
 import org.shapelogic.color.ColorHypothesis;
+import org.shapelogic.color.ColorRangeLookupTable;
 import org.shapelogic.color.IColorAndVariance;
 import org.shapelogic.color.IColorDistance;
 import org.shapelogic.color.IColorHypothesisFinder;
@@ -15,7 +13,7 @@ import org.shapelogic.color.SimpleColorHypothesis;
 import org.shapelogic.imageutil.BaseImageOperation;
 import org.shapelogic.imageutil.PixelArea;
 import org.shapelogic.imageutil.PixelAreaHandler;
-import org.shapelogic.imageutil.PixelHandler;
+import org.shapelogic.imageutil.RowPixelHandler;
 import org.shapelogic.imageutil.SLBufferedImage;
 import org.shapelogic.imageutil.SLImage;
 
@@ -31,11 +29,17 @@ import org.shapelogic.imageutil.SLImage;
  * 
  * I would think that maybe 
  * 
+ * In sampling mode only the pixels on a grid are used. The grid starts with 
+ * about initialSampleSize pixels and the stride is halved until the biggest 
+ * color has the same mean color and area fraction as in the last round, 
+ * within the sample tolerances. The areas in the hypothesis are then the 
+ * areas in the sample, getSampleSize() tells how many pixels were used.<br />
+ * 
  * @author Sami Badawi
  *
  */
 public class DistanceBasedColorHypothesisFinder extends BaseImageOperation
-implements IColorHypothesisFinder, PixelHandler {
+implements IColorHypothesisFinder, RowPixelHandler {
 	private ColorHypothesis _colorHypothesis; // = new SimpleColorHypothesis();
 	private ColorHypothesis _lastColorHypothesis;
 	private IColorRange _currentColorRange;
@@ -44,9 +48,24 @@ implements IColorHypothesisFinder, PixelHandler {
 	private int[] _colorCannels;
 	private PixelAreaHandler _pixelAreaHandler;
 	private ColorChannelSplitter _colorChannelSplitter; 
+    /** Lookup of the colors in the last hypothesis, only used if 
+     * _lookupBitsPerChannel is not 0. */
+    private ColorRangeLookupTable _lastColorLookup;
+    private int _lookupBitsPerChannel = 0;
     /** How many iterations to do */
 	private int _iterations = 1;
     private int _iteration;
+    /** Number of pixels used for the last hypothesis */
+    private int _pixelCount;
+    private boolean _sampling = false;
+    private int _initialSampleSize = DEFAULT_INITIAL_SAMPLE_SIZE;
+    /** Max change in area fraction of the biggest color between 2 samples */
+    private double _sampleAreaTolerance = 0.01;
+    /** Max change in any channel of the mean of the biggest color */
+    private double _sampleColorTolerance = 1.;
+    private int _sampleStride = 1;
+    
+    public static final int DEFAULT_INITIAL_SAMPLE_SIZE = 1 << 12;
     
 	public DistanceBasedColorHypothesisFinder(String arg, SLImage image, double maxDistance) {
 		_maxDistance = maxDistance;
@@ -83,6 +102,8 @@ implements IColorHypothesisFinder, PixelHandler {
     
     @Override
 	public ColorHypothesis findBestColorHypothesis() {
+        if (_sampling)
+            return findSampledColorHypothesis();
         for (_iteration = 0; _iteration < _iterations; _iteration++) {
             _currentColorRange = null;
             _colorHypothesis = colorHypothesisIteration(_colorHypothesis);
@@ -90,21 +111,102 @@ implements IColorHypothesisFinder, PixelHandler {
         findBestBackground(_colorHypothesis);
         return _colorHypothesis;
     }
+    
+    /** Halve the stride of the sample grid until the biggest color is stable. */
+    protected ColorHypothesis findSampledColorHypothesis() {
+        if (_pixelAreaHandler == null)
+            return null;
+        int stride = initialStride();
+        IColorAndVariance lastBiggest = null;
+        double lastFraction = 0.;
+        while (true) {
+            _colorHypothesis = null;
+            for (_iteration = 0; _iteration < _iterations; _iteration++) {
+                _currentColorRange = null;
+                _colorHypothesis = colorHypothesisIteration(_colorHypothesis, stride);
+            }
+            IColorAndVariance biggest = biggestColor(_colorHypothesis);
+            double fraction = biggest == null ? 0. : biggest.getArea() / (double)pixelCount();
+            if (stride == 1 || 
+                    (lastBiggest != null && biggest != null && 
+                    Math.abs(fraction - lastFraction) <= _sampleAreaTolerance &&
+                    sameColor(lastBiggest, biggest)))
+                break;
+            lastBiggest = biggest;
+            lastFraction = fraction;
+            stride /= 2;
+        }
+        findBestBackground(_colorHypothesis);
+        return _colorHypothesis;
+    }
+    
+    /** Biggest power of 2 stride that gives at least initialSampleSize pixels. */
+    protected int initialStride() {
+        int width = _image.getWidth();
+        int height = _image.getHeight();
+        int stride = 1;
+        while ((long)(width / (2 * stride)) * (height / (2 * stride)) >= _initialSampleSize)
+            stride *= 2;
+        return stride;
+    }
+    
+    /** Compare the means, for a ColorRange getColorChannels() is the range center. */
+    protected boolean sameColor(IColorAndVariance color1, IColorAndVariance color2) {
+        return Math.abs(color1.getMeanRed() - color2.getMeanRed()) <= _sampleColorTolerance &&
+            Math.abs(color1.getMeanGreen() - color2.getMeanGreen()) <= _sampleColorTolerance &&
+            Math.abs(color1.getMeanBlue() - color2.getMeanBlue()) <= _sampleColorTolerance;
+    }
+    
+    protected IColorAndVariance biggestColor(ColorHypothesis colorHypothesis) {
+        IColorAndVariance result = null;
+        for (IColorAndVariance color: colorHypothesis.getColors()) {
+            if (result == null || result.getArea() < color.getArea())
+                result = color;
+        }
+        return result;
+    }
 	
 	@Override
 	public ColorHypothesis colorHypothesisIteration(
 			ColorHypothesis lastColorHypothesis) {
+        return colorHypothesisIteration(lastColorHypothesis, 1);
+    }
+    
+    /** Only use the pixels where x and y are multiples of stride. */
+	protected ColorHypothesis colorHypothesisIteration(
+			ColorHypothesis lastColorHypothesis, int stride) {
         _lastColorHypothesis = lastColorHypothesis;
         _colorHypothesis = new SimpleColorHypothesis();
 		_colorHypothesis.setMaxDistance(_maxDistance);
 		if (_pixelAreaHandler == null) 
 			return null;
-		_pixelAreaHandler.handleAllPixels(this);
-        List<IColorAndVariance> colors = (List<IColorAndVariance>) _colorHypothesis.getColors();
-                
+		_lastColorLookup = null;
+		if (_lastColorHypothesis != null && _lookupBitsPerChannel != 0)
+			_lastColorLookup = new ColorRangeLookupTable(_lastColorHypothesis, _image.isGray(), 
+					_image.isGray16(), _lookupBitsPerChannel, _distance, _maxDistance * 0.7);
+        _sampleStride = stride;
+        if (stride == 1) {
+            _pixelAreaHandler.handleAllPixels(this);
+            _pixelCount = _image.getPixelCount();
+        }
+        else
+            handleSample(stride);
 		return _colorHypothesis;
 	}
 	
+    protected void handleSample(int stride) {
+        int width = _image.getWidth();
+        int[] row = new int[width];
+        _pixelCount = 0;
+        for (int y = 0; y < _image.getHeight(); y += stride) {
+            _image.getRow(0, y, width, row);
+            for (int x = 0; x < width; x += stride) {
+                putPixel(x, y, row[x]);
+                _pixelCount++;
+            }
+        }
+    }
+	
 	@Override
 	public int setup(String arg, SLImage image){
 		if (_pixelAreaHandler == null && image != null)
@@ -137,7 +239,12 @@ implements IColorHypothesisFinder, PixelHandler {
 					break;
 				}
 			}
-            if (_currentColorRange == null && _lastColorHypothesis != null) {
+            if (_currentColorRange == null && _lastColorLookup != null) {
+                IColorAndVariance colorJ = _lastColorLookup.getColor(color);
+                if (colorJ != null)
+                    newColorCenter = ((IColorRange) colorJ).getMeanColor();
+            }
+            else if (_currentColorRange == null && _lastColorHypothesis != null) {
                 for (IColorAndVariance colorJ : _lastColorHypothesis.getColors()) {
                     if (_distance.distance(_colorCannels,colorJ.getColorChannels()) <= _maxDistance * 0.7) {
                         newColorCenter = ((IColorRange) colorJ).getMeanColor();
@@ -155,11 +262,55 @@ implements IColorHypothesisFinder, PixelHandler {
 		}
 		_currentColorRange.putPixel(x, y, color);
 	}
+
+	@Override
+	public void handleRow(int y, int xStart, int[] colors, int length) {
+		for (int i = 0; i < length; i++)
+			putPixel(xStart + i, y, colors[i]);
+	}
 	
     public void setMaxDistance(double maxDistance){
         _maxDistance = maxDistance;
     }
     
+    /** Find the colors of the last hypothesis with a ColorRangeLookupTable 
+     * with bitsPerChannel bits, e.g. 5 or 6. 0 turns the table off.
+     */
+    public void setLookupBitsPerChannel(int bitsPerChannel) {
+        _lookupBitsPerChannel = bitsPerChannel;
+    }
+    
+    /** Use a growing sample of the pixels instead of all of them. */
+    public void setSampling(boolean sampling) {
+        _sampling = sampling;
+    }
+    
+    public boolean isSampling() {
+        return _sampling;
+    }
+    
+    /** About how many pixels to use in the first sample. */
+    public void setInitialSampleSize(int initialSampleSize) {
+        _initialSampleSize = initialSampleSize;
+    }
+    
+    /** Max change between 2 samples in the area fraction of the biggest 
+     * color and in each channel of its mean color. */
+    public void setSampleTolerance(double areaTolerance, double colorTolerance) {
+        _sampleAreaTolerance = areaTolerance;
+        _sampleColorTolerance = colorTolerance;
+    }
+    
+    /** Number of pixels used for the last hypothesis. */
+    public int getSampleSize() {
+        return _pixelCount;
+    }
+    
+    /** Stride of the sample grid for the last hypothesis, 1 for all pixels. */
+    public int getSampleStride() {
+        return _sampleStride;
+    }
+    
     @Override
     public ColorHypothesis getColorHypothesis() {
         return _colorHypothesis;
@@ -194,18 +345,15 @@ implements IColorHypothesisFinder, PixelHandler {
 
     @Override
     public IColorRange findBestBackground(ColorHypothesis colorHypothesis) {
-        List<IColorAndVariance> colorList = null;
-        Collection<IColorAndVariance> colorObj = colorHypothesis.getColors();
-        if (colorObj instanceof List) {
-            colorList = (List<IColorAndVariance>) colorObj;
-            Collections.sort(colorList,AreaComparator.INSTANCE);
-            IColorAndVariance biggestColor = colorList.get(colorList.size()-1);
-            if (_image.getPixelCount() < biggestColor.getArea()*2){
-                colorHypothesis.setBackground(biggestColor);
-                return (IColorRange) biggestColor;
-            }
-        }
-        return null;
+        return ColorHypothesisFinderUtil.findBestBackground(colorHypothesis, pixelCount());
+    }
+    
+    /** Number of pixels the hypothesis was found from, all the pixels in the
+     * image if nothing has been sampled yet. */
+    protected int pixelCount() {
+        if (_pixelCount == 0 && _image != null)
+            return _image.getPixelCount();
+        return _pixelCount;
     }
 
 }
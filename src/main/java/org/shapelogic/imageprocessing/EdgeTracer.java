@@ -6,9 +6,11 @@ import static org.shapelogic.util.Constants.RIGHT;
 import static org.shapelogic.util.Constants.UP;
 
 import org.shapelogic.color.ColorFactory;
+import org.shapelogic.color.ColorRangeLookupTable;
+import org.shapelogic.color.ColorSpace;
 import org.shapelogic.color.IColorDistanceWithImage;
 import org.shapelogic.imageutil.SLImage;
-import org.shapelogic.polygon.CPointInt;
+import org.shapelogic.imageutil.SLImageFactory;
 import org.shapelogic.polygon.Polygon;
 import org.shapelogic.util.Constants;
 
@@ -21,6 +23,10 @@ import org.shapelogic.util.Constants;
  * 
  * Might be replaced with a version that has all the pixels inside.<br />
  * 
+ * With an InsideMask the colors are not compared while tracing, the 4
+ * neighbors of a point are read from the mask into a 4 bit code and the
+ * next direction is found in a lookup table.<br />
+ * 
  * @author Sami Badawi
  *
  */
@@ -31,24 +37,107 @@ public class EdgeTracer implements IEdgeTracer {
 	private double _maxDistance;
 	private boolean _traceCloseToColor;
 	private boolean[] _dirs = new boolean[Constants.DIRECTIONS_AROUND_POINT]; 
+	private SLImage _image;
+	private ColorRangeLookupTable _colorRangeLookup;
+	private int _rangeIndex;
+	private InsideMask _insideMask;
+	private ChainCodeHandler _chainCodeHandler;
 	public static final int STEP_SIZE_FOR_4_DIRECTIONS = 2;
 	
+	/** Next direction for [last direction / 2][clockwise][neighbor code], 
+	 * bit i in the neighbor code is set if direction 2 * i is inside. */
+	private static final byte[][][] NEXT_DIRECTION = makeNextDirectionTable();
+	
 	/** Constructs a Wand object from an ImageProcessor. */
 	public EdgeTracer(SLImage image, int referenceColor, double maxDistance, boolean traceCloseToColor) {
-		_colorDistanceWithImage = ColorFactory.makeColorDistanceWithImage(image);
+		this(image, referenceColor, maxDistance, traceCloseToColor, ColorSpace.RGB);
+	}
+	
+	/** Use a color distance in colorSpace, with the conversion cache for LAB
+	 * and HSV. */
+	public EdgeTracer(SLImage image, int referenceColor, double maxDistance, 
+			boolean traceCloseToColor, ColorSpace colorSpace) {
+		_colorDistanceWithImage = ColorFactory.makeColorDistanceWithImage(image, 
+				colorSpace, colorSpace != ColorSpace.RGB);
 		_colorDistanceWithImage.setReferenceColor(referenceColor);
 		_maxDistance = maxDistance;
 		_traceCloseToColor = traceCloseToColor;
 		width = image.getWidth();
 		height = image.getHeight();
+		_image = image;
+	}
+	
+	/** Trace the color range rangeIndex in the lookup table instead of using
+	 * the distance to the reference color. Set the table to null to go back.
+	 */
+	public void setColorRangeLookup(ColorRangeLookupTable colorRangeLookup, int rangeIndex) {
+		_colorRangeLookup = colorRangeLookup;
+		_rangeIndex = rangeIndex;
+		if (colorRangeLookup != null)
+			_image = SLImageFactory.makeTypedImage(_image);
+	}
+	
+	/** Trace the inside pixels of a mask, _traceCloseToColor is not used.
+	 * Set the mask to null to go back to comparing colors.<br />
+	 * 
+	 * The mask can be made from a segmentation or label image, or with 
+	 * makeInsideMask(), and be reused for all the particles in an image.
+	 */
+	public void setInsideMask(InsideMask insideMask) {
+		_insideMask = insideMask;
+	}
+	
+	public InsideMask getInsideMask() {
+		return _insideMask;
+	}
+	
+	/** Compare the color of each pixel once and trace with the mask from now on. */
+	public InsideMask makeInsideMask() {
+		InsideMask insideMask = new InsideMask(width, height);
+		_insideMask = null;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				if (inside(x, y))
+					insideMask.set(x, y);
+			}
+		}
+		_insideMask = insideMask;
+		return insideMask;
+	}
+	
+	private static byte[][][] makeNextDirectionTable() {
+		int directions = Constants.DIRECTIONS_AROUND_POINT;
+		byte[][][] result = new byte[directions / 2][2][16];
+		for (int last = 0; last < directions; last += 2) {
+			for (int clockwise = 0; clockwise < 2; clockwise++) {
+				for (int code = 0; code < 16; code++) {
+					byte next = -1;
+					for (int i=2; i <= directions; i+=STEP_SIZE_FOR_4_DIRECTIONS) {
+						int step = clockwise == 1 ? i : directions - i;
+						int direction = (last + directions/2 + step) % directions;
+						if ((code & (1 << (direction / 2))) != 0) {
+							next = (byte)direction;
+							break;
+						}
+					}
+					result[last / 2][clockwise][code] = next;
+				}
+			}
+		}
+		return result;
 	}
 	
 	/** Use XOR to either handle colors close to reference color or far away. */
 	private boolean inside(int x, int y) {
+		if (_insideMask != null)
+			return _insideMask.get(x, y);
 		if (x < 0 || y < 0)
 			return false;
 		if (width <= x || height <= y)
 			return false;
+		if (_colorRangeLookup != null)
+			return _traceCloseToColor ^ 
+				(_colorRangeLookup.rangeIndex(_image.get(x, y)) != _rangeIndex);
 		return _traceCloseToColor ^ (_maxDistance < _colorDistanceWithImage.distanceToReferenceColor(x, y));
 	}
 
@@ -73,6 +162,14 @@ public class EdgeTracer implements IEdgeTracer {
 	}
 	
 	int nextDirection(int x, int y, int lastDirection, boolean clockwise) {
+		if (_insideMask != null && 0 <= lastDirection && 
+				lastDirection < Constants.DIRECTIONS_AROUND_POINT && lastDirection % 2 == 0) {
+			int code = (_insideMask.get(x + 1, y) ? 1 : 0) |
+				(_insideMask.get(x, y + 1) ? 2 : 0) |
+				(_insideMask.get(x - 1, y) ? 4 : 0) |
+				(_insideMask.get(x, y - 1) ? 8 : 0);
+			return NEXT_DIRECTION[lastDirection / 2][clockwise ? 1 : 0][code];
+		}
 		boolean[] directions = makeDirections(x, y, true);
 		int lastDirectionReleativeCurrent = lastDirection + Constants.DIRECTIONS_AROUND_POINT/2;
 		int stepSize = STEP_SIZE_FOR_4_DIRECTIONS;
@@ -102,11 +199,11 @@ public class EdgeTracer implements IEdgeTracer {
 	Polygon traceEdge(int xstart, int ystart, int startingDirection) {
 		Polygon polygon = new Polygon();
 		polygon.startMultiLine();
-		ChainCodeHandler chainCodeHandler = new ChainCodeHandler(polygon.getAnnotatedShape());
-		chainCodeHandler = new ChainCodeHandler(polygon.getAnnotatedShape());
-		chainCodeHandler.setup();
+		_chainCodeHandler = ChainCodeHandler.reuse(_chainCodeHandler, 
+				polygon.getAnnotatedShape(), width, height);
+		ChainCodeHandler chainCodeHandler = _chainCodeHandler;
 		chainCodeHandler.setMultiLine(polygon.getCurrentMultiLine());
-		chainCodeHandler.setFirstPoint(new CPointInt(xstart,ystart));
+		chainCodeHandler.setFirstPoint(xstart,ystart);
 		int x = xstart;
 		int y = ystart;
 		startingDirection = BaseVectorizer.oppesiteDirection((byte)nextDirection(x,y,startingDirection-2, false));
@@ -8,7 +8,6 @@ import static org.shapelogic.util.Constants.UP;
 import org.shapelogic.color.ColorFactory;
 import org.shapelogic.color.IColorDistanceWithImage;
 import org.shapelogic.imageutil.SLImage;
-import org.shapelogic.polygon.CPointInt;
 import org.shapelogic.polygon.Polygon;
 
 /** Edge Tracer. <br />
@@ -30,6 +29,7 @@ public class EdgeTracerWand implements IEdgeTracer {
 	private int width, height;
 	private double _maxDistance;
 	private boolean _traceCloseToColor;
+	private ChainCodeHandler _chainCodeHandler;
 
 	/** Constructs a Wand object from an ImageProcessor. */
 	public EdgeTracerWand(SLImage image, int referenceColor, double maxDistance, boolean traceCloseToColor) {
@@ -96,11 +96,11 @@ public class EdgeTracerWand implements IEdgeTracer {
 	Polygon traceEdge(int xstart, int ystart, int startingDirection) {
 		Polygon polygon = new Polygon();
 		polygon.startMultiLine();
-		ChainCodeHandler chainCodeHandler = new ChainCodeHandler(polygon.getAnnotatedShape());
-		chainCodeHandler = new ChainCodeHandler(polygon.getAnnotatedShape());
-		chainCodeHandler.setup();
+		_chainCodeHandler = ChainCodeHandler.reuse(_chainCodeHandler, 
+				polygon.getAnnotatedShape(), width, height);
+		ChainCodeHandler chainCodeHandler = _chainCodeHandler;
 		chainCodeHandler.setMultiLine(polygon.getCurrentMultiLine());
-		chainCodeHandler.setFirstPoint(new CPointInt(xstart,ystart));
+		chainCodeHandler.setFirstPoint(xstart,ystart);
 		int[] table = {
 						// 1234, 1=upper left pixel,  2=upper right, 3=lower left, 4=lower right
 			NA,			// 0000, should never happen
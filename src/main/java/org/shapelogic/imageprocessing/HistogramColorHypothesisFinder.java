@@ -0,0 +1,223 @@
+package org.shapelogic.imageprocessing;
+
+import java.util.Arrays;
+
+import org.shapelogic.color.ColorDistance1;
+import org.shapelogic.color.ColorFactory;
+import org.shapelogic.color.ColorHistogram;
+import org.shapelogic.color.ColorHypothesis;
+import org.shapelogic.color.ColorUtil;
+import org.shapelogic.color.IColorAndVariance;
+import org.shapelogic.color.IColorDistance;
+import org.shapelogic.color.IColorHypothesisFinder;
+import org.shapelogic.color.IColorRange;
+import org.shapelogic.color.SimpleColorHypothesis;
+import org.shapelogic.imageutil.BaseImageOperation;
+import org.shapelogic.imageutil.PixelArea;
+import org.shapelogic.imageutil.PixelAreaHandler;
+import org.shapelogic.imageutil.SLBufferedImage;
+import org.shapelogic.imageutil.SLImage;
+
+/** Find a color hypothesis from a color histogram. <br />
+ *
+ * Works like DistanceBasedColorHypothesisFinder, but instead of comparing
+ * each pixel to the colors found so far, the image is first read once into a
+ * ColorHistogram, 5 bits per channel for RGB and 256 bins for gray, 65536
+ * for 16 bit gray.<br />
+ *
+ * The bins are then clustered, the biggest bins first: a bin goes into the
+ * first color range that has the bin mean in range, else it starts a new 
+ * color range. So the work after the pixel pass depends on the number of
+ * bins, not on the number of pixels times the number of colors.<br />
+ *
+ * The histogram is only made once, later iterations only cluster again,
+ * using the mean colors of the last hypothesis as centers.<br />
+ *
+ * @author Sami Badawi
+ *
+ */
+public class HistogramColorHypothesisFinder extends BaseImageOperation
+implements IColorHypothesisFinder {
+	private ColorHypothesis _colorHypothesis;
+	private ColorHypothesis _lastColorHypothesis;
+	private double _maxDistance;
+	private IColorDistance _distance = new ColorDistance1();
+	private ColorHistogram _histogram;
+	private int _bitsPerChannel = ColorHistogram.DEFAULT_BITS_PER_CHANNEL;
+	private int _numberOfThreads = Runtime.getRuntime().availableProcessors();
+	/** How many iterations to do */
+	private int _iterations = 1;
+	private int _iteration;
+
+	public HistogramColorHypothesisFinder(String arg, SLImage image, double maxDistance) {
+		_maxDistance = maxDistance;
+		_arg = arg;
+		_image = image;
+	}
+
+	public HistogramColorHypothesisFinder(String arg, String filePath, double maxDistance) {
+		this(arg, new SLBufferedImage(filePath), maxDistance);
+	}
+
+	public HistogramColorHypothesisFinder() {
+		this(30.);
+	}
+
+	public HistogramColorHypothesisFinder(double maxDistance) {
+		this(null, (SLImage)null, maxDistance);
+	}
+
+	@Override
+	public ColorHypothesis findBestColorHypothesis() {
+		for (_iteration = 0; _iteration < _iterations; _iteration++) {
+			_colorHypothesis = colorHypothesisIteration(_colorHypothesis);
+		}
+		if (_colorHypothesis != null)
+			findBestBackground(_colorHypothesis);
+		return _colorHypothesis;
+	}
+
+	/** Fill the histogram in one pass over the image. */
+	protected void makeHistogram() {
+		_histogram = new ColorHistogram(_image.isGray(), _image.isGray16(), _bitsPerChannel);
+		new PixelAreaHandler(_image).handleAllPixelsParallel(_histogram, _numberOfThreads);
+	}
+
+	@Override
+	public ColorHypothesis colorHypothesisIteration(
+			ColorHypothesis lastColorHypothesis) {
+		_lastColorHypothesis = lastColorHypothesis;
+		if (_image == null)
+			return null;
+		if (_histogram == null)
+			makeHistogram();
+		_colorHypothesis = new SimpleColorHypothesis();
+		_colorHypothesis.setMaxDistance(_maxDistance);
+		int[] binChannels = new int[_histogram.isGray() ? 1 : 3];
+		for (int bin: binsBiggestFirst()) {
+			int meanColor = _histogram.getMeanColor(bin);
+			splitColor(meanColor, binChannels);
+			IColorRange colorRange = null;
+			for (IColorAndVariance colorI : _colorHypothesis.getColors()) {
+				if (((IColorRange) colorI).colorInRange(meanColor)) {
+					colorRange = (IColorRange) colorI;
+					break;
+				}
+			}
+			if (colorRange == null) {
+				int newColorCenter = meanColor;
+				if (_lastColorHypothesis != null) {
+					for (IColorAndVariance colorJ : _lastColorHypothesis.getColors()) {
+						if (_distance.distance(binChannels, colorJ.getColorChannels()) <= _maxDistance * 0.7) {
+							newColorCenter = ((IColorRange) colorJ).getMeanColor();
+							break;
+						}
+					}
+				}
+				colorRange = ColorFactory.makeColorRangeI(_image);
+				colorRange.setColorCenter(newColorCenter);
+				colorRange.setMaxDistance(_maxDistance);
+				colorRange.setPixelArea(new PixelArea(_histogram.getFirstX(bin),
+						_histogram.getFirstY(bin)));
+				_colorHypothesis.addColor(colorRange);
+			}
+			_histogram.addBinTo(bin, colorRange);
+		}
+		return _colorHypothesis;
+	}
+
+	/** The bins that are not empty, sorted with the biggest count first. */
+	protected int[] binsBiggestFirst() {
+		int numberOfBins = _histogram.getNumberOfBins();
+		long[] keys = new long[numberOfBins];
+		int size = 0;
+		for (int bin = 0; bin < numberOfBins; bin++) {
+			int count = _histogram.getCount(bin);
+			if (0 < count)
+				keys[size++] = ((long)count << 32) | (numberOfBins - 1 - bin);
+		}
+		Arrays.sort(keys, 0, size);
+		int[] result = new int[size];
+		for (int i = 0; i < size; i++)
+			result[i] = numberOfBins - 1 - (int)(keys[size - 1 - i] & 0xffffffffL);
+		return result;
+	}
+
+	protected void splitColor(int color, int[] channels) {
+		if (channels.length == 1)
+			channels[0] = color;
+		else
+			ColorUtil.splitColor(color, channels);
+	}
+
+	@Override
+	public int setup(String arg, SLImage image) {
+		if (image != _image)
+			_histogram = null;
+		return super.setup(arg, image);
+	}
+
+	@Override
+	public void run() {
+		_colorHypothesis = findBestColorHypothesis();
+		if (_colorHypothesis == null) {
+			showMessage("Error in " + getClass().getSimpleName(), "Image not set.");
+			return;
+		}
+		String message = "Numbers of color found: " + _colorHypothesis.getColors().size();
+		showMessage(getClass().getSimpleName(), message);
+	}
+
+	public void setMaxDistance(double maxDistance) {
+		_maxDistance = maxDistance;
+	}
+
+	@Override
+	public ColorHypothesis getColorHypothesis() {
+		return _colorHypothesis;
+	}
+
+	/** How many iterations to do. */
+	@Override
+	public int getIterations() {
+		return _iterations;
+	}
+
+	/** How many iterations to do. */
+	@Override
+	public void setIterations(int iterations) {
+		_iterations = iterations;
+	}
+
+	@Override
+	public boolean verifyColor(IColorRange colorRange) {
+		return true;
+	}
+
+	/** Number of the current iteration. */
+	@Override
+	public int getIteration() {
+		return _iteration;
+	}
+
+	@Override
+	public IColorRange findBestBackground(ColorHypothesis colorHypothesis) {
+		return ColorHypothesisFinderUtil.findBestBackground(colorHypothesis, _image.getPixelCount());
+	}
+
+	public ColorHistogram getHistogram() {
+		return _histogram;
+	}
+
+	/** Bits per channel for RGB images, gray images always use 256 bins. */
+	public void setBitsPerChannel(int bitsPerChannel) {
+		_bitsPerChannel = bitsPerChannel;
+		_histogram = null;
+	}
+
+	/** Threads used to fill the histogram, one per processor by default. 
+	 * The counts are the same with any number of threads. */
+	public void setNumberOfThreads(int numberOfThreads) {
+		_numberOfThreads = numberOfThreads;
+	}
+}
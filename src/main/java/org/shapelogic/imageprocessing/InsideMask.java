@@ -0,0 +1,81 @@
+package org.shapelogic.imageprocessing;
+
+/** Packed bit mask of the pixels that are inside the particles.<br />
+ *
+ * Each row is stored in 64 bit words, so a 1024 x 1024 image takes 128 KB.
+ * Pixels outside the image are never inside.<br />
+ *
+ * Used by EdgeTracer, so the color of each pixel only has to be compared
+ * once, or not at all if the mask is made from a segmentation.<br />
+ *
+ * @author Sami Badawi
+ *
+ */
+public class InsideMask {
+	protected int _width;
+	protected int _height;
+	protected int _wordsPerRow;
+	protected long[] _bits;
+
+	public InsideMask(int width, int height) {
+		_width = width;
+		_height = height;
+		_wordsPerRow = (width + 63) >> 6;
+		_bits = new long[_wordsPerRow * height];
+	}
+
+	public boolean get(int x, int y) {
+		if (x < 0 || y < 0 || _width <= x || _height <= y)
+			return false;
+		return (_bits[y * _wordsPerRow + (x >> 6)] & (1L << x)) != 0;
+	}
+
+	public void set(int x, int y) {
+		_bits[y * _wordsPerRow + (x >> 6)] |= 1L << x;
+	}
+
+	/** Number of pixels inside. */
+	public int count() {
+		int result = 0;
+		for (int i = 0; i < _bits.length; i++)
+			result += Long.bitCount(_bits[i]);
+		return result;
+	}
+
+	/** Mask of the pixels with label in a label image,
+	 * like the one from SBLabelSegmentation. */
+	public static InsideMask fromLabels(int[] labels, int width, int height, int label) {
+		InsideMask result = new InsideMask(width, height);
+		for (int y = 0; y < height; y++) {
+			int offset = y * width;
+			for (int x = 0; x < width; x++) {
+				if (labels[offset + x] == label)
+					result.set(x, y);
+			}
+		}
+		return result;
+	}
+
+	/** Mask of the pixels handled by a segmentation, after
+	 * SBSegmentation.segmentAll(color) these are the pixels similar to color. */
+	public static InsideMask fromHandled(SBSegmentation segmentation) {
+		int width = segmentation.getSLImage().getWidth();
+		int height = segmentation.getSLImage().getHeight();
+		InsideMask result = new InsideMask(width, height);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				if (segmentation.pixelIsHandled(segmentation.pointToIndex(x, y)))
+					result.set(x, y);
+			}
+		}
+		return result;
+	}
+
+	public int getWidth() {
+		return _width;
+	}
+
+	public int getHeight() {
+		return _height;
+	}
+}
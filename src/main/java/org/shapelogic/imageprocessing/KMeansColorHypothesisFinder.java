@@ -0,0 +1,547 @@
+package org.shapelogic.imageprocessing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.shapelogic.color.ColorFactory;
+import org.shapelogic.color.ColorHypothesis;
+import org.shapelogic.color.ColorUtil;
+import org.shapelogic.color.IColorAndVariance;
+import org.shapelogic.color.IColorHypothesisFinder;
+import org.shapelogic.color.IColorRange;
+import org.shapelogic.color.SimpleColorHypothesis;
+import org.shapelogic.imageutil.BaseImageOperation;
+import org.shapelogic.imageutil.MergeablePixelHandler;
+import org.shapelogic.imageutil.PixelArea;
+import org.shapelogic.imageutil.PixelAreaHandler;
+import org.shapelogic.imageutil.SLBufferedImage;
+import org.shapelogic.imageutil.SLImage;
+import org.shapelogic.mathematics.StorelessDiscriptiveStatistic;
+
+/** Find a color hypothesis with k-means, also called Lloyd's algorithm.<br />
+ *
+ * Unlike DistanceBasedColorHypothesisFinder the result does not depend on the
+ * order the pixels are read in.<br />
+ *
+ * The start centers are found with k-means++ on a sample of about sampleSize
+ * pixels taken on a grid, and k-means is run on the sample first. After that
+ * each iteration assigns every pixel to the nearest center and moves the
+ * centers to the mean of their pixels, until no center moves more than the
+ * convergence threshold in any channel, or iterations is reached.<br />
+ *
+ * The pixels are assigned in tiles with PixelAreaHandler.handleAllPixelsParallel()
+ * and each worker thread sums up the clusters of its tiles in its own arrays.<br />
+ *
+ * In the hypothesis clusters with a center in range of a bigger cluster are
+ * merged into it, so numberOfColors is the most colors that can be found.
+ * <br />
+ *
+ * @author Sami Badawi
+ *
+ */
+public class KMeansColorHypothesisFinder extends BaseImageOperation
+implements IColorHypothesisFinder {
+	public static final int DEFAULT_NUMBER_OF_COLORS = 8;
+	public static final int DEFAULT_SAMPLE_SIZE = 1 << 16;
+	public static final double DEFAULT_CONVERGENCE_THRESHOLD = 0.5;
+
+	private ColorHypothesis _colorHypothesis;
+	private double _maxDistance;
+	private int _numberOfColors = DEFAULT_NUMBER_OF_COLORS;
+	private int _sampleSize = DEFAULT_SAMPLE_SIZE;
+	private double _convergenceThreshold = DEFAULT_CONVERGENCE_THRESHOLD;
+	private int _numberOfThreads = Runtime.getRuntime().availableProcessors();
+	private long _seed = 0;
+	private double[][] _centers;
+	/** Max number of iterations over the whole image */
+	private int _iterations = 20;
+	private int _iteration;
+
+	public KMeansColorHypothesisFinder(String arg, SLImage image, double maxDistance) {
+		_maxDistance = maxDistance;
+		_arg = arg;
+		_image = image;
+	}
+
+	public KMeansColorHypothesisFinder(String arg, String filePath, double maxDistance) {
+		this(arg, new SLBufferedImage(filePath), maxDistance);
+	}
+
+	public KMeansColorHypothesisFinder() {
+		this(30.);
+	}
+
+	public KMeansColorHypothesisFinder(double maxDistance) {
+		this(null, (SLImage)null, maxDistance);
+	}
+
+	@Override
+	public ColorHypothesis findBestColorHypothesis() {
+		_colorHypothesis = colorHypothesisIteration(null);
+		if (_colorHypothesis != null)
+			findBestBackground(_colorHypothesis);
+		return _colorHypothesis;
+	}
+
+	/** Run k-means to convergence, starting from the mean colors of
+	 * lastColorHypothesis if it is not null. */
+	@Override
+	public ColorHypothesis colorHypothesisIteration(
+			ColorHypothesis lastColorHypothesis) {
+		if (_image == null)
+			return null;
+		PixelAreaHandler pixelAreaHandler = new PixelAreaHandler(_image);
+		//16 bit gray is clustered on the whole value
+		int numberOfChannels = _image.isGray() || _image.isGray16() ? 1 : 3;
+		_iteration = 0;
+		if (lastColorHypothesis != null && !lastColorHypothesis.getColors().isEmpty())
+			_centers = centersFromHypothesis(lastColorHypothesis, numberOfChannels);
+		else {
+			int[] sample = makeSample();
+			if (sample.length == 0) { //empty image, there are no colors
+				_colorHypothesis = new SimpleColorHypothesis();
+				_colorHypothesis.setMaxDistance(_maxDistance);
+				return _colorHypothesis;
+			}
+			_centers = initCenters(sample, numberOfChannels);
+			for (int i = 0; i < _iterations; i++) {
+				ClusterSums sums = new ClusterSums(_centers, false);
+				sums.handleRow(0, 0, sample, sample.length);
+				if (moveCenters(sums))
+					break;
+			}
+		}
+		while (_iteration < _iterations) {
+			ClusterSums sums = new ClusterSums(_centers, false);
+			pixelAreaHandler.handleAllPixelsParallel(sums, _numberOfThreads);
+			_iteration++;
+			if (moveCenters(sums))
+				break;
+		}
+		ClusterSums sums = new ClusterSums(_centers, true);
+		pixelAreaHandler.handleAllPixelsParallel(sums, _numberOfThreads);
+		_colorHypothesis = makeColorHypothesis(sums);
+		return _colorHypothesis;
+	}
+
+	/** Pixels on a grid, so there are about sampleSize of them. */
+	protected int[] makeSample() {
+		int width = _image.getWidth();
+		int height = _image.getHeight();
+		int step = 1;
+		if (0 < _sampleSize && _sampleSize < _image.getPixelCount())
+			step = (int)Math.sqrt(_image.getPixelCount() / (double)_sampleSize);
+		step = Math.max(1, step);
+		int columns = (width + step - 1) / step;
+		int rows = (height + step - 1) / step;
+		int[] sample = new int[columns * rows];
+		int[] row = new int[width];
+		int size = 0;
+		for (int y = 0; y < height; y += step) {
+			_image.getRow(0, y, width, row);
+			for (int x = 0; x < width; x += step)
+				sample[size++] = row[x];
+		}
+		return sample;
+	}
+
+	/** k-means++: each new center is picked with a probability proportional to
+	 * the squared distance to the nearest center picked so far. */
+	protected double[][] initCenters(int[] sample, int numberOfChannels) {
+		Random random = new Random(_seed);
+		int[] channels = new int[numberOfChannels];
+		int sampleSize = sample.length;
+		double[] nearest = new double[sampleSize];
+		List<double[]> centers = new ArrayList<double[]>();
+		centers.add(toChannels(sample[random.nextInt(sampleSize)], channels));
+		for (int i = 0; i < sampleSize; i++)
+			nearest[i] = Double.MAX_VALUE;
+		while (centers.size() < _numberOfColors) {
+			double[] last = centers.get(centers.size() - 1);
+			double total = 0.;
+			for (int i = 0; i < sampleSize; i++) {
+				splitColor(sample[i], channels);
+				nearest[i] = Math.min(nearest[i], squareDistance(channels, last));
+				total += nearest[i];
+			}
+			if (total == 0.) //fewer colors than numberOfColors
+				break;
+			double target = random.nextDouble() * total;
+			int pick = sampleSize - 1;
+			for (int i = 0; i < sampleSize; i++) {
+				target -= nearest[i];
+				if (target < 0.) {
+					pick = i;
+					break;
+				}
+			}
+			centers.add(toChannels(sample[pick], channels));
+		}
+		return centers.toArray(new double[centers.size()][]);
+	}
+
+	protected double[][] centersFromHypothesis(ColorHypothesis colorHypothesis,
+			int numberOfChannels) {
+		Collection<IColorAndVariance> colors = colorHypothesis.getColors();
+		double[][] centers = new double[colors.size()][numberOfChannels];
+		int i = 0;
+		for (IColorAndVariance color: colors) {
+			int[] channels = color.getColorChannels();
+			for (int c = 0; c < numberOfChannels; c++)
+				centers[i][c] = channels[c];
+			i++;
+		}
+		return centers;
+	}
+
+	/** Move each center to the mean of its pixels.
+	 *
+	 * @return true if no center moved more than the convergence threshold
+	 */
+	protected boolean moveCenters(ClusterSums sums) {
+		boolean converged = true;
+		for (int k = 0; k < _centers.length; k++) {
+			if (sums._count[k] == 0)
+				continue; //keep the center of an empty cluster
+			for (int c = 0; c < sums._numberOfChannels; c++) {
+				double mean = sums._sum[c][k] / sums._count[k];
+				if (_convergenceThreshold < Math.abs(mean - _centers[k][c]))
+					converged = false;
+				_centers[k][c] = mean;
+			}
+		}
+		return converged;
+	}
+
+	/** Turn the clusters into color ranges, biggest first. A cluster with the
+	 * center in range of a bigger cluster is added to that. */
+	protected ColorHypothesis makeColorHypothesis(ClusterSums sums) {
+		ColorHypothesis colorHypothesis = new SimpleColorHypothesis();
+		colorHypothesis.setMaxDistance(_maxDistance);
+		Integer[] order = new Integer[_centers.length];
+		for (int k = 0; k < order.length; k++)
+			order[k] = k;
+		final int[] count = sums._count;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer k1, Integer k2) {
+				return count[k2] - count[k1];
+			}
+		});
+		for (int k: order) {
+			if (count[k] == 0)
+				continue;
+			int centerColor = sums.getMeanColor(k);
+			IColorRange colorRange = null;
+			for (IColorAndVariance colorI : colorHypothesis.getColors()) {
+				if (((IColorRange) colorI).colorInRange(centerColor)) {
+					colorRange = (IColorRange) colorI;
+					break;
+				}
+			}
+			if (colorRange == null) {
+				colorRange = ColorFactory.makeColorRangeI(_image);
+				colorRange.setColorCenter(centerColor);
+				colorRange.setMaxDistance(_maxDistance);
+				colorRange.setPixelArea(new PixelArea(sums._firstX[k], sums._firstY[k]));
+				colorHypothesis.addColor(colorRange);
+			}
+			sums.addClusterTo(k, colorRange);
+		}
+		return colorHypothesis;
+	}
+
+	protected void splitColor(int color, int[] channels) {
+		if (channels.length == 1)
+			channels[0] = color;
+		else
+			ColorUtil.splitColor(color, channels);
+	}
+
+	protected double[] toChannels(int color, int[] channels) {
+		splitColor(color, channels);
+		double[] result = new double[channels.length];
+		for (int c = 0; c < channels.length; c++)
+			result[c] = channels[c];
+		return result;
+	}
+
+	static double squareDistance(int[] channels, double[] center) {
+		double result = 0.;
+		for (int c = 0; c < channels.length; c++) {
+			double diff = channels[c] - center[c];
+			result += diff * diff;
+		}
+		return result;
+	}
+
+	/** Sums for each cluster, one of these is made for each worker thread.<br />
+	 *
+	 * If full is set the statistics and the pixel area are also found, this is
+	 * only needed for the last pass.
+	 */
+	protected static class ClusterSums implements MergeablePixelHandler {
+		protected double[][] _centers;
+		protected boolean _full;
+		protected int _numberOfChannels;
+		protected int[] _count;
+		protected double[][] _sum;
+		protected double[][] _sumSquare;
+		protected int[][] _min, _max;
+		protected double[] _sumX, _sumY;
+		protected int[] _minX, _maxX, _minY, _maxY;
+		protected int[] _firstX, _firstY;
+		protected int[] _channels;
+
+		public ClusterSums(double[][] centers, boolean full) {
+			_centers = centers;
+			_full = full;
+			_numberOfChannels = centers[0].length;
+			int k = centers.length;
+			_count = new int[k];
+			_sum = new double[_numberOfChannels][k];
+			_channels = new int[_numberOfChannels];
+			if (full) {
+				_sumSquare = new double[_numberOfChannels][k];
+				_min = new int[_numberOfChannels][k];
+				_max = new int[_numberOfChannels][k];
+				_sumX = new double[k];
+				_sumY = new double[k];
+				_minX = new int[k];
+				_maxX = new int[k];
+				_minY = new int[k];
+				_maxY = new int[k];
+				_firstX = new int[k];
+				_firstY = new int[k];
+			}
+		}
+
+		/** Index of the nearest center. */
+		protected int nearest(int[] channels) {
+			int result = 0;
+			double best = Double.MAX_VALUE;
+			for (int k = 0; k < _centers.length; k++) {
+				double distance = squareDistance(channels, _centers[k]);
+				if (distance < best) {
+					best = distance;
+					result = k;
+				}
+			}
+			return result;
+		}
+
+		@Override
+		public void putPixel(int x, int y, int color) {
+			int[] channels = _channels;
+			if (_numberOfChannels == 1)
+				channels[0] = color;
+			else
+				ColorUtil.splitColor(color, channels);
+			int k = nearest(channels);
+			int count = _count[k]++;
+			for (int c = 0; c < _numberOfChannels; c++)
+				_sum[c][k] += channels[c];
+			if (!_full)
+				return;
+			if (count == 0) {
+				for (int c = 0; c < _numberOfChannels; c++) {
+					_min[c][k] = channels[c];
+					_max[c][k] = channels[c];
+				}
+				_minX[k] = x;
+				_maxX[k] = x;
+				_minY[k] = y;
+				_maxY[k] = y;
+				_firstX[k] = x;
+				_firstY[k] = y;
+			}
+			else {
+				for (int c = 0; c < _numberOfChannels; c++) {
+					if (channels[c] < _min[c][k]) _min[c][k] = channels[c];
+					if (_max[c][k] < channels[c]) _max[c][k] = channels[c];
+				}
+				if (x < _minX[k]) _minX[k] = x;
+				if (_maxX[k] < x) _maxX[k] = x;
+				if (y < _minY[k]) _minY[k] = y;
+				if (_maxY[k] < y) _maxY[k] = y;
+			}
+			for (int c = 0; c < _numberOfChannels; c++)
+				_sumSquare[c][k] += (double)channels[c] * channels[c];
+			_sumX[k] += x;
+			_sumY[k] += y;
+		}
+
+		@Override
+		public void handleRow(int y, int xStart, int[] colors, int length) {
+			for (int i = 0; i < length; i++)
+				putPixel(xStart + i, y, colors[i]);
+		}
+
+		@Override
+		public MergeablePixelHandler makeTileHandler() {
+			return new ClusterSums(_centers, _full);
+		}
+
+		/** Add the sums, the first pixel is the one first in scan order. */
+		@Override
+		public void mergeTileHandler(MergeablePixelHandler tileHandler) {
+			ClusterSums tile = (ClusterSums) tileHandler;
+			for (int k = 0; k < _count.length; k++) {
+				if (tile._count[k] == 0)
+					continue;
+				for (int c = 0; c < _numberOfChannels; c++)
+					_sum[c][k] += tile._sum[c][k];
+				if (_full) {
+					if (_count[k] == 0) {
+						for (int c = 0; c < _numberOfChannels; c++) {
+							_min[c][k] = tile._min[c][k];
+							_max[c][k] = tile._max[c][k];
+						}
+						_minX[k] = tile._minX[k];
+						_maxX[k] = tile._maxX[k];
+						_minY[k] = tile._minY[k];
+						_maxY[k] = tile._maxY[k];
+						_firstX[k] = tile._firstX[k];
+						_firstY[k] = tile._firstY[k];
+					}
+					else {
+						for (int c = 0; c < _numberOfChannels; c++) {
+							_min[c][k] = Math.min(_min[c][k], tile._min[c][k]);
+							_max[c][k] = Math.max(_max[c][k], tile._max[c][k]);
+						}
+						_minX[k] = Math.min(_minX[k], tile._minX[k]);
+						_maxX[k] = Math.max(_maxX[k], tile._maxX[k]);
+						_minY[k] = Math.min(_minY[k], tile._minY[k]);
+						_maxY[k] = Math.max(_maxY[k], tile._maxY[k]);
+						if (tile._firstY[k] < _firstY[k] || (tile._firstY[k] == _firstY[k] &&
+								tile._firstX[k] < _firstX[k])) {
+							_firstX[k] = tile._firstX[k];
+							_firstY[k] = tile._firstY[k];
+						}
+					}
+					for (int c = 0; c < _numberOfChannels; c++)
+						_sumSquare[c][k] += tile._sumSquare[c][k];
+					_sumX[k] += tile._sumX[k];
+					_sumY[k] += tile._sumY[k];
+				}
+				_count[k] += tile._count[k];
+			}
+		}
+
+		/** Mean color of a cluster, gray value or packed RGB. */
+		public int getMeanColor(int k) {
+			int count = _count[k];
+			if (count == 0)
+				return 0;
+			if (_numberOfChannels == 1)
+				return (int)Math.round(_sum[0][k] / count);
+			return ColorUtil.packColors(
+					(int)Math.round(_sum[0][k] / count),
+					(int)Math.round(_sum[1][k] / count),
+					(int)Math.round(_sum[2][k] / count));
+		}
+
+		/** Add the pixels of cluster k to colorAndVariance and its PixelArea. */
+		public void addClusterTo(int k, IColorAndVariance colorAndVariance) {
+			int count = _count[k];
+			if (count == 0)
+				return;
+			StorelessDiscriptiveStatistic[] statistics =
+				new StorelessDiscriptiveStatistic[_numberOfChannels];
+			for (int c = 0; c < _numberOfChannels; c++)
+				statistics[c] = new StorelessDiscriptiveStatistic(count, _sum[c][k],
+						_sumSquare[c][k], _min[c][k], _max[c][k]);
+			colorAndVariance.mergeStatistics(statistics);
+			PixelArea pixelArea = colorAndVariance.getPixelArea();
+			if (pixelArea != null)
+				pixelArea.addPoints(count, _sumX[k], _sumY[k],
+						_minX[k], _minY[k], _maxX[k], _maxY[k]);
+		}
+	}
+
+	@Override
+	public void run() {
+		_colorHypothesis = findBestColorHypothesis();
+		if (_colorHypothesis == null) {
+			showMessage("Error in " + getClass().getSimpleName(), "Image not set.");
+			return;
+		}
+		String message = "Numbers of color found: " + _colorHypothesis.getColors().size();
+		showMessage(getClass().getSimpleName(), message);
+	}
+
+	public void setMaxDistance(double maxDistance) {
+		_maxDistance = maxDistance;
+	}
+
+	@Override
+	public ColorHypothesis getColorHypothesis() {
+		return _colorHypothesis;
+	}
+
+	/** Max number of iterations over the whole image. */
+	@Override
+	public int getIterations() {
+		return _iterations;
+	}
+
+	/** Max number of iterations over the whole image. */
+	@Override
+	public void setIterations(int iterations) {
+		_iterations = iterations;
+	}
+
+	/** Number of iterations over the whole image in the last run. */
+	@Override
+	public int getIteration() {
+		return _iteration;
+	}
+
+	@Override
+	public boolean verifyColor(IColorRange colorRange) {
+		return true;
+	}
+
+	@Override
+	public IColorRange findBestBackground(ColorHypothesis colorHypothesis) {
+		return ColorHypothesisFinderUtil.findBestBackground(colorHypothesis, _image.getPixelCount());
+	}
+
+	/** Max number of clusters. */
+	public void setNumberOfColors(int numberOfColors) {
+		_numberOfColors = numberOfColors;
+	}
+
+	public int getNumberOfColors() {
+		return _numberOfColors;
+	}
+
+	/** About how many pixels to use to find the start centers, 0 uses all. */
+	public void setSampleSize(int sampleSize) {
+		_sampleSize = sampleSize;
+	}
+
+	/** Stop when no center moves more than this in any channel. */
+	public void setConvergenceThreshold(double convergenceThreshold) {
+		_convergenceThreshold = convergenceThreshold;
+	}
+
+	/** Threads used to assign the pixels, default is one per processor. */
+	public void setNumberOfThreads(int numberOfThreads) {
+		_numberOfThreads = numberOfThreads;
+	}
+
+	/** Seed for picking the start centers. */
+	public void setSeed(long seed) {
+		_seed = seed;
+	}
+
+	/** Centers after the last run, one array of channels for each cluster. */
+	public double[][] getCenters() {
+		return _centers;
+	}
+}
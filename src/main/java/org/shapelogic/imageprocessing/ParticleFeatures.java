@@ -0,0 +1,120 @@
+package org.shapelogic.imageprocessing;
+
+/** Shape features of a particle, summed up while it is segmented.<br />
+ *
+ * Only primitive fields: number of pixels, bounding box, sums of the
+ * coordinates and their squares and products, crack edge perimeter and the
+ * start point, the first pixel in scan order, that is on the boundary and
+ * can be used to trace the outline.<br />
+ *
+ * The crack edge perimeter is the number of pixel sides between the particle
+ * and pixels that are not in it. For a disc the circularity found with it
+ * goes to pi / 4, not 1.<br />
+ *
+ * @author Sami Badawi
+ *
+ */
+public class ParticleFeatures {
+	protected int _label;
+	protected int _area;
+	protected int _minX, _minY, _maxX, _maxY;
+	protected double _sumX, _sumY;
+	protected double _sumXX, _sumYY, _sumXY;
+	protected int _perimeter;
+	protected int _startX, _startY;
+
+	public ParticleFeatures(int label, int area, int minX, int minY, int maxX, int maxY,
+			double sumX, double sumY, double sumXX, double sumYY, double sumXY,
+			int perimeter, int startX, int startY) {
+		_label = label;
+		_area = area;
+		_minX = minX;
+		_minY = minY;
+		_maxX = maxX;
+		_maxY = maxY;
+		_sumX = sumX;
+		_sumY = sumY;
+		_sumXX = sumXX;
+		_sumYY = sumYY;
+		_sumXY = sumXY;
+		_perimeter = perimeter;
+		_startX = startX;
+		_startY = startY;
+	}
+
+	/** Label in the label image. */
+	public int getLabel() {
+		return _label;
+	}
+
+	/** Number of pixels. */
+	public int getArea() {
+		return _area;
+	}
+
+	public int getMinX() {
+		return _minX;
+	}
+
+	public int getMinY() {
+		return _minY;
+	}
+
+	public int getMaxX() {
+		return _maxX;
+	}
+
+	public int getMaxY() {
+		return _maxY;
+	}
+
+	public double getCenterX() {
+		return _sumX / _area;
+	}
+
+	public double getCenterY() {
+		return _sumY / _area;
+	}
+
+	/** Second order central moment in x, the variance of x. */
+	public double getMomentXX() {
+		double centerX = getCenterX();
+		return _sumXX / _area - centerX * centerX;
+	}
+
+	/** Second order central moment in y, the variance of y. */
+	public double getMomentYY() {
+		double centerY = getCenterY();
+		return _sumYY / _area - centerY * centerY;
+	}
+
+	/** Second order mixed central moment, the covariance of x and y. */
+	public double getMomentXY() {
+		return _sumXY / _area - getCenterX() * getCenterY();
+	}
+
+	/** Angle of the major axis in radians, from the x axis towards y. */
+	public double getOrientation() {
+		return 0.5 * Math.atan2(2. * getMomentXY(), getMomentXX() - getMomentYY());
+	}
+
+	/** Number of pixel sides on the boundary. */
+	public int getPerimeter() {
+		return _perimeter;
+	}
+
+	/** 4 pi area / perimeter^2, with the crack edge perimeter. */
+	public double getCircularity() {
+		if (_perimeter == 0)
+			return 0.;
+		return 4. * Math.PI * _area / ((double)_perimeter * _perimeter);
+	}
+
+	public int getStartX() {
+		return _startX;
+	}
+
+	public int getStartY() {
+		return _startY;
+	}
+}
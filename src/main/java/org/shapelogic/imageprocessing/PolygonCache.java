@@ -0,0 +1,184 @@
+package org.shapelogic.imageprocessing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.shapelogic.imageutil.SLImage;
+import org.shapelogic.polygon.Polygon;
+import org.shapelogic.polygon.PolygonCodec;
+
+/** File cache for the polygons found in an image.<br />
+ *
+ * The key is a hash of the pixels in the image and of the parameters used
+ * to find the polygons, like max distance and min and max area, so when
+ * an image set is run again with the same parameters the tracing and
+ * vectorization can be skipped, and only the rules are run.<br />
+ *
+ * Each key is a file in the cache directory, written with one PolygonCodec
+ * so the annotation names are only in the file once.
+ * A file that cannot be read is treated as missing.<br />
+ *
+ * @author Sami Badawi
+ *
+ */
+public class PolygonCache {
+	static final int MAGIC = 0x534c5043; //SLPC
+	static final int VERSION = 1;
+	static final String FILE_EXTENSION = ".slp";
+
+	protected File _directory;
+
+	public PolygonCache(File directory) {
+		_directory = directory;
+	}
+
+	public PolygonCache(String directory) {
+		this(new File(directory));
+	}
+
+	/** Hex SHA-1 of the size and pixels of the image and the parameters. */
+	public static String makeKey(SLImage image, String parameters) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("SHA-1 is not available", e);
+		}
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int[] row = new int[width];
+		byte[] bytes = new byte[4 * width];
+		updateInt(digest, width);
+		updateInt(digest, height);
+		for (int y = 0; y < height; y++) {
+			image.getRow(0, y, width, row);
+			for (int x = 0; x < width; x++) {
+				int color = row[x];
+				bytes[4 * x] = (byte)(color >> 24);
+				bytes[4 * x + 1] = (byte)(color >> 16);
+				bytes[4 * x + 2] = (byte)(color >> 8);
+				bytes[4 * x + 3] = (byte)color;
+			}
+			digest.update(bytes);
+		}
+		try {
+			digest.update(parameters.getBytes("UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException("UTF-8 is not available", e);
+		}
+		StringBuffer result = new StringBuffer();
+		for (byte b: digest.digest()) {
+			result.append(Character.forDigit((b >> 4) & 0xF, 16));
+			result.append(Character.forDigit(b & 0xF, 16));
+		}
+		return result.toString();
+	}
+
+	static void updateInt(MessageDigest digest, int value) {
+		digest.update((byte)(value >> 24));
+		digest.update((byte)(value >> 16));
+		digest.update((byte)(value >> 8));
+		digest.update((byte)value);
+	}
+
+	public File getFile(String key) {
+		return new File(_directory, key + FILE_EXTENSION);
+	}
+
+	public boolean contains(String key) {
+		return getFile(key).isFile();
+	}
+
+	/** The polygons stored for key, null if they are not in the cache.
+	 * Null elements are kept. */
+	public List<Polygon> get(String key) {
+		File file = getFile(key);
+		if (!file.isFile())
+			return null;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || !key.equals(in.readUTF()))
+				return null;
+			int size = PolygonCodec.readVarInt(in);
+			List<Polygon> result = new ArrayList<Polygon>(size);
+			PolygonCodec codec = new PolygonCodec();
+			for (int i = 0; i < size; i++) {
+				if (in.readBoolean())
+					result.add(codec.readPolygon(in));
+				else
+					result.add(null);
+			}
+			return result;
+		} catch (IOException e) {
+			return null;
+		} finally {
+			close(in);
+		}
+	}
+
+	/** Store the polygons, the file is written under a temporary name first,
+	 * so other readers never see half a file. */
+	public void put(String key, List<Polygon> polygons) {
+		if (!_directory.isDirectory() && !_directory.mkdirs())
+			throw new RuntimeException("Could not make polygon cache directory: " + _directory);
+		File file = getFile(key);
+		File tempFile = new File(_directory, key + "." + Thread.currentThread().getId() + ".tmp");
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(key);
+			PolygonCodec.writeVarInt(out, polygons.size());
+			PolygonCodec codec = new PolygonCodec();
+			for (Polygon polygon: polygons) {
+				out.writeBoolean(polygon != null);
+				if (polygon != null)
+					codec.writePolygon(polygon, out);
+			}
+			out.close();
+			out = null;
+			if (!tempFile.renameTo(file)) {
+				file.delete();
+				if (!tempFile.renameTo(file))
+					throw new IOException("Could not rename " + tempFile + " to " + file);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("Could not write polygon cache file: " + file, e);
+		} finally {
+			close(out);
+			tempFile.delete();
+		}
+	}
+
+	public void remove(String key) {
+		getFile(key).delete();
+	}
+
+	static void close(Closeable closeable) {
+		if (closeable == null)
+			return;
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			//nothing more to do
+		}
+	}
+
+	public File getDirectory() {
+		return _directory;
+	}
+}
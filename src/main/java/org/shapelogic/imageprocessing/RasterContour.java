@@ -0,0 +1,80 @@
+package org.shapelogic.imageprocessing;
+
+import org.shapelogic.polygon.Polygon;
+
+/** Outer or hole boundary of a region, found by RasterContourExtractor.<br />
+ *
+ * The boundary is stored as a 4 direction chain code from the start pixel,
+ * through the centers of the region pixels on the boundary, like the chain
+ * code made by EdgeTracer. A region of a single pixel has an empty chain.<br />
+ *
+ * @author Sami Badawi
+ *
+ */
+public class RasterContour {
+	protected int _label;
+	protected boolean _hole;
+	protected int _startX;
+	protected int _startY;
+	protected byte[] _chainCode;
+
+	public RasterContour(int label, boolean hole, int startX, int startY, byte[] chainCode) {
+		_label = label;
+		_hole = hole;
+		_startX = startX;
+		_startY = startY;
+		_chainCode = chainCode;
+	}
+
+	/** Make a Polygon from the chain code, in the same way as EdgeTracer.<br />
+	 *
+	 * The handler is reset, so one handler can be used for all the contours.
+	 */
+	public Polygon makePolygon(ChainCodeHandler chainCodeHandler) {
+		Polygon polygon = new Polygon();
+		polygon.startMultiLine();
+		chainCodeHandler.reset(polygon.getAnnotatedShape());
+		chainCodeHandler.setMultiLine(polygon.getCurrentMultiLine());
+		chainCodeHandler.setFirstPoint(_startX, _startY);
+		for (int i = 0; i < _chainCode.length; i++) {
+			if (!chainCodeHandler.addChainCode(_chainCode[i]))
+				break;
+		}
+		chainCodeHandler.getValue();
+		polygon.setPerimeter(chainCodeHandler.getPerimeter());
+		polygon.getValue();
+		polygon.getBBox().add(chainCodeHandler._bBox);
+		return polygon;
+	}
+
+	public Polygon makePolygon() {
+		return makePolygon(new ChainCodeHandler(null));
+	}
+
+	/** Label of the region the boundary pixels belong to. */
+	public int getLabel() {
+		return _label;
+	}
+
+	/** True for the boundary of a hole, false for the outer boundary. */
+	public boolean isHole() {
+		return _hole;
+	}
+
+	public int getStartX() {
+		return _startX;
+	}
+
+	public int getStartY() {
+		return _startY;
+	}
+
+	public byte[] getChainCode() {
+		return _chainCode;
+	}
+
+	/** Number of steps in the chain code. */
+	public int getLength() {
+		return _chainCode.length;
+	}
+}
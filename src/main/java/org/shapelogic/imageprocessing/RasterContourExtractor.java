@@ -0,0 +1,277 @@
+package org.shapelogic.imageprocessing;
+
+import static org.shapelogic.util.Constants.DOWN;
+import static org.shapelogic.util.Constants.LEFT;
+import static org.shapelogic.util.Constants.RIGHT;
+import static org.shapelogic.util.Constants.UP;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import org.shapelogic.polygon.Polygon;
+import org.shapelogic.util.Constants;
+import org.shapelogic.util.SharedExecutor;
+
+/** Find the outer and hole boundaries of all regions in a label image in
+ * one raster scan, border following like Suzuki and Abe.<br />
+ *
+ * The regions are 4 connected, pixels with label below firstLabel are
+ * background. A boundary is followed with the outside on the left, going
+ * through the centers of the region pixels, the same walk as EdgeTracer.
+ * While following a boundary the left and right sides of the pixels that
+ * are found to be on the outside are marked.<br />
+ *
+ * The scan starts a new outer boundary at a region pixel where the pixel to
+ * the left is outside and that side is not marked, and a new hole boundary
+ * where the same is true for the right side. So each boundary is followed
+ * once, and the contours come in the order of their start pixels.<br />
+ *
+ * In parallel the image is cut in row bands. Each band starts boundaries
+ * from its own pixels, but only keeps a boundary if its start side is the
+ * first side of the boundary in scan order, so the result is the same as in
+ * one scan. A boundary that goes back to an earlier side is dropped as soon
+ * as that side is reached, and the sides walked so far are marked, so a band
+ * walks each boundary from an earlier band at most about once.<br />
+ *
+ * @author Sami Badawi
+ *
+ */
+public class RasterContourExtractor {
+	/** Bands lower than this are not worth a task of their own. */
+	public static final int MIN_BAND_HEIGHT = 16;
+
+	/** More bands than threads gives better load balancing. */
+	public static final int BANDS_PER_THREAD = 4;
+
+	protected static final byte LEFT_MARKED = 1;
+	protected static final byte RIGHT_MARKED = 2;
+
+	protected int[] _labels;
+	protected int _width;
+	protected int _height;
+	protected int _lineStride;
+	protected int _firstLabel;
+	protected int _numberOfThreads = 1;
+	/** Pool the bands are run in, null means the shared pool. */
+	protected ExecutorService _executor;
+
+	/** Label image with index y * lineStride + x. */
+	public RasterContourExtractor(int[] labels, int width, int height, int lineStride,
+			int firstLabel) {
+		_labels = labels;
+		_width = width;
+		_height = height;
+		_lineStride = lineStride;
+		_firstLabel = firstLabel;
+	}
+
+	/** The areas found in the last call to SBLabelSegmentation.segmentAll(). */
+	public RasterContourExtractor(SBLabelSegmentation labelSegmentation) {
+		this(labelSegmentation.getLabels(),
+				labelSegmentation._slImage.getWidth(),
+				labelSegmentation._slImage.getHeight(),
+				labelSegmentation._lineStride,
+				labelSegmentation.getFirstLabel());
+	}
+
+	/** The inside pixels have label 1. */
+	public RasterContourExtractor(InsideMask insideMask) {
+		this(labelsFromMask(insideMask), insideMask.getWidth(), insideMask.getHeight(),
+				insideMask.getWidth(), 1);
+	}
+
+	protected static int[] labelsFromMask(InsideMask insideMask) {
+		int width = insideMask.getWidth();
+		int[] result = new int[width * insideMask.getHeight()];
+		for (int y = 0; y < insideMask.getHeight(); y++) {
+			for (int x = 0; x < width; x++) {
+				if (insideMask.get(x, y))
+					result[y * width + x] = 1;
+			}
+		}
+		return result;
+	}
+
+	/** Label of a pixel, below first label outside the image. */
+	protected int labelAt(int x, int y) {
+		if (x < 0 || y < 0 || _width <= x || _height <= y)
+			return _firstLabel - 1;
+		return _labels[y * _lineStride + x];
+	}
+
+	/** All contours, outer and holes, in the order of their start pixels. */
+	public List<RasterContour> extract() {
+		if (_numberOfThreads <= 1 || _height < 2 * MIN_BAND_HEIGHT)
+			return new Band(0, _height).call();
+		return extractParallel();
+	}
+
+	protected List<RasterContour> extractParallel() {
+		int numberOfBands = Math.max(1, Math.min(_numberOfThreads * BANDS_PER_THREAD,
+				_height / MIN_BAND_HEIGHT));
+		List<Band> bands = new ArrayList<Band>();
+		for (int i = 0; i < numberOfBands; i++)
+			bands.add(new Band(i * _height / numberOfBands, (i + 1) * _height / numberOfBands));
+		List<RasterContour> result = new ArrayList<RasterContour>();
+		for (List<RasterContour> contours: 
+				SharedExecutor.invokeAll(_executor, bands, "Parallel contour extraction"))
+			result.addAll(contours);
+		return result;
+	}
+
+	/** Only the outer contours, in the order of their start pixels. */
+	public List<RasterContour> extractOuter() {
+		List<RasterContour> result = new ArrayList<RasterContour>();
+		for (RasterContour contour: extract()) {
+			if (!contour.isHole())
+				result.add(contour);
+		}
+		return result;
+	}
+
+	/** Outer contour of the region that has its first pixel in scan order at 
+	 * x, y. Only this boundary is followed, the image is not scanned.
+	 * 
+	 * @return null if x, y is not the first pixel of a region
+	 */
+	public RasterContour extractOuter(int x, int y) {
+		int label = labelAt(x, y);
+		if (label < _firstLabel || labelAt(x - 1, y) == label)
+			return null;
+		//a band without rows, nothing is marked
+		return new Band(y, y).follow(x, y, label, false);
+	}
+
+	/** Polygons for the contours, made with one reused ChainCodeHandler. */
+	public static List<Polygon> makePolygons(List<RasterContour> contours) {
+		List<Polygon> result = new ArrayList<Polygon>(contours.size());
+		ChainCodeHandler chainCodeHandler = new ChainCodeHandler(null);
+		for (RasterContour contour: contours)
+			result.add(contour.makePolygon(chainCodeHandler));
+		return result;
+	}
+
+	public int getNumberOfThreads() {
+		return _numberOfThreads;
+	}
+
+	/** Threads used by extract(), 1 is a single scan. */
+	public void setNumberOfThreads(int numberOfThreads) {
+		_numberOfThreads = numberOfThreads;
+	}
+
+	public ExecutorService getExecutor() {
+		return _executor;
+	}
+
+	/** Run the bands in this pool instead of the shared one, the caller 
+	 * shuts it down. */
+	public void setExecutor(ExecutorService executor) {
+		_executor = executor;
+	}
+
+	/** Scan of the rows from minY to maxY, excluded. Marks are only kept for
+	 * the pixels in the band. */
+	class Band implements Callable<List<RasterContour>> {
+		final int _minY;
+		final int _maxY;
+		final byte[] _marks;
+		byte[] _chain = new byte[256];
+		int _length;
+		/** Twice the index of the start side, plus 1 for a right side. */
+		long _startSide;
+
+		Band(int minY, int maxY) {
+			_minY = minY;
+			_maxY = maxY;
+			_marks = new byte[(maxY - minY) * _width];
+		}
+
+		@Override
+		public List<RasterContour> call() {
+			List<RasterContour> result = new ArrayList<RasterContour>();
+			for (int y = _minY; y < _maxY; y++) {
+				int offset = (y - _minY) * _width;
+				for (int x = 0; x < _width; x++) {
+					int label = _labels[y * _lineStride + x];
+					if (label < _firstLabel)
+						continue;
+					if ((_marks[offset + x] & LEFT_MARKED) == 0 && labelAt(x - 1, y) != label) {
+						RasterContour contour = follow(x, y, label, false);
+						if (contour != null)
+							result.add(contour);
+					}
+					if ((_marks[offset + x] & RIGHT_MARKED) == 0 && labelAt(x + 1, y) != label) {
+						RasterContour contour = follow(x, y, label, true);
+						if (contour != null)
+							result.add(contour);
+					}
+				}
+			}
+			return result;
+		}
+
+		/** Follow the boundary that has the left or right side of the start
+		 * pixel on the outside.
+		 *
+		 * @return null if the boundary has a side before the start side, it
+		 * then belongs to an earlier band
+		 */
+		RasterContour follow(int startX, int startY, int label, boolean hole) {
+			//arrive as if the outside side of the start pixel was on the left
+			int arrival = hole ? DOWN : UP;
+			int x = startX;
+			int y = startY;
+			int firstDirection = -1;
+			long maxLength = 4L * _width * _height + 4;
+			_length = 0;
+			_startSide = 2L * (startY * (long)_width + startX) + (hole ? 1 : 0);
+			while (_length < maxLength) {
+				int direction = -1;
+				//clockwise from the left, the same order as EdgeTracer.nextDirection()
+				for (int i = 6; i <= 12; i += EdgeTracer.STEP_SIZE_FOR_4_DIRECTIONS) {
+					int candidate = (arrival + i) % Constants.DIRECTIONS_AROUND_POINT;
+					if (labelAt(x + Constants.CYCLE_POINTS_X[candidate],
+							y + Constants.CYCLE_POINTS_Y[candidate]) == label) {
+						direction = candidate;
+						break;
+					}
+					if ((candidate == LEFT && !markSide(x, y, LEFT_MARKED)) ||
+							(candidate == RIGHT && !markSide(x, y, RIGHT_MARKED)))
+						return null;
+				}
+				if (direction == -1) //single pixel
+					break;
+				if (firstDirection == -1)
+					firstDirection = direction;
+				else if (x == startX && y == startY && direction == firstDirection)
+					break;
+				addChainCode((byte)direction);
+				x += Constants.CYCLE_POINTS_X[direction];
+				y += Constants.CYCLE_POINTS_Y[direction];
+				arrival = direction;
+			}
+			byte[] chainCode = new byte[_length];
+			System.arraycopy(_chain, 0, chainCode, 0, _length);
+			return new RasterContour(label, hole, startX, startY, chainCode);
+		}
+
+		/** @return false if the side is before the start side */
+		boolean markSide(int x, int y, byte side) {
+			if (_minY <= y && y < _maxY)
+				_marks[(y - _minY) * _width + x] |= side;
+			return _startSide <= 2L * (y * (long)_width + x) + (side == RIGHT_MARKED ? 1 : 0);
+		}
+
+		void addChainCode(byte direction) {
+			if (_length == _chain.length) {
+				byte[] chain = new byte[_chain.length * 2];
+				System.arraycopy(_chain, 0, chain, 0, _length);
+				_chain = chain;
+			}
+			_chain[_length++] = direction;
+		}
+	}
+}
@@ -13,12 +13,33 @@ public class SBByteCompare extends SBSimpleCompare {
 	public static final int MASK = 0xff;
 
 	/** Tells if the color at index is close enough the set color to
-	 * be considered part of the segmented area.
+	 * be considered part of the segmented area.<br />
+	 * 
+	 * This is a lookup in a table that is updated when the color or the 
+	 * distance changes.
 	 */
 	public boolean similar(int index) {
-		int localColor = _pixels[index] & MASK;
-		int diff = Math.abs(localColor - _currentColor);
-		return (diff <= _maxDistance) ^ _farFromReferenceColor;
+		if (!_nearTableValid)
+			updateNearTable();
+		return _nearTable[getColorAsInt(index)] ^ _farFromReferenceColor;
+	}
+
+	@Override
+	public void newSimilarRow(int fromIndex, int length, boolean[] result) {
+		if (!_nearTableValid)
+			updateNearTable();
+		if (_pixels == null) {
+			int[] row = readRow(fromIndex, length);
+			for (int i = 0; i < length; i++)
+				result[i] = !bitSet.get(fromIndex + i) && 
+					(_nearTable[row[i] & MASK] ^ _farFromReferenceColor);
+			return;
+		}
+		for (int i = 0; i < length; i++) {
+			int index = fromIndex + i;
+			result[i] = !bitSet.get(index) && 
+				(_nearTable[_pixels[index] & MASK] ^ _farFromReferenceColor);
+		}
 	}
 
 	public void init(SLImage ipIn) throws Exception {
@@ -28,6 +49,10 @@ public class SBByteCompare extends SBSimpleCompare {
 		}
 		_pixels = (byte[]) _slImage.getPixels();
 		mask = MASK;
+		_nearTable = new boolean[MASK + 1];
+		_nearLow = 0;
+		_nearHigh = -1;
+		_nearTableValid = false;
 		handledColor = 200;
 		super.init(_slImage);
 	}
@@ -42,10 +67,16 @@ public class SBByteCompare extends SBSimpleCompare {
 	public void action(int index) {
 		if (!isModifying())
 			return;
-		_pixels[index] = (byte)handledColor;
+		if (_pixels == null)
+			_slImage.set(index, handledColor);
+		else
+			_pixels[index] = (byte)handledColor;
 	}
 
+	/** Images without a pixel array are read with SLImage.get(). */
 	public int getColorAsInt(int index) {
+		if (_pixels == null)
+			return _slImage.get(index) & MASK;
 		return _pixels[index] & MASK;
 	}
 }
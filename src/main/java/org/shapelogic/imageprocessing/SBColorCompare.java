@@ -1,5 +1,9 @@
 package org.shapelogic.imageprocessing;
 
+import org.shapelogic.color.ColorFactory;
+import org.shapelogic.color.ColorRangeLookupTable;
+import org.shapelogic.color.ColorSpace;
+import org.shapelogic.color.ColorSpaceDistance;
 import org.shapelogic.color.ColorUtil;
 import org.shapelogic.imageutil.SLImage;
 
@@ -14,6 +18,15 @@ public class SBColorCompare extends SBSimpleCompare {
 	public static final int MASK = 0xffffff;
     protected int[] _colorChannels = new int[3];
     protected int[] _splitColorChannels = new int[3];
+    
+    /** When set a pixel is similar if it is in the color range _rangeIndex. */
+    protected ColorRangeLookupTable _colorRangeLookup;
+    protected int _rangeIndex;
+    
+    /** Color space the distance to the current color is measured in. */
+    protected ColorSpace _colorSpace = ColorSpace.RGB;
+    /** Distance for LAB and HSV, null for RGB. */
+    protected ColorSpaceDistance _colorSpaceDistance;
 
 	/** Tells if the color at index is close enought the set color to
 	 * be considered part of the segmented area.
@@ -21,13 +34,76 @@ public class SBColorCompare extends SBSimpleCompare {
      * XXX very slow split currentColor into components
 	 */
 	public boolean similar(int index) {
-		int localColor = pixels[index] & mask;
+		int color = getColorAsInt(index);
+		if (_colorRangeLookup != null)
+			return (_colorRangeLookup.rangeIndex(color) == _rangeIndex) ^ 
+				_farFromReferenceColor;
+		if (_colorSpaceDistance != null)
+			return (_colorSpaceDistance.distanceToReferenceColor(color) <= _maxDistance) ^ 
+				_farFromReferenceColor;
+		int localColor = color & mask;
 		//localColor
         ColorUtil.splitColor(localColor,_splitColorChannels);
-		int diff = colorDistance(_colorChannels,_splitColorChannels);
+		int diff = rgbDistance(_colorChannels, _splitColorChannels[ColorUtil.RED_POS],
+				_splitColorChannels[ColorUtil.GREEN_POS], _splitColorChannels[ColorUtil.BLUE_POS]);
 		return (diff <= _maxDistance) ^ _farFromReferenceColor;
 	}
 
+	/** The distance used by both similar() and newSimilarRow(), so the 2 
+	 * always agree. Average of the absolute channel differences, to make it 
+	 * fit with grayscale. */
+	private static int rgbDistance(int[] reference, int red, int green, int blue) {
+		return (Math.abs(red - reference[ColorUtil.RED_POS]) +
+				Math.abs(green - reference[ColorUtil.GREEN_POS]) +
+				Math.abs(blue - reference[ColorUtil.BLUE_POS])) / 3;
+	}
+
+	/** Same as newSimilar() for a run of pixels, with the channels unpacked 
+	 * inline instead of through ColorUtil.splitColor(). Like similar() it does
+	 * not go through colorDistance(), so overriding that does not change either.
+	 * <br />
+	 * 
+	 * Images without a pixel array are read a row at a time with getRow().
+	 */
+	@Override
+	public void newSimilarRow(int fromIndex, int length, boolean[] result) {
+		int[] source = pixels;
+		int offset = fromIndex;
+		if (source == null) {
+			source = readRow(fromIndex, length);
+			offset = 0;
+		}
+		if (_colorRangeLookup != null) {
+			for (int i = 0; i < length; i++) {
+				int index = fromIndex + i;
+				result[i] = !bitSet.get(index) && ((_colorRangeLookup.rangeIndex(source[offset + i]) 
+						== _rangeIndex) ^ _farFromReferenceColor);
+			}
+			return;
+		}
+		if (_colorSpaceDistance != null) {
+			for (int i = 0; i < length; i++) {
+				int index = fromIndex + i;
+				result[i] = !bitSet.get(index) && ((_colorSpaceDistance.distanceToReferenceColor(
+						source[offset + i]) <= _maxDistance) ^ _farFromReferenceColor);
+			}
+			return;
+		}
+		for (int i = 0; i < length; i++) {
+			int index = fromIndex + i;
+			if (bitSet.get(index)) {
+				result[i] = false;
+				continue;
+			}
+			int localColor = source[offset + i] & mask;
+			int diff = rgbDistance(_colorChannels, 
+					(localColor & ColorUtil.RED_MASK) >> ColorUtil.RED_OFFSET,
+					(localColor & ColorUtil.GREEN_MASK) >> ColorUtil.GREEN_OFFSET,
+					localColor & ColorUtil.BLUE_MASK);
+			result[i] = (diff <= _maxDistance) ^ _farFromReferenceColor;
+		}
+	}
+
 	public void init(SLImage ipIn) throws Exception {
 		_slImage = ipIn;
 		if (_slImage == null) {
@@ -67,15 +143,22 @@ public class SBColorCompare extends SBSimpleCompare {
 	public void action(int index) {
 		if (!isModifying())
 			return;
-		int dist = colorDistance(pixels[index], handledColor);
-		if (dist <= _maxDistance)
-			pixels[index] = handledColor;
+		int dist = colorDistance(getColorAsInt(index), handledColor);
+		if (dist <= _maxDistance) {
+			if (pixels == null)
+				_slImage.set(index, handledColor);
+			else
+				pixels[index] = handledColor;
+		}
 		else {
 			boolean debugStop = true;
 		}
 	}
 
+	/** Images without a pixel array are read with SLImage.get(). */
 	public int getColorAsInt(int index) {
+		if (pixels == null)
+			return _slImage.get(index);
 		return pixels[index];
 	}
 
@@ -83,11 +166,57 @@ public class SBColorCompare extends SBSimpleCompare {
     public void setCurrentColor(int color) {
         _currentColor = color;
         ColorUtil.splitColor(color,_colorChannels);
+        if (_colorSpaceDistance != null)
+            _colorSpaceDistance.setReferenceColor(color);
+    }
+    
+    public ColorSpace getColorSpace() {
+        return _colorSpace;
+    }
+    
+    /** Measure the distance to the current color in LAB or HSV instead of 
+     * RGB, the max distance is then in that color space.<br />
+     * 
+     * The converted colors are cached, so after the first pass this is 
+     * about as fast as RGB. A color range lookup table is used before this.
+     */
+    public void setColorSpace(ColorSpace colorSpace) {
+        _colorSpace = colorSpace;
+        _colorSpaceDistance = ColorFactory.makeColorSpaceDistance(colorSpace, true);
+        if (_colorSpaceDistance != null)
+            _colorSpaceDistance.setReferenceColor(_currentColor);
+    }
+    
+    /** The channel buffers and the color space reference are used in 
+     * similar() so each copy needs its own. */
+    @Override
+    public SBSimpleCompare copyForThread() {
+        SBColorCompare result = (SBColorCompare) super.copyForThread();
+        result._colorChannels = _colorChannels.clone();
+        result._splitColorChannels = new int[3];
+        if (_colorSpaceDistance != null)
+            result.setColorSpace(_colorSpace);
+        return result;
+    }
+    
+    /** Use a lookup table instead of the distance to the current color.<br />
+     * 
+     * A pixel is similar when the table gives rangeIndex for it. Set the 
+     * table to null to go back to the distance.
+     */
+    public void setColorRangeLookup(ColorRangeLookupTable colorRangeLookup, int rangeIndex) {
+        _colorRangeLookup = colorRangeLookup;
+        _rangeIndex = rangeIndex;
+    }
+    
+    public ColorRangeLookupTable getColorRangeLookup() {
+        return _colorRangeLookup;
     }
     
     @Override
 	public void grabColorFromPixel(int startX, int startY) {
         super.grabColorFromPixel(startX, startY);
-        ColorUtil.splitColor(_currentColor,_colorChannels);
+        //also updates the color space reference
+        setCurrentColor(_currentColor);
     }
 }
@@ -0,0 +1,449 @@
+package org.shapelogic.imageprocessing;
+
+import org.shapelogic.color.ColorUtil;
+import org.shapelogic.color.IColorAndVariance;
+import org.shapelogic.color.ValueAreaFactory;
+import org.shapelogic.imageutil.SLImage;
+import org.shapelogic.mathematics.StorelessDiscriptiveStatistic;
+
+/** Two pass run based alternative to SBSegmentation.segmentAll(int color).<br />
+ *
+ * The first pass reads each line once, finds the runs of pixels that are
+ * similar and not handled, and connects them to the overlapping runs on the
+ * line above with union find. Area, bounding box, centroid, second order 
+ * moments, crack edge perimeter and color sums are added to primitive arrays
+ * per label in the same pass.<br />
+ *
+ * The second pass works on the runs only, it joins the statistics, creates
+ * one IColorAndVariance per area in the ValueAreaFactory of the
+ * SBSegmentation, writes the label image and marks the pixels as handled.
+ * The areas are in the same order and have the same content as with
+ * segmentAll(int color).<br />
+ *
+ * The label image is kept between calls. A label is the index of the area in
+ * the store of the ValueAreaFactory + 1, 0 means not labeled.<br />
+ *
+ * With setCollectFeatures(true) a ParticleFeatures is also made for each
+ * area, so shape features can be read without tracing the outline.<br />
+ *
+ * @author Sami Badawi
+ *
+ */
+public class SBLabelSegmentation {
+
+	protected static final int DEFAULT_CAPACITY = 256;
+
+	protected SBSegmentation _segmentation;
+	protected SLImage _slImage;
+	protected SBPixelCompare _pixelCompare;
+	protected int _lineStride;
+	protected int _numberOfChannels;
+	protected int[] _splitColors = new int[3];
+
+	/** Label for each pixel, indexed like the SBPixelCompare. */
+	protected int[] _labels;
+
+	/** Label of the first area found in the last run. */
+	protected int _firstLabel = 1;
+
+	/** Label to use for the next area when there is no ValueAreaFactory. */
+	protected int _nextLabel = 1;
+
+	/** Runs as struct of arrays, in line order and x order inside a line. */
+	protected int[] _runY;
+	protected int[] _runXStart;
+	protected int[] _runXEnd;
+	protected int[] _runLabel;
+	protected int _numberOfRuns;
+
+	/** Provisional labels, starting from 0. */
+	protected int _numberOfProvisional;
+	protected int[] _parent;
+	protected int[] _area;
+	protected int[] _startX;
+	protected int[] _startY;
+	protected int[] _minX;
+	protected int[] _maxX;
+	protected int[] _minY;
+	protected int[] _maxY;
+	protected double[] _sumX;
+	protected double[] _sumY;
+	protected double[] _sumXX;
+	protected double[] _sumYY;
+	protected double[] _sumXY;
+	/** Crack edge perimeter. */
+	protected int[] _perimeter;
+	protected double[][] _colorSum;
+	protected double[][] _colorSquareSum;
+	protected int[][] _colorMin;
+	protected int[][] _colorMax;
+
+	/** Final label for each provisional label. */
+	protected int[] _finalLabel;
+
+	/** Number of pixels for each final label, from _firstLabel. */
+	protected int[] _finalArea;
+
+	protected boolean _collectFeatures = false;
+
+	/** Features for each final label, from _firstLabel. */
+	protected ParticleFeatures[] _features = new ParticleFeatures[0];
+
+	public SBLabelSegmentation(SBSegmentation segmentation) {
+		_segmentation = segmentation;
+		_slImage = segmentation.getSLImage();
+		_pixelCompare = segmentation.getPixelCompare();
+		_lineStride = _slImage.getLineStride();
+		_numberOfChannels = _slImage.isRgb() ? 3 : 1;
+		_labels = new int[_lineStride * _slImage.getHeight()];
+		_runY = new int[DEFAULT_CAPACITY];
+		_runXStart = new int[DEFAULT_CAPACITY];
+		_runXEnd = new int[DEFAULT_CAPACITY];
+		_runLabel = new int[DEFAULT_CAPACITY];
+		_colorSum = new double[_numberOfChannels][];
+		_colorSquareSum = new double[_numberOfChannels][];
+		_colorMin = new int[_numberOfChannels][];
+		_colorMax = new int[_numberOfChannels][];
+		allocateLabelArrays(DEFAULT_CAPACITY);
+	}
+
+	/** Label all areas similar to color. */
+	public void segmentAll(int color) {
+		_segmentation.setReferenceColor(color);
+		_pixelCompare.setCurrentColor(color);
+		_numberOfRuns = 0;
+		_numberOfProvisional = 0;
+		findRuns();
+		storeAreas(color);
+		labelRuns();
+	}
+
+	/** First pass, the only one that reads the image. */
+	protected void findRuns() {
+		int minX = _segmentation.getMinX();
+		int maxX = _segmentation.getMaxX();
+		int previousLineStart = 0;
+		int previousLineEnd = 0;
+		int y = _segmentation.getMinY();
+		while (y <= _segmentation.getMaxY()) {
+			int offset = y * _lineStride;
+			int lineStart = _numberOfRuns;
+			int previous = previousLineStart;
+			int x = minX;
+			while (x <= maxX) {
+				int unhandled = _pixelCompare.nextUnhandled(offset + x) - offset;
+				if (x < unhandled) {
+					x = unhandled;
+					continue;
+				}
+				if (!_pixelCompare.similar(offset + x)) {
+					x++;
+					continue;
+				}
+				int xStart = x;
+				while (x < maxX && _pixelCompare.newSimilar(offset + x + 1))
+					x++;
+				int xEnd = x;
+				while (previous < previousLineEnd && _runXEnd[previous] < xStart)
+					previous++;
+				int label = -1;
+				int overlap = 0;
+				for (int i = previous; i < previousLineEnd && _runXStart[i] <= xEnd; i++) {
+					if (label < 0)
+						label = find(_runLabel[i]);
+					else
+						label = union(label, _runLabel[i]);
+					overlap += Math.min(xEnd, _runXEnd[i]) - Math.max(xStart, _runXStart[i]) + 1;
+				}
+				if (label < 0)
+					label = newLabel(xStart, y);
+				addRun(xStart, xEnd, y, label);
+				//the sides shared with the line above are not on the boundary
+				_perimeter[label] -= 2 * overlap;
+				x++;
+			}
+			previousLineStart = lineStart;
+			previousLineEnd = _numberOfRuns;
+			//the lines before the next unhandled pixel are all handled and have no runs
+			int nextY = Math.max(y + 1, (offset + x) / _lineStride);
+			if (y + 1 < nextY)
+				previousLineStart = previousLineEnd;
+			y = nextY;
+		}
+	}
+
+	protected int newLabel(int x, int y) {
+		if (_parent.length <= _numberOfProvisional)
+			allocateLabelArrays(_parent.length * 2);
+		int label = _numberOfProvisional++;
+		_parent[label] = label;
+		_area[label] = 0;
+		_startX[label] = x;
+		_startY[label] = y;
+		_minX[label] = x;
+		_maxX[label] = x;
+		_minY[label] = y;
+		_maxY[label] = y;
+		_sumX[label] = 0;
+		_sumY[label] = 0;
+		_sumXX[label] = 0;
+		_sumYY[label] = 0;
+		_sumXY[label] = 0;
+		_perimeter[label] = 0;
+		for (int c = 0; c < _numberOfChannels; c++) {
+			_colorSum[c][label] = 0;
+			_colorSquareSum[c][label] = 0;
+			_colorMin[c][label] = Integer.MAX_VALUE;
+			_colorMax[c][label] = Integer.MIN_VALUE;
+		}
+		return label;
+	}
+
+	/** Store the run and add its pixels to the statistics of label. */
+	protected void addRun(int xStart, int xEnd, int y, int label) {
+		if (_runY.length <= _numberOfRuns)
+			allocateRunArrays(_runY.length * 2);
+		_runY[_numberOfRuns] = y;
+		_runXStart[_numberOfRuns] = xStart;
+		_runXEnd[_numberOfRuns] = xEnd;
+		_runLabel[_numberOfRuns] = label;
+		_numberOfRuns++;
+		int length = xEnd - xStart + 1;
+		_area[label] += length;
+		_minX[label] = Math.min(_minX[label], xStart);
+		_maxX[label] = Math.max(_maxX[label], xEnd);
+		_minY[label] = Math.min(_minY[label], y);
+		_maxY[label] = Math.max(_maxY[label], y);
+		_sumX[label] += (xStart + xEnd) * (double)length / 2.;
+		_sumY[label] += (double)y * length;
+		double runSumX = (xStart + xEnd) * (double)length / 2.;
+		_sumXX[label] += sumOfSquares(xEnd) - sumOfSquares(xStart - 1);
+		_sumYY[label] += (double)y * y * length;
+		_sumXY[label] += y * runSumX;
+		_perimeter[label] += 2 + 2 * length;
+		int offset = y * _lineStride;
+		for (int x = xStart; x <= xEnd; x++) {
+			int color = _pixelCompare.getColorAsInt(offset + x);
+			if (_numberOfChannels == 1)
+				_splitColors[0] = color;
+			else
+				ColorUtil.splitColor(color, _splitColors);
+			for (int c = 0; c < _numberOfChannels; c++) {
+				int channel = _splitColors[c];
+				_colorSum[c][label] += channel;
+				_colorSquareSum[c][label] += (double)channel * channel;
+				if (channel < _colorMin[c][label])
+					_colorMin[c][label] = channel;
+				if (_colorMax[c][label] < channel)
+					_colorMax[c][label] = channel;
+			}
+		}
+	}
+
+	/** 0^2 + 1^2 + ... + n^2 */
+	static double sumOfSquares(int n) {
+		if (n <= 0)
+			return 0.;
+		return n * (n + 1.) * (2. * n + 1.) / 6.;
+	}
+
+	protected int find(int label) {
+		int root = label;
+		while (_parent[root] != root)
+			root = _parent[root];
+		while (_parent[label] != root) {
+			int next = _parent[label];
+			_parent[label] = root;
+			label = next;
+		}
+		return root;
+	}
+
+	/** The lowest label becomes the root, it was found first in the scan. */
+	protected int union(int label1, int label2) {
+		int root1 = find(label1);
+		int root2 = find(label2);
+		if (root1 < root2) {
+			_parent[root2] = root1;
+			return root1;
+		}
+		_parent[root1] = root2;
+		return root2;
+	}
+
+	/** Join the statistics into the roots and make an area for each root.<br />
+	 *
+	 * A root has a lower label than the rest of its area, so the areas come
+	 * out in the order the sequential scan would find them.
+	 */
+	protected void storeAreas(int color) {
+		ValueAreaFactory factory = _segmentation.getSegmentAreaFactory();
+		if (factory != null)
+			_nextLabel = factory.getStore().size() + 1;
+		_firstLabel = _nextLabel;
+		for (int label = 0; label < _numberOfProvisional; label++) {
+			int root = find(label);
+			if (root != label)
+				joinLabel(root, label);
+		}
+		for (int label = 0; label < _numberOfProvisional; label++) {
+			if (_parent[label] != label) {
+				_finalLabel[label] = _finalLabel[_parent[label]];
+				continue;
+			}
+			_finalArea[_nextLabel - _firstLabel] = _area[label];
+			if (_collectFeatures)
+				_features[_nextLabel - _firstLabel] = new ParticleFeatures(_nextLabel, 
+						_area[label], _minX[label], _minY[label], _maxX[label], _maxY[label],
+						_sumX[label], _sumY[label], _sumXX[label], _sumYY[label], 
+						_sumXY[label], _perimeter[label], _startX[label], _startY[label]);
+			_finalLabel[label] = _nextLabel++;
+			if (factory == null)
+				continue;
+			IColorAndVariance area = factory.makePixelArea(_startX[label], _startY[label], color);
+			StorelessDiscriptiveStatistic[] statistics =
+				new StorelessDiscriptiveStatistic[_numberOfChannels];
+			for (int c = 0; c < _numberOfChannels; c++) {
+				statistics[c] = new StorelessDiscriptiveStatistic(_area[label],
+						_colorSum[c][label], _colorSquareSum[c][label],
+						_colorMin[c][label], _colorMax[c][label]);
+			}
+			area.mergeStatistics(statistics);
+			if (area.getPixelArea() != null)
+				area.getPixelArea().addPoints(_area[label], _sumX[label], _sumY[label],
+						_minX[label], _minY[label], _maxX[label], _maxY[label]);
+		}
+	}
+
+	protected void joinLabel(int root, int label) {
+		_area[root] += _area[label];
+		_minX[root] = Math.min(_minX[root], _minX[label]);
+		_maxX[root] = Math.max(_maxX[root], _maxX[label]);
+		_minY[root] = Math.min(_minY[root], _minY[label]);
+		_maxY[root] = Math.max(_maxY[root], _maxY[label]);
+		_sumX[root] += _sumX[label];
+		_sumY[root] += _sumY[label];
+		_sumXX[root] += _sumXX[label];
+		_sumYY[root] += _sumYY[label];
+		_sumXY[root] += _sumXY[label];
+		_perimeter[root] += _perimeter[label];
+		for (int c = 0; c < _numberOfChannels; c++) {
+			_colorSum[c][root] += _colorSum[c][label];
+			_colorSquareSum[c][root] += _colorSquareSum[c][label];
+			_colorMin[c][root] = Math.min(_colorMin[c][root], _colorMin[c][label]);
+			_colorMax[c][root] = Math.max(_colorMax[c][root], _colorMax[c][label]);
+		}
+		_parent[label] = root;
+	}
+
+	/** Second pass over the runs, write labels and mark pixels handled. */
+	protected void labelRuns() {
+		for (int run = 0; run < _numberOfRuns; run++) {
+			int label = _finalLabel[_runLabel[run]];
+			int offset = _runY[run] * _lineStride;
+			int xEnd = _runXEnd[run];
+			for (int x = _runXStart[run]; x <= xEnd; x++) {
+				_labels[offset + x] = label;
+				_pixelCompare.action(offset + x);
+				_pixelCompare.setHandled(offset + x);
+			}
+		}
+	}
+
+	protected void allocateRunArrays(int capacity) {
+		_runY = copyOf(_runY, capacity);
+		_runXStart = copyOf(_runXStart, capacity);
+		_runXEnd = copyOf(_runXEnd, capacity);
+		_runLabel = copyOf(_runLabel, capacity);
+	}
+
+	protected void allocateLabelArrays(int capacity) {
+		_parent = copyOf(_parent, capacity);
+		_area = copyOf(_area, capacity);
+		_startX = copyOf(_startX, capacity);
+		_startY = copyOf(_startY, capacity);
+		_minX = copyOf(_minX, capacity);
+		_maxX = copyOf(_maxX, capacity);
+		_minY = copyOf(_minY, capacity);
+		_maxY = copyOf(_maxY, capacity);
+		_sumX = copyOf(_sumX, capacity);
+		_sumY = copyOf(_sumY, capacity);
+		_sumXX = copyOf(_sumXX, capacity);
+		_sumYY = copyOf(_sumYY, capacity);
+		_sumXY = copyOf(_sumXY, capacity);
+		_perimeter = copyOf(_perimeter, capacity);
+		_finalLabel = copyOf(_finalLabel, capacity);
+		_finalArea = copyOf(_finalArea, capacity);
+		if (_features.length < capacity) {
+			ParticleFeatures[] features = new ParticleFeatures[capacity];
+			System.arraycopy(_features, 0, features, 0, _features.length);
+			_features = features;
+		}
+		for (int c = 0; c < _numberOfChannels; c++) {
+			_colorSum[c] = copyOf(_colorSum[c], capacity);
+			_colorSquareSum[c] = copyOf(_colorSquareSum[c], capacity);
+			_colorMin[c] = copyOf(_colorMin[c], capacity);
+			_colorMax[c] = copyOf(_colorMax[c], capacity);
+		}
+	}
+
+	static int[] copyOf(int[] array, int capacity) {
+		int[] result = new int[capacity];
+		if (array != null)
+			System.arraycopy(array, 0, result, 0, Math.min(array.length, capacity));
+		return result;
+	}
+
+	static double[] copyOf(double[] array, int capacity) {
+		double[] result = new double[capacity];
+		if (array != null)
+			System.arraycopy(array, 0, result, 0, Math.min(array.length, capacity));
+		return result;
+	}
+
+	/** Label image, index is y * line stride + x. */
+	public int[] getLabels() {
+		return _labels;
+	}
+
+	public int getLabel(int x, int y) {
+		return _labels[y * _lineStride + x];
+	}
+
+	/** Label of the first area found in the last call to segmentAll(). */
+	public int getFirstLabel() {
+		return _firstLabel;
+	}
+
+	/** One more than the label of the last area found. */
+	public int getNextLabel() {
+		return _nextLabel;
+	}
+
+	/** Number of pixels with the label, only for labels from the last call
+	 * to segmentAll(), else 0.
+	 */
+	public int getPixelCount(int label) {
+		if (label < _firstLabel || _nextLabel <= label)
+			return 0;
+		return _finalArea[label - _firstLabel];
+	}
+
+	/** Features for a label from the last call to segmentAll(), null if
+	 * features are not collected or the label is from an older call.
+	 */
+	public ParticleFeatures getFeatures(int label) {
+		if (!_collectFeatures || label < _firstLabel || _nextLabel <= label)
+			return null;
+		return _features[label - _firstLabel];
+	}
+
+	public boolean isCollectFeatures() {
+		return _collectFeatures;
+	}
+
+	/** Make a ParticleFeatures for each area. */
+	public void setCollectFeatures(boolean collectFeatures) {
+		_collectFeatures = collectFeatures;
+	}
+}
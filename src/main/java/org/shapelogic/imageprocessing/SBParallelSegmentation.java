@@ -0,0 +1,307 @@
+package org.shapelogic.imageprocessing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import org.shapelogic.color.ColorFactory;
+import org.shapelogic.color.IColorAndVariance;
+import org.shapelogic.color.ValueAreaFactory;
+import org.shapelogic.imageutil.PixelArea;
+import org.shapelogic.imageutil.SLImage;
+import org.shapelogic.util.SharedExecutor;
+
+/** Parallel version of SBSegmentation.segmentAll(int color).<br />
+ *
+ * The ROI is cut in horizontal strips and each strip is flood filled in its
+ * own thread, with its own copy of the SBPixelCompare. Areas that touch
+ * across a strip border are joined with union find.<br />
+ *
+ * The result is put in the ValueAreaFactory of the SBSegmentation, in the
+ * same order and with the same content as the sequential
+ * segmentAll(int color) would give, and the pixels are marked as handled.<br />
+ *
+ * This only works because all pixels are compared to the same reference
+ * color. segmentAll() compares to the color of the first pixel in each area,
+ * so the result would depend on where the strips are cut.<br />
+ *
+ * @author Sami Badawi
+ *
+ */
+public class SBParallelSegmentation {
+
+	/** Strips lower than this are not worth a task of their own. */
+	public static final int MIN_STRIP_HEIGHT = 16;
+
+	/** More strips than threads gives better load balancing. */
+	public static final int STRIPS_PER_THREAD = 4;
+
+	protected SBSegmentation _segmentation;
+	protected int _numberOfThreads;
+	protected List<Strip> _strips;
+	/** Pool the strips are run in, null means the shared pool. */
+	protected ExecutorService _executor;
+
+	/** Union find parent for each label, labels are numbered over all strips. */
+	protected int[] _parent;
+
+	public SBParallelSegmentation(SBSegmentation segmentation) {
+		_segmentation = segmentation;
+		_numberOfThreads = Runtime.getRuntime().availableProcessors();
+	}
+
+	/** Segment all areas similar to color, in parallel. */
+	public void segmentAll(int color) {
+		SBPixelCompare compare = _segmentation.getPixelCompare();
+		_segmentation.setReferenceColor(color);
+		compare.setCurrentColor(color);
+		makeStrips();
+		runStrips();
+		joinStrips();
+		storeAreas(color);
+		markHandled();
+	}
+
+	/** Cut the ROI in strips of full lines. */
+	protected void makeStrips() {
+		int minY = _segmentation.getMinY();
+		int maxY = _segmentation.getMaxY();
+		int height = maxY - minY + 1;
+		int numberOfStrips = Math.max(1, _numberOfThreads * STRIPS_PER_THREAD);
+		int stripHeight = Math.max(MIN_STRIP_HEIGHT,
+				(height + numberOfStrips - 1) / numberOfStrips);
+		_strips = new ArrayList<Strip>();
+		for (int y = minY; y <= maxY; y += stripHeight) {
+			Strip strip = new Strip(_segmentation, y, Math.min(maxY, y + stripHeight - 1));
+			_strips.add(strip);
+		}
+	}
+
+	protected void runStrips() {
+		if (_strips.size() == 1 || _numberOfThreads <= 1) {
+			for (Strip strip: _strips)
+				strip.call();
+			return;
+		}
+		SharedExecutor.invokeAll(_executor, _strips, "Parallel segmentation");
+	}
+
+	/** Union the labels on each side of the strip borders. */
+	protected void joinStrips() {
+		int numberOfLabels = 0;
+		for (Strip strip: _strips) {
+			strip._labelOffset = numberOfLabels;
+			numberOfLabels += strip.getNumberOfLabels();
+		}
+		_parent = new int[numberOfLabels];
+		for (int i = 0; i < numberOfLabels; i++)
+			_parent[i] = i;
+		for (int i = 1; i < _strips.size(); i++) {
+			Strip above = _strips.get(i-1);
+			Strip below = _strips.get(i);
+			int lastLineStart = (above._maxY - above._minY) * above._width;
+			for (int x = 0; x < above._width; x++) {
+				int labelAbove = above._labels[lastLineStart + x];
+				int labelBelow = below._labels[x];
+				if (labelAbove != 0 && labelBelow != 0)
+					union(above._labelOffset + labelAbove - 1,
+							below._labelOffset + labelBelow - 1);
+			}
+		}
+	}
+
+	protected int find(int label) {
+		int root = label;
+		while (_parent[root] != root)
+			root = _parent[root];
+		while (_parent[label] != root) {
+			int next = _parent[label];
+			_parent[label] = root;
+			label = next;
+		}
+		return root;
+	}
+
+	/** The lowest label becomes the root, it is the area found first in a
+	 * sequential scan. */
+	protected void union(int label1, int label2) {
+		int root1 = find(label1);
+		int root2 = find(label2);
+		if (root1 < root2)
+			_parent[root2] = root1;
+		else if (root2 < root1)
+			_parent[root1] = root2;
+	}
+
+	/** Labels are in the order the sequential scan finds the areas, so
+	 * a root always comes before the rest of its area. */
+	protected void storeAreas(int color) {
+		ValueAreaFactory factory = _segmentation.getSegmentAreaFactory();
+		if (factory == null)
+			return;
+		IColorAndVariance[] joined = new IColorAndVariance[_parent.length];
+		for (Strip strip: _strips) {
+			for (int i = 0; i < strip.getNumberOfLabels(); i++) {
+				int label = strip._labelOffset + i;
+				IColorAndVariance part = strip._areas.get(i);
+				int root = find(label);
+				if (root == label) {
+					PixelArea pixelArea = part.getPixelArea();
+					joined[label] = factory.makePixelArea(
+							pixelArea.getStartX(), pixelArea.getStartY(), color);
+				}
+				joined[root].merge(part);
+				joined[root].getPixelArea().merge(part.getPixelArea());
+			}
+		}
+	}
+
+	protected void markHandled() {
+		SBPixelCompare compare = _segmentation.getPixelCompare();
+		for (Strip strip: _strips) {
+			int[] labels = strip._labels;
+			for (int y = strip._minY; y <= strip._maxY; y++) {
+				int lineStart = (y - strip._minY) * strip._width;
+				int offset = y * strip._lineStride + strip._minX;
+				for (int x = 0; x < strip._width; x++) {
+					if (labels[lineStart + x] != 0) {
+						compare.action(offset + x);
+						compare.setHandled(offset + x);
+					}
+				}
+			}
+		}
+	}
+
+	public int getNumberOfThreads() {
+		return _numberOfThreads;
+	}
+
+	public void setNumberOfThreads(int numberOfThreads) {
+		_numberOfThreads = numberOfThreads;
+	}
+
+	public ExecutorService getExecutor() {
+		return _executor;
+	}
+
+	/** Run the strips in this pool instead of the shared one, the caller 
+	 * shuts it down. */
+	public void setExecutor(ExecutorService executor) {
+		_executor = executor;
+	}
+
+	/** Flood fill of one strip, the handled state of the SBSegmentation is
+	 * only read, the areas found are written to the strip local labels.
+	 */
+	static class Strip implements Callable<Strip> {
+		final int _minX;
+		final int _maxX;
+		final int _minY;
+		final int _maxY;
+		final int _width;
+		final int _lineStride;
+		final SLImage _slImage;
+		final SBPixelCompare _compare;
+		final boolean _makeAreas;
+
+		/** 0 is not in an area, else label + 1 */
+		int[] _labels;
+		List<IColorAndVariance> _areas = new ArrayList<IColorAndVariance>();
+		SBSpanStack _stack = new SBSpanStack();
+		int _labelOffset;
+
+		Strip(SBSegmentation segmentation, int minY, int maxY) {
+			_minX = segmentation.getMinX();
+			_maxX = segmentation.getMaxX();
+			_minY = minY;
+			_maxY = maxY;
+			_width = _maxX - _minX + 1;
+			_slImage = segmentation.getSLImage();
+			_lineStride = _slImage.getLineStride();
+			_compare = segmentation.getPixelCompare().copyForThread();
+			_makeAreas = segmentation.getSegmentAreaFactory() != null;
+		}
+
+		@Override
+		public Strip call() {
+			_labels = new int[_width * (_maxY - _minY + 1)];
+			int y = _minY;
+			while (y <= _maxY) {
+				int offset = y * _lineStride;
+				int x = _minX;
+				while (x <= _maxX) {
+					int unhandled = _compare.nextUnhandled(offset + x) - offset;
+					if (x < unhandled) {
+						x = unhandled;
+						continue;
+					}
+					if (isNew(x, y))
+						fill(x, y);
+					x++;
+				}
+				//the lines before the next unhandled pixel are all handled
+				y = Math.max(y + 1, (offset + x) / _lineStride);
+			}
+			return this;
+		}
+
+		boolean isNew(int x, int y) {
+			return _labels[(y - _minY) * _width + x - _minX] == 0 &&
+				_compare.newSimilar(y * _lineStride + x);
+		}
+
+		/** Scan line flood fill, the stack holds single seed pixels. */
+		void fill(int startX, int startY) {
+			int label = _areas.size() + 1;
+			IColorAndVariance area = null;
+			if (_makeAreas) {
+				area = ColorFactory.makeColorAndVarianceI(_slImage);
+				area.setPixelArea(new PixelArea(startX, startY));
+			}
+			_areas.add(area);
+			_stack.clear();
+			_stack.push(startX, startX, startY, false);
+			while (!_stack.isEmpty()) {
+				int top = _stack.pop();
+				int x = _stack.getXMin(top);
+				int y = _stack.getY(top);
+				if (!isNew(x, y))
+					continue;
+				int xMin = x;
+				while (_minX < xMin && isNew(xMin - 1, y))
+					xMin--;
+				int xMax = x;
+				while (xMax < _maxX && isNew(xMax + 1, y))
+					xMax++;
+				int lineStart = (y - _minY) * _width - _minX;
+				int offset = y * _lineStride;
+				for (int i = xMin; i <= xMax; i++) {
+					_labels[lineStart + i] = label;
+					if (area != null)
+						area.putPixel(i, y, _compare.getColorAsInt(offset + i));
+				}
+				if (_minY < y)
+					pushRuns(xMin, xMax, y - 1);
+				if (y < _maxY)
+					pushRuns(xMin, xMax, y + 1);
+			}
+		}
+
+		/** Push the first pixel of each run of new pixels on line y. */
+		void pushRuns(int xMin, int xMax, int y) {
+			boolean inside = false;
+			for (int x = xMin; x <= xMax; x++) {
+				boolean curNew = isNew(x, y);
+				if (curNew && !inside)
+					_stack.push(x, x, y, false);
+				inside = curNew;
+			}
+		}
+
+		int getNumberOfLabels() {
+			return _areas.size();
+		}
+	}
+}
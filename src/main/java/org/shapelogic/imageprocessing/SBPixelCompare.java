@@ -15,8 +15,18 @@ public interface SBPixelCompare {
 	 */
 	boolean similar(int index);
 	public boolean newSimilar(int index);
+	
+	/** Set result[i] to newSimilar(fromIndex + i) for a run of pixels on a line. 
+	 * 
+	 * @param result buffer that is at least length long
+	 */
+	void newSimilarRow(int fromIndex, int length, boolean[] result);
 	void action(int index);
 	boolean isHandled(int index);
+	
+	/** Index of the first pixel at or after fromIndex that is not handled, 
+	 * this can be past the last pixel. */
+	int nextUnhandled(int fromIndex);
 	void setHandled(int index);
 	int colorDistance(int color1, int color2);
 	void init(ij.process.ImageProcessor ip) throws Exception;
@@ -31,4 +41,8 @@ public interface SBPixelCompare {
     void setMaxDistance(int maxDistance);
     boolean isFarFromReferencColor();
     void setFarFromReferencColor(boolean farFromColor);
-}
\ No newline at end of file
+    
+    /** Copy sharing pixels and handled state, but with its own work 
+     * buffers, so similar() can be called from another thread. */
+    SBPixelCompare copyForThread();
+}
\ No newline at end of file
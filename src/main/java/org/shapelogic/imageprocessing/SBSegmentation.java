@@ -4,8 +4,12 @@ import java.util.ArrayList;
 import java.awt.Rectangle;
 
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
 import org.shapelogic.color.IColorAndVariance;
 import org.shapelogic.color.ValueAreaFactory;
+import org.shapelogic.imageutil.RunLengthArea;
 import org.shapelogic.imageutil.SLImage;
 
 /** High level class for segmentation.
@@ -37,9 +41,39 @@ public class SBSegmentation implements Iterator<ArrayList<SBPendingVertical> > {
     private int _nextY = 0;
     private ArrayList<SBPendingVertical> _currentList;
     private int _currentArea;
+
+    /** Use the primitive SBSpanStack instead of SBPendingVertical objects. */
+    private boolean _spanStackMode = false;
+    private SBSpanStack _spanStack;
+    private SBSpanStack _currentSpans;
+	/** Reusable buffer for newSimilarRow(). */
+	private boolean[] _similarRow = new boolean[0];
+
+	/** First number of pixels to evaluate in one call when expanding a line. */
+	private static final int EXPAND_CHUNK = 16;
+	/** Keep the runs of each area in its PixelArea. */
+	private boolean _keepRuns = false;
 	private int _referenceColor;
 	private int _paintColor = -1;
 
+	/** Smaller regions do not get an area object, see setAreaBounds(). */
+	private int _minArea = 0;
+	/** Bigger regions lose their area object, see setAreaBounds(). */
+	private int _maxArea = Integer.MAX_VALUE;
+	/** Only count the regions inside the area bounds, make no area objects. */
+	private boolean _countOnly = false;
+	private int _areasInBounds;
+	/** The current region is bigger than _maxArea. */
+	private boolean _overMaxArea;
+	/** The area object is not made yet, the region is smaller than _minArea. */
+	private boolean _pendingArea;
+	private int _startX, _startY, _startColor;
+	/** x, y and color of the pixels of a pending region. */
+	private int[] _pendingPixels = new int[0];
+	private int _pendingSize;
+	/** Pool for segmentAllParallel(), null means the shared pool. */
+	private ExecutorService _executor;
+
 	public SBSegmentation() {
 		_vPV = new ArrayList<SBPendingVertical>();
 	}
@@ -76,22 +110,8 @@ public class SBSegmentation implements Iterator<ArrayList<SBPendingVertical> > {
 		if (!_pixelCompare.newSimilar(offset + lineIn.xMin) ||
 			!_pixelCompare.newSimilar(offset + lineIn.xMax))
 			return lineIn; // this should never happen
-		int i_low;
-		for (i_low = lineIn.xMin-1; _min_x <= i_low; i_low--) {
-			if (!_pixelCompare.newSimilar(offset + i_low)) {
-				i_low++;
-				break;
-			}
-		}
-		int i_high;
-		for (i_high = lineIn.xMax+1; _max_x >= i_high; i_high++) {
-			if (!_pixelCompare.newSimilar(offset + i_high)) {
-				i_high--;
-				break;
-			}
-		}
-		int x1 = Math.max(_min_x,i_low);
-		int x2 = Math.min(_max_x,i_high);
+		int x1 = expandLow(lineIn.xMin, offset);
+		int x2 = expandHigh(lineIn.xMax, offset);
 		SBPendingVertical newLine = new SBPendingVertical(x1,x2,lineIn.y, lineIn.isSearchUp());
 		return newLine;
 	}
@@ -116,15 +136,20 @@ public class SBSegmentation implements Iterator<ArrayList<SBPendingVertical> > {
 	{
         _referenceColor = color;
         _pixelCompare.setCurrentColor(_referenceColor);
-		for (int y=_min_y;y<=_max_y;y++) {
-			int lineStart = pointToIndex(0, y);;
-    		for (int x=_min_x;x<=_max_x;x++) {
-                int index = lineStart + x;
-				if (!_pixelCompare.isHandled(index) &&
-                        _pixelCompare.similar(index)) {
-					segment(x, y, true);
+		int lineStride = _slImage.getLineStride();
+		int y = _min_y;
+		while (y <= _max_y) {
+			int lineStart = pointToIndex(0, y);
+			int lineEnd = lineStart + _max_x;
+			int index = _pixelCompare.nextUnhandled(lineStart + _min_x);
+			while (index <= lineEnd) {
+				if (_pixelCompare.similar(index)) {
+					segment(index - lineStart, y, true);
 				}
+				index = _pixelCompare.nextUnhandled(index + 1);
 			}
+			//the lines before the next unhandled pixel are all handled
+			y = Math.max(y + 1, index / lineStride);
 		}
 	}
 	
@@ -137,14 +162,17 @@ public class SBSegmentation implements Iterator<ArrayList<SBPendingVertical> > {
 	 */
 	public void segment(int x, int y, boolean useReferenceColor)
 	{
+		if (_spanStackMode) {
+			segmentWithSpanStack(x, y, useReferenceColor);
+			return;
+		}
         _currentList = new ArrayList();
         _currentArea = 0;
 		int index = pointToIndex(x,y);
         int effectiveColor = _referenceColor;
         if (!useReferenceColor)
             effectiveColor = _pixelCompare.getColorAsInt(index);
-		if (_segmentAreaFactory != null)
-			_currentSegmentArea = _segmentAreaFactory.makePixelArea(x,y, effectiveColor);
+		startSegmentArea(x, y, effectiveColor);
 		if (!_pixelCompare.newSimilar(index)){
 			_status = "First pixel did not match. Segmentation is empty.";
 			return;
@@ -163,12 +191,280 @@ public class SBSegmentation implements Iterator<ArrayList<SBPendingVertical> > {
 			SBPendingVertical curLine = (SBPendingVertical) obj;
 			fullLineTreatment(curLine);
 		}
+		finishSegmentArea();
 //        if (useReferenceColor)
 //            paintSegment(_currentList,_paintColor);
 		_pixelCompare.getNumberOfPixels();
 	}
 	
 	
+	/** Same as segment() but all pending spans are kept in the reusable 
+	 * SBSpanStack, so no SBPendingVertical objects are created.<br />
+	 * 
+	 * The spans of the segment are available in getCurrentSpans().
+	 */
+	void segmentWithSpanStack(int x, int y, boolean useReferenceColor)
+	{
+		if (_spanStack == null) {
+			_spanStack = new SBSpanStack();
+			_currentSpans = new SBSpanStack();
+			_currentList = new ArrayList<SBPendingVertical>();
+		}
+		_spanStack.clear();
+		_currentSpans.clear();
+		_currentArea = 0;
+		int index = pointToIndex(x,y);
+		int effectiveColor = _referenceColor;
+		if (!useReferenceColor)
+			effectiveColor = _pixelCompare.getColorAsInt(index);
+		startSegmentArea(x, y, effectiveColor);
+		if (!_pixelCompare.newSimilar(index)){
+			_status = "First pixel did not match. Segmentation is empty.";
+			return;
+		}
+		int offset = offsetToLineStart(y);
+		int xMin = expandLow(x, offset);
+		int xMax = expandHigh(x, offset);
+		storeSpan(xMin, xMax, y, false);
+		storeSpan(xMin, xMax, y, true);
+		final int maxIterations = 1000 + _slImage.getPixelCount()/10;
+		for (int i = 1; i <= maxIterations; i++) {
+			if (_spanStack.isEmpty()) 
+				break;
+			int top = _spanStack.pop();
+			fullSpanTreatment(_spanStack.getXMin(top), _spanStack.getXMax(top),
+					_spanStack.getY(top), _spanStack.isSearchUp(top));
+		}
+		finishSegmentArea();
+	}
+
+	/** Make the area object for a new region, or wait until the region 
+	 * reaches _minArea.
+	 */
+	private void startSegmentArea(int x, int y, int color)
+	{
+		_currentSegmentArea = null;
+		_overMaxArea = false;
+		_pendingArea = false;
+		_pendingSize = 0;
+		if (_segmentAreaFactory == null || _countOnly)
+			return;
+		if (0 < _minArea) {
+			_startX = x;
+			_startY = y;
+			_startColor = color;
+			_pendingArea = true;
+			return;
+		}
+		makeSegmentArea(x, y, color);
+	}
+
+	private void makeSegmentArea(int x, int y, int color)
+	{
+		_currentSegmentArea = _segmentAreaFactory.makePixelArea(x,y, color);
+		if (_keepRuns && _currentSegmentArea.getPixelArea() != null)
+			_currentSegmentArea.getPixelArea().keepRuns();
+	}
+
+	/** Add a pixel that was just handled to the area object of the region. */
+	private void putSegmentPixel(int x, int y, int index)
+	{
+		int color = _pixelCompare.getColorAsInt(index);
+		if (_pendingArea) {
+			if (_pendingPixels.length < _pendingSize + 3) {
+				int[] pendingPixels = new int[Math.max(3 * _minArea, 2 * _pendingPixels.length)];
+				System.arraycopy(_pendingPixels, 0, pendingPixels, 0, _pendingSize);
+				_pendingPixels = pendingPixels;
+			}
+			_pendingPixels[_pendingSize++] = x;
+			_pendingPixels[_pendingSize++] = y;
+			_pendingPixels[_pendingSize++] = color;
+			if (getCurrentBoundedArea() < _minArea)
+				return;
+			//big enough, make the area and add the pixels in the same order
+			makeSegmentArea(_startX, _startY, _startColor);
+			for (int i = 0; i < _pendingSize; i += 3)
+				_currentSegmentArea.putPixel(_pendingPixels[i], _pendingPixels[i+1], 
+						_pendingPixels[i+2]);
+			_pendingArea = false;
+			_pendingSize = 0;
+		}
+		else
+			_currentSegmentArea.putPixel(x,y,color);
+	}
+
+	/** Area of the current region the way getArea() of its area object 
+	 * gives it, one more than the pixels since the start pixel is counted 
+	 * twice. Used for the area bounds also when there is no area object. */
+	private int getCurrentBoundedArea()
+	{
+		return _currentArea + 1;
+	}
+
+	/** Called after each new pixel, drops the area when it gets too big. */
+	private void checkMaxArea()
+	{
+		if (!_overMaxArea && _maxArea < getCurrentBoundedArea())
+			dropSegmentArea();
+	}
+
+	/** The region is too big, remove its area object from the store if it 
+	 * has one. The rest of the region is only marked handled. */
+	private void dropSegmentArea()
+	{
+		if (_currentSegmentArea != null) {
+			List<IColorAndVariance> store = _segmentAreaFactory.getStore();
+			int last = store.size() - 1;
+			if (0 <= last && store.get(last) == _currentSegmentArea)
+				store.remove(last);
+			else
+				store.remove(_currentSegmentArea);
+		}
+		_currentSegmentArea = null;
+		_pendingArea = false;
+		_pendingSize = 0;
+		_overMaxArea = true;
+	}
+
+	private void finishSegmentArea()
+	{
+		int area = getCurrentBoundedArea();
+		if (_minArea <= area && area <= _maxArea)
+			_areasInBounds++;
+		_pendingArea = false;
+		_pendingSize = 0;
+	}
+
+	/** Span version of fullLineTreatment(). */
+	void fullSpanTreatment(int xMin, int xMax, int y, boolean searchUp)
+	{
+		int offset = offsetToLineStart(y);
+		if (isExpandable(xMin, xMax, offset)) {
+			if (_pixelCompare.newSimilar(offset + xMin) &&
+				_pixelCompare.newSimilar(offset + xMax)) {
+				xMin = expandLow(xMin, offset);
+				xMax = expandHigh(xMax, offset);
+			}
+			storeSpan(xMin, xMax, y, !searchUp);
+		}
+		handleSpan(xMin, xMax, y, offset);
+		handleNextSpan(xMin, xMax, y, searchUp);
+	}
+
+	/** Evaluate newSimilar() for x from xMin to xMax on a line, in one call.
+	 * 
+	 * @return buffer where position 0 is xMin, valid until the next call
+	 */
+	private boolean[] similarRow(int offset, int xMin, int xMax)
+	{
+		int length = xMax - xMin + 1;
+		if (_similarRow.length < length)
+			_similarRow = new boolean[Math.max(length, _slImage.getWidth())];
+		_pixelCompare.newSimilarRow(offset + xMin, length, _similarRow);
+		return _similarRow;
+	}
+
+	/** Lowest x that can be reached going left from xMin on a line.<br />
+	 * 
+	 * The pixels are evaluated in chunks that double in size.
+	 */
+	private int expandLow(int xMin, int offset)
+	{
+		int xEnd = xMin - 1;
+		int chunk = EXPAND_CHUNK;
+		while (_min_x <= xEnd) {
+			int xStart = Math.max(_min_x, xEnd - chunk + 1);
+			boolean[] similar = similarRow(offset, xStart, xEnd);
+			for (int i = xEnd; xStart <= i; i--) {
+				if (!similar[i - xStart]) 
+					return i + 1;
+			}
+			xEnd = xStart - 1;
+			chunk *= 2;
+		}
+		return _min_x;
+	}
+
+	/** Highest x that can be reached going right from xMax on a line. */
+	private int expandHigh(int xMax, int offset)
+	{
+		int xStart = xMax + 1;
+		int chunk = EXPAND_CHUNK;
+		while (xStart <= _max_x) {
+			int xEnd = Math.min(_max_x, xStart + chunk - 1);
+			boolean[] similar = similarRow(offset, xStart, xEnd);
+			for (int i = xStart; i <= xEnd; i++) {
+				if (!similar[i - xStart]) 
+					return i - 1;
+			}
+			xStart = xEnd + 1;
+			chunk *= 2;
+		}
+		return _max_x;
+	}
+
+	/** Span version of isExpandable(). */
+	private boolean isExpandable(int xMin, int xMax, int offset)
+	{
+		if (_min_x <= xMin-1 && _pixelCompare.newSimilar(offset + xMin-1))
+			return true;
+		if (_max_x >= xMax+1 && _pixelCompare.newSimilar(offset + xMax+1))
+			return true;
+		return false;
+	}
+
+	/** Span version of handleLine(). */
+	private void handleSpan(int xMin, int xMax, int y, int offset)
+	{
+		for (int i = xMin; i <= xMax; i++) {
+			int index = offset + i;
+			if (_pixelCompare.isHandled(index))
+				continue;
+			_pixelCompare.action(index);
+			_currentArea++;
+			_pixelCompare.setHandled(index);
+			checkMaxArea();
+			if (_currentSegmentArea != null || _pendingArea)
+				putSegmentPixel(i, y, index);
+		}
+	}
+
+	/** Span version of handleNextLine(). */
+	private void handleNextSpan(int xMin, int xMax, int y, boolean searchUp)
+	{
+		if (y == _max_y && searchUp)
+			return;
+		if (y == _min_y && !searchUp)
+			return;
+		int yNew = searchUp ? y + 1 : y - 1;
+		if (!(_min_y <= yNew && yNew <= _max_y))
+			return;
+		int offset = offsetToLineStart(yNew);
+		boolean[] similar = similarRow(offset, xMin, xMax);
+		boolean insideSimilar = false;
+		int lowX = 0;
+		for (int i = xMin; i <= xMax; i++) {
+			boolean curSimilar = similar[i - xMin];
+			if (!insideSimilar && curSimilar) { //enter
+				lowX = i;
+				insideSimilar = true;
+			}
+			else if (insideSimilar && !curSimilar) { //leave
+				storeSpan(lowX, i-1, yNew, searchUp);
+				insideSimilar = false;
+			}
+		}
+		if (insideSimilar)
+			storeSpan(lowX, xMax, yNew, searchUp);
+	}
+
+	private void storeSpan(int xMin, int xMax, int y, boolean searchUp)
+	{
+		if (!_overMaxArea)
+			_currentSpans.push(xMin, xMax, y, searchUp);
+		_spanStack.push(xMin, xMax, y, searchUp);
+	}
+	
 	/** line is at the edge of image and pointing away from the center	 */
 	public void init()
 	{
@@ -244,8 +540,9 @@ public class SBSegmentation implements Iterator<ArrayList<SBPendingVertical> > {
 				_pixelCompare.action(offset + i);
                 _currentArea++;
 				_pixelCompare.setHandled(offset + i);
-				if (_currentSegmentArea != null)
-					_currentSegmentArea.putPixel(i,y,_pixelCompare.getColorAsInt(offset + i));
+				checkMaxArea();
+				if (_currentSegmentArea != null || _pendingArea)
+					putSegmentPixel(i, y, offset + i);
 			}
 		}
 	}
@@ -267,8 +564,9 @@ public class SBSegmentation implements Iterator<ArrayList<SBPendingVertical> > {
 		if (!(_min_y <= yNew && yNew <= _max_y))
 			return;
 		int offset = offsetToLineStart(yNew);
+		boolean[] similar = similarRow(offset, curLine.xMin, curLine.xMax);
 		for (int i = curLine.xMin; i <= curLine.xMax; i++) {
-			boolean curSimilar = _pixelCompare.newSimilar(offset + i);
+			boolean curSimilar = similar[i - curLine.xMin];
 			if (!insideSimilar && curSimilar) { //enter
 				lowX = i;
 				insideSimilar = true;
@@ -382,7 +680,8 @@ public class SBSegmentation implements Iterator<ArrayList<SBPendingVertical> > {
 	void storeLine(SBPendingVertical curLine){
 		if (_slowTestMode && !checkLine(curLine))
 			checkLine(curLine); //for debugging
-        _currentList.add(curLine);
+        if (!_overMaxArea)
+            _currentList.add(curLine);
 		_vPV.add(curLine);
 	}
 
@@ -413,6 +712,13 @@ public class SBSegmentation implements Iterator<ArrayList<SBPendingVertical> > {
         return false;
     }
 
+    /** Segment the next area that is not handled.<br />
+     * 
+     * Handled pixels are skipped a run at a time, also over line ends.<br />
+     * 
+     * In span stack mode the returned list is empty and reused, the spans 
+     * of the segment are in getCurrentSpans(). 
+     */
     public ArrayList<SBPendingVertical> next() {
         while (true) {
             if (!hasNext())
@@ -423,10 +729,23 @@ public class SBSegmentation implements Iterator<ArrayList<SBPendingVertical> > {
                 _nextY++;
                 _nextX = _min_x;
             }
-            if (!_pixelCompare.isHandled(pointToIndex(_nextX, _nextY) ) ) {
+            int lineStride = _slImage.getLineStride();
+            int unhandled = _pixelCompare.nextUnhandled(pointToIndex(_nextX, _nextY));
+            int y = unhandled / lineStride;
+            int x = unhandled % lineStride;
+            if (_max_y < y) {
+                _nextY = _max_y;
+                _nextX = _max_x;
+                return null;
+            }
+            //go straight to the line of the next unhandled pixel
+            _nextY = y;
+            if (_min_x <= x && x <= _max_x) {
+                _nextX = x;
                 segment(_nextX, _nextY, true);
                 return _currentList;
             }
+            _nextX = x < _min_x ? _min_x - 1 : _max_x;
         }
     }
 
@@ -445,14 +764,166 @@ public class SBSegmentation implements Iterator<ArrayList<SBPendingVertical> > {
     public void paintSegment(ArrayList<SBPendingVertical> lines, int paintColor) {
         if (null != lines) {
             for (SBPendingVertical line: lines) {
-                for (int i = line.xMin; i <= line.xMax; i++ ) {
-                    _slImage.set(i, line.y, paintColor);
-                }
+                RunLengthArea.fillRun(_slImage, line.y, line.xMin, line.xMax, paintColor);
             }
         }
     }
 
+    public void paintSegment(SBSpanStack spans, int paintColor) {
+        if (null != spans) {
+            for (int span = 0; span < spans.size(); span++) {
+                RunLengthArea.fillRun(_slImage, spans.getY(span), 
+                        spans.getXMin(span), spans.getXMax(span), paintColor);
+            }
+        }
+    }
+
+    /** The last segment as sorted and merged runs. */
+    public RunLengthArea getCurrentRunLengthArea() {
+        RunLengthArea result = new RunLengthArea();
+        if (_spanStackMode) {
+            for (int span = 0; span < _currentSpans.size(); span++)
+                result.addRun(_currentSpans.getY(span), 
+                        _currentSpans.getXMin(span), _currentSpans.getXMax(span));
+        }
+        else if (_currentList != null) {
+            for (SBPendingVertical line: _currentList)
+                result.addRun(line.y, line.xMin, line.xMax);
+        }
+        result.normalize();
+        return result;
+    }
+
+    public boolean isKeepRuns() {
+        return _keepRuns;
+    }
+
+    /** Keep the pixels of each area as runs in its PixelArea, 
+     * see PixelArea.getRunLengthArea(). */
+    public void setKeepRuns(boolean keepRuns) {
+        _keepRuns = keepRuns;
+    }
+
+    /** Paint the last segment, works both with and without span stack mode. */
+    public void paintCurrentSegment(int paintColor) {
+        if (_spanStackMode)
+            paintSegment(_currentSpans, paintColor);
+        else
+            paintSegment(_currentList, paintColor);
+    }
+
+    /** Spans of the last segment when running in span stack mode. */
+    public SBSpanStack getCurrentSpans() {
+        return _currentSpans;
+    }
+
+    public boolean isSpanStackMode() {
+        return _spanStackMode;
+    }
+
+    /** Use a primitive span stack instead of SBPendingVertical objects.<br />
+     * 
+     * The stacks are reused for all the following segments. 
+     */
+    public void setSpanStackMode(boolean spanStackMode) {
+        _spanStackMode = spanStackMode;
+    }
+
     public boolean pixelIsHandled(int index) {
         return _pixelCompare.isHandled(index);
     }
+
+    /** Same result as segmentAll(int color), but the image is split in strips
+     * that are segmented in parallel. 
+     * 
+     * @param color
+     * @param numberOfThreads 0 means one per available processor
+     */
+    public void segmentAllParallel(int color, int numberOfThreads) {
+        SBParallelSegmentation parallel = new SBParallelSegmentation(this);
+        if (0 < numberOfThreads)
+            parallel.setNumberOfThreads(numberOfThreads);
+        parallel.setExecutor(_executor);
+        parallel.segmentAll(color);
+    }
+
+    public ExecutorService getExecutor() {
+        return _executor;
+    }
+
+    /** Pool for segmentAllParallel() instead of the shared one. */
+    public void setExecutor(ExecutorService executor) {
+        _executor = executor;
+    }
+
+    public SBPixelCompare getPixelCompare() {
+        return _pixelCompare;
+    }
+
+    /** Only keep area objects for regions with an area between minArea and
+     * maxArea, both included, the same as the size filter in 
+     * BaseParticleCounter.<br />
+     * 
+     * The area is what getArea() of the area objects gives, the area objects
+     * made by the factory count the start pixel twice, so it is one more 
+     * than the number of pixels. The bounds are checked the same way in 
+     * count only mode and without a factory.<br />
+     * 
+     * Below minArea the pixels of a region are kept in a primitive buffer 
+     * and the area object is only made when the region gets big enough. 
+     * Above maxArea the area object is removed from the store and the rest 
+     * of the region is only marked handled, without statistics and without
+     * storing its spans, so getCurrentSpans() and getCurrentRunLengthArea() 
+     * are not complete for that region.<br />
+     * 
+     * Also resets getAreasInBounds().
+     */
+    public void setAreaBounds(int minArea, int maxArea) {
+        _minArea = minArea;
+        _maxArea = maxArea;
+        _areasInBounds = 0;
+    }
+
+    /** Remove the area bounds. */
+    public void clearAreaBounds() {
+        setAreaBounds(0, Integer.MAX_VALUE);
+    }
+
+    public int getMinArea() {
+        return _minArea;
+    }
+
+    public int getMaxArea() {
+        return _maxArea;
+    }
+
+    /** Number of regions segmented inside the area bounds, since they were set. */
+    public int getAreasInBounds() {
+        return _areasInBounds;
+    }
+
+    public boolean isCountOnly() {
+        return _countOnly;
+    }
+
+    /** Make no area objects, only count the regions, see getAreasInBounds(). */
+    public void setCountOnly(boolean countOnly) {
+        _countOnly = countOnly;
+    }
+
+    int getMinX() {
+        return _min_x;
+    }
+
+    int getMaxX() {
+        return _max_x;
+    }
+
+    int getMinY() {
+        return _min_y;
+    }
+
+    int getMaxY() {
+        return _max_y;
+    }
 }
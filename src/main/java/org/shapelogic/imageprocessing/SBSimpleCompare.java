@@ -1,5 +1,6 @@
 package org.shapelogic.imageprocessing;
 
+import java.util.Arrays;
 import java.util.BitSet;
 
 import org.shapelogic.imageutil.SLImage;
@@ -9,7 +10,7 @@ import org.shapelogic.imageutil.SLImage;
  * @author Sami Badawi
  *
  */
-public abstract class SBSimpleCompare implements SBPixelCompare {
+public abstract class SBSimpleCompare implements SBPixelCompare, Cloneable {
 	protected int _currentColor;
 	protected int handledColor;
 	protected int mask;
@@ -21,12 +22,32 @@ public abstract class SBSimpleCompare implements SBPixelCompare {
 	protected  boolean _modifying;
 	protected boolean _farFromReferenceColor = false;
 	
+	/** Lookup table for gray values, true if the value is within _maxDistance
+	 * of _currentColor. Sub classes that use it create it in init(). */
+	protected boolean[] _nearTable;
+	/** Range of values that is true in _nearTable, empty if low > high. */
+	protected int _nearLow = 0;
+	protected int _nearHigh = -1;
+	protected boolean _nearTableValid = false;
+	
+	/** Row of pixels read with SLImage.getRow(), for images that do not have
+	 * a pixel array like MappedSLImage. */
+	protected int[] _rowBuffer;
+	
 	/** Similar and not handled
 	 */
 	public boolean newSimilar(int index) {
 		return !isHandled(index) && similar(index);
 	}
 
+	/** Generic version, sub classes can do the whole run in one loop. */
+	public void newSimilarRow(int fromIndex, int length, boolean[] result) {
+		for (int i = 0; i < length; i++) {
+			int index = fromIndex + i;
+			result[i] = !bitSet.get(index) && similar(index);
+		}
+	}
+
 	/**
 	 * @return Returns the currentColor.
 	 */
@@ -38,6 +59,7 @@ public abstract class SBSimpleCompare implements SBPixelCompare {
 	 */
 	public void setCurrentColor(int currentColor) {
 		this._currentColor = currentColor;
+		_nearTableValid = false;
 	}
 	/**
 	 * @return Returns the handledColor.
@@ -62,10 +84,12 @@ public abstract class SBSimpleCompare implements SBPixelCompare {
 	 */
 	public void setMaxDist(int maxDist) {
 		this._maxDistance = maxDist;
+		_nearTableValid = false;
 	}
 	
 	public void grabColorFromPixel(int startX, int startY) {
-		_currentColor = _slImage.get(startX, startY) & mask;
+		_currentColor = getColorAsInt(startX + startY * _slImage.getLineStride()) & mask;
+		_nearTableValid = false;
 		if (fillWithOwnColor)
 			handledColor = _currentColor;
 	}
@@ -92,6 +116,11 @@ public abstract class SBSimpleCompare implements SBPixelCompare {
 		return bitSet.get(index);
 	}
 
+	/** Handled runs are skipped a 64 bit word at a time. */
+	public int nextUnhandled(int fromIndex) {
+		return bitSet.nextClearBit(fromIndex);
+	}
+
 	/** Mark that pixel at index has been handled
 	 */
 	public void setHandled(int index) {
@@ -117,6 +146,7 @@ public abstract class SBSimpleCompare implements SBPixelCompare {
     @Override
     public void setMaxDistance(int maxDistance) {
         _maxDistance = maxDistance;
+        _nearTableValid = false;
     }
 
     @Override
@@ -128,4 +158,59 @@ public abstract class SBSimpleCompare implements SBPixelCompare {
 	public void setFarFromReferencColor(boolean farFromColor) {
 		_farFromReferenceColor = farFromColor;
 	}
+
+	/** Shallow copy, the pixels and the handled BitSet are shared. */
+	@Override
+	public SBSimpleCompare copyForThread() {
+		try {
+			SBSimpleCompare result = (SBSimpleCompare) clone();
+			if (_nearTable != null)
+				result._nearTable = _nearTable.clone();
+			result._rowBuffer = null;
+			return result;
+		} catch (CloneNotSupportedException e) {
+			throw new AssertionError(e); //SBSimpleCompare is Cloneable
+		}
+	}
+
+	/** Make _nearTable match _currentColor and _maxDistance.<br />
+	 * 
+	 * Only the values that go in or out of the near range are changed, 
+	 * so changing the color a little does not touch the whole table.
+	 * _farFromReferenceColor is not in the table, it is applied after lookup.
+	 */
+	protected void updateNearTable() {
+		int last = _nearTable.length - 1;
+		int low = (int) Math.min(last + 1, Math.max(0L, (long)_currentColor - _maxDistance));
+		int high = (int) Math.max(-1, Math.min(last, (long)_currentColor + _maxDistance));
+		if (_nearLow <= _nearHigh) {
+			fillNearTable(_nearLow, Math.min(_nearHigh, low - 1), false);
+			fillNearTable(Math.max(_nearLow, high + 1), _nearHigh, false);
+			fillNearTable(low, Math.min(high, _nearLow - 1), true);
+			fillNearTable(Math.max(low, _nearHigh + 1), high, true);
+		}
+		else
+			fillNearTable(low, high, true);
+		_nearLow = low;
+		_nearHigh = high;
+		_nearTableValid = true;
+	}
+
+	/** Read length pixels starting at fromIndex, all in one row, into 
+	 * _rowBuffer.<br />
+	 * 
+	 * Used by the sub classes when the image has no pixel array.
+	 */
+	protected int[] readRow(int fromIndex, int length) {
+		if (_rowBuffer == null || _rowBuffer.length < length)
+			_rowBuffer = new int[length];
+		int lineStride = _slImage.getLineStride();
+		_slImage.getRow(fromIndex % lineStride, fromIndex / lineStride, length, _rowBuffer);
+		return _rowBuffer;
+	}
+
+	private void fillNearTable(int from, int to, boolean value) {
+		if (from <= to)
+			Arrays.fill(_nearTable, from, to + 1, value);
+	}
 }
@@ -0,0 +1,102 @@
+package org.shapelogic.imageprocessing;
+
+/** Growable stack of horizontal spans stored in one primitive int array.<br />
+ *
+ * Each span takes up ENTRY_SIZE ints: xMin, xMax, y and direction.<br />
+ *
+ * This is the allocation free alternative to keeping SBPendingVertical
+ * objects in an ArrayList. The array only grows, so after the first large
+ * segment it can be reused without allocations, call clear() between uses.<br />
+ *
+ * Values of a popped span stay valid until the next push.<br />
+ *
+ * @author Sami Badawi
+ *
+ */
+public class SBSpanStack {
+	public static final int ENTRY_SIZE = 4;
+	public static final int X_MIN_POS = 0;
+	public static final int X_MAX_POS = 1;
+	public static final int Y_POS = 2;
+	public static final int DIRECTION_POS = 3;
+
+	public static final int SEARCH_DOWN = 0;
+	public static final int SEARCH_UP = 1;
+
+	protected static final int DEFAULT_CAPACITY = 256;
+
+	protected int[] _spans;
+
+	/** Number of spans in the stack. */
+	protected int _size;
+
+	public SBSpanStack() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public SBSpanStack(int capacity) {
+		_spans = new int[Math.max(1, capacity) * ENTRY_SIZE];
+	}
+
+	/** Add a span to the top of the stack. */
+	public void push(int xMin, int xMax, int y, boolean searchUp) {
+		int offset = _size * ENTRY_SIZE;
+		if (_spans.length < offset + ENTRY_SIZE)
+			grow();
+		_spans[offset + X_MIN_POS] = xMin;
+		_spans[offset + X_MAX_POS] = xMax;
+		_spans[offset + Y_POS] = y;
+		_spans[offset + DIRECTION_POS] = searchUp ? SEARCH_UP : SEARCH_DOWN;
+		_size++;
+	}
+
+	/** Remove the top span.
+	 *
+	 * @return the index of the removed span, valid until the next push
+	 */
+	public int pop() {
+		_size--;
+		return _size;
+	}
+
+	/** Double the capacity, keeping the content. */
+	protected void grow() {
+		int[] newSpans = new int[_spans.length * 2];
+		System.arraycopy(_spans, 0, newSpans, 0, _size * ENTRY_SIZE);
+		_spans = newSpans;
+	}
+
+	/** Reset the stack for reuse, the array is kept. */
+	public void clear() {
+		_size = 0;
+	}
+
+	public boolean isEmpty() {
+		return _size == 0;
+	}
+
+	public int size() {
+		return _size;
+	}
+
+	public int getXMin(int index) {
+		return _spans[index * ENTRY_SIZE + X_MIN_POS];
+	}
+
+	public int getXMax(int index) {
+		return _spans[index * ENTRY_SIZE + X_MAX_POS];
+	}
+
+	public int getY(int index) {
+		return _spans[index * ENTRY_SIZE + Y_POS];
+	}
+
+	public boolean isSearchUp(int index) {
+		return _spans[index * ENTRY_SIZE + DIRECTION_POS] == SEARCH_UP;
+	}
+
+	/** Number of spans that fit without growing. */
+	public int getCapacity() {
+		return _spans.length / ENTRY_SIZE;
+	}
+}
@@ -0,0 +1,387 @@
+package org.shapelogic.imageprocessing;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+
+import org.shapelogic.color.ColorAndVariance;
+import org.shapelogic.color.ColorUtil;
+import org.shapelogic.color.GrayAndVariance;
+import org.shapelogic.color.IColorAndVariance;
+import org.shapelogic.imageutil.MappedImageFile;
+import org.shapelogic.imageutil.PixelArea;
+import org.shapelogic.mathematics.StorelessDiscriptiveStatistic;
+
+/** Segmentation of images that are too big for memory, streamed from a
+ * MappedImageFile.<br />
+ *
+ * Finds the same areas as SBSegmentation.segmentAll(int color): 4 connected
+ * areas of pixels within maxDistance of the reference color, or far from it.
+ * Rows are read in strips, only the current strip, the runs of the previous
+ * row and the open areas are in memory, there is no BitSet for the whole
+ * image.<br />
+ *
+ * Each row is split in runs that are joined to the overlapping runs of the
+ * previous row with union find. When a row is done an area that has no run in
+ * it cannot grow any more, it is turned into an IColorAndVariance and handed
+ * out by next(). Label slots are reused, so memory follows the width of the
+ * image, not the size.<br />
+ *
+ * The areas come out in the order they are completed, not in scan order.
+ * Unlike the ValueAreaFactory areas the start pixel is only counted once.<br />
+ *
+ * @author Sami Badawi
+ *
+ */
+public class SBStreamSegmentation implements Iterator<IColorAndVariance> {
+
+	public static final int DEFAULT_STRIP_HEIGHT = 256;
+	protected static final int DEFAULT_CAPACITY = 256;
+
+	protected MappedImageFile _imageFile;
+	protected int _width;
+	protected int _height;
+	protected boolean _gray;
+	protected int _numberOfChannels;
+	protected int _stripHeight = DEFAULT_STRIP_HEIGHT;
+
+	protected int _referenceColor;
+	protected int[] _referenceChannels = new int[3];
+	protected int _maxDistance;
+	protected boolean _farFromReferenceColor;
+
+	protected MappedByteBuffer _strip;
+	protected int _stripStart;
+	protected int[] _row;
+	protected int[] _splitColors = new int[3];
+	protected int _nextY = 0;
+
+	/** Runs of the previous and the current row. */
+	protected int[] _previousXStart, _previousXEnd, _previousLabel;
+	protected int _numberOfPrevious;
+	protected int[] _currentXStart, _currentXEnd, _currentLabel;
+	protected int _numberOfCurrent;
+
+	/** Label slots, free slots are on _freeLabels. */
+	protected int[] _parent;
+	protected int[] _area;
+	protected int[] _startX, _startY;
+	protected int[] _minX, _maxX, _minY, _maxY;
+	protected double[] _sumX, _sumY;
+	protected double[][] _colorSum;
+	protected double[][] _colorSquareSum;
+	protected int[][] _colorMin;
+	protected int[][] _colorMax;
+	protected int[] _rowMark;
+	protected int[] _freeLabels;
+	protected int _numberOfFree;
+	protected int _numberOfSlots;
+
+	/** Labels that were in use in the previous row or created in this. */
+	protected int[] _activeLabels;
+	protected int _numberOfActive;
+	protected int[] _nextActive;
+
+	protected LinkedList<IColorAndVariance> _completed = new LinkedList<IColorAndVariance>();
+
+	public SBStreamSegmentation(MappedImageFile imageFile, int referenceColor,
+			int maxDistance, boolean farFromReferenceColor) {
+		_imageFile = imageFile;
+		_width = imageFile.getWidth();
+		_height = imageFile.getHeight();
+		_gray = imageFile.isGray();
+		_numberOfChannels = _gray ? 1 : 3;
+		_referenceColor = referenceColor;
+		ColorUtil.splitColor(referenceColor, _referenceChannels);
+		_maxDistance = maxDistance;
+		_farFromReferenceColor = farFromReferenceColor;
+		_row = new int[_width];
+		int maxRuns = _width / 2 + 1;
+		_previousXStart = new int[maxRuns];
+		_previousXEnd = new int[maxRuns];
+		_previousLabel = new int[maxRuns];
+		_currentXStart = new int[maxRuns];
+		_currentXEnd = new int[maxRuns];
+		_currentLabel = new int[maxRuns];
+		_colorSum = new double[_numberOfChannels][];
+		_colorSquareSum = new double[_numberOfChannels][];
+		_colorMin = new int[_numberOfChannels][];
+		_colorMax = new int[_numberOfChannels][];
+		allocateLabelArrays(DEFAULT_CAPACITY);
+	}
+
+	/** Same test as SBByteCompare, SBShortCompare and SBColorCompare. */
+	protected boolean similar(int color) {
+		int diff;
+		if (_gray)
+			diff = Math.abs(color - _referenceColor);
+		else {
+			ColorUtil.splitColor(color, _splitColors);
+			diff = (Math.abs(_splitColors[0] - _referenceChannels[0]) +
+				Math.abs(_splitColors[1] - _referenceChannels[1]) +
+				Math.abs(_splitColors[2] - _referenceChannels[2])) / 3;
+		}
+		return (diff <= _maxDistance) ^ _farFromReferenceColor;
+	}
+
+	@Override
+	public boolean hasNext() {
+		try {
+			while (_completed.isEmpty() && _nextY <= _height)
+				processRow();
+		} catch (IOException e) {
+			throw new RuntimeException("Could not read image file", e);
+		}
+		return !_completed.isEmpty();
+	}
+
+	@Override
+	public IColorAndVariance next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		return _completed.removeFirst();
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("Not supported.");
+	}
+
+	/** Handle row _nextY, at _nextY == height the last areas are completed. */
+	protected void processRow() throws IOException {
+		int y = _nextY++;
+		_numberOfCurrent = 0;
+		if (y < _height) {
+			readRow(y);
+			findRuns(y);
+		}
+		completeRow(y);
+		int[] swap = _previousXStart; _previousXStart = _currentXStart; _currentXStart = swap;
+		swap = _previousXEnd; _previousXEnd = _currentXEnd; _currentXEnd = swap;
+		swap = _previousLabel; _previousLabel = _currentLabel; _currentLabel = swap;
+		_numberOfPrevious = _numberOfCurrent;
+		if (y == _height)
+			_strip = null;
+	}
+
+	protected void readRow(int y) throws IOException {
+		if (_strip == null || _stripStart + _stripHeight <= y) {
+			_stripStart = y;
+			int rows = Math.min(_stripHeight, _height - y);
+			_strip = _imageFile.mapRows(y, rows);
+		}
+		_imageFile.readRow(_strip, y - _stripStart, _row);
+	}
+
+	protected void findRuns(int y) {
+		int previous = 0;
+		int x = 0;
+		while (x < _width) {
+			if (!similar(_row[x])) {
+				x++;
+				continue;
+			}
+			int xStart = x;
+			while (x + 1 < _width && similar(_row[x + 1]))
+				x++;
+			int xEnd = x;
+			while (previous < _numberOfPrevious && _previousXEnd[previous] < xStart)
+				previous++;
+			int label = -1;
+			for (int i = previous; i < _numberOfPrevious && _previousXStart[i] <= xEnd; i++) {
+				if (label < 0)
+					label = find(_previousLabel[i]);
+				else
+					label = union(label, _previousLabel[i]);
+			}
+			if (label < 0)
+				label = newLabel(xStart, y);
+			_currentXStart[_numberOfCurrent] = xStart;
+			_currentXEnd[_numberOfCurrent] = xEnd;
+			_currentLabel[_numberOfCurrent] = label;
+			_numberOfCurrent++;
+			addRun(xStart, xEnd, y, label);
+			x++;
+		}
+	}
+
+	/** Resolve the runs to roots, complete the areas that did not continue
+	 * and free the labels that are not used any more.
+	 */
+	protected void completeRow(int y) {
+		int mark = y + 1;
+		for (int i = 0; i < _numberOfCurrent; i++) {
+			int root = find(_currentLabel[i]);
+			_currentLabel[i] = root;
+			_rowMark[root] = mark;
+		}
+		int numberOfNext = 0;
+		for (int i = 0; i < _numberOfActive; i++) {
+			int label = _activeLabels[i];
+			if (_rowMark[label] == mark) {
+				_nextActive[numberOfNext++] = label;
+				continue;
+			}
+			if (_parent[label] == label)
+				_completed.add(makeArea(label));
+			_freeLabels[_numberOfFree++] = label;
+		}
+		int[] swap = _activeLabels;
+		_activeLabels = _nextActive;
+		_nextActive = swap;
+		_numberOfActive = numberOfNext;
+	}
+
+	protected int newLabel(int x, int y) {
+		if (_numberOfFree == 0)
+			allocateLabelArrays(_numberOfSlots * 2);
+		int label = _freeLabels[--_numberOfFree];
+		_activeLabels[_numberOfActive++] = label;
+		_parent[label] = label;
+		_rowMark[label] = 0;
+		_area[label] = 0;
+		_startX[label] = x;
+		_startY[label] = y;
+		_minX[label] = x;
+		_maxX[label] = x;
+		_minY[label] = y;
+		_maxY[label] = y;
+		_sumX[label] = 0;
+		_sumY[label] = 0;
+		for (int c = 0; c < _numberOfChannels; c++) {
+			_colorSum[c][label] = 0;
+			_colorSquareSum[c][label] = 0;
+			_colorMin[c][label] = Integer.MAX_VALUE;
+			_colorMax[c][label] = Integer.MIN_VALUE;
+		}
+		return label;
+	}
+
+	protected void addRun(int xStart, int xEnd, int y, int label) {
+		int length = xEnd - xStart + 1;
+		_area[label] += length;
+		_minX[label] = Math.min(_minX[label], xStart);
+		_maxX[label] = Math.max(_maxX[label], xEnd);
+		_maxY[label] = Math.max(_maxY[label], y);
+		_sumX[label] += (xStart + xEnd) * (double)length / 2.;
+		_sumY[label] += (double)y * length;
+		for (int x = xStart; x <= xEnd; x++) {
+			int color = _row[x];
+			if (_gray)
+				_splitColors[0] = color;
+			else
+				ColorUtil.splitColor(color, _splitColors);
+			for (int c = 0; c < _numberOfChannels; c++) {
+				int channel = _splitColors[c];
+				_colorSum[c][label] += channel;
+				_colorSquareSum[c][label] += (double)channel * channel;
+				if (channel < _colorMin[c][label])
+					_colorMin[c][label] = channel;
+				if (_colorMax[c][label] < channel)
+					_colorMax[c][label] = channel;
+			}
+		}
+	}
+
+	protected int find(int label) {
+		int root = label;
+		while (_parent[root] != root)
+			root = _parent[root];
+		while (_parent[label] != root) {
+			int next = _parent[label];
+			_parent[label] = root;
+			label = next;
+		}
+		return root;
+	}
+
+	/** The root with the first start pixel in scan order is kept, the
+	 * statistics of the other root are added to it right away. */
+	protected int union(int label1, int label2) {
+		int root1 = find(label1);
+		int root2 = find(label2);
+		if (root1 == root2)
+			return root1;
+		if (_startY[root2] < _startY[root1] ||
+				(_startY[root2] == _startY[root1] && _startX[root2] < _startX[root1])) {
+			int swap = root1;
+			root1 = root2;
+			root2 = swap;
+		}
+		_parent[root2] = root1;
+		_area[root1] += _area[root2];
+		_minX[root1] = Math.min(_minX[root1], _minX[root2]);
+		_maxX[root1] = Math.max(_maxX[root1], _maxX[root2]);
+		_minY[root1] = Math.min(_minY[root1], _minY[root2]);
+		_maxY[root1] = Math.max(_maxY[root1], _maxY[root2]);
+		_sumX[root1] += _sumX[root2];
+		_sumY[root1] += _sumY[root2];
+		for (int c = 0; c < _numberOfChannels; c++) {
+			_colorSum[c][root1] += _colorSum[c][root2];
+			_colorSquareSum[c][root1] += _colorSquareSum[c][root2];
+			_colorMin[c][root1] = Math.min(_colorMin[c][root1], _colorMin[c][root2]);
+			_colorMax[c][root1] = Math.max(_colorMax[c][root1], _colorMax[c][root2]);
+		}
+		return root1;
+	}
+
+	protected IColorAndVariance makeArea(int label) {
+		IColorAndVariance result = _gray ? new GrayAndVariance() : new ColorAndVariance();
+		PixelArea pixelArea = new PixelArea(_startX[label], _startY[label]);
+		pixelArea.addPoints(_area[label], _sumX[label], _sumY[label],
+				_minX[label], _minY[label], _maxX[label], _maxY[label]);
+		result.setPixelArea(pixelArea);
+		StorelessDiscriptiveStatistic[] statistics =
+			new StorelessDiscriptiveStatistic[_numberOfChannels];
+		for (int c = 0; c < _numberOfChannels; c++) {
+			statistics[c] = new StorelessDiscriptiveStatistic(_area[label],
+					_colorSum[c][label], _colorSquareSum[c][label],
+					_colorMin[c][label], _colorMax[c][label]);
+		}
+		result.mergeStatistics(statistics);
+		return result;
+	}
+
+	protected void allocateLabelArrays(int capacity) {
+		int oldSlots = _numberOfSlots;
+		_parent = SBLabelSegmentation.copyOf(_parent, capacity);
+		_area = SBLabelSegmentation.copyOf(_area, capacity);
+		_startX = SBLabelSegmentation.copyOf(_startX, capacity);
+		_startY = SBLabelSegmentation.copyOf(_startY, capacity);
+		_minX = SBLabelSegmentation.copyOf(_minX, capacity);
+		_maxX = SBLabelSegmentation.copyOf(_maxX, capacity);
+		_minY = SBLabelSegmentation.copyOf(_minY, capacity);
+		_maxY = SBLabelSegmentation.copyOf(_maxY, capacity);
+		_sumX = SBLabelSegmentation.copyOf(_sumX, capacity);
+		_sumY = SBLabelSegmentation.copyOf(_sumY, capacity);
+		_rowMark = SBLabelSegmentation.copyOf(_rowMark, capacity);
+		_freeLabels = SBLabelSegmentation.copyOf(_freeLabels, capacity);
+		_activeLabels = SBLabelSegmentation.copyOf(_activeLabels, capacity);
+		_nextActive = SBLabelSegmentation.copyOf(_nextActive, capacity);
+		for (int c = 0; c < _numberOfChannels; c++) {
+			_colorSum[c] = SBLabelSegmentation.copyOf(_colorSum[c], capacity);
+			_colorSquareSum[c] = SBLabelSegmentation.copyOf(_colorSquareSum[c], capacity);
+			_colorMin[c] = SBLabelSegmentation.copyOf(_colorMin[c], capacity);
+			_colorMax[c] = SBLabelSegmentation.copyOf(_colorMax[c], capacity);
+		}
+		for (int label = capacity - 1; oldSlots <= label; label--)
+			_freeLabels[_numberOfFree++] = label;
+		_numberOfSlots = capacity;
+	}
+
+	public int getStripHeight() {
+		return _stripHeight;
+	}
+
+	/** Number of rows mapped at a time. */
+	public void setStripHeight(int stripHeight) {
+		_stripHeight = Math.max(1, stripHeight);
+	}
+
+	/** Number of rows read so far. */
+	public int getRowsRead() {
+		return Math.min(_nextY, _height);
+	}
+}
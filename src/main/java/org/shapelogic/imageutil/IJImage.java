@@ -58,6 +58,12 @@ public class IJImage implements SLImage {
 		return _imageProcessor.get(index);
 	}
 
+	@Override
+	public void getRow(int x, int y, int length, int[] colors) {
+		for (int i = 0; i < length; i++)
+			colors[i] = _imageProcessor.get(x + i, y);
+	}
+
 	@Override
 	public int getHeight() {
 		return _imageProcessor.getHeight();
@@ -0,0 +1,219 @@
+package org.shapelogic.imageutil;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/** Uncompressed image file that is read through memory mapping.<br />
+ *
+ * Supports binary PGM (P5), binary PPM (P6) and raw files without a header.
+ * The pixel types are 8 bit gray, 16 bit gray and RGB with 8 or 16 bit
+ * per channel, 16 bit RGB is reduced to 8 bit.<br />
+ *
+ * Rows are mapped a strip at a time with mapRows(), so files larger than the
+ * heap and larger than 2GB can be read.<br />
+ *
+ * @author Sami Badawi
+ *
+ */
+public class MappedImageFile {
+
+	public static final int GRAY8 = 0;
+	public static final int GRAY16 = 1;
+	public static final int RGB = 2;
+	public static final int RGB48 = 3;
+
+	protected RandomAccessFile _file;
+	protected FileChannel _channel;
+	protected int _width;
+	protected int _height;
+	protected int _type;
+	protected int _bytesPerPixel;
+	protected long _dataOffset;
+	protected ByteOrder _byteOrder = ByteOrder.BIG_ENDIAN;
+	protected boolean _writable;
+
+	protected MappedImageFile(String filePath, boolean writable) throws IOException {
+		_writable = writable;
+		_file = new RandomAccessFile(filePath, writable ? "rw" : "r");
+		_channel = _file.getChannel();
+	}
+
+	/** Open a binary PGM or PPM file, the format is read from the header. */
+	public static MappedImageFile openPnm(String filePath, boolean writable) throws IOException {
+		MappedImageFile result = new MappedImageFile(filePath, writable);
+		try {
+			result.readPnmHeader();
+		} catch (IOException e) {
+			result.close();
+			throw e;
+		}
+		return result;
+	}
+
+	public static MappedImageFile openPnm(String filePath) throws IOException {
+		return openPnm(filePath, false);
+	}
+
+	/** Open a raw file with no header. 16 bit values are in byteOrder. */
+	public static MappedImageFile openRaw(String filePath, int width, int height,
+			int type, ByteOrder byteOrder, boolean writable) throws IOException {
+		MappedImageFile result = new MappedImageFile(filePath, writable);
+		result._width = width;
+		result._height = height;
+		result.setType(type);
+		result._byteOrder = byteOrder;
+		result._dataOffset = 0;
+		if (result._channel.size() < result.getDataSize()) {
+			result.close();
+			throw new IOException("Raw file is too short for " + width + "x" + height);
+		}
+		return result;
+	}
+
+	protected void setType(int type) {
+		_type = type;
+		switch (type) {
+		case GRAY8: _bytesPerPixel = 1; break;
+		case GRAY16: _bytesPerPixel = 2; break;
+		case RGB: _bytesPerPixel = 3; break;
+		case RGB48: _bytesPerPixel = 6; break;
+		default: throw new IllegalArgumentException("Unknown image type: " + type);
+		}
+	}
+
+	/** Parse "P5" or "P6", width, height and max value, with # comments. */
+	protected void readPnmHeader() throws IOException {
+		_file.seek(0);
+		int magic1 = _file.read();
+		int magic2 = _file.read();
+		if (magic1 != 'P' || (magic2 != '5' && magic2 != '6'))
+			throw new IOException("Only binary PGM (P5) and PPM (P6) are supported");
+		_width = readHeaderNumber();
+		_height = readHeaderNumber();
+		int maxValue = readHeaderNumber();
+		if (_width <= 0 || _height <= 0 || maxValue <= 0 || 65535 < maxValue)
+			throw new IOException("Bad PNM header");
+		_dataOffset = _file.getFilePointer(); //one white space after max value is read
+		if (magic2 == '5')
+			setType(maxValue < 256 ? GRAY8 : GRAY16);
+		else
+			setType(maxValue < 256 ? RGB : RGB48);
+		if (_channel.size() < getDataSize())
+			throw new IOException("PNM file is too short for " + _width + "x" + _height);
+	}
+
+	/** Read a decimal number and the white space character after it. */
+	protected int readHeaderNumber() throws IOException {
+		int ch = _file.read();
+		while (true) {
+			if (ch == '#') {
+				while (ch != '\n' && ch != '\r' && ch != -1)
+					ch = _file.read();
+			}
+			else if (Character.isWhitespace(ch))
+				ch = _file.read();
+			else
+				break;
+		}
+		if (ch < '0' || '9' < ch)
+			throw new IOException("Bad PNM header");
+		int result = 0;
+		while ('0' <= ch && ch <= '9') {
+			result = result * 10 + ch - '0';
+			ch = _file.read();
+		}
+		return result;
+	}
+
+	/** Map rows from firstRow, the buffer starts at the first byte of firstRow. */
+	public MappedByteBuffer mapRows(int firstRow, int numberOfRows) throws IOException {
+		long rowSize = getRowSize();
+		MappedByteBuffer result = _channel.map(
+				_writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+				_dataOffset + firstRow * rowSize, numberOfRows * rowSize);
+		result.order(_byteOrder);
+		return result;
+	}
+
+	/** Decode one row from a buffer returned by mapRows() into colors.<br />
+	 *
+	 * Gray is the value, RGB is packed as 0xrrggbb like in the int images.
+	 */
+	public void readRow(ByteBuffer rows, int rowInBuffer, int[] colors) {
+		int position = rowInBuffer * (int)getRowSize();
+		switch (_type) {
+		case GRAY8:
+			for (int x = 0; x < _width; x++)
+				colors[x] = rows.get(position + x) & 0xff;
+			break;
+		case GRAY16:
+			for (int x = 0; x < _width; x++)
+				colors[x] = rows.getShort(position + 2 * x) & 0xffff;
+			break;
+		case RGB:
+			for (int x = 0; x < _width; x++) {
+				int index = position + 3 * x;
+				colors[x] = ((rows.get(index) & 0xff) << 16) |
+					((rows.get(index + 1) & 0xff) << 8) | (rows.get(index + 2) & 0xff);
+			}
+			break;
+		case RGB48:
+			for (int x = 0; x < _width; x++) {
+				int index = position + 6 * x;
+				colors[x] = ((rows.get(index) & 0xff) << 16) |
+					((rows.get(index + 2) & 0xff) << 8) | (rows.get(index + 4) & 0xff);
+			}
+			break;
+		}
+	}
+
+	public long getRowSize() {
+		return (long)_width * _bytesPerPixel;
+	}
+
+	public long getDataSize() {
+		return getRowSize() * _height;
+	}
+
+	public void close() throws IOException {
+		_channel.close();
+		_file.close();
+	}
+
+	public int getWidth() {
+		return _width;
+	}
+
+	public int getHeight() {
+		return _height;
+	}
+
+	/** One of GRAY8, GRAY16, RGB or RGB48. */
+	public int getType() {
+		return _type;
+	}
+
+	public boolean isGray() {
+		return _type == GRAY8 || _type == GRAY16;
+	}
+
+	public int getBytesPerPixel() {
+		return _bytesPerPixel;
+	}
+
+	public long getDataOffset() {
+		return _dataOffset;
+	}
+
+	public ByteOrder getByteOrder() {
+		return _byteOrder;
+	}
+
+	public FileChannel getChannel() {
+		return _channel;
+	}
+}
@@ -0,0 +1,264 @@
+package org.shapelogic.imageutil;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+
+/** SLImage that reads and writes the pixels directly in a memory mapped
+ * file.<br />
+ *
+ * Works with the files that MappedImageFile can open: binary PGM, binary PPM
+ * and raw files, 8 bit gray, 16 bit gray and RGB. Nothing is decoded or
+ * copied when the image is opened, pixels are read from the mapped buffer by
+ * get() and written by set(), so opening a batch of big images only costs
+ * page faults for the pixels that are used.<br />
+ *
+ * RGB is packed in an int as 0xrrggbb like in the other RGB images. For 48
+ * bit RGB get() returns the high byte of each channel.<br />
+ *
+ * There is no pixel array on the heap, so getPixels() returns null. Code
+ * that works on the pixel array has to use get() and set() for this image,
+ * the segmentation compares do that when getPixels() is null.
+ * <br />
+ *
+ * A mapping is limited to 2GB, so the rows are mapped in chunks of at most
+ * maxChunkSize bytes.<br />
+ *
+ * @author Sami Badawi
+ *
+ */
+public class MappedSLImage implements SLImage {
+	public static final long DEFAULT_MAX_CHUNK_SIZE = 1L << 30;
+
+	protected MappedImageFile _imageFile;
+	protected MappedByteBuffer[] _chunks;
+	protected int _rowsPerChunk;
+	protected int _rowSize;
+	protected int _width;
+	protected int _height;
+	protected int _type;
+	protected Rectangle _roi;
+
+	public MappedSLImage(MappedImageFile imageFile, long maxChunkSize) throws IOException {
+		_imageFile = imageFile;
+		_width = imageFile.getWidth();
+		_height = imageFile.getHeight();
+		_type = imageFile.getType();
+		if (Integer.MAX_VALUE < imageFile.getRowSize())
+			throw new IOException("Row is too long to map: " + imageFile.getRowSize());
+		_rowSize = (int)imageFile.getRowSize();
+		_rowsPerChunk = (int)Math.max(1, Math.min(_height, maxChunkSize / _rowSize));
+		int numberOfChunks = (_height + _rowsPerChunk - 1) / _rowsPerChunk;
+		_chunks = new MappedByteBuffer[numberOfChunks];
+		for (int i = 0; i < numberOfChunks; i++) {
+			int firstRow = i * _rowsPerChunk;
+			_chunks[i] = imageFile.mapRows(firstRow, Math.min(_rowsPerChunk, _height - firstRow));
+		}
+	}
+
+	public MappedSLImage(MappedImageFile imageFile) throws IOException {
+		this(imageFile, DEFAULT_MAX_CHUNK_SIZE);
+	}
+
+	/** Open a binary PGM or PPM file. */
+	public MappedSLImage(String filePath, boolean writable) throws IOException {
+		this(MappedImageFile.openPnm(filePath, writable));
+	}
+
+	public MappedSLImage(String filePath) throws IOException {
+		this(filePath, false);
+	}
+
+	@Override
+	public int get(int x, int y) {
+		MappedByteBuffer chunk = _chunks[y / _rowsPerChunk];
+		int position = (y % _rowsPerChunk) * _rowSize;
+		switch (_type) {
+		case MappedImageFile.GRAY8:
+			return chunk.get(position + x) & 0xff;
+		case MappedImageFile.GRAY16:
+			return chunk.getShort(position + 2 * x) & 0xffff;
+		case MappedImageFile.RGB:
+			position += 3 * x;
+			return ((chunk.get(position) & 0xff) << 16) |
+				((chunk.get(position + 1) & 0xff) << 8) | (chunk.get(position + 2) & 0xff);
+		default:
+			position += 6 * x;
+			return ((chunk.get(position) & 0xff) << 16) |
+				((chunk.get(position + 2) & 0xff) << 8) | (chunk.get(position + 4) & 0xff);
+		}
+	}
+
+	@Override
+	public int get(int index) {
+		return get(index % _width, index / _width);
+	}
+
+	@Override
+	public void getRow(int x, int y, int length, int[] colors) {
+		MappedByteBuffer chunk = _chunks[y / _rowsPerChunk];
+		int position = (y % _rowsPerChunk) * _rowSize;
+		if (_type == MappedImageFile.GRAY8) {
+			position += x;
+			for (int i = 0; i < length; i++)
+				colors[i] = chunk.get(position + i) & 0xff;
+		}
+		else if (_type == MappedImageFile.GRAY16) {
+			position += 2 * x;
+			for (int i = 0; i < length; i++)
+				colors[i] = chunk.getShort(position + 2 * i) & 0xffff;
+		}
+		else {
+			for (int i = 0; i < length; i++)
+				colors[i] = get(x + i, y);
+		}
+	}
+
+	/** Write to the mapped file, the file has to be opened writable. */
+	@Override
+	public void set(int x, int y, int value) {
+		MappedByteBuffer chunk = _chunks[y / _rowsPerChunk];
+		int position = (y % _rowsPerChunk) * _rowSize;
+		switch (_type) {
+		case MappedImageFile.GRAY8:
+			chunk.put(position + x, (byte)value);
+			break;
+		case MappedImageFile.GRAY16:
+			chunk.putShort(position + 2 * x, (short)value);
+			break;
+		case MappedImageFile.RGB:
+			position += 3 * x;
+			chunk.put(position, (byte)(value >> 16));
+			chunk.put(position + 1, (byte)(value >> 8));
+			chunk.put(position + 2, (byte)value);
+			break;
+		default: //8 bit channels are scaled to 16 bit
+			position += 6 * x;
+			chunk.putShort(position, (short)(((value >> 16) & 0xff) * 257));
+			chunk.putShort(position + 2, (short)(((value >> 8) & 0xff) * 257));
+			chunk.putShort(position + 4, (short)((value & 0xff) * 257));
+		}
+	}
+
+	@Override
+	public void set(int index, int value) {
+		set(index % _width, index / _width, value);
+	}
+
+	@Override
+	public void putPixel(int x, int y, int value) {
+		if (x < 0 || _width <= x || y < 0 || _height <= y)
+			return;
+		if (_type == MappedImageFile.GRAY8)
+			value = Math.max(0, Math.min(0xff, value));
+		else if (_type == MappedImageFile.GRAY16)
+			value = Math.max(0, Math.min(0xffff, value));
+		set(x, y, value);
+	}
+
+	/** Write changes back to the file. */
+	public void force() {
+		for (MappedByteBuffer chunk: _chunks)
+			chunk.force();
+	}
+
+	/** The mapped buffers stay valid until they are garbage collected. */
+	public void close() throws IOException {
+		_imageFile.close();
+	}
+
+	public MappedImageFile getImageFile() {
+		return _imageFile;
+	}
+
+	@Override
+	public int getWidth() {
+		return _width;
+	}
+
+	@Override
+	public int getHeight() {
+		return _height;
+	}
+
+	@Override
+	public int getPixelCount() {
+		return _width * _height;
+	}
+
+	/** The pixels are not in a heap array. */
+	@Override
+	public Object getPixels() {
+		return null;
+	}
+
+	/** Not supported, the pixels are in the file. */
+	@Override
+	public void setPixels(Object pixels) {
+	}
+
+	@Override
+	public Rectangle getRoi() {
+		return _roi;
+	}
+
+	@Override
+	public void setRoi(Rectangle roi) {
+		_roi = roi;
+	}
+
+	@Override
+	public void setRoi(int x, int y, int rwidth, int rheight) {
+		if (_roi == null)
+			_roi = new Rectangle(x,y,rwidth,rheight);
+		else
+			_roi.setBounds(x, y, rwidth, rheight);
+	}
+
+	@Override
+	public boolean isInvertedLut() {
+		return false;
+	}
+
+	@Override
+	public int getNChannels() {
+		return isGray() ? 1 : 3;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return _chunks == null;
+	}
+
+	@Override
+	public boolean isGray() {
+		return _imageFile.isGray();
+	}
+
+	@Override
+	public boolean isGray8() {
+		return _type == MappedImageFile.GRAY8;
+	}
+
+	@Override
+	public boolean isGray16() {
+		return _type == MappedImageFile.GRAY16;
+	}
+
+	@Override
+	public boolean isRgb() {
+		return !isGray();
+	}
+
+	/** The whole image is available. */
+	@Override
+	public Rectangle getActiveRectangle() {
+		return null;
+	}
+
+	/** Number of index position to jump to get to the next line. */
+	@Override
+	public int getLineStride() {
+		return _width;
+	}
+}
@@ -0,0 +1,23 @@
+package org.shapelogic.imageutil;
+
+/** RowPixelHandler whose work can be split on parts of the image.<br />
+ * 
+ * Used by PixelAreaHandler.handlePixelAreaParallel(): each worker thread 
+ * gets its own handler from makeTileHandler() and runs it on a fixed set of 
+ * tiles of the image, in increasing order, and when all tiles are done the 
+ * worker handlers are merged back in worker order with mergeTileHandler().
+ * <br />
+ * 
+ * This works for handlers that collect something that can be added up, like 
+ * statistics or areas, not for handlers that depend on the scan order.<br />
+ * 
+ * @author Sami Badawi
+ */
+public interface MergeablePixelHandler extends RowPixelHandler {
+	
+	/** New empty handler of the same kind, to be used for one tile. */
+	MergeablePixelHandler makeTileHandler();
+	
+	/** Add the result of a handler made by makeTileHandler(). */
+	void mergeTileHandler(MergeablePixelHandler tileHandler);
+}
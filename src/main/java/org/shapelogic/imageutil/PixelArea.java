@@ -7,16 +7,23 @@ import org.shapelogic.polygon.IPoint2D;
 /** SegmentArea holds the information.
  * <br />
  * 
+ * The bounding box and the sums of the coordinates are kept in primitive 
+ * fields, so adding a point does not create any objects. The BBox and the
+ * center point are only made when they are asked for.<br />
+ * 
  * @author Sami Badawi
  *
  */
-public class PixelArea implements PixelHandler
+public class PixelArea implements MergeablePixelHandler
 {
 
-	protected CPointDouble _aggregationPoint;
-  
 	protected int _startX, _startY;
 	
+	protected int _minX, _minY, _maxX, _maxY;
+	
+	protected double _sumX, _sumY;
+	
+	/** Made from the primitive fields in getBoundingBox(), null after a change. */
 	protected BBox _boundingBox;
   
     /** Number of pixels. */
@@ -27,27 +34,75 @@ public class PixelArea implements PixelHandler
   
     /** If any line in the area has a line that was split. */
 	protected boolean _gapInLine;
+	
+    /** The pixels as runs, only kept after keepRuns() is called. */
+	protected RunLengthArea _runLengthArea;
     
     public PixelArea(int x, int y) {
     	_startX = x;
     	_startY = y;
     	_area = 0;
-    	_boundingBox = new BBox();
     	_gapInLine = false;
-    	_aggregationPoint = new CPointDouble(0,0);
 //    	addPoint(x, y); //Went it gets created it should not add the first point
     }
   
     public void addPoint(int x, int y) {
-    	_boundingBox.addPoint(x,y);
+    	addToBoundingBox(x, y, x, y);
 //    	_gapInLine = false;
-    	_aggregationPoint.setLocation(_aggregationPoint.x+x, _aggregationPoint.y+y);
+    	_sumX += x;
+    	_sumY += y;
     	_area++;
+    	if (_runLengthArea != null)
+    		_runLengthArea.addPoint(x, y);
+    }
+    
+    /** Add count points that have already been summed up. */
+    public void addPoints(int count, double sumX, double sumY, 
+    		int minX, int minY, int maxX, int maxY) {
+    	if (count <= 0)
+    		return;
+    	addToBoundingBox(minX, minY, maxX, maxY);
+    	_sumX += sumX;
+    	_sumY += sumY;
+    	_area += count;
+    }
+    
+    /** Grow the bounding box, has to be called before the area is changed. */
+    protected void addToBoundingBox(int minX, int minY, int maxX, int maxY) {
+    	if (_area == 0) {
+    		_minX = minX;
+    		_minY = minY;
+    		_maxX = maxX;
+    		_maxY = maxY;
+    	}
+    	else {
+    		if (minX < _minX) _minX = minX;
+    		if (minY < _minY) _minY = minY;
+    		if (_maxX < maxX) _maxX = maxX;
+    		if (_maxY < maxY) _maxY = maxY;
+    	}
+    	_boundingBox = null;
+    }
+    
+    /** Add all the points of another area, the start point is not changed. */
+    public void merge(PixelArea pixelArea) {
+    	if (pixelArea == null || pixelArea._area == 0)
+    		return;
+    	addToBoundingBox(pixelArea._minX, pixelArea._minY, pixelArea._maxX, pixelArea._maxY);
+    	_sumX += pixelArea._sumX;
+    	_sumY += pixelArea._sumY;
+    	_area += pixelArea._area;
+    	_gapInLine = _gapInLine || pixelArea._gapInLine;
+    	if (_runLengthArea != null && pixelArea._runLengthArea != null) {
+    		RunLengthArea runs = pixelArea._runLengthArea;
+    		for (int i = 0; i < runs.getNumberOfRuns(); i++)
+    			_runLengthArea.addRun(runs.getY(i), runs.getXStart(i), runs.getXEnd(i));
+    	}
     }
     
     public IPoint2D getCenterPoint() {
-    	IPoint2D result = _aggregationPoint.copy().multiply(1. / _area);
-    	return result;
+    	double scale = 1. / _area;
+    	return new CPointDouble(_sumX * scale, _sumY * scale);
     }
 
     /** Number of pixels. */
@@ -61,9 +116,33 @@ public class PixelArea implements PixelHandler
 	}
 
 	public BBox getBoundingBox() {
+		if (_boundingBox == null) {
+			_boundingBox = new BBox();
+			if (0 < _area) {
+				_boundingBox.addPoint(_minX, _minY);
+				_boundingBox.addPoint(_maxX, _maxY);
+			}
+		}
 		return _boundingBox;
 	}
 
+	/** Bounding box without making a BBox, only valid if the area is not 0. */
+	public int getMinX() {
+		return _minX;
+	}
+
+	public int getMinY() {
+		return _minY;
+	}
+
+	public int getMaxX() {
+		return _maxX;
+	}
+
+	public int getMaxY() {
+		return _maxY;
+	}
+
 	public Boolean getBackground() {
 		return _background;
 	}
@@ -77,6 +156,48 @@ public class PixelArea implements PixelHandler
 		addPoint(x, y);
 	}
 
+	/** Same as addPoint() for each pixel in the row. */
+	@Override
+	public void handleRow(int y, int xStart, int[] colors, int length) {
+		if (length <= 0)
+			return;
+		int xEnd = xStart + length - 1;
+		addToBoundingBox(xStart, y, xEnd, y);
+		_sumX += (xStart + xEnd) * (double)length / 2.;
+		_sumY += (double)y * length;
+		_area += length;
+		if (_runLengthArea != null)
+			_runLengthArea.addRun(y, xStart, xEnd);
+	}
+
+	/** Empty area with the same start point, keeping runs if this does. */
+	@Override
+	public MergeablePixelHandler makeTileHandler() {
+		PixelArea result = new PixelArea(_startX, _startY);
+		if (_runLengthArea != null)
+			result.keepRuns();
+		return result;
+	}
+
+	@Override
+	public void mergeTileHandler(MergeablePixelHandler tileHandler) {
+		merge((PixelArea) tileHandler);
+	}
+
+	/** Keep the points added from now on as runs. 
+	 * Points added with addPoints() are not kept. */
+	public void keepRuns() {
+		if (_runLengthArea == null)
+			_runLengthArea = new RunLengthArea();
+	}
+
+	/** The pixels as sorted and merged runs, null if keepRuns() was not called. */
+	public RunLengthArea getRunLengthArea() {
+		if (_runLengthArea != null)
+			_runLengthArea.normalize();
+		return _runLengthArea;
+	}
+
 	public int getStartX() {
 		return _startX;
 	}
@@ -1,49 +1,76 @@
 package org.shapelogic.imageutil;
 
 import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import org.shapelogic.util.SharedExecutor;
 
 /** Run a PixelHanler in a given area using ImageJ.<br />
  * 
  * This class was the beginning of SLImage, the image abstraction from ImageJ.<br />
  * 
+ * The image is changed to a type specialized image sharing the same pixels, 
+ * since get() is called for every pixel.<br />
+ * 
+ * handlePixelAreaParallel() cuts the area in tiles of full rows that are 
+ * taken by a worker for each thread in the SharedExecutor pool, or in the 
+ * ExecutorService set with setExecutor(). Each worker has one 
+ * MergeablePixelHandler for all its tiles.<br />
+ * 
  * @author Sami Badawi
  *
  */
 public class PixelAreaHandler implements HasSLImage
 {
+	/** More tiles than threads gives better load balancing. */
+	public static final int TILES_PER_THREAD = 4;
+	public static final int MIN_TILE_HEIGHT = 16;
+	
 	protected SLImage _image;
+	protected int[] _rowBuffer;
+	/** Pool for handlePixelAreaParallel(), null means the shared pool. */
+	protected ExecutorService _executor;
 	
 	public PixelAreaHandler(SLImage image) {
-		_image = image;
+		_image = SLImageFactory.makeTypedImage(image);
 	}
 	
 	/** Currently this work with ImageJ images. */
 	public PixelAreaHandler(String dir, String fileName, String fileFormat) {
-		_image = new IJImage(dir,fileName,fileFormat);
+		_image = SLImageFactory.makeTypedImage(new IJImage(dir,fileName,fileFormat));
 	}
 
 	/** Handle a pixel with a color and a coordinate. */
 	public void handlePixelArea(PixelHandler ph, Rectangle rectangle) {
         handlePixelArea(ph, rectangle.x, rectangle.y, rectangle.width, rectangle.height);
     }
-	/** Handle a pixel with a color and a coordinate. */
+	/** Handle a pixel with a color and a coordinate.<br />
+	 * 
+	 * Each row is read with SLImage.getRow() into a buffer and given to the 
+	 * handler in one call, a plain PixelHandler is wrapped in a 
+	 * PixelHandlerRowAdapter.
+	 */
 	public void handlePixelArea(PixelHandler ph, int x, int y, int width, int height) {
 		PixelHandlerEnds phe = null;
 		if (ph instanceof PixelHandlerEnds)
 			phe = (PixelHandlerEnds)ph;
-		int xEnd = x + width;
-		int yEnd = y + height;
+		RowPixelHandler rowHandler = PixelHandlerRowAdapter.toRowPixelHandler(ph);
+		if (_rowBuffer == null || _rowBuffer.length < width)
+			_rowBuffer = new int[Math.max(width, 1)];
+		//an empty area has no rows, but setup() and postProcess() are still called
+		int yEnd = width <= 0 ? y : y + height;
 		if (phe != null)
             phe.setup();
 		for (int j=y;j<yEnd;j++) {
+			_image.getRow(x, j, width, _rowBuffer);
 			if (phe != null)
-				phe.handlePixelStart(x, j, _image.get(x, j));
-			for (int i=x;i<xEnd;i++) {
-				int color = _image.get(i, j);
-				ph.putPixel(i, j, color);
-			}
+				phe.handlePixelStart(x, j, _rowBuffer[0]);
+			rowHandler.handleRow(j, x, _rowBuffer, width);
 			if (phe != null)
-				phe.handlePixelEnd(x+width, j, _image.get(x+width-1, j));
+				phe.handlePixelEnd(x+width, j, _rowBuffer[width-1]);
 		}
 		if (phe != null)
             phe.postProcess();
@@ -57,8 +84,93 @@ public class PixelAreaHandler implements HasSLImage
 		handlePixelArea(ph, 0, 0, _image.getWidth(), _image.getHeight());
 	}
 
+	/** Handle all the pixels in an image with numberOfThreads threads. */
+	public void handleAllPixelsParallel(MergeablePixelHandler ph, int numberOfThreads) {
+		handlePixelAreaParallel(ph, 0, 0, _image.getWidth(), _image.getHeight(), 
+				numberOfThreads);
+	}
+
+	/** Same result as handlePixelArea() for handlers that can be merged.<br />
+	 * 
+	 * Each worker gets a handler from ph.makeTileHandler() and a fixed set of 
+	 * tiles, worker i does tile i, i + number of workers and so on in 
+	 * increasing order. So there is only one handler per thread however many 
+	 * tiles there are, and the result does not depend on the scheduling. The 
+	 * worker handlers are merged into ph in worker order when all tiles are 
+	 * done. 
+	 * A PixelHandlerEnds needs the rows in order, so it is run on a single 
+	 * thread.
+	 */
+	public void handlePixelAreaParallel(MergeablePixelHandler ph, 
+			int x, int y, int width, int height, int numberOfThreads) {
+		if (numberOfThreads <= 1 || ph instanceof PixelHandlerEnds || 
+				height < 2 * MIN_TILE_HEIGHT) {
+			handlePixelArea(ph, x, y, width, height);
+			return;
+		}
+		int numberOfTiles = numberOfThreads * TILES_PER_THREAD;
+		int tileHeight = Math.max(MIN_TILE_HEIGHT, 
+				(height + numberOfTiles - 1) / numberOfTiles);
+		numberOfTiles = (height + tileHeight - 1) / tileHeight;
+		int numberOfWorkers = Math.min(numberOfThreads, numberOfTiles);
+		List<Worker> workers = new ArrayList<Worker>();
+		for (int i = 0; i < numberOfWorkers; i++)
+			workers.add(new Worker(ph.makeTileHandler(), i, numberOfWorkers, 
+					numberOfTiles, x, y, width, height, tileHeight));
+		for (MergeablePixelHandler workerHandler: 
+				SharedExecutor.invokeAll(_executor, workers, "Parallel pixel handling"))
+			ph.mergeTileHandler(workerHandler);
+	}
+
+	public ExecutorService getExecutor() {
+		return _executor;
+	}
+
+	/** Run the tiles in this pool instead of the shared one, the caller 
+	 * shuts it down. */
+	public void setExecutor(ExecutorService executor) {
+		_executor = executor;
+	}
+
+	/** Runs every tileStride tile of rows from firstTile with its own 
+	 * handler and row buffer. */
+	protected class Worker implements Callable<MergeablePixelHandler> {
+		protected MergeablePixelHandler _handler;
+		protected int _firstTile;
+		protected int _tileStride;
+		protected int _numberOfTiles;
+		protected int _x, _y, _width, _height, _tileHeight;
+		
+		protected Worker(MergeablePixelHandler handler, int firstTile, int tileStride, 
+				int numberOfTiles, int x, int y, int width, int height, int tileHeight) {
+			_handler = handler;
+			_firstTile = firstTile;
+			_tileStride = tileStride;
+			_numberOfTiles = numberOfTiles;
+			_x = x;
+			_y = y;
+			_width = width;
+			_height = height;
+			_tileHeight = tileHeight;
+		}
+
+		@Override
+		public MergeablePixelHandler call() {
+			int[] rowBuffer = new int[_width];
+			for (int tile = _firstTile; tile < _numberOfTiles; tile += _tileStride) {
+				int tileY = _y + tile * _tileHeight;
+				int tileEnd = Math.min(tileY + _tileHeight, _y + _height);
+				for (int j = tileY; j < tileEnd; j++) {
+					_image.getRow(_x, j, _width, rowBuffer);
+					_handler.handleRow(j, _x, rowBuffer, _width);
+				}
+			}
+			return _handler;
+		}
+	}
+
     @Override
     public void setImage(SLImage image) {
-        _image = image;
+        _image = SLImageFactory.makeTypedImage(image);
     }
 }
@@ -0,0 +1,37 @@
+package org.shapelogic.imageutil;
+
+/** Use a PixelHandler where a RowPixelHandler is needed.<br />
+ * 
+ * handleRow() calls putPixel() on the wrapped handler for each pixel.<br />
+ * 
+ * @author Sami Badawi
+ */
+public class PixelHandlerRowAdapter implements RowPixelHandler {
+	protected PixelHandler _pixelHandler;
+	
+	public PixelHandlerRowAdapter(PixelHandler pixelHandler) {
+		_pixelHandler = pixelHandler;
+	}
+
+	/** Returns pixelHandler itself if it already handles rows. */
+	public static RowPixelHandler toRowPixelHandler(PixelHandler pixelHandler) {
+		if (pixelHandler instanceof RowPixelHandler)
+			return (RowPixelHandler) pixelHandler;
+		return new PixelHandlerRowAdapter(pixelHandler);
+	}
+
+	@Override
+	public void handleRow(int y, int xStart, int[] colors, int length) {
+		for (int i = 0; i < length; i++)
+			_pixelHandler.putPixel(xStart + i, y, colors[i]);
+	}
+
+	@Override
+	public void putPixel(int x, int y, int color) {
+		_pixelHandler.putPixel(x, y, color);
+	}
+
+	public PixelHandler getPixelHandler() {
+		return _pixelHandler;
+	}
+}
@@ -0,0 +1,21 @@
+package org.shapelogic.imageutil;
+
+/** PixelHandler that can take a whole row of pixels in one call.<br />
+ * 
+ * PixelAreaHandler reads a row with SLImage.getRow() and calls handleRow()
+ * once, instead of calling putPixel() for every pixel.<br />
+ * 
+ * A plain PixelHandler can be used as a RowPixelHandler with 
+ * PixelHandlerRowAdapter.<br />
+ * 
+ * @author Sami Badawi
+ */
+public interface RowPixelHandler extends PixelHandler {
+	
+	/** Handle the pixels from xStart to xStart + length - 1 on line y.<br />
+	 * 
+	 * colors[i] is the color of the pixel at xStart + i. The array is reused 
+	 * for the next row, so it should not be kept.
+	 */
+	void handleRow(int y, int xStart, int[] colors, int length);
+}
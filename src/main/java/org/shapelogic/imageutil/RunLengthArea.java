@@ -0,0 +1,216 @@
+package org.shapelogic.imageutil;
+
+import java.util.Arrays;
+
+import org.shapelogic.polygon.BBox;
+
+/** Area stored as horizontal runs of pixels, in 3 primitive arrays.<br />
+ *
+ * Each run is a y and an inclusive range xStart to xEnd. A pixel that is
+ * added right after the end of the last run extends that run, so pixels added
+ * line by line take up 3 ints per run and not an object per pixel.<br />
+ *
+ * normalize() sorts the runs on y and xStart and merges runs that overlap or
+ * touch, after that each pixel is in exactly one run.<br />
+ *
+ * @author Sami Badawi
+ *
+ */
+public class RunLengthArea implements PixelHandler {
+
+	protected static final int DEFAULT_CAPACITY = 16;
+
+	/** Coordinates have to be from 0 to 2^21 - 1. */
+	public static final int COORDINATE_BITS = 21;
+	protected static final long COORDINATE_MASK = (1L << COORDINATE_BITS) - 1;
+
+	protected int[] _y;
+	protected int[] _xStart;
+	protected int[] _xEnd;
+	protected int _numberOfRuns;
+	protected boolean _normalized = true;
+
+	public RunLengthArea() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public RunLengthArea(int capacity) {
+		capacity = Math.max(1, capacity);
+		_y = new int[capacity];
+		_xStart = new int[capacity];
+		_xEnd = new int[capacity];
+	}
+
+	/** Add the run from xStart to xEnd, both included, on line y. */
+	public void addRun(int y, int xStart, int xEnd) {
+		if (xEnd < xStart)
+			return;
+		if (0 < _numberOfRuns) {
+			int last = _numberOfRuns - 1;
+			if (_y[last] == y && _xEnd[last] + 1 == xStart) {
+				_xEnd[last] = xEnd;
+				return;
+			}
+			if (y < _y[last] || (y == _y[last] && xStart <= _xEnd[last] + 1))
+				_normalized = false;
+		}
+		if (_y.length <= _numberOfRuns)
+			grow();
+		_y[_numberOfRuns] = y;
+		_xStart[_numberOfRuns] = xStart;
+		_xEnd[_numberOfRuns] = xEnd;
+		_numberOfRuns++;
+	}
+
+	public void addPoint(int x, int y) {
+		addRun(y, x, x);
+	}
+
+	@Override
+	public void putPixel(int x, int y, int color) {
+		addRun(y, x, x);
+	}
+
+	protected void grow() {
+		int capacity = _y.length * 2;
+		_y = copyOf(_y, capacity);
+		_xStart = copyOf(_xStart, capacity);
+		_xEnd = copyOf(_xEnd, capacity);
+	}
+
+	static int[] copyOf(int[] array, int capacity) {
+		int[] result = new int[capacity];
+		System.arraycopy(array, 0, result, 0, Math.min(array.length, capacity));
+		return result;
+	}
+
+	/** Sort the runs and merge the ones that overlap or touch.<br />
+	 * 
+	 * Each run is packed in a long with COORDINATE_BITS per coordinate, so 
+	 * the sort is done on a primitive array.
+	 */
+	public void normalize() {
+		if (_normalized)
+			return;
+		long[] keys = new long[_numberOfRuns];
+		for (int i = 0; i < _numberOfRuns; i++)
+			keys[i] = ((long)_y[i] << (2 * COORDINATE_BITS)) | 
+				((long)_xStart[i] << COORDINATE_BITS) | _xEnd[i];
+		Arrays.sort(keys);
+		int size = 0;
+		for (int i = 0; i < keys.length; i++) {
+			int y = (int) (keys[i] >>> (2 * COORDINATE_BITS));
+			int xStart = (int) ((keys[i] >>> COORDINATE_BITS) & COORDINATE_MASK);
+			int xEnd = (int) (keys[i] & COORDINATE_MASK);
+			if (0 < size && _y[size-1] == y && xStart <= _xEnd[size-1] + 1) {
+				_xEnd[size-1] = Math.max(_xEnd[size-1], xEnd);
+				continue;
+			}
+			_y[size] = y;
+			_xStart[size] = xStart;
+			_xEnd[size] = xEnd;
+			size++;
+		}
+		_numberOfRuns = size;
+		_normalized = true;
+	}
+
+	/** Number of pixels, the runs are normalized first. */
+	public int getArea() {
+		normalize();
+		int area = 0;
+		for (int i = 0; i < _numberOfRuns; i++)
+			area += _xEnd[i] - _xStart[i] + 1;
+		return area;
+	}
+
+	public BBox getBoundingBox() {
+		BBox result = new BBox();
+		if (_numberOfRuns == 0)
+			return result;
+		int minX = Integer.MAX_VALUE;
+		int maxX = Integer.MIN_VALUE;
+		int minY = Integer.MAX_VALUE;
+		int maxY = Integer.MIN_VALUE;
+		for (int i = 0; i < _numberOfRuns; i++) {
+			minX = Math.min(minX, _xStart[i]);
+			maxX = Math.max(maxX, _xEnd[i]);
+			minY = Math.min(minY, _y[i]);
+			maxY = Math.max(maxY, _y[i]);
+		}
+		result.addPoint(minX, minY);
+		result.addPoint(maxX, maxY);
+		return result;
+	}
+
+	/** Call putPixel() on handler for every pixel, with the color from image. */
+	public void putPixels(PixelHandler handler, SLImage image) {
+		normalize();
+		for (int i = 0; i < _numberOfRuns; i++) {
+			int y = _y[i];
+			for (int x = _xStart[i]; x <= _xEnd[i]; x++)
+				handler.putPixel(x, y, image.get(x, y));
+		}
+	}
+
+	/** Set all the pixels in the area to color, a row fill per run. */
+	public void paint(SLImage image, int color) {
+		for (int i = 0; i < _numberOfRuns; i++)
+			fillRun(image, _y[i], _xStart[i], _xEnd[i], color);
+	}
+
+	/** Set the pixels from xStart to xEnd on line y to color.<br />
+	 *
+	 * Fills the backing array directly for the byte, short and int images,
+	 * else it is done pixel by pixel.
+	 */
+	public static void fillRun(SLImage image, int y, int xStart, int xEnd, int color) {
+		if (xEnd < xStart)
+			return;
+		Object pixels = image.getPixels();
+		int offset = y * image.getLineStride();
+		if (pixels instanceof byte[])
+			Arrays.fill((byte[])pixels, offset + xStart, offset + xEnd + 1, (byte)color);
+		else if (pixels instanceof int[])
+			Arrays.fill((int[])pixels, offset + xStart, offset + xEnd + 1, color);
+		else if (pixels instanceof short[])
+			Arrays.fill((short[])pixels, offset + xStart, offset + xEnd + 1, (short)color);
+		else {
+			for (int x = xStart; x <= xEnd; x++)
+				image.set(x, y, color);
+		}
+	}
+
+	public boolean contains(int x, int y) {
+		for (int i = 0; i < _numberOfRuns; i++) {
+			if (_y[i] == y && _xStart[i] <= x && x <= _xEnd[i])
+				return true;
+		}
+		return false;
+	}
+
+	public int getNumberOfRuns() {
+		return _numberOfRuns;
+	}
+
+	public int getY(int run) {
+		return _y[run];
+	}
+
+	public int getXStart(int run) {
+		return _xStart[run];
+	}
+
+	public int getXEnd(int run) {
+		return _xEnd[run];
+	}
+
+	public boolean isEmpty() {
+		return _numberOfRuns == 0;
+	}
+
+	public void clear() {
+		_numberOfRuns = 0;
+		_normalized = true;
+	}
+}
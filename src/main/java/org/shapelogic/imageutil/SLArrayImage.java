@@ -0,0 +1,95 @@
+package org.shapelogic.imageutil;
+
+import java.awt.Rectangle;
+
+/** Base for the SLImages that have one pixel array of a fixed type.<br />
+ *
+ * The subclasses SLByteGrayImage, SLShortGrayImage and SLIntRGBImage are
+ * final and work directly on their array, so get() and set() do not test
+ * the image type on every call like SLBufferedImage does.<br />
+ *
+ * Use SLImageFactory.makeTypedImage() to make one that shares the pixel
+ * array with an SLBufferedImage or an IJImage.<br />
+ *
+ * @author Sami Badawi
+ *
+ */
+public abstract class SLArrayImage implements SLImage {
+	protected int _width;
+	protected int _height;
+	protected Rectangle _roi;
+	protected boolean _invertedLut;
+
+	protected SLArrayImage(int width, int height) {
+		_width = width;
+		_height = height;
+	}
+
+	@Override
+	public int getWidth() {
+		return _width;
+	}
+
+	@Override
+	public int getHeight() {
+		return _height;
+	}
+
+	@Override
+	public int getPixelCount() {
+		return _width * _height;
+	}
+
+	@Override
+	public Rectangle getRoi() {
+		return _roi;
+	}
+
+	@Override
+	public void setRoi(Rectangle roi) {
+		_roi = roi;
+	}
+
+	@Override
+	public void setRoi(int x, int y, int rwidth, int rheight) {
+		if (_roi == null)
+			_roi = new Rectangle(x,y,rwidth,rheight);
+		else
+			_roi.setBounds(x, y, rwidth, rheight);
+	}
+
+	@Override
+	public boolean isInvertedLut() {
+		return _invertedLut;
+	}
+
+	public void setInvertedLut(boolean invertedLut) {
+		_invertedLut = invertedLut;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return false;
+	}
+
+	/** This mean that the whole images is available in the pixels array. */
+	@Override
+	public Rectangle getActiveRectangle() {
+		return null;
+	}
+
+	@Override
+	public int getLineStride() {
+		return _width;
+	}
+
+	@Override
+	public boolean isGray8() {
+		return false;
+	}
+
+	@Override
+	public boolean isGray16() {
+		return false;
+	}
+}
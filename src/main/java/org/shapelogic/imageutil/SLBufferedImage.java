@@ -8,6 +8,7 @@ import java.awt.image.DataBuffer;
 import java.awt.image.DataBufferByte;
 import java.awt.image.DataBufferInt;
 import java.awt.image.DataBufferShort;
+import java.awt.image.DataBufferUShort;
 import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
@@ -31,6 +32,7 @@ import javax.imageio.ImageIO;
 public class SLBufferedImage implements SLImage {
 	public static final int INT_ALL_MASK = -1;
 	public static final int INT_BYTE_MASK = 0Xff;
+	public static final int INT_SHORT_MASK = 0Xffff;
 	public static final int UNDEFINED = -2;
 	
 	protected BufferedImage _bufferedImage;
@@ -79,6 +81,10 @@ public class SLBufferedImage implements SLImage {
 	
 	public SLBufferedImage(BufferedImage image) {
 		_bufferedImage = image;
+		if (_bufferedImage.getType() == BufferedImage.TYPE_BYTE_GRAY)
+			_mask = INT_BYTE_MASK;
+		_lineStride = _bufferedImage.getWidth();
+		getPixels();
 	}
 	
 	/** In ImageJ this will return the byte if it is a byte gray else an 
@@ -87,26 +93,50 @@ public class SLBufferedImage implements SLImage {
 	 * This does not work well with BufferedImage that has a method to always 
 	 * return the RGB.<br />
 	 * 
-	 * I might have to subclass this in order to make an effective implementation.
+	 * I might have to subclass this in order to make an effective implementation.<br />
+	 * 
+	 * Gray values are returned without sign, 0 to 255 or 0 to 65535.<br />
+	 * 
+	 * SLImageFactory.makeTypedImage() gives an image without the type tests.
 	 */
 	@Override
 	public int get(int x, int y) {
 //		return _bufferedImage.getRGB(x, y);
 		int index = x + y * _lineStride;
-		if (_pixelsInBytes != null) return _pixelsInBytes[index];
+		if (_pixelsInBytes != null) return _pixelsInBytes[index] & INT_BYTE_MASK;
 		if (_pixelsInInt != null) return _pixelsInInt[index];
-		if (_pixelsInShort != null) return _pixelsInShort[index];
+		if (_pixelsInShort != null) return _pixelsInShort[index] & INT_SHORT_MASK;
 		return UNDEFINED;
 	}
 
 	@Override
 	public int get(int index) {
-		if (_pixelsInBytes != null) return _pixelsInBytes[index];
+		if (_pixelsInBytes != null) return _pixelsInBytes[index] & INT_BYTE_MASK;
 		if (_pixelsInInt != null) return _pixelsInInt[index];
-		if (_pixelsInShort != null) return _pixelsInShort[index];
+		if (_pixelsInShort != null) return _pixelsInShort[index] & INT_SHORT_MASK;
 		return UNDEFINED;
 	}
 
+	/** The type is only tested once for the row. */
+	@Override
+	public void getRow(int x, int y, int length, int[] colors) {
+		int index = x + y * _lineStride;
+		if (_pixelsInBytes != null) {
+			for (int i = 0; i < length; i++)
+				colors[i] = _pixelsInBytes[index + i] & INT_BYTE_MASK;
+		}
+		else if (_pixelsInInt != null)
+			System.arraycopy(_pixelsInInt, index, colors, 0, length);
+		else if (_pixelsInShort != null) {
+			for (int i = 0; i < length; i++)
+				colors[i] = _pixelsInShort[index + i] & INT_SHORT_MASK;
+		}
+		else {
+			for (int i = 0; i < length; i++)
+				colors[i] = UNDEFINED;
+		}
+	}
+
 	@Override
 	public int getHeight() {
 		return _bufferedImage.getHeight();
@@ -151,6 +181,10 @@ public class SLBufferedImage implements SLImage {
 				_pixelsInShort = ((DataBufferShort)_dataBuffer).getData();
 				_pixels = _pixelsInShort;
 			}
+			else if (_dataBuffer instanceof DataBufferUShort) {
+				_pixelsInShort = ((DataBufferUShort)_dataBuffer).getData();
+				_pixels = _pixelsInShort;
+			}
 			else {
 				//By doing this here instead of in the constructor this becomes lazy
 				_bufferedImage = ImageUtil.toBufferedImage(_bufferedImage,BufferedImage.TYPE_INT_RGB);
@@ -40,6 +40,11 @@ public interface SLImage extends PixelHandler {
 
 	void set(int index, int value);
 
+	/** Read length pixels on line y starting at x into colors.<br />
+	 * 
+	 * The values are the same as from get(x, y). */
+	void getRow(int x, int y, int length, int[] colors);
+
 	/** Stores the specified value at (x,y). Does
 	nothing if (x,y) is outside the image boundary.
 	For 8-bit and 16-bit images, out of range values
@@ -0,0 +1,49 @@
+package org.shapelogic.imageutil;
+
+import java.lang.reflect.Array;
+
+/** Factory for the type specialized SLImages.<br />
+ *
+ * @author Sami Badawi
+ *
+ */
+public class SLImageFactory {
+
+	/** Make an SLArrayImage that shares the pixel array with image.<br />
+	 *
+	 * Works for SLBufferedImage, IJImage and other SLImage with a byte[],
+	 * short[] or int[] pixel array. Changes in one image are seen in the
+	 * other. If the type is not supported, e.g. float or a MappedSLImage,
+	 * image is returned unchanged.
+	 */
+	public static SLImage makeTypedImage(SLImage image) {
+		if (image == null || image.isEmpty() || image instanceof SLArrayImage)
+			return image;
+		if (image.getLineStride() != image.getWidth())
+			return image;
+		Object pixels = image.getPixels();
+		SLArrayImage result;
+		if (pixels instanceof byte[])
+			result = new SLByteGrayImage(image.getWidth(), image.getHeight(), (byte[])pixels);
+		else if (pixels instanceof short[])
+			result = new SLShortGrayImage(image.getWidth(), image.getHeight(), (short[])pixels);
+		else if (pixels instanceof int[])
+			result = new SLIntRGBImage(image.getWidth(), image.getHeight(), (int[])pixels);
+		else
+			return image;
+		if (result.getPixelCount() != Array.getLength(pixels))
+			return image;
+		result.setInvertedLut(image.isInvertedLut());
+		result.setRoi(image.getRoi());
+		return result;
+	}
+
+	/** Open an image with ImageIO and make it a typed image. */
+	public static SLImage openTypedImage(String filePath) {
+		return makeTypedImage(new SLBufferedImage(filePath));
+	}
+
+	public static SLImage openTypedImage(String dir, String fileName, String fileFormat) {
+		return openTypedImage(dir + "/" + fileName + fileFormat);
+	}
+}
@@ -0,0 +1,81 @@
+package org.shapelogic.imageutil;
+
+/** RGB SLImage working directly on an int array, packed as 0xrrggbb.<br />
+ *
+ * @author Sami Badawi
+ *
+ */
+public final class SLIntRGBImage extends SLArrayImage {
+
+	private int[] _pixels;
+
+	public SLIntRGBImage(int width, int height, int[] pixels) {
+		super(width, height);
+		_pixels = pixels;
+	}
+
+	public SLIntRGBImage(int width, int height) {
+		this(width, height, new int[width * height]);
+	}
+
+	@Override
+	public int get(int x, int y) {
+		return _pixels[x + y * _width];
+	}
+
+	@Override
+	public int get(int index) {
+		return _pixels[index];
+	}
+
+	@Override
+	public void getRow(int x, int y, int length, int[] colors) {
+		System.arraycopy(_pixels, x + y * _width, colors, 0, length);
+	}
+
+	@Override
+	public void set(int x, int y, int value) {
+		_pixels[x + y * _width] = value;
+	}
+
+	@Override
+	public void set(int index, int value) {
+		_pixels[index] = value;
+	}
+
+	@Override
+	public void putPixel(int x, int y, int value) {
+		if (x < 0 || _width <= x || y < 0 || _height <= y)
+			return;
+		_pixels[x + y * _width] = value;
+	}
+
+	@Override
+	public Object getPixels() {
+		return _pixels;
+	}
+
+	@Override
+	public void setPixels(Object pixels) {
+		_pixels = (int[])pixels;
+	}
+
+	public int[] getPixelsInInt() {
+		return _pixels;
+	}
+
+	@Override
+	public int getNChannels() {
+		return 3;
+	}
+
+	@Override
+	public boolean isGray() {
+		return false;
+	}
+
+	@Override
+	public boolean isRgb() {
+		return true;
+	}
+}
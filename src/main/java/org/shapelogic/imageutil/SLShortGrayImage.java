@@ -0,0 +1,91 @@
+package org.shapelogic.imageutil;
+
+/** 16 bit gray SLImage working directly on a short array.<br />
+ *
+ * get() returns values from 0 to 65535.<br />
+ *
+ * @author Sami Badawi
+ *
+ */
+public final class SLShortGrayImage extends SLArrayImage {
+	public static final int MASK = 0xffff;
+
+	private short[] _pixels;
+
+	public SLShortGrayImage(int width, int height, short[] pixels) {
+		super(width, height);
+		_pixels = pixels;
+	}
+
+	public SLShortGrayImage(int width, int height) {
+		this(width, height, new short[width * height]);
+	}
+
+	@Override
+	public int get(int x, int y) {
+		return _pixels[x + y * _width] & MASK;
+	}
+
+	@Override
+	public int get(int index) {
+		return _pixels[index] & MASK;
+	}
+
+	@Override
+	public void getRow(int x, int y, int length, int[] colors) {
+		int index = x + y * _width;
+		for (int i = 0; i < length; i++)
+			colors[i] = _pixels[index + i] & MASK;
+	}
+
+	@Override
+	public void set(int x, int y, int value) {
+		_pixels[x + y * _width] = (short)value;
+	}
+
+	@Override
+	public void set(int index, int value) {
+		_pixels[index] = (short)value;
+	}
+
+	@Override
+	public void putPixel(int x, int y, int value) {
+		if (x < 0 || _width <= x || y < 0 || _height <= y)
+			return;
+		_pixels[x + y * _width] = (short)Math.max(0, Math.min(MASK, value));
+	}
+
+	@Override
+	public Object getPixels() {
+		return _pixels;
+	}
+
+	@Override
+	public void setPixels(Object pixels) {
+		_pixels = (short[])pixels;
+	}
+
+	public short[] getPixelsInShort() {
+		return _pixels;
+	}
+
+	@Override
+	public int getNChannels() {
+		return 1;
+	}
+
+	@Override
+	public boolean isGray() {
+		return true;
+	}
+
+	@Override
+	public boolean isGray16() {
+		return true;
+	}
+
+	@Override
+	public boolean isRgb() {
+		return false;
+	}
+}
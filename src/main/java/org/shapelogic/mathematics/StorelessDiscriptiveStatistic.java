@@ -15,6 +15,19 @@ public class StorelessDiscriptiveStatistic {
 	private double _totalSquare = 0.;
 	private int _count = 0;
 	
+	public StorelessDiscriptiveStatistic() {
+	}
+	
+	/** Create from elements that have already been summed up. */
+	public StorelessDiscriptiveStatistic(int count, double total, double totalSquare,
+			double min, double max) {
+		_count = count;
+		_total = total;
+		_totalSquare = totalSquare;
+		_min = min;
+		_max = max;
+	}
+	
 	/** Add an extra element to be part of the input. */
 	public void increment(double input) {
 		if (input < _min)
@@ -30,16 +30,17 @@ public class BBox implements GeometricShape2D {
         }
     }
     
+    /** Only creates points for the first point. */
     public void addPoint(int x, int y) {
-    	CPointInt pointIn = new CPointInt(x,y);
         if (isEmpty()) {
-        	minVal = pointIn.copy();
-        	maxVal = pointIn.copy();
-        }
-        else {
-          min(pointIn);
-          max(pointIn);
+        	minVal = new CPointInt(x,y);
+        	maxVal = new CPointInt(x,y);
+        	return;
         }
+        if (x < minVal.getX() || y < minVal.getY())
+        	minVal.setLocation(Math.min(x, minVal.getX()), Math.min(y, minVal.getY()));
+        if (maxVal.getX() < x || maxVal.getY() < y)
+        	maxVal.setLocation(Math.max(x, maxVal.getX()), Math.max(y, maxVal.getY()));
     }
     
     private void min(IPoint2D pointIn) {
@@ -0,0 +1,453 @@
+package org.shapelogic.polygon;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.shapelogic.util.LineType;
+
+/** Compact binary format for a Polygon, so it can be cached instead of
+ * being traced and vectorized again.<br />
+ *
+ * All points are put in one table and the lines, multi lines and
+ * annotations refer to them by index. Integer points are delta coded
+ * as variable length numbers, in the order of the TreeSet in the polygon
+ * that is usually a few bytes per point.<br />
+ *
+ * The annotations are written per key, as a bit set over the points,
+ * lines, multi lines and the polygon itself. Only enum and String keys are
+ * written, that is all that is used in ShapeLogic. When the same codec is
+ * used for many polygons each key is only written out the first time,
+ * after that it is an index.<br />
+ *
+ * Works for Polygon and MultiLinePolygon, including the current multi line
+ * that is used by EdgeTracer and ChainCodeHandler.<br />
+ *
+ * @author Sami Badawi
+ *
+ */
+public class PolygonCodec {
+	static final int MULTI_LINE_POLYGON = 1;
+	static final int HAS_PERIMETER = 2;
+	static final int HAS_BBOX = 4;
+
+	static final int INT_POINTS = 0;
+	static final int MIXED_POINTS = 1;
+
+	static final int ENUM_KEY = 0;
+	static final int STRING_KEY = 1;
+
+	protected List<IPoint2D> _points = new ArrayList<IPoint2D>();
+	protected Map<IPoint2D, Integer> _pointIndex = new HashMap<IPoint2D, Integer>();
+	protected List<CLine> _lines = new ArrayList<CLine>();
+	protected Map<CLine, Integer> _lineIndex = new HashMap<CLine, Integer>();
+	protected List<MultiLine> _multiLines = new ArrayList<MultiLine>();
+	protected Map<MultiLine, Integer> _multiLineIndex = new IdentityHashMap<MultiLine, Integer>();
+	/** Annotation keys seen in this stream, they are kept between polygons. */
+	protected List<Object> _keys = new ArrayList<Object>();
+	protected Map<Object, Integer> _keyIndex = new HashMap<Object, Integer>();
+
+	/** Write a single polygon, that can be read with read(). */
+	public static void write(Polygon polygon, DataOutput out) throws IOException {
+		new PolygonCodec().writePolygon(polygon, out);
+	}
+
+	public static Polygon read(DataInput in) throws IOException {
+		return new PolygonCodec().readPolygon(in);
+	}
+
+	/** Write the next polygon in a stream, the polygons have to be read in
+	 * the same order with one codec. */
+	public void writePolygon(Polygon polygon, DataOutput out) throws IOException {
+		clearTables();
+		Map<Object, Set<GeometricShape2D>> annotations = polygon.getMap();
+		for (IPoint2D point: polygon.getPoints())
+			addPoint(point);
+		for (CLine line: polygon.getLines())
+			addLine(line);
+		int polygonPoints = _points.size();
+		int polygonLines = _lines.size();
+		MultiLine currentMultiLine = polygon.getCurrentMultiLine();
+		if (currentMultiLine != null)
+			addMultiLine(currentMultiLine);
+		if (polygon.getMultiLines() != null) {
+			for (MultiLine multiLine: polygon.getMultiLines())
+				addMultiLine(multiLine);
+		}
+		//lines and points that are only annotated, ChainCodeHandler makes those
+		for (Set<GeometricShape2D> shapes: annotations.values()) {
+			for (GeometricShape2D shape: shapes) {
+				if (shape instanceof IPoint2D)
+					addPoint((IPoint2D)shape);
+				else if (shape instanceof CLine)
+					addLine((CLine)shape);
+			}
+		}
+
+		int flags = 0;
+		if (polygon instanceof MultiLinePolygon)
+			flags |= MULTI_LINE_POLYGON;
+		if (polygon.getPerimeter() != null)
+			flags |= HAS_PERIMETER;
+		BBox bBox = polygon.getBBox();
+		if (bBox != null && !bBox.isEmpty())
+			flags |= HAS_BBOX;
+		out.writeByte(flags);
+		if (polygon.getPerimeter() != null)
+			out.writeDouble(polygon.getPerimeter());
+		if ((flags & HAS_BBOX) != 0) {
+			out.writeDouble(bBox.minVal.getX());
+			out.writeDouble(bBox.minVal.getY());
+			out.writeDouble(bBox.maxVal.getX());
+			out.writeDouble(bBox.maxVal.getY());
+		}
+
+		writePoints(out);
+		writeVarInt(out, polygonPoints);
+
+		writeVarInt(out, _lines.size());
+		for (CLine line: _lines) {
+			writeVarInt(out, _pointIndex.get(line.getStart()));
+			writeVarInt(out, _pointIndex.get(line.getEnd()));
+		}
+		writeVarInt(out, polygonLines);
+		if (polygon instanceof MultiLinePolygon) {
+			Set<CLine> independentLines = polygon.getIndependentLines();
+			writeVarInt(out, independentLines.size());
+			for (CLine line: independentLines)
+				writeVarInt(out, _lineIndex.get(line));
+		}
+
+		writeVarInt(out, _multiLines.size());
+		for (MultiLine multiLine: _multiLines)
+			writeMultiLine(multiLine, out);
+		//the current multi line can also be in the list
+		writeVarInt(out, currentMultiLine == null ? 0 : _multiLineIndex.get(currentMultiLine) + 1);
+		if (polygon instanceof MultiLinePolygon) {
+			writeVarInt(out, polygon.getMultiLines().size());
+			for (MultiLine multiLine: polygon.getMultiLines())
+				writeVarInt(out, _multiLineIndex.get(multiLine));
+		}
+
+		writeAnnotations(polygon, annotations, out);
+	}
+
+	public Polygon readPolygon(DataInput in) throws IOException {
+		clearTables();
+		int flags = in.readUnsignedByte();
+		Polygon polygon;
+		if ((flags & MULTI_LINE_POLYGON) != 0)
+			polygon = new MultiLinePolygon();
+		else
+			polygon = new Polygon();
+		AnnotatedShapeImplementation annotatedShape = polygon.getAnnotatedShape();
+		if ((flags & HAS_PERIMETER) != 0)
+			polygon.setPerimeter(in.readDouble());
+		double[] bBox = null;
+		if ((flags & HAS_BBOX) != 0) {
+			bBox = new double[4];
+			for (int i = 0; i < bBox.length; i++)
+				bBox[i] = in.readDouble();
+		}
+
+		readPoints(in);
+		int polygonPoints = readVarInt(in);
+		for (int i = 0; i < polygonPoints; i++)
+			polygon.getPoints().add(_points.get(i));
+
+		int numberOfLines = readVarInt(in);
+		for (int i = 0; i < numberOfLines; i++) {
+			IPoint2D start = _points.get(readVarInt(in));
+			IPoint2D end = _points.get(readVarInt(in));
+			_lines.add(new CLine(start, end));
+		}
+		int polygonLines = readVarInt(in);
+		for (int i = 0; i < polygonLines; i++)
+			polygon.getLines().add(_lines.get(i));
+		if (polygon instanceof MultiLinePolygon) {
+			int independentLines = readVarInt(in);
+			for (int i = 0; i < independentLines; i++)
+				polygon.getIndependentLines().add(_lines.get(readVarInt(in)));
+		}
+
+		int numberOfMultiLines = readVarInt(in);
+		for (int i = 0; i < numberOfMultiLines; i++)
+			_multiLines.add(readMultiLine(annotatedShape, in));
+		int currentMultiLine = readVarInt(in);
+		if (currentMultiLine != 0)
+			polygon._currentMultiLine = _multiLines.get(currentMultiLine - 1);
+		if (polygon instanceof MultiLinePolygon) {
+			int multiLines = readVarInt(in);
+			for (int i = 0; i < multiLines; i++)
+				polygon.getMultiLines().add(_multiLines.get(readVarInt(in)));
+		}
+
+		readAnnotations(polygon, in);
+		polygon.getValue();
+		if (bBox != null) {
+			polygon._bBox.addPoint(new CPointDouble(bBox[0], bBox[1]));
+			polygon._bBox.addPoint(new CPointDouble(bBox[2], bBox[3]));
+		}
+		return polygon;
+	}
+
+	protected void clearTables() {
+		_points.clear();
+		_pointIndex.clear();
+		_lines.clear();
+		_lineIndex.clear();
+		_multiLines.clear();
+		_multiLineIndex.clear();
+	}
+
+	protected void addPoint(IPoint2D point) {
+		if (point != null && !_pointIndex.containsKey(point)) {
+			_pointIndex.put(point, _points.size());
+			_points.add(point);
+		}
+	}
+
+	protected void addLine(CLine line) {
+		if (!_lineIndex.containsKey(line)) {
+			addPoint(line.getStart());
+			addPoint(line.getEnd());
+			_lineIndex.put(line, _lines.size());
+			_lines.add(line);
+		}
+	}
+
+	protected void addMultiLine(MultiLine multiLine) {
+		if (!_multiLineIndex.containsKey(multiLine)) {
+			for (IPoint2D point: multiLine.getPoints())
+				addPoint(point);
+			addPoint(multiLine.getCenterForCircle());
+			_multiLineIndex.put(multiLine, _multiLines.size());
+			_multiLines.add(multiLine);
+		}
+	}
+
+	/** Delta coded, if there are any non integer points each point is tagged. */
+	protected void writePoints(DataOutput out) throws IOException {
+		boolean allInt = true;
+		for (IPoint2D point: _points) {
+			if (!(point instanceof CPointInt))
+				allInt = false;
+		}
+		out.writeByte(allInt ? INT_POINTS : MIXED_POINTS);
+		writeVarInt(out, _points.size());
+		int lastX = 0;
+		int lastY = 0;
+		for (IPoint2D point: _points) {
+			if (point instanceof CPointInt) {
+				CPointInt pointInt = (CPointInt)point;
+				if (!allInt)
+					out.writeByte(INT_POINTS);
+				writeVarInt(out, pointInt.x - lastX);
+				writeVarInt(out, pointInt.y - lastY);
+				lastX = pointInt.x;
+				lastY = pointInt.y;
+			}
+			else {
+				out.writeByte(MIXED_POINTS);
+				out.writeDouble(point.getX());
+				out.writeDouble(point.getY());
+			}
+		}
+	}
+
+	protected void readPoints(DataInput in) throws IOException {
+		boolean allInt = in.readUnsignedByte() == INT_POINTS;
+		int numberOfPoints = readVarInt(in);
+		int lastX = 0;
+		int lastY = 0;
+		for (int i = 0; i < numberOfPoints; i++) {
+			if (allInt || in.readUnsignedByte() == INT_POINTS) {
+				lastX += readVarInt(in);
+				lastY += readVarInt(in);
+				_points.add(new CPointInt(lastX, lastY));
+			}
+			else
+				_points.add(new CPointDouble(in.readDouble(), in.readDouble()));
+		}
+	}
+
+	protected void writeMultiLine(MultiLine multiLine, DataOutput out) throws IOException {
+		List<? extends IPoint2D> points = multiLine.getPoints();
+		writeVarInt(out, points.size());
+		for (IPoint2D point: points)
+			writeVarInt(out, _pointIndex.get(point));
+		out.writeByte(multiLine.getLineType().ordinal());
+		Boolean clockWise = multiLine.isClosedLineClockWise();
+		out.writeByte(clockWise == null ? 0 : (clockWise ? 2 : 1));
+		IPoint2D center = multiLine.getCenterForCircle();
+		writeVarInt(out, center == null ? 0 : _pointIndex.get(center) + 1);
+	}
+
+	protected MultiLine readMultiLine(AnnotatedShapeImplementation annotatedShape, DataInput in)
+		throws IOException
+	{
+		MultiLine multiLine = new MultiLine(annotatedShape);
+		int numberOfPoints = readVarInt(in);
+		ArrayList<IPoint2D> points = new ArrayList<IPoint2D>(numberOfPoints);
+		for (int i = 0; i < numberOfPoints; i++)
+			points.add(_points.get(readVarInt(in)));
+		multiLine.setPoints(points);
+		multiLine._lineType = LineType.values()[in.readUnsignedByte()];
+		int clockWise = in.readUnsignedByte();
+		if (clockWise != 0)
+			multiLine.setClosedLineClockWise(clockWise == 2);
+		int center = readVarInt(in);
+		if (center != 0)
+			multiLine.setCenterForCircle(_points.get(center - 1));
+		multiLine.getValue();
+		return multiLine;
+	}
+
+	/** Index of a shape in the bit sets, or -1 if it is not in the tables. */
+	protected int shapeIndex(Polygon polygon, GeometricShape2D shape) {
+		if (shape == polygon)
+			return _points.size() + _lines.size() + _multiLines.size();
+		Integer index = null;
+		if (shape instanceof IPoint2D)
+			index = _pointIndex.get(shape);
+		else if (shape instanceof CLine) {
+			index = _lineIndex.get(shape);
+			if (index != null)
+				index += _points.size();
+		}
+		else if (shape instanceof MultiLine) {
+			index = _multiLineIndex.get(shape);
+			if (index != null)
+				index += _points.size() + _lines.size();
+		}
+		return index == null ? -1 : index;
+	}
+
+	protected GeometricShape2D shapeForIndex(Polygon polygon, int index) {
+		if (index < _points.size())
+			return _points.get(index);
+		index -= _points.size();
+		if (index < _lines.size())
+			return _lines.get(index);
+		index -= _lines.size();
+		if (index < _multiLines.size())
+			return _multiLines.get(index);
+		return polygon;
+	}
+
+	protected void writeAnnotations(Polygon polygon, Map<Object, Set<GeometricShape2D>> annotations,
+			DataOutput out) throws IOException
+	{
+		int numberOfShapes = _points.size() + _lines.size() + _multiLines.size() + 1;
+		List<Object> keys = new ArrayList<Object>();
+		for (Object key: annotations.keySet()) {
+			if (key instanceof Enum || key instanceof String)
+				keys.add(key);
+		}
+		writeVarInt(out, keys.size());
+		for (Object key: keys) {
+			Integer keyIndex = _keyIndex.get(key);
+			writeVarInt(out, keyIndex == null ? 0 : keyIndex + 1);
+			if (keyIndex == null) {
+				if (key instanceof Enum) {
+					out.writeByte(ENUM_KEY);
+					out.writeUTF(((Enum)key).getDeclaringClass().getName());
+					out.writeUTF(((Enum)key).name());
+				}
+				else {
+					out.writeByte(STRING_KEY);
+					out.writeUTF((String)key);
+				}
+				_keyIndex.put(key, _keys.size());
+				_keys.add(key);
+			}
+			long[] words = new long[(numberOfShapes + 63) >> 6];
+			for (GeometricShape2D shape: annotations.get(key)) {
+				int index = shapeIndex(polygon, shape);
+				if (0 <= index)
+					words[index >> 6] |= 1L << index;
+			}
+			int numberOfWords = words.length;
+			while (0 < numberOfWords && words[numberOfWords - 1] == 0)
+				numberOfWords--;
+			writeVarInt(out, numberOfWords);
+			for (int i = 0; i < numberOfWords; i++)
+				out.writeLong(words[i]);
+		}
+	}
+
+	protected void readAnnotations(Polygon polygon, DataInput in) throws IOException {
+		int numberOfKeys = readVarInt(in);
+		for (int k = 0; k < numberOfKeys; k++) {
+			Object key;
+			int keyIndex = readVarInt(in);
+			if (keyIndex != 0) {
+				if (_keys.size() < keyIndex)
+					throw new IOException("Unknown annotation index: " + keyIndex);
+				key = _keys.get(keyIndex - 1);
+			}
+			else {
+				if (in.readUnsignedByte() == ENUM_KEY)
+					key = enumValue(in.readUTF(), in.readUTF());
+				else
+					key = in.readUTF();
+				_keys.add(key);
+			}
+			int numberOfWords = readVarInt(in);
+			for (int i = 0; i < numberOfWords; i++) {
+				long word = in.readLong();
+				while (word != 0) {
+					int bit = Long.numberOfTrailingZeros(word);
+					word &= word - 1;
+					polygon.putAnnotation(shapeForIndex(polygon, (i << 6) + bit), key);
+				}
+			}
+		}
+	}
+
+	protected static Object enumValue(String className, String name) throws IOException {
+		Object[] constants = null;
+		try {
+			constants = Class.forName(className).getEnumConstants();
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Unknown annotation class: " + className);
+		}
+		if (constants != null) {
+			for (Object constant: constants) {
+				if (((Enum)constant).name().equals(name))
+					return constant;
+			}
+		}
+		throw new IOException("Unknown annotation: " + className + "." + name);
+	}
+
+	/** Zig zag coded variable length int, small numbers of both signs take 1 byte. */
+	public static void writeVarInt(DataOutput out, int value) throws IOException {
+		int zigZag = (value << 1) ^ (value >> 31);
+		while ((zigZag & ~0x7F) != 0) {
+			out.writeByte((zigZag & 0x7F) | 0x80);
+			zigZag >>>= 7;
+		}
+		out.writeByte(zigZag);
+	}
+
+	public static int readVarInt(DataInput in) throws IOException {
+		int zigZag = 0;
+		int shift = 0;
+		int b;
+		do {
+			if (shift > 28)
+				throw new IOException("Malformed variable length int");
+			b = in.readUnsignedByte();
+			zigZag |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return (zigZag >>> 1) ^ -(zigZag & 1);
+	}
+}
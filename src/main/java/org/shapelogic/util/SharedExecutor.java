@@ -0,0 +1,67 @@
+package org.shapelogic.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/** Thread pool shared by the parallel image operations.<br />
+ * 
+ * Making and shutting down a pool in each call costs more than the work for 
+ * a small image, so the operations use this pool unless the caller gives
+ * them an ExecutorService. The threads are daemon threads, so the pool does
+ * not keep the JVM running.<br />
+ * 
+ * There is one thread per available processor. A task must not wait for 
+ * other tasks in the same pool, that can dead lock.<br />
+ * 
+ * @author Sami Badawi
+ *
+ */
+public class SharedExecutor {
+	private static ExecutorService _executor;
+
+	public static synchronized ExecutorService getInstance() {
+		if (_executor == null) {
+			_executor = Executors.newFixedThreadPool(
+					Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable runnable) {
+							Thread thread = new Thread(runnable, "shapelogic-worker");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		}
+		return _executor;
+	}
+
+	/** Run the tasks and wait for them.
+	 * 
+	 * @param executor null means the shared pool
+	 * @param tasks
+	 * @param description start of the exception messages
+	 * @return the results in the order of the tasks
+	 */
+	public static <T> List<T> invokeAll(ExecutorService executor, 
+			List<? extends Callable<T>> tasks, String description) {
+		if (executor == null)
+			executor = getInstance();
+		List<T> result = new ArrayList<T>(tasks.size());
+		try {
+			List<Future<T>> futures = executor.invokeAll(tasks);
+			for (Future<T> future: futures)
+				result.add(future.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(description + " was interrupted", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(description + " failed", e.getCause());
+		}
+		return result;
+	}
+}
@@ -2,6 +2,10 @@ package org.shapelogic.color;
 
 import junit.framework.TestCase;
 
+import org.shapelogic.imageutil.PixelAreaHandler;
+import org.shapelogic.imageutil.SLBufferedImage;
+import org.shapelogic.imageutil.SLImage;
+
 /** Test ColorEdgeArea.
  * <br />
  * 
@@ -37,6 +41,32 @@ public class ColorEdgeAreaTest extends TestCase {
 		assertEquals(50, grayArea.getMeanBlue());
 	}
 	
+	/** The tiles keep the range, and the last pixel and borders are merged back. */
+	public void testParallelSameAsSequential() {
+		SLImage image = new SLBufferedImage("./src/test/resources/images/particles", 
+				"embryos6", ".jpg");
+		PixelAreaHandler handler = new PixelAreaHandler(image);
+		ColorEdgeArea sequential = new ColorEdgeArea(0, 0, 0x808080);
+		sequential.setMaxDistance(30.);
+		handler.handleAllPixels(sequential);
+		ColorEdgeArea parallel = new ColorEdgeArea(0, 0, 0x808080);
+		parallel.setMaxDistance(30.);
+		ColorEdgeArea tile = (ColorEdgeArea) parallel.makeTileHandler();
+		assertEquals(0x808080, tile.getColorCenter());
+		assertEquals(30., tile.getMaxDistance());
+		tile.addBorder(ColorEdgeArea.HIGH_CONTRAST_POS);
+		parallel.mergeTileHandler(tile);
+		assertEquals(1, parallel.getHighContrastBorders());
+		handler.handleAllPixelsParallel(parallel, 4);
+		assertEquals(sequential.getArea(), parallel.getArea());
+		assertEquals(sequential.getMeanColor(), parallel.getMeanColor());
+		assertEquals(sequential.getPixelArea().getArea(), parallel.getPixelArea().getArea());
+		assertEquals(image.getWidth() - 1, parallel._lastX);
+		assertEquals(image.getHeight() - 1, parallel._lastY);
+		assertEquals(sequential._lastX, parallel._lastX);
+		assertEquals(sequential._lastY, parallel._lastY);
+	}
+
 	public void testFactory() {
 		ColorAreaFactory colorAreaFactory = new ColorAreaFactory();
 		ColorAndVariance grayArea = (ColorAndVariance) colorAreaFactory.makePixelArea(10,20,100);
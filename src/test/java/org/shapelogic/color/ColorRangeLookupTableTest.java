@@ -0,0 +1,103 @@
+package org.shapelogic.color;
+
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.shapelogic.imageprocessing.DistanceBasedColorHypothesisFinder;
+import org.shapelogic.imageprocessing.HistogramColorHypothesisFinder;
+import org.shapelogic.imageutil.SLBufferedImage;
+import org.shapelogic.imageutil.SLImage;
+import org.shapelogic.imageutil.SLShortGrayImage;
+
+/** Test ColorRangeLookupTable.
+ * <br />
+ *
+ * @author Sami Badawi
+ *
+ */
+public class ColorRangeLookupTableTest extends TestCase {
+	String dir = "./src/test/resources/images/particles";
+
+	/** Index of the first color that has color in range. */
+	int firstInRange(List<IColorAndVariance> colors, int color) {
+		for (int i = 0; i < colors.size(); i++) {
+			if (((IColorRange) colors.get(i)).colorInRange(color))
+				return i;
+		}
+		return ColorRangeLookupTable.NO_RANGE;
+	}
+
+	/** For gray there is an entry for each value, so the table is exact. */
+	public void testGraySameAsColorInRange() {
+		SLImage image = new SLBufferedImage(dir, "blobs", ".gif");
+		HistogramColorHypothesisFinder finder = new HistogramColorHypothesisFinder(null, image, 30.);
+		ColorHypothesis colorHypothesis = finder.findBestColorHypothesis();
+		ColorRangeLookupTable table = new ColorRangeLookupTable(colorHypothesis, true);
+		assertEquals(256, table.size());
+		List<IColorAndVariance> colors = table.getColors();
+		for (int y = 0; y < image.getHeight(); y++) {
+			for (int x = 0; x < image.getWidth(); x++) {
+				int color = image.get(x, y);
+				assertEquals(firstInRange(colors, color), table.rangeIndex(color));
+			}
+		}
+	}
+
+	/** 16 bit gray values that are the same in the low byte get their own entries. */
+	public void testGray16SameAsColorInRange() {
+		SLShortGrayImage image = new SLShortGrayImage(20, 10);
+		for (int y = 0; y < 10; y++) {
+			for (int x = 0; x < 20; x++)
+				image.set(x, y, x < 5 ? 0x8000 : 0x100);
+		}
+		HistogramColorHypothesisFinder finder = new HistogramColorHypothesisFinder(null, image, 30.);
+		ColorHypothesis colorHypothesis = finder.findBestColorHypothesis();
+		ColorRangeLookupTable table = new ColorRangeLookupTable(colorHypothesis, true, true,
+				ColorRangeLookupTable.DEFAULT_BITS_PER_CHANNEL, null, 0.);
+		assertEquals(65536, table.size());
+		assertTrue(table.isGray16());
+		List<IColorAndVariance> colors = table.getColors();
+		for (int color = 0; color < 65536; color++)
+			assertEquals(firstInRange(colors, color), table.rangeIndex(color));
+		assertTrue(table.rangeIndex(0x8000) != table.rangeIndex(0x100));
+	}
+
+	/** Only the entries on the edge of a range test the colors. */
+	public void testRgbSameAsColorInRange() {
+		SLImage image = new SLBufferedImage(dir, "spot1Noise5", ".jpg");
+		HistogramColorHypothesisFinder finder = new HistogramColorHypothesisFinder(null, image, 30.);
+		ColorHypothesis colorHypothesis = finder.findBestColorHypothesis();
+		ColorRangeLookupTable table = new ColorRangeLookupTable(colorHypothesis, false);
+		assertEquals(1 << 15, table.size());
+		List<IColorAndVariance> colors = table.getColors();
+		int different = 0;
+		for (int y = 0; y < image.getHeight(); y++) {
+			for (int x = 0; x < image.getWidth(); x++) {
+				int color = image.get(x, y);
+				if (firstInRange(colors, color) != table.rangeIndex(color))
+					different++;
+			}
+		}
+		assertEquals(0, different);
+		assertTrue(table.getNumberOfAmbiguous() < table.size() / 10);
+		IColorAndVariance background = colorHypothesis.getBackground();
+		assertSame(background, table.getColor(((IColorRange)background).getMeanColor()));
+		assertEquals(table.indexOf(background), 
+				table.rangeIndex(((IColorRange)background).getMeanColor()));
+	}
+
+	/** Using the table for the last hypothesis should find the same colors. */
+	public void testDistanceBasedFinderWithLookup() {
+		SLImage image = new SLBufferedImage(dir, "spot1Noise5", ".jpg");
+		DistanceBasedColorHypothesisFinder finder = 
+			new DistanceBasedColorHypothesisFinder(null, image, 30.);
+		finder.setIterations(2);
+		int expected = finder.findBestColorHypothesis().getColors().size();
+		DistanceBasedColorHypothesisFinder lookupFinder = 
+			new DistanceBasedColorHypothesisFinder(null, image, 30.);
+		lookupFinder.setIterations(2);
+		lookupFinder.setLookupBitsPerChannel(ColorRangeLookupTable.DEFAULT_BITS_PER_CHANNEL);
+		assertEquals(expected, lookupFinder.findBestColorHypothesis().getColors().size());
+	}
+}
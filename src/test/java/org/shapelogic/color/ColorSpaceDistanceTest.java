@@ -0,0 +1,75 @@
+package org.shapelogic.color;
+
+import junit.framework.TestCase;
+
+import org.shapelogic.imageutil.SLBufferedImage;
+import org.shapelogic.imageutil.SLImage;
+
+/** Test LabColorDistance, HSVColorDistance and the ColorFactory methods.
+ * <br />
+ *
+ * @author Sami Badawi
+ *
+ */
+public class ColorSpaceDistanceTest extends TestCase {
+	String dir = "./src/test/resources/images/particles";
+
+	public void testLab() {
+		double[] lab = new double[3];
+		LabColorDistance.toLab(0xffffff, lab);
+		assertEquals(100., lab[0], 0.01);
+		assertEquals(0., lab[1], 0.01);
+		assertEquals(0., lab[2], 0.01);
+		LabColorDistance.toLab(0xff0000, lab);
+		assertEquals(53.24, lab[0], 0.01);
+		assertEquals(80.09, lab[1], 0.01);
+		assertEquals(67.20, lab[2], 0.01);
+		LabColorDistance distance = new LabColorDistance();
+		assertEquals(100., distance.distance(0xffffff, 0), 0.5);
+		assertEquals(0., distance.distance(0x808080, 0x808080));
+		assertEquals(distance.distance(new int[] {255, 0, 0}, new int[] {0, 0, 255}), 
+				distance.distance(0xff0000, 0x0000ff));
+		assertEquals(distance.distance(new int[] {200}, new int[] {100}), 
+				distance.distance(0xc8c8c8, 0x646464));
+	}
+
+	/** Hue goes around, the hue of grays does not count. */
+	public void testHSV() {
+		HSVColorDistance distance = new HSVColorDistance();
+		double redToMagentaRed = distance.distance(0xff0000, 0xff0010);
+		double redToOrange = distance.distance(0xff0000, 0xff1000);
+		assertEquals(redToOrange, redToMagentaRed, 0.5);
+		assertTrue(redToOrange < 10.);
+		assertTrue(80. < distance.distance(0xff0000, 0x00ffff));
+		assertTrue(distance.distance(0x808081, 0x818080) < 1.);
+	}
+
+	public void testCacheSameAsConversion() {
+		ColorSpaceDistance[] distances = {new LabColorDistance(false), 
+				new HSVColorDistance(false)};
+		ColorSpaceDistance[] cached = {new LabColorDistance(true), 
+				new HSVColorDistance(true)};
+		for (int i = 0; i < distances.length; i++) {
+			assertTrue(cached[i].isCached());
+			for (int color = 0; color < 0x1000000; color += 0x10101 * 7 + 3) {
+				assertEquals(distances[i].toColorSpace(color), cached[i].toColorSpace(color));
+				assertEquals(distances[i].toColorSpace(color), cached[i].toColorSpace(color));
+			}
+		}
+	}
+
+	public void testColorFactory() {
+		SLImage rgb = new SLBufferedImage(dir, "embryos6", ".jpg");
+		SLImage gray = new SLBufferedImage(dir, "blobs", ".gif");
+		assertTrue(ColorFactory.makeColorDistance(rgb, ColorSpace.LAB) instanceof LabColorDistance);
+		assertTrue(ColorFactory.makeColorDistance(rgb, ColorSpace.HSV) instanceof HSVColorDistance);
+		assertTrue(ColorFactory.makeColorDistance(rgb, ColorSpace.RGB) instanceof ColorDistance1RGB);
+		assertTrue(ColorFactory.makeColorDistance(gray, ColorSpace.LAB) instanceof ColorDistance1);
+		IColorDistanceWithImage withImage = 
+			ColorFactory.makeColorDistanceWithImage(rgb, ColorSpace.LAB, true);
+		withImage.setReferenceColor(rgb.get(10, 20));
+		assertEquals(0., withImage.distanceToReferenceColor(10, 20));
+		assertEquals(withImage.distance(rgb.get(10, 20), rgb.get(30, 40)), 
+				withImage.distanceToReferenceColor(30, 40));
+	}
+}
@@ -5,6 +5,8 @@ import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
 
+import org.shapelogic.color.ColorFactory;
+import org.shapelogic.imageutil.SLImage;
 import org.shapelogic.polygon.CLine;
 import org.shapelogic.polygon.GeometricShape2D;
 import org.shapelogic.polygon.IPoint2D;
@@ -37,6 +39,16 @@ public class AbstractImageProcessingTests extends TestCase {
 		return _dirURL + "/" + fileName + fileFormat;
 	}
 	
+	/** Segmentation set up the same way as in the particle counter. */
+	SBSegmentation makeSegmentation(SLImage image) throws Exception {
+		SBSegmentation segmentation = new SBSegmentation();
+		segmentation.setSLImage(image);
+		segmentation.setPixelCompare(ProcessingFactory.compareFactory(image));
+		segmentation.setSegmentAreaFactory(ColorFactory.segmentAreaFactory(image));
+		segmentation.init();
+		return segmentation;
+	}
+
 	public void printLines(Polygon polygon) {
 		if (!_doPrint)
 			return;
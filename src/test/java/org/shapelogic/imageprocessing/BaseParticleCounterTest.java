@@ -1,5 +1,8 @@
 package org.shapelogic.imageprocessing;
 
+import java.util.List;
+
+import org.shapelogic.color.IColorAndVariance;
 import org.shapelogic.color.ValueAreaFactory;
 import org.shapelogic.imageutil.SLImage;
 
@@ -80,6 +83,54 @@ public class BaseParticleCounterTest extends AbstractImageProcessingTests {
 		assertTrue(bp.isInvertedLut());
 	}
 
+	/** Same as testBlobsGif() but segmenting with the primitive span stack. */
+	public void testBlobsGifSpanStackMode() {
+		String fileName = "blobs";
+		_baseParticleCounter.setSpanStackMode(true);
+		SLImage bp = runPluginFilterOnBufferedImage(filePath(fileName), _baseParticleCounter);
+		assertEquals(256,bp.getWidth());
+		assertTrue(_baseParticleCounter.getSegmentation().isSpanStackMode());
+		ValueAreaFactory factory = _baseParticleCounter.getSegmentation().getSegmentAreaFactory();
+		assertNotNull(factory);
+		assertEquals(67,factory.getStore().size()); 
+		assertEquals(65,_baseParticleCounter.getParticleCount());
+		assertTrue(_baseParticleCounter.isParticleImage());
+	}
+
+	/** Bounded area mode should find the same particles without keeping
+	 * areas for the particles that are too small or too big. */
+	public void testBlobsGifBoundedAreaMode() {
+		String fileName = "blobs";
+		SLImage bp = runPluginFilterOnBufferedImage(filePath(fileName), _baseParticleCounter);
+		List<IColorAndVariance> expected = _baseParticleCounter.getParticleFiltered();
+		BaseParticleCounter bounded = new BaseParticleCounter();
+		bounded.setBoundedAreaMode(true);
+		runPluginFilterOnBufferedImage(filePath(fileName), bounded);
+		ValueAreaFactory factory = bounded.getSegmentation().getSegmentAreaFactory();
+		assertEquals(66,factory.getStore().size()); 
+		assertEquals(65,bounded.getParticleCount());
+		assertEquals(65,bounded.getSegmentation().getAreasInBounds());
+		List<IColorAndVariance> particles = bounded.getParticleFiltered();
+		assertEquals(expected.size(), particles.size());
+		for (int i = 0; i < particles.size(); i++) {
+			assertEquals(expected.get(i).getArea(), particles.get(i).getArea());
+			assertEquals(expected.get(i).getMeanColor(), particles.get(i).getMeanColor());
+			assertEquals(expected.get(i).getPixelArea().getCenterPoint(), 
+					particles.get(i).getPixelArea().getCenterPoint());
+		}
+	}
+
+	/** Count only with bounded area mode makes no particle areas. */
+	public void testBlobsGifBoundedAreaCountOnly() {
+		String fileName = "blobs";
+		_baseParticleCounter.setBoundedAreaMode(true);
+		_baseParticleCounter.setCountOnly(true);
+		runPluginFilterOnBufferedImage(filePath(fileName), _baseParticleCounter);
+		ValueAreaFactory factory = _baseParticleCounter.getSegmentation().getSegmentAreaFactory();
+		assertEquals(1,factory.getStore().size()); 
+		assertEquals(65,_baseParticleCounter.getParticleCount());
+	}
+
 	/** This gets opened as a byte interleaved and not as an int RGB
 	 */
 	public void testCleanSpotPng() {
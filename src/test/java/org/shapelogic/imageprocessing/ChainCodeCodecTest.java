@@ -0,0 +1,47 @@
+package org.shapelogic.imageprocessing;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/** Test ChainCodeCodec.
+ * <br />
+ *
+ * @author Sami Badawi
+ *
+ */
+public class ChainCodeCodecTest extends TestCase {
+
+	public void testPackUnpack() {
+		Random random = new Random(3);
+		for (int length = 0; length < 50; length++) {
+			byte[] chainCode = new byte[length];
+			for (int i = 0; i < length; i++)
+				chainCode[i] = (byte)random.nextInt(8);
+			byte[] packed = ChainCodeCodec.pack(chainCode, length);
+			assertEquals((3 * length + 7) / 8, packed.length);
+			assertTrue(Arrays.equals(chainCode, ChainCodeCodec.unpack(packed, length)));
+		}
+	}
+
+	public void testContour() throws Exception {
+		byte[] chainCode = {0, 0, 2, 2, 4, 4, 6, 6};
+		RasterContour expected = new RasterContour(7, true, 300, 2, chainCode);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ChainCodeCodec.writeContour(new DataOutputStream(bytes), expected);
+		//label, hole, 2 byte x, y, length and 3 bytes of steps
+		assertEquals(1 + 1 + 2 + 1 + 1 + 3, bytes.size());
+		RasterContour contour = ChainCodeCodec.readContour(
+				new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		assertEquals(7, contour.getLabel());
+		assertTrue(contour.isHole());
+		assertEquals(300, contour.getStartX());
+		assertEquals(2, contour.getStartY());
+		assertTrue(Arrays.equals(chainCode, contour.getChainCode()));
+	}
+}
@@ -0,0 +1,193 @@
+package org.shapelogic.imageprocessing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.shapelogic.polygon.AnnotatedShapeImplementation;
+import org.shapelogic.polygon.MultiLine;
+import org.shapelogic.util.Constants;
+
+/** Test ChainCodeHandler.
+ * <br />
+ *
+ * @author Sami Badawi
+ *
+ */
+public class ChainCodeHandlerTest extends TestCase {
+
+	/** Add a closed square with side length side, starting in x, y. */
+	void addSquare(ChainCodeHandler handler, int x, int y, int side) {
+		handler.setFirstPoint(x, y);
+		byte[] directions = {Constants.RIGHT, Constants.DOWN, Constants.LEFT, Constants.UP};
+		for (byte direction: directions) {
+			for (int i = 0; i < side; i++)
+				assertTrue(handler.addChainCode(direction));
+		}
+	}
+
+	/** Add the closed polygon through the vertices, with 8 direction steps. */
+	void addPolygon(ChainCodeHandler handler, int[] xs, int[] ys) {
+		int x = xs[0];
+		int y = ys[0];
+		handler.setFirstPoint(x, y);
+		for (int k = 1; k <= xs.length; k++) {
+			int targetX = xs[k % xs.length];
+			int targetY = ys[k % ys.length];
+			while (x != targetX || y != targetY) {
+				int dx = Integer.signum(targetX - x);
+				int dy = Integer.signum(targetY - y);
+				for (int direction = 0; direction < Constants.DIRECTIONS_AROUND_POINT; direction++) {
+					if (Constants.CYCLE_POINTS_X[direction] == dx && 
+							Constants.CYCLE_POINTS_Y[direction] == dy) {
+						assertTrue(handler.addChainCode((byte)direction));
+						break;
+					}
+				}
+				x += dx;
+				y += dy;
+			}
+		}
+	}
+
+	/** Ellipse, a wavy radius gives concave parts. */
+	int[][] ellipse(int radiusX, int radiusY, double wave) {
+		int vertices = 4 * (radiusX + radiusY);
+		int[][] result = new int[2][vertices];
+		for (int k = 0; k < vertices; k++) {
+			double angle = 2 * Math.PI * k / vertices;
+			double scale = 1 + wave * Math.sin(7 * angle);
+			result[0][k] = (int)Math.round(radiusX * Math.cos(angle) * scale);
+			result[1][k] = (int)Math.round(radiusY * Math.sin(angle) * scale);
+		}
+		return result;
+	}
+
+	/** Comb with teeth, that gives many lines. */
+	int[][] comb(int teeth, int width, int height) {
+		int[][] result = new int[2][4 * teeth + 2];
+		int k = 0;
+		for (int i = 0; i < teeth; i++) {
+			result[0][k] = 2 * i * width;
+			result[1][k++] = 0;
+			result[0][k] = 2 * i * width + width;
+			result[1][k++] = 0;
+			result[0][k] = 2 * i * width + width;
+			result[1][k++] = height - (i % 3) * width;
+			result[0][k] = 2 * i * width + 2 * width;
+			result[1][k++] = height - (i % 3) * width;
+		}
+		result[0][k] = 2 * teeth * width;
+		result[1][k++] = height + width;
+		result[0][k] = 0;
+		result[1][k++] = height + width;
+		return result;
+	}
+
+	/** Random polygon with vertices inside a size x size square. */
+	int[][] randomPolygon(Random random, int vertices, int size) {
+		int[][] result = new int[2][vertices];
+		for (int k = 0; k < vertices; k++) {
+			result[0][k] = random.nextInt(size);
+			result[1][k] = random.nextInt(size);
+		}
+		return result;
+	}
+
+	/** The explicit stack should give the same points and annotations as 
+	 * the recursive split. */
+	public void testIterativeSameAsRecursive() {
+		List<int[][]> shapes = new ArrayList<int[][]>();
+		shapes.add(ellipse(3, 2, 0.));
+		shapes.add(ellipse(20, 7, 0.5));
+		shapes.add(ellipse(150, 90, 0.2));
+		shapes.add(ellipse(3000, 2500, 0.5));
+		shapes.add(comb(3, 10, 50));
+		shapes.add(comb(6, 300, 2000));
+		Random random = new Random(17);
+		for (int i = 0; i < 200; i++)
+			shapes.add(randomPolygon(random, 3 + random.nextInt(20), 10 + random.nextInt(100)));
+		shapes.add(randomPolygon(random, 400, 100));
+		for (int[][] shape: shapes) {
+			ChainCodeHandler recursive = new ChainCodeHandler(new AnnotatedShapeImplementation());
+			recursive.setup();
+			recursive.setRecursiveSplit(true);
+			addPolygon(recursive, shape[0], shape[1]);
+			MultiLine expected = recursive.getValue();
+			ChainCodeHandler iterative = new ChainCodeHandler(new AnnotatedShapeImplementation());
+			iterative.setup();
+			addPolygon(iterative, shape[0], shape[1]);
+			MultiLine multiLine = iterative.getValue();
+			assertFalse(iterative.isRecursiveSplit());
+			assertTrue(iterative.isClosed());
+			assertEquals(expected.getPoints(), multiLine.getPoints());
+			assertEquals(recursive.getPerimeter(), iterative.getPerimeter());
+			assertEquals(recursive.getAnnotatedShape().getMap(), 
+					iterative.getAnnotatedShape().getMap());
+		}
+	}
+
+	/** Long chains used to be cut at 10000. */
+	public void testLongChainIsNotTruncated() {
+		ChainCodeHandler handler = new ChainCodeHandler(new AnnotatedShapeImplementation());
+		handler.setup();
+		addSquare(handler, 0, 0, 5000);
+		assertEquals(19999, handler.getLastChain());
+		assertTrue(handler.isClosed());
+		MultiLine multiLine = handler.getValue();
+		//the corners are cut
+		assertEquals(20000. - 4 * (2 - Math.sqrt(2)), handler.getPerimeter(), 1e-9);
+		assertEquals(5, multiLine.getPoints().size());
+	}
+
+	public void testMaxLength() {
+		ChainCodeHandler handler = new ChainCodeHandler(new AnnotatedShapeImplementation());
+		handler.setup();
+		handler.setMaxLength(2000);
+		handler.setFirstPoint(0, 0);
+		for (int i = 0; i < 2000; i++)
+			assertTrue(handler.addChainCode((byte)Constants.RIGHT));
+		assertFalse(handler.addChainCode((byte)Constants.RIGHT));
+		assertEquals(1999, handler.getLastChain());
+	}
+
+	/** reuse() makes a handler with room for the image the first time, and
+	 * after that gives back the same handler for the new shape. */
+	public void testReuse() {
+		AnnotatedShapeImplementation first = new AnnotatedShapeImplementation();
+		ChainCodeHandler handler = ChainCodeHandler.reuse(null, first, 10, 20);
+		assertSame(first, handler.getAnnotatedShape());
+		assertEquals(4 * 10 * 20 + 4, handler.getMaxLength());
+		AnnotatedShapeImplementation second = new AnnotatedShapeImplementation();
+		assertSame(handler, ChainCodeHandler.reuse(handler, second, 10, 20));
+		assertSame(second, handler.getAnnotatedShape());
+		assertEquals(ChainCodeHandler.MAX_CHAIN_CODE_LENGTH, 
+				ChainCodeHandler.reuse(null, first, 100000, 100000).getMaxLength());
+	}
+
+	/** After reset() the buffer is reused and the result is the same as
+	 * for a new handler. */
+	public void testReset() {
+		ChainCodeHandler handler = new ChainCodeHandler(new AnnotatedShapeImplementation());
+		handler.setup();
+		addSquare(handler, 0, 0, 3000);
+		handler.getValue();
+		byte[] buffer = handler.getChainCodeForMultiLine();
+		AnnotatedShapeImplementation annotatedShape = new AnnotatedShapeImplementation();
+		handler.reset(annotatedShape);
+		assertSame(annotatedShape, handler.getAnnotatedShape());
+		addSquare(handler, 10, 20, 10);
+		MultiLine multiLine = handler.getValue();
+		assertSame(buffer, handler.getChainCodeForMultiLine());
+
+		ChainCodeHandler newHandler = new ChainCodeHandler(new AnnotatedShapeImplementation());
+		newHandler.setup();
+		addSquare(newHandler, 10, 20, 10);
+		MultiLine expected = newHandler.getValue();
+		assertEquals(newHandler.getPerimeter(), handler.getPerimeter());
+		assertEquals(expected.getPoints(), multiLine.getPoints());
+		assertEquals(newHandler.getAnnotatedShape().getMap(), annotatedShape.getMap());
+	}
+}
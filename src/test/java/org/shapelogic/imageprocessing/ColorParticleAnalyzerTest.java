@@ -1,12 +1,18 @@
 package org.shapelogic.imageprocessing;
 
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
 import java.util.NoSuchElementException;
 
+import org.shapelogic.color.ColorSpace;
 import org.shapelogic.color.IColorAndVariance;
 import org.shapelogic.color.ValueAreaFactory;
+import org.shapelogic.imageutil.PixelArea;
 import org.shapelogic.imageutil.SLImage;
 import org.shapelogic.logic.CommonLogicExpressions;
 import org.shapelogic.polygon.BBox;
+import org.shapelogic.polygon.Polygon;
 import org.shapelogic.streamlogic.StreamNames;
 import org.shapelogic.streams.NumberedStream;
 import org.shapelogic.streams.StreamFactory;
@@ -117,6 +123,163 @@ public class ColorParticleAnalyzerTest extends AbstractImageProcessingTests {
 		assertEquals("Flat", letterStream.get(1));
 	}
 
+	/** Same as testBlobsGifToMask() but with the label image segmentation. */
+	public void testBlobsGifToMaskLabelMode() {
+		String fileName = "blobs";
+        _particleCounter.setMaxDistance(100);
+        _particleCounter.setMinPixelsInArea(7);
+        _particleCounter.setIterations(3);
+        _particleCounter.setToMask(true);
+        _particleCounter.setLabelMode(true);
+		SLImage bp = runPluginFilterOnBufferedImage(filePath(fileName), _particleCounter);
+		assertEquals(256,bp.getWidth());
+		int pixel = bp.get(0,0);
+		assertEquals(0,pixel);
+		ValueAreaFactory factory = _particleCounter.getSegmentation().getSegmentAreaFactory();
+		assertEquals(65,factory.getStore().size()); 
+		assertEquals(62,_particleCounter.getParticleCount()); 
+		StreamFactory streamFactory = new StreamFactory(_particleCounter);
+		NumberedStream<Number> ns = streamFactory.findNumberedStream(CommonLogicExpressions.ASPECT_RATIO);
+		assertClose(0.9, ns.get(0).doubleValue(), 0.1);
+		assertClose(2, ns.get(1).doubleValue(), 0.1);
+		//the polygons from the label contours are the ones the EdgeTracer finds
+		for (int i = 0; i < _particleCounter.getParticleCount(); i++) {
+			PixelArea pixelArea = _particleCounter._particlesFiltered.get(i).getPixelArea();
+			Polygon expected = _particleCounter._edgeTracer.autoOutline(
+					pixelArea.getStartX(), pixelArea.getStartY());
+			Polygon polygon = _particleCounter._polygonStream.get(i);
+			assertEquals(expected.getPerimeter(), polygon.getPerimeter());
+			assertEquals(expected.getPoints(), polygon.getPoints());
+		}
+	}
+
+	/** Area, perimeter, circularity and bounding box from the segmentation. */
+	public void testBlobsGifFeatureMode() {
+		String fileName = "blobs";
+        _particleCounter.setMaxDistance(100);
+        _particleCounter.setMinPixelsInArea(7);
+        _particleCounter.setIterations(3);
+        _particleCounter.setFeatureMode(true);
+		runPluginFilterOnBufferedImage(filePath(fileName), _particleCounter);
+		assertTrue(_particleCounter.isLabelMode());
+		assertEquals(62,_particleCounter.getParticleCount()); 
+		StreamFactory streamFactory = new StreamFactory(_particleCounter);
+		NumberedStream<Double> xMinStream = streamFactory.findNumberedStream(Headings.BOUNDING_BOX_X_MIN);
+		NumberedStream<Integer> areaStream = _particleCounter._areaStream;
+		NumberedStream<Double> perimeterStream = _particleCounter._perimeterStream;
+		for (int i = 0; i < _particleCounter.getParticleCount(); i++) {
+			IColorAndVariance particle = _particleCounter._particlesFiltered.get(i);
+			ParticleFeatures features = _particleCounter.getParticleFeatures(particle);
+			assertNotNull(features);
+			assertEquals(particle.getPixelArea().getBoundingBox().minVal.getX(), xMinStream.get(i));
+			assertEquals(features.getArea(), areaStream.get(i).intValue());
+			assertEquals(particle.getArea() - 1, features.getArea());
+			assertEquals((double)features.getPerimeter(), perimeterStream.get(i));
+			assertTrue(0. < features.getCircularity() && features.getCircularity() < 1.);
+		}
+		_particleCounter.setFeatureMode(false);
+		assertFalse(_particleCounter.isLabelMode());
+	}
+
+	/** The second run reads the polygons from the cache. */
+	public void testBlobsGifPolygonCache() throws Exception {
+		File cacheDirectory = File.createTempFile("polygoncache", "");
+		cacheDirectory.delete();
+		try {
+			PolygonCache cache = new PolygonCache(cacheDirectory);
+			String fileName = "blobs";
+			_particleCounter.setMaxDistance(100);
+			_particleCounter.setMinPixelsInArea(7);
+			_particleCounter.setIterations(3);
+			_particleCounter.setPolygonCache(cache);
+			runPluginFilterOnBufferedImage(filePath(fileName), _particleCounter);
+			assertFalse(_particleCounter.isPolygonsFromCache());
+			assertEquals(1, cacheDirectory.listFiles().length);
+			StreamFactory streamFactory = new StreamFactory(_particleCounter);
+			NumberedStream<String> expected = streamFactory.findNumberedStream(StreamNames.CATEGORY);
+
+			ColorParticleAnalyzer cached = new ColorParticleAnalyzerIJ();
+			cached.setDisplayTable(false);
+			cached.setMaxDistance(100);
+			cached.setMinPixelsInArea(7);
+			cached.setIterations(3);
+			cached.setPolygonCache(cache);
+			runPluginFilterOnBufferedImage(filePath(fileName), cached);
+			assertTrue(cached.isPolygonsFromCache());
+			assertEquals(62, cached.getParticleCount()); 
+			NumberedStream<String> letterStream = 
+				new StreamFactory(cached).findNumberedStream(StreamNames.CATEGORY);
+			for (int i = 0; i < cached.getParticleCount(); i++)
+				assertEquals(expected.get(i), letterStream.get(i));
+			assertEquals(_particleCounter._perimeterStream.get(0), cached._perimeterStream.get(0));
+		}
+		finally {
+			for (File file: cacheDirectory.listFiles())
+				file.delete();
+			cacheDirectory.delete();
+		}
+	}
+
+	/** Other segmentation settings give another key, and an entry with 
+	 * polygons for other particles is not used. */
+	public void testBlobsGifPolygonCacheMiss() throws Exception {
+		File cacheDirectory = File.createTempFile("polygoncache", "");
+		cacheDirectory.delete();
+		try {
+			PolygonCache cache = new PolygonCache(cacheDirectory);
+			String fileName = "blobs";
+			_particleCounter.setMaxDistance(100);
+			_particleCounter.setMinPixelsInArea(7);
+			_particleCounter.setIterations(3);
+			_particleCounter.setPolygonCache(cache);
+			runPluginFilterOnBufferedImage(filePath(fileName), _particleCounter);
+			assertFalse(_particleCounter.isPolygonsFromCache());
+			String key = _particleCounter._polygonCacheKey;
+
+			ColorParticleAnalyzer otherColorSpace = new ColorParticleAnalyzerIJ();
+			otherColorSpace.setDisplayTable(false);
+			otherColorSpace.setMaxDistance(100);
+			otherColorSpace.setMinPixelsInArea(7);
+			otherColorSpace.setIterations(3);
+			otherColorSpace.setColorSpace(ColorSpace.LAB);
+			otherColorSpace.setPolygonCache(cache);
+			runPluginFilterOnBufferedImage(filePath(fileName), otherColorSpace);
+			assertFalse(otherColorSpace.isPolygonsFromCache());
+			assertFalse(key.equals(otherColorSpace._polygonCacheKey));
+
+			ColorParticleAnalyzer labelMode = new ColorParticleAnalyzerIJ();
+			labelMode.setDisplayTable(false);
+			labelMode.setMaxDistance(100);
+			labelMode.setMinPixelsInArea(7);
+			labelMode.setIterations(3);
+			labelMode.setLabelMode(true);
+			labelMode.setPolygonCache(cache);
+			runPluginFilterOnBufferedImage(filePath(fileName), labelMode);
+			assertFalse(labelMode.isPolygonsFromCache());
+			assertEquals(3, cacheDirectory.listFiles().length);
+
+			//same key, but the polygons are in the wrong order
+			List<Polygon> polygons = cache.get(key);
+			Collections.reverse(polygons);
+			cache.put(key, polygons);
+			ColorParticleAnalyzer wrongPolygons = new ColorParticleAnalyzerIJ();
+			wrongPolygons.setDisplayTable(false);
+			wrongPolygons.setMaxDistance(100);
+			wrongPolygons.setMinPixelsInArea(7);
+			wrongPolygons.setIterations(3);
+			wrongPolygons.setPolygonCache(cache);
+			runPluginFilterOnBufferedImage(filePath(fileName), wrongPolygons);
+			assertFalse(wrongPolygons.isPolygonsFromCache());
+			assertEquals(key, wrongPolygons._polygonCacheKey);
+			assertEquals(_particleCounter._perimeterStream.get(0), wrongPolygons._perimeterStream.get(0));
+		}
+		finally {
+			for (File file: cacheDirectory.listFiles())
+				file.delete();
+			cacheDirectory.delete();
+		}
+	}
+
 	public void testEmbryos() {
 		String fileName = "embryos6";
         _particleCounter.setMaxDistance(100);
@@ -166,6 +329,20 @@ public class ColorParticleAnalyzerTest extends AbstractImageProcessingTests {
 		assertEquals(new Double(171), xMinStream.get(1));
     }
 
+	/** Segment and trace with the distance in LAB. */
+	public void testEmbryosLab() {
+		String fileName = "embryos6";
+        _particleCounter.setColorSpace(ColorSpace.LAB);
+        _particleCounter.setMaxDistance(15);
+		SLImage bp = runPluginFilterOnBufferedImage(filePath(fileName,".jpg"), _particleCounter);
+		assertEquals(256,bp.getWidth());
+		assertEquals(ColorSpace.LAB, ((SBColorCompare) 
+				_particleCounter.getSegmentation().getPixelCompare()).getColorSpace());
+		assertTrue(_particleCounter.isParticleImage());
+		assertEquals(21,_particleCounter.getSegmentation().getSegmentAreaFactory().getStore().size());
+		assertEquals("Should have 6 particles for this setting.", 6,_particleCounter.getParticleCount());
+	}
+
 	public void testEmbryosToMask() {
 		String fileName = "embryos6";
         _particleCounter.setToMask(true);
@@ -1,11 +1,16 @@
 package org.shapelogic.imageprocessing;
 
 import java.util.List;
+import org.shapelogic.color.ColorAndVariance;
 import org.shapelogic.color.ColorHypothesis;
+import org.shapelogic.color.IColorAndVariance;
 import org.shapelogic.color.IColorRange;
+import org.shapelogic.color.SimpleColorHypothesis;
 import static org.shapelogic.imageutil.ImageUtil.runPluginFilterOnBufferedImage;
 
+import org.shapelogic.imageutil.SLBufferedImage;
 import org.shapelogic.imageutil.SLImage;
+import org.shapelogic.imageutil.SLIntRGBImage;
 
 /** Test DistanceBasedColorHypothesisFinder.<br />
  * 
@@ -122,4 +127,55 @@ public class DistanceBasedColorHypothesisFinderTest  extends AbstractImageProces
 		assertEquals(3,_colorHypothesisFinder.getColorHypothesis().getColors().size()); 
 	}
 
+	/** A big mostly white image should only need a small sample. */
+	public void testSamplingUniformImage() {
+		SLIntRGBImage image = new SLIntRGBImage(1000, 800);
+		for (int y = 0; y < 800; y++) {
+			for (int x = 0; x < 1000; x++) {
+				boolean spot = 300 <= x && x < 500 && 200 <= y && y < 400;
+				image.set(x, y, spot ? 0x101010 : 0xfefefe - (x + y) % 3);
+			}
+		}
+		DistanceBasedColorHypothesisFinder finder = 
+			new DistanceBasedColorHypothesisFinder(null, image, 30.);
+		finder.setSampling(true);
+		ColorHypothesis colorHypothesis = finder.findBestColorHypothesis();
+		assertTrue(finder.getSampleSize() < image.getPixelCount() / 10);
+		assertTrue(1 < finder.getSampleStride());
+		assertEquals(2, colorHypothesis.getColors().size());
+		IColorAndVariance background = colorHypothesis.getBackground();
+		assertNotNull(background);
+		assertEquals(0.95, background.getArea() / (double)finder.getSampleSize(), 0.01);
+		assertTrue(Math.abs(0xfd - background.getMeanRed()) <= 1);
+		assertTrue(Math.abs(0xfd - background.getMeanBlue()) <= 1);
+	}
+
+	/** A small image ends up using all the pixels. */
+	public void testSamplingSmallImage() {
+		SLImage image = new SLBufferedImage(filePath("spot1Noise5",".jpg"));
+		DistanceBasedColorHypothesisFinder finder = 
+			new DistanceBasedColorHypothesisFinder(null, image, 30.);
+		finder.setSampling(true);
+		finder.findBestColorHypothesis();
+		assertEquals(1, finder.getSampleStride());
+		assertEquals(image.getPixelCount(), finder.getSampleSize());
+		assertEquals(2, finder.getColorHypothesis().getColors().size());
+	}
+	/** Before any pixels have been handled the background is found
+	 * relative to the whole image. */
+	public void testFindBestBackgroundBeforeSampling() {
+		SLIntRGBImage image = new SLIntRGBImage(10, 10);
+		DistanceBasedColorHypothesisFinder finder = 
+			new DistanceBasedColorHypothesisFinder(null, image, 30.);
+		ColorHypothesis colorHypothesis = new SimpleColorHypothesis();
+		ColorAndVariance color = new ColorAndVariance();
+		for (int i = 0; i < 40; i++)
+			color.putPixel(i % 10, i / 10, 0xffffff);
+		colorHypothesis.addColor(color);
+		assertNull(finder.findBestBackground(colorHypothesis));
+		for (int i = 40; i < 60; i++)
+			color.putPixel(i % 10, i / 10, 0xffffff);
+		assertSame(color, finder.findBestBackground(colorHypothesis));
+	}
+
 }
@@ -1,6 +1,8 @@
 package org.shapelogic.imageprocessing;
 
+import org.shapelogic.imageutil.SLBufferedImage;
 import org.shapelogic.imageutil.SLImage;
+import org.shapelogic.polygon.Polygon;
 
 
 /** Test of EdgeTracer.<br />
@@ -20,4 +22,30 @@ public class EdgeTracerTest extends EdgeTracerTests {
 	public void setUp() {
 	}
 	
+	/** Tracing with the inside mask should give the same polygons. */
+	public void testInsideMaskSameAsColors() {
+		SLImage image = new SLBufferedImage(filePath("blobs"));
+		int background = image.get(0, 0);
+		EdgeTracer colorTracer = new EdgeTracer(image, background, 50, false);
+		EdgeTracer maskTracer = new EdgeTracer(image, background, 50, false);
+		InsideMask insideMask = maskTracer.makeInsideMask();
+		assertSame(insideMask, maskTracer.getInsideMask());
+		assertTrue(0 < insideMask.count());
+		int traced = 0;
+		for (int y = 5; y < image.getHeight(); y += 20) {
+			for (int x = 5; x < image.getWidth(); x += 20) {
+				if (!insideMask.get(x, y))
+					continue;
+				Polygon expected = colorTracer.autoOutline(x, y);
+				Polygon polygon = maskTracer.autoOutline(x, y);
+				assertEquals(expected.getPerimeter(), polygon.getPerimeter());
+				assertEquals(expected.getPoints(), polygon.getPoints());
+				assertEquals(expected.getBBox().minVal, polygon.getBBox().minVal);
+				assertEquals(expected.getBBox().maxVal, polygon.getBBox().maxVal);
+				traced++;
+			}
+		}
+		assertTrue(10 < traced);
+	}
+	
 }
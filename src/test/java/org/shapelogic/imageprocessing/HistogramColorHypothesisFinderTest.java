@@ -0,0 +1,114 @@
+package org.shapelogic.imageprocessing;
+
+import static org.shapelogic.imageutil.ImageUtil.runPluginFilterOnBufferedImage;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+import org.shapelogic.color.ColorHypothesis;
+import org.shapelogic.color.IColorAndVariance;
+import org.shapelogic.color.IColorRange;
+import org.shapelogic.imageutil.SLBufferedImage;
+import org.shapelogic.imageutil.SLImage;
+import org.shapelogic.imageutil.SLShortGrayImage;
+
+/** Test HistogramColorHypothesisFinder.<br />
+ * 
+ * @author Sami Badawi
+ *
+ */
+public class HistogramColorHypothesisFinderTest extends AbstractImageProcessingTests {
+	HistogramColorHypothesisFinder _colorHypothesisFinder;
+	
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		_dirURL = "./src/test/resources/images/particles";
+		_fileFormat = ".gif";
+		_colorHypothesisFinder = new HistogramColorHypothesisFinder();
+	}
+	
+	public void testOneWhitePixelGrayGif() {
+		String fileName = "oneWhitePixelGray";
+		SLImage bp = runPluginFilterOnBufferedImage(filePath(fileName), _colorHypothesisFinder);
+		assertEquals(1,bp.getWidth());
+		assertEquals(1,_colorHypothesisFinder.getColorHypothesis().getColors().size()); 
+	}
+
+	public void testSpot1Clean() {
+		String fileName = "spot1Clean";
+		SLImage bp = runPluginFilterOnBufferedImage(filePath(fileName,".png"), _colorHypothesisFinder);
+		assertTrue(bp.isRgb());
+		ColorHypothesis colorHypothesis = _colorHypothesisFinder.getColorHypothesis();
+		assertEquals(2,colorHypothesis.getColors().size()); 
+		assertNotNull(colorHypothesis.getBackground());
+		assertEquals(0xffffff, ((IColorRange)colorHypothesis.getBackground()).getMeanColor());
+		int area = 0;
+		for (IColorAndVariance color: colorHypothesis.getColors()) {
+			area += color.getArea();
+			assertEquals(color.getArea(), color.getPixelArea().getArea());
+		}
+		assertEquals(bp.getPixelCount(), area);
+	}
+
+	public void testSpot1Noise5Jpg2Iterations() {
+		String fileName = "spot1Noise5";
+		_colorHypothesisFinder.setIterations(2);
+		_colorHypothesisFinder.setNumberOfThreads(2);
+		SLImage bp = runPluginFilterOnBufferedImage(filePath(fileName,".jpg"), _colorHypothesisFinder);
+		assertTrue(bp.isRgb());
+		assertEquals(2,_colorHypothesisFinder.getColorHypothesis().getColors().size());
+		List<IColorRange> colors = (List)_colorHypothesisFinder.getColorHypothesis().getColors();
+		assertTrue(Math.abs(6 - colors.get(0).getColorChannels()[0]) <= 2); 
+		assertTrue(Math.abs(250 - colors.get(1).getColorChannels()[0]) <= 2); 
+	}
+
+	/** 16 bit gray values that are the same in the low byte get different bins. */
+	public void testGray16() {
+		SLShortGrayImage image = new SLShortGrayImage(20, 10);
+		for (int y = 0; y < 10; y++) {
+			for (int x = 0; x < 20; x++)
+				image.set(x, y, x < 5 ? 0x8000 : 0x100);
+		}
+		HistogramColorHypothesisFinder finder = new HistogramColorHypothesisFinder(null, image, 30.);
+		ColorHypothesis colorHypothesis = finder.findBestColorHypothesis();
+		assertEquals(65536, finder.getHistogram().getNumberOfBins());
+		assertEquals(2, colorHypothesis.getColors().size());
+		assertEquals(0x100, colorHypothesis.getBackground().getMeanColor());
+		assertEquals(150, colorHypothesis.getBackground().getArea());
+	}
+
+	/** A BufferedImage of TYPE_USHORT_GRAY is 16 bit gray but not isGray(). */
+	public void testGray16BufferedImage() {
+		BufferedImage bufferedImage = new BufferedImage(20, 10, BufferedImage.TYPE_USHORT_GRAY);
+		SLBufferedImage image = new SLBufferedImage(bufferedImage);
+		assertFalse(image.isGray());
+		assertTrue(image.isGray16());
+		for (int y = 0; y < 10; y++) {
+			for (int x = 0; x < 20; x++)
+				image.set(x, y, x < 5 ? 0x8000 : 0x100);
+		}
+		HistogramColorHypothesisFinder finder = new HistogramColorHypothesisFinder(null, image, 30.);
+		ColorHypothesis colorHypothesis = finder.findBestColorHypothesis();
+		assertTrue(finder.getHistogram().isGray16());
+		assertEquals(1, finder.getHistogram().getNumberOfChannels());
+		assertEquals(65536, finder.getHistogram().getNumberOfBins());
+		assertEquals(0x8000, finder.getHistogram().getMeanColor(0x8000));
+		assertEquals(2, colorHypothesis.getColors().size());
+		assertEquals(0x100, colorHypothesis.getBackground().getMeanColor());
+		assertEquals(150, colorHypothesis.getBackground().getArea());
+	}
+
+	/** Far fewer bins than pixels. */
+	public void testEmbryosHistogram() {
+		SLImage bp = runPluginFilterOnBufferedImage(filePath("embryos6",".jpg"), _colorHypothesisFinder);
+		int bins = 0;
+		for (int bin = 0; bin < _colorHypothesisFinder.getHistogram().getNumberOfBins(); bin++) {
+			if (0 < _colorHypothesisFinder.getHistogram().getCount(bin))
+				bins++;
+		}
+		assertTrue(bins < bp.getPixelCount() / 10);
+		assertEquals(bp.getPixelCount(), _colorHypothesisFinder.getHistogram().getPixelCount());
+		assertNotNull(_colorHypothesisFinder.getColorHypothesis().getBackground());
+	}
+}
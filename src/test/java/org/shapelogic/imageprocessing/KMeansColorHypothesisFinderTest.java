@@ -0,0 +1,118 @@
+package org.shapelogic.imageprocessing;
+
+import static org.shapelogic.imageutil.ImageUtil.runPluginFilterOnBufferedImage;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+import org.shapelogic.color.ColorHypothesis;
+import org.shapelogic.color.IColorAndVariance;
+import org.shapelogic.color.IColorRange;
+import org.shapelogic.imageutil.SLBufferedImage;
+import org.shapelogic.imageutil.SLImage;
+import org.shapelogic.imageutil.SLShortGrayImage;
+
+/** Test KMeansColorHypothesisFinder.<br />
+ * 
+ * @author Sami Badawi
+ *
+ */
+public class KMeansColorHypothesisFinderTest extends AbstractImageProcessingTests {
+	KMeansColorHypothesisFinder _colorHypothesisFinder;
+	
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		_dirURL = "./src/test/resources/images/particles";
+		_fileFormat = ".gif";
+		_colorHypothesisFinder = new KMeansColorHypothesisFinder();
+	}
+	
+	public void testOneWhitePixelGrayGif() {
+		String fileName = "oneWhitePixelGray";
+		SLImage bp = runPluginFilterOnBufferedImage(filePath(fileName), _colorHypothesisFinder);
+		assertEquals(1,bp.getWidth());
+		assertEquals(1,_colorHypothesisFinder.getColorHypothesis().getColors().size()); 
+	}
+
+	public void testSpot1Clean() {
+		String fileName = "spot1Clean";
+		SLImage bp = runPluginFilterOnBufferedImage(filePath(fileName,".png"), _colorHypothesisFinder);
+		assertTrue(bp.isRgb());
+		ColorHypothesis colorHypothesis = _colorHypothesisFinder.getColorHypothesis();
+		assertEquals(2,colorHypothesis.getColors().size()); 
+		assertNotNull(colorHypothesis.getBackground());
+		assertEquals(0xffffff, ((IColorRange)colorHypothesis.getBackground()).getMeanColor());
+		int area = 0;
+		for (IColorAndVariance color: colorHypothesis.getColors()) {
+			area += color.getArea();
+			assertEquals(color.getArea(), color.getPixelArea().getArea());
+		}
+		assertEquals(bp.getPixelCount(), area);
+	}
+
+	public void testSpot1Noise5Jpg() {
+		String fileName = "spot1Noise5";
+		_colorHypothesisFinder.setNumberOfThreads(2);
+		SLImage bp = runPluginFilterOnBufferedImage(filePath(fileName,".jpg"), _colorHypothesisFinder);
+		assertTrue(bp.isRgb());
+		assertEquals(2,_colorHypothesisFinder.getColorHypothesis().getColors().size());
+		List<IColorRange> colors = (List)_colorHypothesisFinder.getColorHypothesis().getColors();
+		assertTrue(Math.abs(6 - colors.get(0).getColorChannels()[0]) <= 5); 
+		assertTrue(Math.abs(250 - colors.get(1).getColorChannels()[0]) <= 2); 
+	}
+
+	/** More threads and a small sample should give the same clusters. */
+	public void testThreadsAndSample() {
+		SLImage image = new SLBufferedImage(filePath("embryos6",".jpg"));
+		KMeansColorHypothesisFinder finder = new KMeansColorHypothesisFinder(null, image, 0.);
+		finder.setNumberOfColors(4);
+		finder.setConvergenceThreshold(0.);
+		finder.setNumberOfThreads(1);
+		finder.findBestColorHypothesis();
+		assertTrue(finder.getIteration() <= finder.getIterations());
+		double[][] centers = finder.getCenters();
+		assertEquals(4, centers.length);
+		KMeansColorHypothesisFinder parallel = new KMeansColorHypothesisFinder(null, image, 0.);
+		parallel.setNumberOfColors(4);
+		parallel.setConvergenceThreshold(0.);
+		parallel.setNumberOfThreads(4);
+		parallel.findBestColorHypothesis();
+		for (int k = 0; k < centers.length; k++)
+			for (int c = 0; c < 3; c++)
+				assertEquals(centers[k][c], parallel.getCenters()[k][c], 1e-6);
+		int area = 0;
+		for (IColorAndVariance color: parallel.getColorHypothesis().getColors())
+			area += color.getArea();
+		assertEquals(image.getPixelCount(), area);
+	}
+
+	/** 16 bit gray is clustered on the whole value, not split in bytes, also
+	 * when isGray() is false. */
+	public void testGray16BufferedImage() {
+		BufferedImage bufferedImage = new BufferedImage(20, 10, BufferedImage.TYPE_USHORT_GRAY);
+		SLBufferedImage image = new SLBufferedImage(bufferedImage);
+		assertFalse(image.isGray());
+		assertTrue(image.isGray16());
+		for (int y = 0; y < 10; y++) {
+			for (int x = 0; x < 20; x++)
+				image.set(x, y, x < 5 ? 0x8000 : 0x100);
+		}
+		KMeansColorHypothesisFinder finder = new KMeansColorHypothesisFinder(null, image, 30.);
+		ColorHypothesis colorHypothesis = finder.findBestColorHypothesis();
+		assertEquals(1, finder.getCenters()[0].length);
+		assertEquals(2, colorHypothesis.getColors().size());
+		assertEquals(0x100, colorHypothesis.getBackground().getMeanColor());
+		assertEquals(150, colorHypothesis.getBackground().getArea());
+	}
+
+	/** An empty image gives an empty hypothesis. */
+	public void testEmptyImage() {
+		SLShortGrayImage image = new SLShortGrayImage(0, 0);
+		KMeansColorHypothesisFinder finder = new KMeansColorHypothesisFinder(null, image, 30.);
+		ColorHypothesis colorHypothesis = finder.findBestColorHypothesis();
+		assertNotNull(colorHypothesis);
+		assertTrue(colorHypothesis.getColors().isEmpty());
+		assertNull(colorHypothesis.getBackground());
+	}
+}
@@ -0,0 +1,97 @@
+package org.shapelogic.imageprocessing;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.shapelogic.imageutil.SLBufferedImage;
+import org.shapelogic.imageutil.SLImage;
+import org.shapelogic.polygon.Polygon;
+
+/** Test PolygonCache.
+ * <br />
+ *
+ * @author Sami Badawi
+ *
+ */
+public class PolygonCacheTest extends TestCase {
+	String dir = "./src/test/resources/images/particles";
+	File _cacheDirectory;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		_cacheDirectory = File.createTempFile("polygoncache", "");
+		_cacheDirectory.delete();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		File[] files = _cacheDirectory.listFiles();
+		if (files != null) {
+			for (File file: files)
+				file.delete();
+		}
+		_cacheDirectory.delete();
+		super.tearDown();
+	}
+
+	/** Traced outlines should come back with the same lines and annotations. */
+	public void testTracedPolygons() {
+		SLImage image = new SLBufferedImage(dir, "blobs", ".gif");
+		EdgeTracer edgeTracer = new EdgeTracer(image, image.get(0, 0), 50, false);
+		InsideMask insideMask = edgeTracer.makeInsideMask();
+		List<Polygon> polygons = new ArrayList<Polygon>();
+		for (int y = 5; y < image.getHeight(); y += 20) {
+			for (int x = 5; x < image.getWidth(); x += 20) {
+				if (insideMask.get(x, y))
+					polygons.add(edgeTracer.autoOutline(x, y));
+			}
+		}
+		polygons.add(null);
+		assertTrue(10 < polygons.size());
+		PolygonCache cache = new PolygonCache(_cacheDirectory);
+		String key = PolygonCache.makeKey(image, "maxDistance=50");
+		assertEquals(40, key.length());
+		assertNull(cache.get(key));
+		cache.put(key, polygons);
+		assertTrue(cache.contains(key));
+		List<Polygon> cached = cache.get(key);
+		assertEquals(polygons.size(), cached.size());
+		assertNull(cached.get(cached.size() - 1));
+		for (int i = 0; i < polygons.size() - 1; i++) {
+			Polygon expected = polygons.get(i);
+			Polygon polygon = cached.get(i);
+			assertEquals(expected.getPerimeter(), polygon.getPerimeter());
+			assertEquals(expected.getBBox().minVal, polygon.getBBox().minVal);
+			assertEquals(expected.getBBox().maxVal, polygon.getBBox().maxVal);
+			assertEquals(expected.getCurrentMultiLine().getPoints(),
+					polygon.getCurrentMultiLine().getPoints());
+			assertEquals(expected.getAnnotatedShape().getMap(), polygon.getAnnotatedShape().getMap());
+		}
+	}
+
+	public void testKey() {
+		SLImage image = new SLBufferedImage(dir, "blobs", ".gif");
+		String key = PolygonCache.makeKey(image, "maxDistance=50");
+		assertEquals(key, PolygonCache.makeKey(image, "maxDistance=50"));
+		assertFalse(key.equals(PolygonCache.makeKey(image, "maxDistance=51")));
+		SLImage other = new SLBufferedImage(dir, "embryos6", ".jpg");
+		assertFalse(key.equals(PolygonCache.makeKey(other, "maxDistance=50")));
+	}
+
+	/** A broken file is the same as a missing one. */
+	public void testBrokenFile() throws Exception {
+		PolygonCache cache = new PolygonCache(_cacheDirectory);
+		List<Polygon> polygons = new ArrayList<Polygon>();
+		cache.put("abc", polygons);
+		assertEquals(0, cache.get("abc").size());
+		FileOutputStream out = new FileOutputStream(cache.getFile("abc"));
+		out.write(new byte[] {1, 2, 3});
+		out.close();
+		assertNull(cache.get("abc"));
+	}
+}
@@ -0,0 +1,179 @@
+package org.shapelogic.imageprocessing;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.shapelogic.imageutil.SLBufferedImage;
+import org.shapelogic.imageutil.SLImage;
+import org.shapelogic.polygon.Polygon;
+import org.shapelogic.util.Constants;
+
+/** Test RasterContourExtractor.
+ * <br />
+ *
+ * @author Sami Badawi
+ *
+ */
+public class RasterContourExtractorTest extends AbstractImageProcessingTests {
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		_dirURL = "./src/test/resources/images/particles";
+		_fileFormat = ".gif";
+	}
+
+	/** Labels from rows of text, '.' is background. */
+	int[] makeLabels(String[] rows) {
+		int width = rows[0].length();
+		int[] result = new int[width * rows.length];
+		for (int y = 0; y < rows.length; y++) {
+			for (int x = 0; x < width; x++) {
+				char c = rows[y].charAt(x);
+				if (c != '.')
+					result[y * width + x] = c - '0';
+			}
+		}
+		return result;
+	}
+
+	/** The chain code should stay on the label and end where it started. */
+	void assertClosed(RasterContour contour, int[] labels, int width) {
+		int x = contour.getStartX();
+		int y = contour.getStartY();
+		for (byte direction: contour.getChainCode()) {
+			x += Constants.CYCLE_POINTS_X[direction];
+			y += Constants.CYCLE_POINTS_Y[direction];
+			assertEquals(contour.getLabel(), labels[y * width + x]);
+		}
+		assertEquals(contour.getStartX(), x);
+		assertEquals(contour.getStartY(), y);
+	}
+
+	void assertSameContours(List<RasterContour> expected, List<RasterContour> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).getLabel(), actual.get(i).getLabel());
+			assertEquals(expected.get(i).isHole(), actual.get(i).isHole());
+			assertEquals(expected.get(i).getStartX(), actual.get(i).getStartX());
+			assertEquals(expected.get(i).getStartY(), actual.get(i).getStartY());
+			assertTrue(Arrays.equals(expected.get(i).getChainCode(), actual.get(i).getChainCode()));
+		}
+	}
+
+	/** Ring with 2 holes, a region in a hole, a diagonal pair and a single pixel. */
+	public void testRingWithHoles() {
+		String[] rows = {
+				"..........",
+				".1111111..",
+				".1...1.1..",
+				".1.2.1111.",
+				".1...1..1.",
+				".11111111.",
+				"..........",
+				"3.4......5",
+				"...4......",
+		};
+		int width = rows[0].length();
+		int[] labels = makeLabels(rows);
+		RasterContourExtractor extractor =
+			new RasterContourExtractor(labels, width, rows.length, width, 1);
+		List<RasterContour> contours = extractor.extract();
+		int outer = 0;
+		int holes = 0;
+		for (RasterContour contour: contours) {
+			assertClosed(contour, labels, width);
+			if (contour.isHole()) {
+				holes++;
+				assertEquals(1, contour.getLabel());
+			}
+			else
+				outer++;
+		}
+		//1, 2, 3, 4 twice, 5
+		assertEquals(6, outer);
+		assertEquals(3, holes);
+		RasterContour ring = contours.get(0);
+		assertEquals(1, ring.getStartX());
+		assertEquals(1, ring.getStartY());
+		assertFalse(ring.isHole());
+		assertEquals(22, ring.getLength());
+		RasterContour firstHole = contours.get(1);
+		assertTrue(firstHole.isHole());
+		assertEquals(1, firstHole.getStartX());
+		assertEquals(2, firstHole.getStartY());
+		assertEquals(0, contours.get(contours.size() - 1).getLength());
+		Polygon polygon = ring.makePolygon();
+		assertTrue(polygon.getPerimeter() > 0);
+		assertEquals(1., polygon.getBBox().minVal.getX());
+		assertEquals(8., polygon.getBBox().maxVal.getX());
+		assertEquals(5., polygon.getBBox().maxVal.getY());
+	}
+
+	/** Every region of the label image has one outer contour starting in its
+	 * first pixel, and the bands give the same as one scan. */
+	public void testBlobsParallelSameAsSequential() throws Exception {
+		SLImage image = new SLBufferedImage(filePath("blobs"));
+		SBSegmentation segmentation = makeSegmentation(image);
+		segmentation.setMaxDistance(10);
+		SBLabelSegmentation labeler = new SBLabelSegmentation(segmentation);
+		labeler.segmentAll(image.get(0, 0));
+		RasterContourExtractor extractor = new RasterContourExtractor(labeler);
+		List<RasterContour> sequential = extractor.extract();
+		List<RasterContour> outer = extractor.extractOuter();
+		assertEquals(labeler.getNextLabel() - labeler.getFirstLabel(), outer.size());
+		for (RasterContour contour: outer)
+			assertEquals(contour.getLabel(),
+					labeler.getLabel(contour.getStartX(), contour.getStartY()));
+		for (RasterContour contour: sequential)
+			assertClosed(contour, labeler.getLabels(), image.getLineStride());
+		extractor.setNumberOfThreads(4);
+		assertSameContours(sequential, extractor.extract());
+		assertEquals(outer.size(), RasterContourExtractor.makePolygons(outer).size());
+	}
+
+	/** The polygon from an outer contour is the one EdgeTracer traces from
+	 * the same pixel. */
+	public void testSameAsEdgeTracer() throws Exception {
+		SLImage image = new SLBufferedImage(filePath("blobs"));
+		SBSegmentation segmentation = makeSegmentation(image);
+		segmentation.setMaxDistance(10);
+		SBLabelSegmentation labeler = new SBLabelSegmentation(segmentation);
+		labeler.segmentAll(image.get(0, 0));
+		List<RasterContour> outer = new RasterContourExtractor(labeler).extractOuter();
+		EdgeTracer edgeTracer = new EdgeTracer(image, 0, 10, true);
+		for (RasterContour contour: outer) {
+			edgeTracer.setInsideMask(InsideMask.fromLabels(labeler.getLabels(),
+					image.getWidth(), image.getHeight(), contour.getLabel()));
+			Polygon expected = edgeTracer.autoOutline(contour.getStartX(), contour.getStartY());
+			Polygon polygon = contour.makePolygon();
+			assertEquals(expected.getPerimeter(), polygon.getPerimeter());
+			assertEquals(expected.getPoints(), polygon.getPoints());
+			assertEquals(expected.getBBox().minVal, polygon.getBBox().minVal);
+			assertEquals(expected.getBBox().maxVal, polygon.getBBox().maxVal);
+			assertEquals(expected.getCurrentMultiLine().getPoints(),
+					polygon.getCurrentMultiLine().getPoints());
+		}
+	}
+
+	/** A contour crossing many bands is only kept by the first band. */
+	public void testTallShapeInBands() {
+		int width = 5;
+		int height = 200;
+		InsideMask mask = new InsideMask(width, height);
+		for (int y = 1; y < height - 1; y++) {
+			mask.set(1, y);
+			mask.set(3, y);
+		}
+		mask.set(2, 1);
+		mask.set(2, height - 2);
+		RasterContourExtractor extractor = new RasterContourExtractor(mask);
+		List<RasterContour> sequential = extractor.extract();
+		assertEquals(2, sequential.size());
+		assertFalse(sequential.get(0).isHole());
+		assertTrue(sequential.get(1).isHole());
+		assertEquals(2 * (2 + height - 3), sequential.get(0).getLength());
+		extractor.setNumberOfThreads(3);
+		assertSameContours(sequential, extractor.extract());
+	}
+}
@@ -0,0 +1,133 @@
+package org.shapelogic.imageprocessing;
+
+import org.shapelogic.imageutil.SLBufferedImage;
+import org.shapelogic.imageutil.SLImage;
+
+/** Test SBByteCompare.
+ * <br />
+ *
+ * @author Sami Badawi
+ *
+ */
+public class SBByteCompareTest extends AbstractImageProcessingTests {
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		_dirURL = "./src/test/resources/images/particles";
+		_fileFormat = ".gif";
+	}
+
+	public void testNextUnhandled() throws Exception {
+		SLImage image = new SLBufferedImage(filePath("blobs"));
+		SBSimpleCompare compare = ProcessingFactory.compareFactory(image);
+		assertTrue(compare instanceof SBByteCompare);
+		assertEquals(0, compare.nextUnhandled(0));
+		for (int i = 0; i < 200; i++)
+			compare.setHandled(i);
+		assertEquals(200, compare.nextUnhandled(0));
+		assertEquals(200, compare.nextUnhandled(130));
+		assertEquals(201, compare.nextUnhandled(201));
+		for (int i = 0; i < image.getPixelCount(); i++)
+			compare.setHandled(i);
+		assertTrue(image.getPixelCount() <= compare.nextUnhandled(0));
+	}
+
+	/** The lookup table should give the same as the distance formula, also 
+	 * after many changes of color and distance. */
+	public void testSimilarLookupTable() throws Exception {
+		SLImage image = new SLBufferedImage(filePath("blobs"));
+		SBSimpleCompare compare = ProcessingFactory.compareFactory(image);
+		int[] colors = {0, 40, 45, 255, 300, 128, 127, 0};
+		int[] distances = {0, 10, 3, 1000000000, 20, -1, 255, Integer.MAX_VALUE};
+		for (int i = 0; i < colors.length; i++) {
+			compare.setCurrentColor(colors[i]);
+			compare.setMaxDistance(distances[i]);
+			compare.setFarFromReferencColor(i % 3 == 0);
+			for (int index = 0; index < image.getPixelCount(); index += 7) {
+				int diff = Math.abs(compare.getColorAsInt(index) - colors[i]);
+				boolean expected = (diff <= distances[i]) ^ (i % 3 == 0);
+				assertEquals(expected, compare.similar(index));
+			}
+		}
+		compare.setFarFromReferencColor(true);
+		compare.grabColorFromPixel(10, 10);
+		assertFalse(compare.similar(10 * image.getWidth() + 10));
+		compare.setFarFromReferencColor(false);
+		assertTrue(compare.similar(10 * image.getWidth() + 10));
+	}
+
+	/** After the background is segmented next() should find the same particles. */
+	public void testNextAfterSegmentAll() throws Exception {
+		SLImage image = new SLBufferedImage(filePath("blobs"));
+		SBSegmentation segmentation = new SBSegmentation();
+		segmentation.setSLImage(image);
+		segmentation.setPixelCompare(ProcessingFactory.compareFactory(image));
+		segmentation.init();
+		segmentation.segmentAll(image.get(0,0));
+		int backgroundPixels = segmentation.getPixelCompare().getNumberOfPixels();
+		assertTrue(0 < backgroundPixels);
+		int particles = 0;
+		int particlePixels = 0;
+		segmentation.setMaxDistance(1000000000);
+		while (segmentation.hasNext()) {
+			if (segmentation.next() == null)
+				break;
+			particles++;
+			particlePixels += segmentation.getCurrentArea();
+		}
+		assertEquals(image.getPixelCount(), backgroundPixels + particlePixels);
+		assertEquals(image.getPixelCount(), segmentation.getPixelCompare().getNumberOfPixels());
+		assertTrue(0 < particles);
+	}
+
+	/** With everything handled except one pixel near the bottom, next() and
+	 * segmentAll() should go straight to that pixel. */
+	public void testSkipHandledLines() throws Exception {
+		SLImage image = new SLBufferedImage(filePath("blobs"));
+		int x = 5;
+		int y = image.getHeight() - 2;
+		int unhandledIndex = y * image.getLineStride() + x;
+		for (int pass = 0; pass < 2; pass++) {
+			SBSegmentation segmentation = new SBSegmentation();
+			segmentation.setSLImage(image);
+			SBSimpleCompare compare = ProcessingFactory.compareFactory(image);
+			segmentation.setPixelCompare(compare);
+			segmentation.init();
+			segmentation.setMaxDistance(1000000000);
+			for (int i = 0; i < image.getPixelCount(); i++) {
+				if (i != unhandledIndex)
+					compare.setHandled(i);
+			}
+			if (pass == 0) {
+				assertNotNull(segmentation.next());
+				assertNull(segmentation.next());
+			}
+			else
+				segmentation.segmentAll(image.get(x, y));
+			assertEquals(1, segmentation.getCurrentArea());
+			assertTrue(compare.isHandled(unhandledIndex));
+			assertEquals(image.getPixelCount(), compare.getNumberOfPixels());
+		}
+	}
+
+	/** Without area objects a region over the max area should stop storing 
+	 * its spans as soon as it gets too big. */
+	public void testMaxAreaInCountOnlyMode() throws Exception {
+		SLImage image = new SLBufferedImage(filePath("blobs"));
+		SBSegmentation segmentation = new SBSegmentation();
+		segmentation.setSLImage(image);
+		segmentation.setPixelCompare(ProcessingFactory.compareFactory(image));
+		segmentation.init();
+		segmentation.setSpanStackMode(true);
+		segmentation.setCountOnly(true);
+		segmentation.setAreaBounds(0, 10);
+		int background = image.get(0, 0);
+		segmentation.setReferenceColor(background);
+		segmentation.getPixelCompare().setCurrentColor(background);
+		segmentation.segment(0, 0, true);
+		assertTrue(1000 < segmentation.getCurrentArea());
+		assertTrue(segmentation.getCurrentSpans().size() < 10);
+		assertEquals(0, segmentation.getAreasInBounds());
+	}
+}
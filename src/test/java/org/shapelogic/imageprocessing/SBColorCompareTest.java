@@ -0,0 +1,128 @@
+package org.shapelogic.imageprocessing;
+
+import org.shapelogic.color.ColorSpace;
+import org.shapelogic.color.LabColorDistance;
+import org.shapelogic.imageutil.SLBufferedImage;
+import org.shapelogic.imageutil.SLImage;
+
+/** Test SBColorCompare.
+ * <br />
+ *
+ * @author Sami Badawi
+ *
+ */
+public class SBColorCompareTest extends AbstractImageProcessingTests {
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		_dirURL = "./src/test/resources/images/particles";
+		_fileFormat = ".jpg";
+	}
+
+	/** newSimilarRow() should give the same as newSimilar() pixel by pixel. */
+	void assertRowSameAsPixels(SBSimpleCompare compare, int numberOfPixels) {
+		boolean[] row = new boolean[numberOfPixels];
+		compare.newSimilarRow(0, numberOfPixels, row);
+		for (int i = 0; i < numberOfPixels; i++)
+			assertEquals("index " + i, compare.newSimilar(i), row[i]);
+	}
+
+	public void testNewSimilarRow() throws Exception {
+		SLImage image = new SLBufferedImage(filePath("embryos6"));
+		assertTrue(image.isRgb());
+		SBSimpleCompare compare = ProcessingFactory.compareFactory(image);
+		assertTrue(compare instanceof SBColorCompare);
+		compare.setCurrentColor(image.get(0,0));
+		for (int i = 0; i < image.getPixelCount(); i += 3)
+			compare.setHandled(i);
+		compare.setMaxDistance(0);
+		assertRowSameAsPixels(compare, image.getPixelCount());
+		compare.setMaxDistance(30);
+		assertRowSameAsPixels(compare, image.getPixelCount());
+		compare.setFarFromReferencColor(true);
+		assertRowSameAsPixels(compare, image.getPixelCount());
+	}
+
+	/** With LAB the max distance is Delta E to the current color. */
+	public void testLabColorSpace() throws Exception {
+		SLImage image = new SLBufferedImage(filePath("embryos6"));
+		SBColorCompare compare = (SBColorCompare) ProcessingFactory.compareFactory(image);
+		compare.setColorSpace(ColorSpace.LAB);
+		int referenceColor = image.get(0,0);
+		compare.setCurrentColor(referenceColor);
+		compare.setMaxDistance(10);
+		LabColorDistance distance = new LabColorDistance();
+		int numberOfSimilar = 0;
+		for (int i = 0; i < image.getPixelCount(); i++) {
+			boolean expected = distance.distance(referenceColor, image.get(i)) <= 10;
+			assertEquals("index " + i, expected, compare.similar(i));
+			if (expected)
+				numberOfSimilar++;
+		}
+		assertTrue(0 < numberOfSimilar && numberOfSimilar < image.getPixelCount());
+		assertRowSameAsPixels(compare, image.getPixelCount());
+		SBColorCompare copy = (SBColorCompare) compare.copyForThread();
+		assertEquals(ColorSpace.LAB, copy.getColorSpace());
+		copy.setCurrentColor(image.get(128, 128));
+		assertRowSameAsPixels(compare, image.getPixelCount());
+		for (int i = 0; i < image.getPixelCount(); i += 97)
+			assertEquals(distance.distance(image.get(128, 128), image.get(i)) <= 10, 
+					copy.similar(i));
+	}
+
+	public void testNewSimilarRowOffset() throws Exception {
+		SLImage image = new SLBufferedImage(filePath("embryos6"));
+		SBSimpleCompare compare = ProcessingFactory.compareFactory(image);
+		compare.setCurrentColor(image.get(5,5));
+		compare.setMaxDistance(20);
+		boolean[] row = new boolean[image.getWidth()];
+		int fromIndex = 5 * image.getWidth() + 3;
+		compare.newSimilarRow(fromIndex, 10, row);
+		for (int i = 0; i < 10; i++)
+			assertEquals(compare.newSimilar(fromIndex + i), row[i]);
+		assertTrue(row[2]);
+	}
+
+	/** A segment seeded from a pixel in LAB should be the 4 connected pixels
+	 * in range of the color of that pixel, not of the earlier color. */
+	public void testLabSegmentFromPixel() throws Exception {
+		SLImage image = new SLBufferedImage(filePath("embryos6"));
+		SBSegmentation segmentation = makeSegmentation(image);
+		SBColorCompare compare = (SBColorCompare) segmentation.getPixelCompare();
+		compare.setColorSpace(ColorSpace.LAB);
+		compare.setCurrentColor(image.get(0,0));
+		compare.setMaxDistance(10);
+		int x = 128;
+		int y = 128;
+		compare.grabColorFromPixel(x, y);
+		segmentation.segment(x, y, false);
+		int seedColor = image.get(x, y);
+		LabColorDistance distance = new LabColorDistance();
+		int width = image.getWidth();
+		int height = image.getHeight();
+		boolean[] visited = new boolean[width * height];
+		int[] stack = new int[width * height];
+		int size = 0;
+		int area = 0;
+		stack[size++] = y * width + x;
+		visited[y * width + x] = true;
+		while (0 < size) {
+			int index = stack[--size];
+			area++;
+			int px = index % width;
+			int py = index / width;
+			int[] neighbors = {px > 0 ? index - 1 : -1, px < width - 1 ? index + 1 : -1, 
+					py > 0 ? index - width : -1, py < height - 1 ? index + width : -1};
+			for (int neighbor: neighbors) {
+				if (neighbor < 0 || visited[neighbor] || 
+						10 < distance.distance(seedColor, image.get(neighbor)))
+					continue;
+				visited[neighbor] = true;
+				stack[size++] = neighbor;
+			}
+		}
+		assertTrue(1 < area);
+		assertEquals(area, segmentation.getCurrentArea());
+	}
+}
@@ -0,0 +1,163 @@
+package org.shapelogic.imageprocessing;
+
+import java.util.List;
+
+import org.shapelogic.color.IColorAndVariance;
+import org.shapelogic.color.ValueAreaFactory;
+import org.shapelogic.imageutil.PixelArea;
+import org.shapelogic.imageutil.SLBufferedImage;
+import org.shapelogic.imageutil.SLImage;
+
+import static org.shapelogic.imageutil.ImageUtil.runPluginFilterOnBufferedImage;
+
+/** Test SBLabelSegmentation.
+ * <br />
+ *
+ * @author Sami Badawi
+ *
+ */
+public class SBLabelSegmentationTest extends AbstractImageProcessingTests {
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		_dirURL = "./src/test/resources/images/particles";
+		_fileFormat = ".gif";
+	}
+
+	/** Run the 2 segmentation steps of the particle counter both ways. */
+	void assertSameAsSequential(String filePath) throws Exception {
+		SLImage image = new SLBufferedImage(filePath);
+		int referenceColor = image.get(0,0);
+		SBSegmentation sequential = makeSegmentation(image);
+		SBSegmentation labeled = makeSegmentation(image);
+		sequential.setMaxDistance(10);
+		labeled.setMaxDistance(10);
+		SBLabelSegmentation labeler = new SBLabelSegmentation(labeled);
+		sequential.segmentAll(referenceColor);
+		labeler.segmentAll(referenceColor);
+		assertSameAreas(sequential, labeled);
+		assertEquals(1, labeler.getFirstLabel());
+		sequential.setMaxDistance(1000000000);
+		labeled.setMaxDistance(1000000000);
+		while (sequential.hasNext())
+			sequential.next();
+		int firstParticle = labeler.getNextLabel();
+		labeler.segmentAll(referenceColor);
+		assertSameAreas(sequential, labeled);
+		assertEquals(image.getPixelCount(), labeled.getPixelCompare().getNumberOfPixels());
+		assertEquals(firstParticle, labeler.getFirstLabel());
+		assertLabels(labeler, labeled);
+	}
+
+	void assertSameAreas(SBSegmentation sequential, SBSegmentation labeled) {
+		assertEquals(sequential.getPixelCompare().getNumberOfPixels(),
+				labeled.getPixelCompare().getNumberOfPixels());
+		List<IColorAndVariance> expected = sequential.getSegmentAreaFactory().getStore();
+		List<IColorAndVariance> actual = labeled.getSegmentAreaFactory().getStore();
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			IColorAndVariance expectedArea = expected.get(i);
+			IColorAndVariance actualArea = actual.get(i);
+			assertEquals(expectedArea.getArea(), actualArea.getArea());
+			assertEquals(expectedArea.getMeanColor(), actualArea.getMeanColor());
+			assertEquals(expectedArea.getStandardDeviation(), actualArea.getStandardDeviation(), 0.0001);
+			PixelArea expectedPixelArea = expectedArea.getPixelArea();
+			PixelArea actualPixelArea = actualArea.getPixelArea();
+			assertEquals(expectedPixelArea.getArea(), actualPixelArea.getArea());
+			assertEquals(expectedPixelArea.getStartX(), actualPixelArea.getStartX());
+			assertEquals(expectedPixelArea.getStartY(), actualPixelArea.getStartY());
+			assertEquals(expectedPixelArea.getBoundingBox().minVal, actualPixelArea.getBoundingBox().minVal);
+			assertEquals(expectedPixelArea.getBoundingBox().maxVal, actualPixelArea.getBoundingBox().maxVal);
+			assertEquals(expectedPixelArea.getCenterPoint(), actualPixelArea.getCenterPoint());
+		}
+	}
+
+	/** The start pixel of each area has the label of the area, and all pixels are labeled. */
+	void assertLabels(SBLabelSegmentation labeler, SBSegmentation segmentation) {
+		List<IColorAndVariance> store = segmentation.getSegmentAreaFactory().getStore();
+		for (int i = 0; i < store.size(); i++) {
+			PixelArea pixelArea = store.get(i).getPixelArea();
+			assertEquals(i + 1, labeler.getLabel(pixelArea.getStartX(), pixelArea.getStartY()));
+		}
+		for (int label: labeler.getLabels())
+			assertTrue(0 < label && label <= store.size());
+		int lastLabel = labeler.getNextLabel() - 1;
+		assertEquals(store.get(lastLabel - 1).getArea() - 1, labeler.getPixelCount(lastLabel));
+	}
+
+	public void testBlobsGif() throws Exception {
+		assertSameAsSequential(filePath("blobs"));
+	}
+
+	public void testSpot1Noise5Jpg() throws Exception {
+		assertSameAsSequential(filePath("spot1Noise5", ".jpg"));
+	}
+
+	/** Compare the features with sums over the label image. */
+	public void testFeatures() throws Exception {
+		SLImage image = new SLBufferedImage(filePath("blobs"));
+		SBSegmentation segmentation = makeSegmentation(image);
+		segmentation.setMaxDistance(10);
+		SBLabelSegmentation labeler = new SBLabelSegmentation(segmentation);
+		labeler.setCollectFeatures(true);
+		labeler.segmentAll(image.get(0,0));
+		segmentation.setMaxDistance(1000000000);
+		labeler.segmentAll(image.get(0,0));
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int[] labels = labeler.getLabels();
+		for (int label = labeler.getFirstLabel(); label < labeler.getNextLabel(); label++) {
+			ParticleFeatures features = labeler.getFeatures(label);
+			assertEquals(label, features.getLabel());
+			int area = 0;
+			int perimeter = 0;
+			double sumX = 0, sumY = 0, sumXX = 0, sumXY = 0;
+			int minX = width, maxX = -1, minY = height, maxY = -1;
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					if (labels[y * width + x] != label)
+						continue;
+					area++;
+					sumX += x;
+					sumY += y;
+					sumXX += x * x;
+					sumXY += x * y;
+					minX = Math.min(minX, x);
+					maxX = Math.max(maxX, x);
+					minY = Math.min(minY, y);
+					maxY = Math.max(maxY, y);
+					if (x == 0 || labels[y * width + x - 1] != label) perimeter++;
+					if (x == width - 1 || labels[y * width + x + 1] != label) perimeter++;
+					if (y == 0 || labels[(y - 1) * width + x] != label) perimeter++;
+					if (y == height - 1 || labels[(y + 1) * width + x] != label) perimeter++;
+				}
+			}
+			assertEquals(area, features.getArea());
+			assertEquals(labeler.getPixelCount(label), features.getArea());
+			assertEquals(perimeter, features.getPerimeter());
+			assertEquals(minX, features.getMinX());
+			assertEquals(maxX, features.getMaxX());
+			assertEquals(minY, features.getMinY());
+			assertEquals(maxY, features.getMaxY());
+			assertEquals(sumX / area, features.getCenterX(), 1e-9);
+			assertEquals(sumY / area, features.getCenterY(), 1e-9);
+			assertEquals(sumXX / area - sumX * sumX / area / area, features.getMomentXX(), 1e-6);
+			assertEquals(sumXY / area - sumX * sumY / area / area, features.getMomentXY(), 1e-6);
+			assertEquals(label, labeler.getLabel(features.getStartX(), features.getStartY()));
+		}
+		assertNull(labeler.getFeatures(labeler.getFirstLabel() - 1));
+	}
+
+	public void testBlobsGifParticleCounter() {
+		BaseParticleCounter particleCounter = new BaseParticleCounter();
+		particleCounter.setLabelMode(true);
+		SLImage bp = runPluginFilterOnBufferedImage(filePath("blobs"), particleCounter);
+		assertEquals(256,bp.getWidth());
+		ValueAreaFactory factory = particleCounter.getSegmentation().getSegmentAreaFactory();
+		assertNotNull(factory);
+		assertEquals(67,factory.getStore().size());
+		assertEquals(65,particleCounter.getParticleCount());
+		assertNotNull(particleCounter.getLabelSegmentation());
+	}
+}
@@ -0,0 +1,193 @@
+package org.shapelogic.imageprocessing;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.shapelogic.color.ColorHypothesis;
+import org.shapelogic.color.ColorRangeLookupTable;
+import org.shapelogic.color.IColorAndVariance;
+import org.shapelogic.color.ValueAreaFactory;
+import org.shapelogic.imageutil.MappedImageFile;
+import org.shapelogic.imageutil.MappedSLImage;
+import org.shapelogic.imageutil.PixelArea;
+import org.shapelogic.imageutil.SLBufferedImage;
+import org.shapelogic.imageutil.SLImage;
+
+import static org.shapelogic.imageutil.ImageUtil.runPluginFilterOnBufferedImage;
+
+/** Test SBParallelSegmentation.
+ * <br />
+ *
+ * @author Sami Badawi
+ *
+ */
+public class SBParallelSegmentationTest extends AbstractImageProcessingTests {
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		_dirURL = "./src/test/resources/images/particles";
+		_fileFormat = ".gif";
+	}
+
+	/** Run the 2 segmentation steps of the particle counter both ways. */
+	void assertSameAsSequential(String filePath) throws Exception {
+		SLImage image = new SLBufferedImage(filePath);
+		int referenceColor = image.get(0,0);
+		SBSegmentation sequential = makeSegmentation(image);
+		SBSegmentation parallel = makeSegmentation(image);
+		sequential.setMaxDistance(10);
+		parallel.setMaxDistance(10);
+		sequential.segmentAll(referenceColor);
+		parallel.segmentAllParallel(referenceColor, 4);
+		assertSameAreas(sequential, parallel);
+		sequential.setMaxDistance(1000000000);
+		parallel.setMaxDistance(1000000000);
+		while (sequential.hasNext())
+			sequential.next();
+		parallel.segmentAllParallel(referenceColor, 4);
+		assertSameAreas(sequential, parallel);
+		assertEquals(image.getPixelCount(), parallel.getPixelCompare().getNumberOfPixels());
+	}
+
+	void assertSameAreas(SBSegmentation sequential, SBSegmentation parallel) {
+		assertEquals(sequential.getPixelCompare().getNumberOfPixels(),
+				parallel.getPixelCompare().getNumberOfPixels());
+		List<IColorAndVariance> expected = sequential.getSegmentAreaFactory().getStore();
+		List<IColorAndVariance> actual = parallel.getSegmentAreaFactory().getStore();
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			IColorAndVariance expectedArea = expected.get(i);
+			IColorAndVariance actualArea = actual.get(i);
+			assertEquals(expectedArea.getArea(), actualArea.getArea());
+			assertEquals(expectedArea.getMeanColor(), actualArea.getMeanColor());
+			assertEquals(expectedArea.getStandardDeviation(), actualArea.getStandardDeviation(), 0.0001);
+			PixelArea expectedPixelArea = expectedArea.getPixelArea();
+			PixelArea actualPixelArea = actualArea.getPixelArea();
+			assertEquals(expectedPixelArea.getArea(), actualPixelArea.getArea());
+			assertEquals(expectedPixelArea.getStartX(), actualPixelArea.getStartX());
+			assertEquals(expectedPixelArea.getStartY(), actualPixelArea.getStartY());
+			assertEquals(expectedPixelArea.getBoundingBox().minVal, actualPixelArea.getBoundingBox().minVal);
+			assertEquals(expectedPixelArea.getBoundingBox().maxVal, actualPixelArea.getBoundingBox().maxVal);
+			assertEquals(expectedPixelArea.getCenterPoint(), actualPixelArea.getCenterPoint());
+		}
+	}
+
+	/** The threads share one lookup table, with many ambiguous entries. */
+	public void testLookupTableSameAsSequential() throws Exception {
+		SLImage image = new SLBufferedImage(filePath("embryos6", ".jpg"));
+		HistogramColorHypothesisFinder finder = new HistogramColorHypothesisFinder(null, image, 30.);
+		ColorHypothesis colorHypothesis = finder.findBestColorHypothesis();
+		ColorRangeLookupTable table = 
+			new ColorRangeLookupTable(colorHypothesis, false, 3, null, 0.);
+		assertTrue(0 < table.getNumberOfAmbiguous());
+		int rangeIndex = table.indexOf(colorHypothesis.getBackground());
+		int referenceColor = colorHypothesis.getBackground().getMeanColor();
+		SBSegmentation sequential = makeSegmentation(image);
+		SBSegmentation parallel = makeSegmentation(image);
+		((SBColorCompare) sequential.getPixelCompare()).setColorRangeLookup(table, rangeIndex);
+		((SBColorCompare) parallel.getPixelCompare()).setColorRangeLookup(table, rangeIndex);
+		sequential.segmentAll(referenceColor);
+		parallel.segmentAllParallel(referenceColor, 4);
+		assertSameAreas(sequential, parallel);
+	}
+
+	/** Copy image to a binary PGM or PPM file and map it, so the compares 
+	 * have no pixel array to work on. */
+	MappedSLImage makeMappedImage(SLImage image) throws Exception {
+		int width = image.getWidth();
+		int height = image.getHeight();
+		boolean rgb = image.isRgb();
+		byte[] data = new byte[width * height * (rgb ? 3 : 1)];
+		for (int i = 0; i < width * height; i++) {
+			int color = image.get(i);
+			if (rgb) {
+				data[3 * i] = (byte)(color >> 16);
+				data[3 * i + 1] = (byte)(color >> 8);
+				data[3 * i + 2] = (byte)color;
+			}
+			else
+				data[i] = (byte)color;
+		}
+		File file = File.createTempFile("segment", ".pnm");
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(((rgb ? "P6 " : "P5 ") + width + " " + height + " 255\n").getBytes("US-ASCII"));
+			out.write(data);
+		} finally {
+			out.close();
+		}
+		return new MappedSLImage(MappedImageFile.openPnm(file.getPath()), 
+				MappedSLImage.DEFAULT_MAX_CHUNK_SIZE);
+	}
+
+	/** A MappedSLImage has no pixel array, the compares read it with get() and getRow(). */
+	void assertMappedSameAsBufferedImage(String filePath) throws Exception {
+		SLImage image = new SLBufferedImage(filePath);
+		MappedSLImage mapped = makeMappedImage(image);
+		try {
+			assertNull(mapped.getPixels());
+			int referenceColor = image.get(0,0);
+			SBSegmentation expected = makeSegmentation(image);
+			SBSegmentation sequential = makeSegmentation(mapped);
+			SBSegmentation parallel = makeSegmentation(mapped);
+			expected.segmentAll(referenceColor);
+			sequential.segmentAll(referenceColor);
+			parallel.segmentAllParallel(referenceColor, 4);
+			assertTrue(1 < expected.getSegmentAreaFactory().getStore().size());
+			assertSameAreas(expected, sequential);
+			assertSameAreas(expected, parallel);
+		} finally {
+			mapped.close();
+		}
+	}
+
+	/** A pool from the caller is used and is not shut down. */
+	public void testCallerExecutor() throws Exception {
+		SLImage image = new SLBufferedImage(filePath("blobs"));
+		int referenceColor = image.get(0,0);
+		SBSegmentation sequential = makeSegmentation(image);
+		SBSegmentation parallel = makeSegmentation(image);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			parallel.setExecutor(executor);
+			sequential.segmentAll(referenceColor);
+			parallel.segmentAllParallel(referenceColor, 4);
+			assertSameAreas(sequential, parallel);
+			assertFalse(executor.isShutdown());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	public void testMappedBlobsGif() throws Exception {
+		assertMappedSameAsBufferedImage(filePath("blobs"));
+	}
+
+	public void testMappedEmbryos6Jpg() throws Exception {
+		assertMappedSameAsBufferedImage(filePath("embryos6", ".jpg"));
+	}
+
+	public void testBlobsGif() throws Exception {
+		assertSameAsSequential(filePath("blobs"));
+	}
+
+	public void testSpot1Noise5Jpg() throws Exception {
+		assertSameAsSequential(filePath("spot1Noise5", ".jpg"));
+	}
+
+	public void testBlobsGifParticleCounter() {
+		BaseParticleCounter particleCounter = new BaseParticleCounter();
+		particleCounter.setParallel(true);
+		SLImage bp = runPluginFilterOnBufferedImage(filePath("blobs"), particleCounter);
+		assertEquals(256,bp.getWidth());
+		ValueAreaFactory factory = particleCounter.getSegmentation().getSegmentAreaFactory();
+		assertNotNull(factory);
+		assertEquals(67,factory.getStore().size());
+		assertEquals(65,particleCounter.getParticleCount());
+	}
+}
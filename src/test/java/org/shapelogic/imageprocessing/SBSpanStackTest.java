@@ -0,0 +1,47 @@
+package org.shapelogic.imageprocessing;
+
+import junit.framework.TestCase;
+
+/** Test SBSpanStack.
+ * <br />
+ * 
+ * @author Sami Badawi
+ *
+ */
+public class SBSpanStackTest extends TestCase {
+	
+	public void testPushPop() {
+		SBSpanStack stack = new SBSpanStack();
+		assertTrue(stack.isEmpty());
+		stack.push(1, 5, 7, true);
+		stack.push(2, 3, 8, false);
+		assertEquals(2, stack.size());
+		int top = stack.pop();
+		assertEquals(2, stack.getXMin(top));
+		assertEquals(3, stack.getXMax(top));
+		assertEquals(8, stack.getY(top));
+		assertFalse(stack.isSearchUp(top));
+		top = stack.pop();
+		assertEquals(1, stack.getXMin(top));
+		assertEquals(5, stack.getXMax(top));
+		assertEquals(7, stack.getY(top));
+		assertTrue(stack.isSearchUp(top));
+		assertTrue(stack.isEmpty());
+	}
+
+	public void testGrowAndReuse() {
+		SBSpanStack stack = new SBSpanStack(2);
+		for (int i = 0; i < 100; i++)
+			stack.push(i, i + 1, i + 2, i % 2 == 0);
+		assertEquals(100, stack.size());
+		assertTrue(100 <= stack.getCapacity());
+		assertEquals(50, stack.getXMin(50));
+		assertEquals(52, stack.getY(50));
+		int capacity = stack.getCapacity();
+		stack.clear();
+		assertTrue(stack.isEmpty());
+		stack.push(3, 4, 5, false);
+		assertEquals(capacity, stack.getCapacity());
+		assertEquals(3, stack.getXMin(0));
+	}
+}
@@ -0,0 +1,119 @@
+package org.shapelogic.imageprocessing;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.shapelogic.color.IColorAndVariance;
+import org.shapelogic.imageutil.MappedImageFile;
+import org.shapelogic.imageutil.SLBufferedImage;
+import org.shapelogic.imageutil.SLImage;
+import org.shapelogic.polygon.BBox;
+
+/** Test SBStreamSegmentation.
+ * <br />
+ *
+ * @author Sami Badawi
+ *
+ */
+public class SBStreamSegmentationTest extends AbstractImageProcessingTests {
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		_dirURL = "./src/test/resources/images/particles";
+		_fileFormat = ".gif";
+	}
+
+	protected File writePgm(SLImage image) throws IOException {
+		File file = File.createTempFile("blobs", ".pgm");
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			String header = "P5\n# blobs\n" + image.getWidth() + " " + image.getHeight() + "\n255\n";
+			out.write(header.getBytes("US-ASCII"));
+			for (int y = 0; y < image.getHeight(); y++)
+				for (int x = 0; x < image.getWidth(); x++)
+					out.write(image.get(x, y) & 0xff);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	public void testPgmHeader() throws Exception {
+		SLImage image = new SLBufferedImage(filePath("blobs"));
+		File file = writePgm(image);
+		MappedImageFile imageFile = MappedImageFile.openPnm(file.getPath());
+		try {
+			assertEquals(image.getWidth(), imageFile.getWidth());
+			assertEquals(image.getHeight(), imageFile.getHeight());
+			assertEquals(MappedImageFile.GRAY8, imageFile.getType());
+			int[] row = new int[image.getWidth()];
+			imageFile.readRow(imageFile.mapRows(100, 3), 2, row);
+			for (int x = 0; x < image.getWidth(); x++)
+				assertEquals(image.get(x, 102) & 0xff, row[x]);
+		} finally {
+			imageFile.close();
+		}
+		MappedImageFile raw = MappedImageFile.openRaw(file.getPath(), 16, 16,
+				MappedImageFile.GRAY16, ByteOrder.BIG_ENDIAN, false);
+		assertEquals(512, raw.getDataSize());
+		raw.close();
+	}
+
+	/** The streamed areas should be the same as from SBSegmentation.segmentAll(). */
+	public void testBlobsSameAsSegmentAll() throws Exception {
+		SLImage image = new SLBufferedImage(filePath("blobs"));
+		int color = image.get(0, 0);
+		SBSegmentation segmentation = makeSegmentation(image);
+		segmentation.setMaxDistance(10);
+		segmentation.segmentAll(color);
+		List<IColorAndVariance> expected = new ArrayList<IColorAndVariance>(
+				segmentation.getSegmentAreaFactory().getStore());
+
+		MappedImageFile imageFile = MappedImageFile.openPnm(writePgm(image).getPath());
+		List<IColorAndVariance> streamed = new ArrayList<IColorAndVariance>();
+		try {
+			SBStreamSegmentation stream = new SBStreamSegmentation(imageFile, color,
+					10, false);
+			stream.setStripHeight(10);
+			while (stream.hasNext())
+				streamed.add(stream.next());
+			assertEquals(image.getHeight(), stream.getRowsRead());
+		} finally {
+			imageFile.close();
+		}
+		assertEquals(expected.size(), streamed.size());
+		Comparator<IColorAndVariance> startOrder = new Comparator<IColorAndVariance>() {
+			@Override
+			public int compare(IColorAndVariance o1, IColorAndVariance o2) {
+				int y1 = o1.getPixelArea().getStartY(), y2 = o2.getPixelArea().getStartY();
+				if (y1 != y2)
+					return y1 < y2 ? -1 : 1;
+				int x1 = o1.getPixelArea().getStartX(), x2 = o2.getPixelArea().getStartX();
+				return x1 < x2 ? -1 : (x1 == x2 ? 0 : 1);
+			}
+		};
+		Collections.sort(expected, startOrder);
+		Collections.sort(streamed, startOrder);
+		for (int i = 0; i < expected.size(); i++) {
+			IColorAndVariance sequential = expected.get(i);
+			IColorAndVariance area = streamed.get(i);
+			assertEquals(sequential.getPixelArea().getStartX(), area.getPixelArea().getStartX());
+			assertEquals(sequential.getPixelArea().getStartY(), area.getPixelArea().getStartY());
+			//the start pixel is counted twice in the ValueAreaFactory areas
+			assertEquals(sequential.getPixelArea().getArea() - 1, area.getPixelArea().getArea());
+			BBox bBox = sequential.getPixelArea().getBoundingBox();
+			assertEquals(bBox.minVal, area.getPixelArea().getBoundingBox().minVal);
+			assertEquals(bBox.maxVal, area.getPixelArea().getBoundingBox().maxVal);
+			if (100 < area.getPixelArea().getArea())
+				assertTrue(Math.abs(sequential.getMeanColor() - area.getMeanColor()) <= 1);
+		}
+	}
+}
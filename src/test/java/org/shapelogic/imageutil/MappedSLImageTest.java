@@ -0,0 +1,93 @@
+package org.shapelogic.imageutil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+
+import junit.framework.TestCase;
+
+/** Test MappedSLImage.
+ * <br />
+ *
+ * @author Sami Badawi
+ *
+ */
+public class MappedSLImageTest extends TestCase {
+	String dir = "./src/test/resources/images/particles";
+
+	protected File writeFile(String header, byte[] data) throws IOException {
+		File file = File.createTempFile("mapped", ".pnm");
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(header.getBytes("US-ASCII"));
+			out.write(data);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	public void testGray8SameAsBufferedImage() throws Exception {
+		SLBufferedImage image = new SLBufferedImage(dir, "blobs", ".gif");
+		int width = image.getWidth();
+		int height = image.getHeight();
+		byte[] data = new byte[width * height];
+		for (int i = 0; i < data.length; i++)
+			data[i] = (byte)image.get(i);
+		File file = writeFile("P5 " + width + " " + height + " 255\n", data);
+		//small chunks so more than one mapping is used
+		MappedSLImage mapped = new MappedSLImage(MappedImageFile.openPnm(file.getPath()), 1000);
+		try {
+			assertTrue(mapped.isGray8());
+			assertEquals(width, mapped.getLineStride());
+			assertEquals(image.getPixelCount(), mapped.getPixelCount());
+			for (int y = 0; y < height; y++)
+				for (int x = 0; x < width; x++)
+					assertEquals(image.get(x, y) & 0xff, mapped.get(x, y));
+			assertEquals(image.get(1000) & 0xff, mapped.get(1000));
+		} finally {
+			mapped.close();
+		}
+	}
+
+	public void testRgbSetAndGet() throws Exception {
+		byte[] data = {1, 2, 3, 4, 5, 6, 7, 8, 9, (byte)200, (byte)201, (byte)202};
+		File file = writeFile("P6\n2 2\n255\n", data);
+		MappedSLImage mapped = new MappedSLImage(file.getPath(), true);
+		try {
+			assertTrue(mapped.isRgb());
+			assertEquals(3, mapped.getNChannels());
+			assertEquals(0x010203, mapped.get(0, 0));
+			assertEquals(0xc8c9ca, mapped.get(1, 1));
+			mapped.set(1, 0, 0x112233);
+			mapped.force();
+		} finally {
+			mapped.close();
+		}
+		MappedSLImage reopened = new MappedSLImage(file.getPath());
+		assertEquals(0x112233, reopened.get(1));
+		assertEquals(0x070809, reopened.get(0, 1));
+		reopened.close();
+	}
+
+	public void testGray16Raw() throws Exception {
+		byte[] data = {0, 1, 1, 0, (byte)0xff, (byte)0xff, 0, 0};
+		File file = writeFile("", data);
+		MappedSLImage mapped = new MappedSLImage(MappedImageFile.openRaw(file.getPath(),
+				2, 2, MappedImageFile.GRAY16, ByteOrder.LITTLE_ENDIAN, true));
+		try {
+			assertTrue(mapped.isGray16());
+			assertEquals(256, mapped.get(0, 0));
+			assertEquals(1, mapped.get(1, 0));
+			assertEquals(0xffff, mapped.get(0, 1));
+			mapped.putPixel(1, 1, 100000);
+			assertEquals(0xffff, mapped.get(1, 1));
+			mapped.putPixel(2, 1, 5);
+			assertEquals(0xffff, mapped.get(1, 1));
+		} finally {
+			mapped.close();
+		}
+	}
+}
@@ -0,0 +1,184 @@
+package org.shapelogic.imageutil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.shapelogic.color.ColorAndVariance;
+import org.shapelogic.color.GrayAndVariance;
+import org.shapelogic.polygon.BBox;
+
+/** Test PixelAreaHandler.
+ * <br />
+ *
+ * @author Sami Badawi
+ *
+ */
+public class PixelAreaHandlerTest extends TestCase {
+	String dir = "./src/test/resources/images/particles";
+
+	/** Rows and single pixels should give the same statistics. */
+	public void testRowsSameAsPixels() {
+		SLImage image = new SLBufferedImage(dir, "blobs", ".gif");
+		PixelAreaHandler handler = new PixelAreaHandler(image);
+		GrayAndVariance rows = new GrayAndVariance();
+		rows.setPixelArea(new PixelArea(0, 0));
+		handler.handleAllPixels(rows);
+		GrayAndVariance pixels = new GrayAndVariance();
+		pixels.setPixelArea(new PixelArea(0, 0));
+		//the adapter calls putPixel() for each pixel
+		handler.handleAllPixels(new PixelHandlerRowAdapter(pixels));
+		assertEquals(image.getPixelCount(), rows.getArea());
+		assertEquals(pixels.getArea(), rows.getArea());
+		assertEquals(pixels.getMeanColor(), rows.getMeanColor());
+		assertEquals(pixels.getStandardDeviation(), rows.getStandardDeviation(), 1e-6);
+		assertEquals(pixels.getPixelArea().getArea(), rows.getPixelArea().getArea());
+		assertEquals(pixels.getPixelArea().getCenterPoint(), rows.getPixelArea().getCenterPoint());
+		BBox bBox = rows.getPixelArea().getBoundingBox();
+		assertEquals(pixels.getPixelArea().getBoundingBox().minVal, bBox.minVal);
+		assertEquals(pixels.getPixelArea().getBoundingBox().maxVal, bBox.maxVal);
+	}
+
+	public void testColorArea() {
+		SLImage image = new SLBufferedImage(dir, "embryos6", ".jpg");
+		PixelAreaHandler handler = new PixelAreaHandler(image);
+		ColorAndVariance rows = new ColorAndVariance();
+		handler.handlePixelArea(rows, 10, 20, 30, 40);
+		ColorAndVariance pixels = new ColorAndVariance();
+		for (int y = 20; y < 60; y++)
+			for (int x = 10; x < 40; x++)
+				pixels.putPixel(x, y, image.get(x, y));
+		assertEquals(30 * 40, rows.getArea());
+		assertEquals(pixels.getMeanRed(), rows.getMeanRed());
+		assertEquals(pixels.getMeanGreen(), rows.getMeanGreen());
+		assertEquals(pixels.getMeanBlue(), rows.getMeanBlue());
+	}
+
+	/** The merged tiles should give the same as a single pass. */
+	public void testParallelSameAsSequential() {
+		SLImage image = new SLBufferedImage(dir, "embryos6", ".jpg");
+		PixelAreaHandler handler = new PixelAreaHandler(image);
+		ColorAndVariance sequential = new ColorAndVariance();
+		sequential.setPixelArea(new PixelArea(0, 0));
+		handler.handleAllPixels(sequential);
+		ColorAndVariance parallel = new ColorAndVariance();
+		parallel.setPixelArea(new PixelArea(0, 0));
+		handler.handleAllPixelsParallel(parallel, 4);
+		assertEquals(image.getPixelCount(), parallel.getArea());
+		assertEquals(sequential.getMeanRed(), parallel.getMeanRed());
+		assertEquals(sequential.getMeanGreen(), parallel.getMeanGreen());
+		assertEquals(sequential.getMeanBlue(), parallel.getMeanBlue());
+		assertEquals(sequential.getStandardDeviation(), parallel.getStandardDeviation(), 1e-6);
+		assertEquals(image.getPixelCount(), parallel.getPixelArea().getArea());
+		assertEquals(sequential.getPixelArea().getCenterPoint(), 
+				parallel.getPixelArea().getCenterPoint());
+		assertEquals(image.getHeight() - 1., 
+				parallel.getPixelArea().getBoundingBox().maxVal.getY());
+	}
+
+	/** Worker i gets every number of workers tile from tile i, and the 
+	 * workers are merged in order, so the rows come in the same order 
+	 * however the threads are scheduled. */
+	public void testParallelTileOrder() {
+		SLImage image = new SLBufferedImage(dir, "embryos6", ".jpg");
+		PixelAreaHandler handler = new PixelAreaHandler(image);
+		int height = image.getHeight();
+		int numberOfThreads = 4;
+		int numberOfTiles = numberOfThreads * PixelAreaHandler.TILES_PER_THREAD;
+		int tileHeight = Math.max(PixelAreaHandler.MIN_TILE_HEIGHT, 
+				(height + numberOfTiles - 1) / numberOfTiles);
+		numberOfTiles = (height + tileHeight - 1) / tileHeight;
+		List<Integer> expected = new ArrayList<Integer>();
+		for (int worker = 0; worker < numberOfThreads; worker++)
+			for (int tile = worker; tile < numberOfTiles; tile += numberOfThreads)
+				for (int y = tile * tileHeight; y < Math.min(height, (tile + 1) * tileHeight); y++)
+					expected.add(y);
+		for (int run = 0; run < 5; run++) {
+			RowOrder rowOrder = new RowOrder();
+			handler.handleAllPixelsParallel(rowOrder, numberOfThreads);
+			assertEquals(expected, rowOrder._rows);
+		}
+	}
+
+	/** Records the order of the rows. */
+	static class RowOrder implements MergeablePixelHandler {
+		List<Integer> _rows = new ArrayList<Integer>();
+
+		public void putPixel(int x, int y, int color) {
+		}
+
+		public void handleRow(int y, int xStart, int[] colors, int length) {
+			_rows.add(y);
+		}
+
+		public MergeablePixelHandler makeTileHandler() {
+			return new RowOrder();
+		}
+
+		public void mergeTileHandler(MergeablePixelHandler tileHandler) {
+			_rows.addAll(((RowOrder) tileHandler)._rows);
+		}
+	}
+
+	/** The bounding box is made from the primitive fields when asked for. */
+	public void testPixelAreaBoundingBox() {
+		PixelArea pixelArea = new PixelArea(5, 7);
+		assertTrue(pixelArea.getBoundingBox().isEmpty());
+		pixelArea.addPoint(5, 7);
+		pixelArea.handleRow(9, 2, null, 4);
+		BBox bBox = pixelArea.getBoundingBox();
+		assertEquals(2., bBox.minVal.getX());
+		assertEquals(7., bBox.minVal.getY());
+		assertEquals(5., bBox.maxVal.getX());
+		assertEquals(9., bBox.maxVal.getY());
+		assertSame(bBox, pixelArea.getBoundingBox());
+		pixelArea.addPoint(10, 1);
+		assertEquals(10., pixelArea.getBoundingBox().maxVal.getX());
+		assertEquals(1., pixelArea.getBoundingBox().minVal.getY());
+		assertEquals(6, pixelArea.getArea());
+		assertEquals((5. + 2 + 3 + 4 + 5 + 10) / 6, pixelArea.getCenterPoint().getX(), 1e-9);
+		assertEquals((7. + 9 * 4 + 1) / 6, pixelArea.getCenterPoint().getY(), 1e-9);
+	}
+
+	/** setup() and postProcess() are called also for an empty area. */
+	public void testEmptyAreaCallsEnds() {
+		SLImage image = new SLBufferedImage(dir, "blobs", ".gif");
+		PixelAreaHandler handler = new PixelAreaHandler(image);
+		final int[] calls = new int[3];
+		PixelHandlerEnds ends = new PixelHandlerEnds() {
+			public void setup() {
+				calls[0]++;
+			}
+			public void putPixel(int x, int y, int color) {
+				calls[1]++;
+			}
+			public void handlePixelStart(int x, int y, int color) {
+				calls[1]++;
+			}
+			public void handlePixelEnd(int x, int y, int color) {
+				calls[1]++;
+			}
+			public void postProcess() {
+				calls[2]++;
+			}
+		};
+		handler.handlePixelArea(ends, 10, 10, 0, 5);
+		assertEquals(1, calls[0]);
+		assertEquals(0, calls[1]);
+		assertEquals(1, calls[2]);
+	}
+
+	public void testGetRow() {
+		SLImage image = new SLBufferedImage(dir, "blobs", ".gif");
+		int[] row = new int[20];
+		image.getRow(100, 50, 20, row);
+		for (int i = 0; i < 20; i++)
+			assertEquals(image.get(100 + i, 50), row[i]);
+		SLImage typed = SLImageFactory.makeTypedImage(image);
+		int[] typedRow = new int[20];
+		typed.getRow(100, 50, 20, typedRow);
+		for (int i = 0; i < 20; i++)
+			assertEquals(row[i], typedRow[i]);
+	}
+}
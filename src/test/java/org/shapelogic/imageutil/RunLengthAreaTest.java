@@ -0,0 +1,88 @@
+package org.shapelogic.imageutil;
+
+import junit.framework.TestCase;
+
+import org.shapelogic.color.ColorFactory;
+import org.shapelogic.color.IColorAndVariance;
+import org.shapelogic.imageprocessing.ProcessingFactory;
+import org.shapelogic.imageprocessing.SBSegmentation;
+import org.shapelogic.polygon.BBox;
+
+/** Test RunLengthArea.
+ *
+ * @author Sami Badawi
+ *
+ */
+public class RunLengthAreaTest extends TestCase {
+	String dir = "./src/test/resources/images/particles";
+
+	public void testAddAndNormalize() {
+		RunLengthArea area = new RunLengthArea(1);
+		area.addPoint(3, 1);
+		area.addPoint(4, 1);
+		area.addPoint(5, 1);
+		assertEquals(1, area.getNumberOfRuns());
+		area.addRun(0, 2, 6);
+		area.addRun(1, 6, 8);
+		area.addRun(1, 0, 1);
+		area.addRun(0, 4, 5);
+		assertEquals(5 + 2 + 6, area.getArea());
+		assertEquals(3, area.getNumberOfRuns());
+		assertEquals(0, area.getY(0));
+		assertEquals(2, area.getXStart(0));
+		assertEquals(6, area.getXEnd(0));
+		assertEquals(1, area.getY(1));
+		assertEquals(0, area.getXStart(1));
+		assertEquals(1, area.getXEnd(1));
+		assertEquals(3, area.getXStart(2));
+		assertEquals(8, area.getXEnd(2));
+		assertTrue(area.contains(8, 1));
+		assertFalse(area.contains(2, 1));
+		BBox bBox = area.getBoundingBox();
+		assertEquals(0., bBox.minVal.getX());
+		assertEquals(0., bBox.minVal.getY());
+		assertEquals(8., bBox.maxVal.getX());
+		assertEquals(1., bBox.maxVal.getY());
+	}
+
+	/** The runs kept by the segmentation should cover the same pixels as the area. */
+	public void testSegmentationRuns() throws Exception {
+		SLBufferedImage image = new SLBufferedImage(dir, "blobs", ".gif");
+		SBSegmentation segmentation = new SBSegmentation();
+		segmentation.setSLImage(image);
+		segmentation.setPixelCompare(ProcessingFactory.compareFactory(image));
+		segmentation.setSegmentAreaFactory(ColorFactory.segmentAreaFactory(image));
+		segmentation.init();
+		segmentation.setKeepRuns(true);
+		segmentation.segmentAll(image.get(0,0));
+		int pixels = 0;
+		for (IColorAndVariance area: segmentation.getSegmentAreaFactory().getStore()) {
+			RunLengthArea runs = area.getPixelArea().getRunLengthArea();
+			assertNotNull(runs);
+			//the start pixel is counted twice in PixelArea
+			assertEquals(area.getPixelArea().getArea() - 1, runs.getArea());
+			BBox bBox = area.getPixelArea().getBoundingBox();
+			assertEquals(bBox.minVal, runs.getBoundingBox().minVal);
+			assertEquals(bBox.maxVal, runs.getBoundingBox().maxVal);
+			pixels += runs.getArea();
+		}
+		assertEquals(segmentation.getPixelCompare().getNumberOfPixels(), pixels);
+		RunLengthArea last = segmentation.getCurrentRunLengthArea();
+		int lastIndex = segmentation.getSegmentAreaFactory().getStore().size() - 1;
+		assertEquals(segmentation.getSegmentAreaFactory().getStore().get(lastIndex)
+				.getPixelArea().getRunLengthArea().getArea(), last.getArea());
+	}
+
+	public void testPaint() {
+		SLBufferedImage image = new SLBufferedImage(dir, "blobs", ".gif");
+		RunLengthArea area = new RunLengthArea();
+		area.addRun(2, 10, 20);
+		area.addRun(3, 0, 255);
+		area.paint(image, 7);
+		assertEquals(7, image.get(10, 2));
+		assertEquals(7, image.get(20, 2));
+		assertFalse(7 == image.get(21, 2) && 7 == image.get(9, 2));
+		assertEquals(7, image.get(0, 3));
+		assertEquals(7, image.get(255, 3));
+	}
+}
@@ -0,0 +1,56 @@
+package org.shapelogic.imageutil;
+
+import junit.framework.TestCase;
+
+/** Test SLImageFactory and the type specialized images.
+ * <br />
+ *
+ * @author Sami Badawi
+ *
+ */
+public class SLImageFactoryTest extends TestCase {
+	String dir = "./src/test/resources/images/particles";
+
+	public void testByteGray() {
+		SLBufferedImage image = new SLBufferedImage(dir, "blobs", ".gif");
+		SLImage typed = SLImageFactory.makeTypedImage(image);
+		assertTrue(typed instanceof SLByteGrayImage);
+		assertTrue(typed.isGray());
+		assertEquals(image.isInvertedLut(), typed.isInvertedLut());
+		assertSame(image.getPixels(), typed.getPixels());
+		boolean above127 = false;
+		for (int i = 0; i < image.getPixelCount(); i++) {
+			assertEquals(image.get(i), typed.get(i));
+			assertTrue(0 <= typed.get(i) && typed.get(i) <= 255);
+			above127 |= 127 < typed.get(i);
+		}
+		assertTrue(above127);
+		typed.set(3, 4, 200);
+		assertEquals(200, image.get(3, 4));
+		typed.putPixel(3, 4, 1000);
+		assertEquals(255, typed.get(3, 4));
+		typed.putPixel(-1, 4, 0);
+		assertSame(typed, SLImageFactory.makeTypedImage(typed));
+	}
+
+	public void testIntRGB() {
+		SLImage image = new SLBufferedImage(dir, "embryos6", ".jpg");
+		SLImage typed = SLImageFactory.openTypedImage(dir, "embryos6", ".jpg");
+		assertTrue(typed instanceof SLIntRGBImage);
+		assertTrue(typed.isRgb());
+		assertEquals(3, typed.getNChannels());
+		for (int y = 0; y < image.getHeight(); y += 5)
+			for (int x = 0; x < image.getWidth(); x += 3)
+				assertEquals(image.get(x, y), typed.get(x, y));
+	}
+
+	public void testShortGray() {
+		SLShortGrayImage image = new SLShortGrayImage(4, 3);
+		image.set(5, 60000);
+		assertEquals(60000, image.get(1, 1));
+		image.putPixel(0, 0, -3);
+		assertEquals(0, image.get(0));
+		assertTrue(image.isGray16());
+		assertFalse(image.isGray8());
+	}
+}
@@ -0,0 +1,124 @@
+package org.shapelogic.polygon;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.Map.Entry;
+
+import junit.framework.TestCase;
+
+import org.shapelogic.util.LineType;
+import org.shapelogic.util.PointType;
+
+/** Test PolygonCodec.
+ * <br />
+ *
+ * @author Sami Badawi
+ *
+ */
+public class PolygonCodecTest extends TestCase {
+
+	byte[] encode(Polygon polygon) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PolygonCodec.write(polygon, new DataOutputStream(bytes));
+		return bytes.toByteArray();
+	}
+
+	Polygon decode(byte[] bytes) throws IOException {
+		return PolygonCodec.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+	}
+
+	void assertSamePolygon(Polygon expected, Polygon polygon) {
+		assertEquals(expected.getClass(), polygon.getClass());
+		assertEquals(expected.getPerimeter(), polygon.getPerimeter());
+		assertEquals(expected.getPoints(), polygon.getPoints());
+		assertEquals(expected.getLines(), polygon.getLines());
+		assertEquals(expected.getBBox().minVal, polygon.getBBox().minVal);
+		assertEquals(expected.getBBox().maxVal, polygon.getBBox().maxVal);
+		assertEquals(expected.getHoleCount(), polygon.getHoleCount());
+		//multi lines and polygons are compared by identity, so only count them
+		Map<Object, Set<GeometricShape2D>> map = polygon.getAnnotatedShape().getMap();
+		assertEquals(expected.getAnnotatedShape().getMap().keySet(), map.keySet());
+		for (Entry<Object, Set<GeometricShape2D>> entry: expected.getAnnotatedShape().getMap().entrySet()) {
+			Set<GeometricShape2D> shapes = map.get(entry.getKey());
+			assertEquals(entry.getValue().size(), shapes.size());
+			for (GeometricShape2D shape: entry.getValue()) {
+				if (shape instanceof IPoint2D || shape instanceof CLine)
+					assertTrue(shapes.contains(shape));
+			}
+		}
+	}
+
+	public void testSquare() throws IOException {
+		Polygon expected = new Polygon();
+		IPoint2D[] corners = {new CPointInt(10, 10), new CPointInt(110, 10),
+				new CPointInt(110, 60), new CPointInt(10, 60)};
+		for (int i = 0; i < corners.length; i++) {
+			expected.addLine(corners[i], corners[(i + 1) % corners.length]);
+			expected.putAnnotation(corners[i], PointType.HARD_CORNER);
+		}
+		CLine top = CLine.makeUnordered(corners[0], corners[1]);
+		expected.putAnnotation(top, LineType.STRAIGHT);
+		expected.putAnnotation(expected, "square");
+		expected.setPerimeter(300.);
+		expected.getValue();
+		byte[] bytes = encode(expected);
+		Polygon polygon = decode(bytes);
+		assertSamePolygon(expected, polygon);
+		assertEquals(1, polygon.getShapesForAnnotation(LineType.STRAIGHT).size());
+		assertTrue(polygon.getShapesForAnnotation("square").contains(polygon));
+		//after the first polygon the annotation names are not written again
+		PolygonCodec codec = new PolygonCodec();
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(stream);
+		codec.writePolygon(expected, out);
+		assertEquals(bytes.length, stream.size());
+		codec.writePolygon(expected, out);
+		int secondLength = stream.size() - bytes.length;
+		//perimeter, bounding box, 4 points, 4 lines and 3 annotations
+		assertTrue("" + secondLength, secondLength < 100);
+		PolygonCodec decoder = new PolygonCodec();
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(stream.toByteArray()));
+		assertSamePolygon(expected, decoder.readPolygon(in));
+		assertSamePolygon(expected, decoder.readPolygon(in));
+	}
+
+	public void testMultiLinePolygonWithDoublePoints() throws IOException {
+		MultiLinePolygon expected = new MultiLinePolygon();
+		expected.startMultiLine();
+		expected.addAfterEnd(new CPointInt(0, 0));
+		expected.addAfterEnd(new CPointInt(5, 0));
+		expected.addAfterEnd(new CPointInt(5, 7));
+		expected.getCurrentMultiLine().setClosedLineClockWise(true);
+		expected.endMultiLine();
+		expected.addIndependentLine(new CPointDouble(5.5, 7), new CPointInt(-3, -4));
+		expected.putAnnotation(expected.getMultiLines().get(0), LineType.CURVE_ARCH);
+		expected.getValue();
+		Polygon polygon = decode(encode(expected));
+		assertSamePolygon(expected, polygon);
+		assertEquals(expected.getIndependentLines(), polygon.getIndependentLines());
+		assertEquals(1, polygon.getMultiLines().size());
+		MultiLine multiLine = polygon.getMultiLines().get(0);
+		assertEquals(expected.getMultiLines().get(0).getPoints(), multiLine.getPoints());
+		assertEquals(Boolean.TRUE, multiLine.isClosedLineClockWise());
+		assertTrue(polygon.getShapesForAnnotation(LineType.CURVE_ARCH).contains(multiLine));
+		assertTrue(polygon.getPoints().contains(new CPointDouble(5.5, 7)));
+	}
+
+	public void testVarInt() throws IOException {
+		int[] values = {0, 1, -1, 63, -64, 64, 1000000, Integer.MAX_VALUE, Integer.MIN_VALUE};
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		for (int value: values)
+			PolygonCodec.writeVarInt(out, value);
+		//1 byte for each of the 5 small values
+		assertEquals(5 + 2 + 3 + 5 + 5, bytes.size());
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		for (int value: values)
+			assertEquals(value, PolygonCodec.readVarInt(in));
+	}
+}
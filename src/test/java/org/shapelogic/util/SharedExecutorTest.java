@@ -0,0 +1,56 @@
+package org.shapelogic.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import junit.framework.TestCase;
+
+/** Test SharedExecutor.
+ * <br />
+ *
+ * @author Sami Badawi
+ *
+ */
+public class SharedExecutorTest extends TestCase {
+
+	List<Callable<Integer>> makeTasks(int numberOfTasks) {
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+		for (int i = 0; i < numberOfTasks; i++) {
+			final int value = i;
+			tasks.add(new Callable<Integer>() {
+				@Override
+				public Integer call() {
+					return value * value;
+				}
+			});
+		}
+		return tasks;
+	}
+
+	public void testResultsInTaskOrder() {
+		List<Integer> result = SharedExecutor.invokeAll(null, makeTasks(50), "Test");
+		assertEquals(50, result.size());
+		for (int i = 0; i < 50; i++)
+			assertEquals(new Integer(i * i), result.get(i));
+		assertSame(SharedExecutor.getInstance(), SharedExecutor.getInstance());
+		assertFalse(SharedExecutor.getInstance().isShutdown());
+	}
+
+	public void testFailure() {
+		List<Callable<Integer>> tasks = makeTasks(3);
+		tasks.add(new Callable<Integer>() {
+			@Override
+			public Integer call() {
+				throw new IllegalStateException("bad tile");
+			}
+		});
+		try {
+			SharedExecutor.invokeAll(null, tasks, "Test");
+			fail();
+		} catch (RuntimeException e) {
+			assertEquals("Test failed", e.getMessage());
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+}